@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+/**
+ * Holds the last frames of a burst with their timestamps and sharpness
+ * scores, so the sharpest frame close to the shutter can be picked once the
+ * burst is complete.
+ * <p>
+ * The ring is bounded both by a number of frames and by a byte budget.
+ * Adding a frame beyond either bound evicts the oldest frames to the
+ * {@link Listener}, which must not drop them, as they were never compared
+ * with the rest of the burst.
+ * <p>
+ * This class isn't thread-safe, and only depends on the Java runtime, so it
+ * can be tested off the device.
+ *
+ * @param <T> The type of the frames.
+ */
+public class BurstFrameRing<T> {
+    /** Receives the frames evicted from the ring. */
+    public interface Listener<T> {
+        public void onFrameEvicted(T frame);
+    }
+
+    private final Object[] mFrames;
+    private final long[] mTimestamps;
+    private final float[] mScores;
+    private final int[] mSizes;
+    private final long mByteBudget;
+    private final Listener<T> mListener;
+
+    // The index of the oldest frame, the number of frames and their size.
+    private int mFirst;
+    private int mCount;
+    private long mBytes;
+
+    /**
+     * @param capacity The maximum number of frames.
+     * @param byteBudget The maximum total size of the frames, in bytes. A
+     *            frame larger than the budget is still kept, alone.
+     */
+    public BurstFrameRing(int capacity, long byteBudget, Listener<T> listener) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        mFrames = new Object[capacity];
+        mTimestamps = new long[capacity];
+        mScores = new float[capacity];
+        mSizes = new int[capacity];
+        mByteBudget = byteBudget;
+        mListener = listener;
+    }
+
+    /**
+     * Adds a frame as the newest, first evicting the oldest frames if the
+     * frame doesn't fit.
+     *
+     * @param timestamp The time the frame was taken, in milliseconds.
+     * @param score The sharpness of the frame, higher is sharper.
+     * @param size The size of the frame, in bytes.
+     */
+    public void add(T frame, long timestamp, float score, int size) {
+        while (mCount == mFrames.length || (mCount > 0 && mBytes + size > mByteBudget)) {
+            mListener.onFrameEvicted(removeOldest());
+        }
+        int i = index(mCount);
+        mFrames[i] = frame;
+        mTimestamps[i] = timestamp;
+        mScores[i] = score;
+        mSizes[i] = size;
+        mCount++;
+        mBytes += size;
+    }
+
+    /** Returns the number of frames, oldest first. */
+    public int size() {
+        return mCount;
+    }
+
+    /** Returns the total size of the frames, in bytes. */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int position) {
+        return (T) mFrames[index(checkPosition(position))];
+    }
+
+    public long getTimestamp(int position) {
+        return mTimestamps[index(checkPosition(position))];
+    }
+
+    public float getScore(int position) {
+        return mScores[index(checkPosition(position))];
+    }
+
+    /**
+     * Returns the position of the sharpest frame taken within the window
+     * after the shutter. If none was, returns the position of the frame
+     * closest to the shutter. The earlier frame wins a tie.
+     *
+     * @param shutterTime The time of the shutter, in milliseconds.
+     * @param window The length of the window, in milliseconds.
+     * @return The position, or -1 if the ring is empty.
+     */
+    public int select(long shutterTime, long window) {
+        int selected = -1;
+        int closest = -1;
+        long closestDistance = Long.MAX_VALUE;
+        for (int position = 0; position < mCount; position++) {
+            int i = index(position);
+            long delay = mTimestamps[i] - shutterTime;
+            if (delay >= 0 && delay <= window) {
+                if (selected < 0 || mScores[i] > mScores[index(selected)]) {
+                    selected = position;
+                }
+            }
+            long distance = Math.abs(delay);
+            if (distance < closestDistance) {
+                closestDistance = distance;
+                closest = position;
+            }
+        }
+        return (selected >= 0) ? selected : closest;
+    }
+
+    /** Removes all the frames, without evicting them to the listener. */
+    public void clear() {
+        for (int position = 0; position < mCount; position++) {
+            mFrames[index(position)] = null;
+        }
+        mFirst = 0;
+        mCount = 0;
+        mBytes = 0;
+    }
+
+    private T removeOldest() {
+        @SuppressWarnings("unchecked")
+        T frame = (T) mFrames[mFirst];
+        mFrames[mFirst] = null;
+        mBytes -= mSizes[mFirst];
+        mFirst = index(1);
+        mCount--;
+        return frame;
+    }
+
+    private int index(int position) {
+        return (mFirst + position) % mFrames.length;
+    }
+
+    private int checkPosition(int position) {
+        if (position < 0 || position >= mCount) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + mCount);
+        }
+        return position;
+    }
+
+    /**
+     * Scores the sharpness of an image as the mean squared gradient of its
+     * luma, fed one ARGB row at a time. Downsampled images score fine, and
+     * the rows may be skipped evenly. The buffers are reused from one image
+     * to the next.
+     */
+    public static class SharpnessMeter {
+        private int[] mPrevious = new int[0];
+        private int[] mCurrent = new int[0];
+        private int mWidth;
+        private int mRows;
+        private long mSum;
+        private long mSamples;
+
+        /** Starts a new image. */
+        public void reset(int width) {
+            if (mPrevious.length < width) {
+                mPrevious = new int[width];
+                mCurrent = new int[width];
+            }
+            mWidth = width;
+            mRows = 0;
+            mSum = 0;
+            mSamples = 0;
+        }
+
+        /** Adds the next row, of at least the width of the image. */
+        public void addRow(int[] argb) {
+            int[] luma = mCurrent;
+            for (int x = 0; x < mWidth; x++) {
+                int c = argb[x];
+                // Rec. 601 weights, in 1/256.
+                luma[x] = (77 * ((c >> 16) & 0xff) + 150 * ((c >> 8) & 0xff)
+                        + 29 * (c & 0xff)) >> 8;
+            }
+            for (int x = 1; x < mWidth; x++) {
+                int dx = luma[x] - luma[x - 1];
+                mSum += dx * dx;
+                mSamples++;
+            }
+            if (mRows > 0) {
+                int[] previous = mPrevious;
+                for (int x = 0; x < mWidth; x++) {
+                    int dy = luma[x] - previous[x];
+                    mSum += dy * dy;
+                    mSamples++;
+                }
+            }
+            mCurrent = mPrevious;
+            mPrevious = luma;
+            mRows++;
+        }
+
+        /** Returns the score of the rows added since the last reset. */
+        public float getScore() {
+            return (mSamples == 0) ? 0f : (float) mSum / mSamples;
+        }
+    }
+}
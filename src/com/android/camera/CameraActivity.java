@@ -24,6 +24,7 @@ import android.content.ActivityNotFoundException;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -54,7 +55,6 @@ import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
-import android.view.MotionEvent;
 import android.view.OrientationEventListener;
 import android.view.View;
 import android.view.ViewGroup;
@@ -93,6 +93,7 @@ import com.android.camera.util.UsageStatistics;
 import com.android.camera2.R;
 
 import java.io.File;
+import java.util.ArrayList;
 
 import static com.android.camera.CameraManager.CameraOpenErrorCallback;
 
@@ -144,6 +145,7 @@ public class CameraActivity extends Activity
     private static final int SUPPORT_SHARE = 1 << 7;
     private static final int SUPPORT_SHARE_PANORAMA360 = 1 << 8;
     private static final int SUPPORT_SHOW_ON_MAP = 1 << 9;
+    private static final int SUPPORT_EXPAND_BURST = 1 << 10;
     private static final int SUPPORT_ALL = 0xffffffff;
 
     /** This data adapter is used by FilmStripView. */
@@ -180,7 +182,6 @@ public class CameraActivity extends Activity
     private OnActionBarVisibilityListener mOnActionBarVisibilityListener = null;
     private Menu mActionBarMenu;
     private ViewGroup mUndoDeletionBar;
-    private boolean mIsUndoingDeletion = false;
     private boolean mIsEditActivityInProgress = false;
 
     private Uri[] mNfcPushUris = new Uri[1];
@@ -195,6 +196,10 @@ public class CameraActivity extends Activity
     private final int DEFAULT_SYSTEM_UI_VISIBILITY = View.SYSTEM_UI_FLAG_LAYOUT_FULLSCREEN
             | View.SYSTEM_UI_FLAG_LAYOUT_HIDE_NAVIGATION;
     private boolean mPendingDeletion = false;
+    // The bursts removed from the filmstrip while their frames are still
+    // being saved. The saves are held until the deletion is undone, and
+    // cancelled when it is committed.
+    private final ArrayList<String> mRemovedBurstIds = new ArrayList<String>();
 
     private Intent mVideoShareIntent;
     private Intent mImageShareIntent;
@@ -731,6 +736,9 @@ public class CameraActivity extends Activity
                         | SUPPORT_SHARE | SUPPORT_SHARE_PANORAMA360
                         | SUPPORT_SHOW_ON_MAP;
                 break;
+            case LocalData.LOCAL_BURST:
+                supported |= SUPPORT_DELETE | SUPPORT_INFO | SUPPORT_EXPAND_BURST;
+                break;
             default:
                 break;
         }
@@ -756,6 +764,8 @@ public class CameraActivity extends Activity
                 (supported & SUPPORT_EDIT) != 0);
         setMenuItemVisible(mActionBarMenu, R.id.action_trim,
                 (supported & SUPPORT_TRIM) != 0);
+        setMenuItemVisible(mActionBarMenu, R.id.action_expand_burst,
+                (supported & SUPPORT_EXPAND_BURST) != 0);
 
         boolean standardShare = (supported & SUPPORT_SHARE) != 0;
         boolean panoramaShare = (supported & SUPPORT_SHARE_PANORAMA360) != 0;
@@ -834,6 +844,35 @@ public class CameraActivity extends Activity
                 }
     };
 
+    private final StorageSpaceAccountant.Listener mStorageSpaceListener =
+            new StorageSpaceAccountant.Listener() {
+                @Override
+                public void onStorageSpaceChanged(long bytes) {
+                    mStorageSpaceBytes = bytes;
+                    updateStorageHint(bytes);
+                }
+            };
+
+    private ImageTaskManager.TaskListener mDeletionListener =
+            new ImageTaskManager.TaskListener() {
+                @Override
+                public void onTaskQueued(String filePath, Uri imageUri) {
+                    // Do nothing
+                }
+
+                @Override
+                public void onTaskDone(String filePath, Uri imageUri) {
+                    // The sample requests of a batch of deleted files are
+                    // coalesced.
+                    StorageSpaceAccountant.getInstance().requestSample();
+                }
+
+                @Override
+                public void onTaskProgress(String filePath, Uri imageUri, int progress) {
+                    // Do nothing
+                }
+            };
+
     private ImageTaskManager.TaskListener mStitchingListener =
             new ImageTaskManager.TaskListener() {
                 @Override
@@ -898,6 +937,21 @@ public class CameraActivity extends Activity
 
     public void notifyNewMedia(Uri uri) {
         ContentResolver cr = getContentResolver();
+        ContentValues values = MediaSaveService.takeSavedValues(uri);
+        if (values != null) {
+            // Saved by MediaSaveService: build the data from the inserted
+            // values instead of querying MediaStore on the UI thread.
+            String mimeType = values.getAsString(MediaStore.MediaColumns.MIME_TYPE);
+            if (mimeType != null && mimeType.startsWith("video/")) {
+                sendBroadcast(new Intent(CameraUtil.ACTION_NEW_VIDEO, uri));
+                mDataAdapter.addNewVideo(cr, uri, values);
+                return;
+            } else if (mimeType != null && mimeType.startsWith("image/")) {
+                CameraUtil.broadcastNewPicture(this, uri);
+                mDataAdapter.addNewPhoto(cr, uri, values);
+                return;
+            }
+        }
         String mimeType = cr.getType(uri);
         if (mimeType.startsWith("video/")) {
             sendBroadcast(new Intent(CameraUtil.ACTION_NEW_VIDEO, uri));
@@ -916,6 +970,14 @@ public class CameraActivity extends Activity
     }
 
     private void removeData(int dataID) {
+        LocalData data = mDataAdapter.getLocalData(dataID);
+        String burstId = (data == null) ? null : CameraUtil.getBurstId(data.getTitle());
+        if (burstId != null && mMediaSaveService != null) {
+            mRemovedBurstIds.add(burstId);
+            // The frames saved before the deletion is done would show up
+            // again, so they wait for the undo.
+            mMediaSaveService.holdBurstSaves(burstId);
+        }
         mDataAdapter.removeData(CameraActivity.this, dataID);
         if (mDataAdapter.getTotalNumber() > 1) {
             showUndoDeletionBar();
@@ -1009,6 +1071,10 @@ public class CameraActivity extends Activity
                 startActivityForResult(intent, REQ_CODE_DONT_SWITCH_TO_PREVIEW);
                 return true;
             }
+            case R.id.action_expand_burst:
+                mDataAdapter.expandBurst(localData.getContentUri());
+                updateActionBarMenu(currentDataId);
+                return true;
             case R.id.action_rotate_ccw:
                 localData.rotate90Degrees(this, mDataAdapter, currentDataId, false);
                 return true;
@@ -1137,10 +1203,10 @@ public class CameraActivity extends Activity
                 FilmStripView.ImageData.SIZE_FULL,
                 FilmStripView.ImageData.SIZE_FULL);
         // Put a CameraPreviewData at the first position.
-        mWrappedDataAdapter = new FixedFirstDataAdapter(
-                new CameraDataAdapter(new ColorDrawable(
-                        getResources().getColor(R.color.photo_placeholder))),
-                mCameraPreviewData);
+        CameraDataAdapter cameraData = new CameraDataAdapter(this, new ColorDrawable(
+                getResources().getColor(R.color.photo_placeholder)));
+        cameraData.getDeletionManager().addTaskListener(mDeletionListener);
+        mWrappedDataAdapter = new FixedFirstDataAdapter(cameraData, mCameraPreviewData);
         mFilmStripView = (FilmStripView) findViewById(R.id.filmstrip_view);
         mFilmStripView.setViewGap(
                 getResources().getDimensionPixelSize(R.dimen.camera_film_strip_gap));
@@ -1245,26 +1311,12 @@ public class CameraActivity extends Activity
         mCurrentModule.onUserInteraction();
     }
 
-    @Override
-    public boolean dispatchTouchEvent(MotionEvent ev) {
-        boolean result = super.dispatchTouchEvent(ev);
-        if (ev.getActionMasked() == MotionEvent.ACTION_DOWN) {
-            // Real deletion is postponed until the next user interaction after
-            // the gesture that triggers deletion. Until real deletion is performed,
-            // users can click the undo button to bring back the image that they
-            // chose to delete.
-            if (mPendingDeletion && !mIsUndoingDeletion) {
-                 performDeletion();
-            }
-        }
-        return result;
-    }
-
     @Override
     public void onPause() {
         // Delete photos that are pending deletion
         performDeletion();
         mOrientationListener.disable();
+        StorageSpaceAccountant.getInstance().stop();
         mCurrentModule.onPauseBeforeSuper();
         super.onPause();
         mCurrentModule.onPauseAfterSuper();
@@ -1300,6 +1352,7 @@ public class CameraActivity extends Activity
                 UsageStatistics.ACTION_FOREGROUNDED, this.getClass().getSimpleName());
 
         mOrientationListener.enable();
+        StorageSpaceAccountant.getInstance().start(this, mStorageSpaceListener);
         mCurrentModule.onResumeBeforeSuper();
         super.onResume();
         mCurrentModule.onResumeAfterSuper();
@@ -1318,9 +1371,9 @@ public class CameraActivity extends Activity
         if (mLocalVideosObserver.isMediaDataChangedDuringPause()
                 || mLocalImagesObserver.isMediaDataChangedDuringPause()) {
             if (!mSecureCamera) {
-                // If it's secure camera, requestLoad() should not be called
+                // If it's secure camera, requestSync() should not be called
                 // as it will load all the data.
-                mDataAdapter.requestLoad(getContentResolver());
+                mDataAdapter.requestSync(getContentResolver());
             }
         }
         mLocalImagesObserver.setActivityPaused(false);
@@ -1406,6 +1459,7 @@ public class CameraActivity extends Activity
             return false;
         }
         mStoragePath = storagePath;
+        StorageSpaceAccountant.getInstance().invalidate();
         if (mDataAdapter != null) {
             mDataAdapter.flush();
             mDataAdapter.requestLoad(getContentResolver());
@@ -1418,12 +1472,20 @@ public class CameraActivity extends Activity
         return true;
     }
 
+    /**
+     * Updates the space shown in the storage hint from the estimate of
+     * {@link StorageSpaceAccountant}, which doesn't query the storage.
+     */
     protected void updateStorageSpace() {
-        mStorageSpaceBytes = Storage.getInstance().getAvailableSpace();
+        mStorageSpaceBytes = StorageSpaceAccountant.getInstance().getAvailableSpace();
     }
 
+    /**
+     * Returns the current estimate of the free space, which accounts for
+     * the captures still being saved.
+     */
     protected long getStorageSpaceBytes() {
-        return mStorageSpaceBytes;
+        return StorageSpaceAccountant.getInstance().getAvailableSpace();
     }
 
     protected void updateStorageSpaceAndHint() {
@@ -1592,15 +1654,30 @@ public class CameraActivity extends Activity
         }
         hideUndoDeletionBar(false);
         mDataAdapter.executeDeletion(CameraActivity.this);
+        if (mMediaSaveService != null) {
+            // The frames still being saved would only be deleted afterwards.
+            for (String burstId : mRemovedBurstIds) {
+                mMediaSaveService.cancelBurstSaves(burstId);
+            }
+        }
+        mRemovedBurstIds.clear();
 
         int currentId = mFilmStripView.getCurrentId();
         updateActionBarMenu(currentId);
         mFilmStripListener.onCurrentDataCentered(currentId);
     }
 
+    /**
+     * Shows the undo bar for the data removed from the filmstrip. The removed
+     * data piles up in the deletion queue while the bar is showing, so the
+     * undo brings all of it back. The real deletion is postponed until the
+     * camera preview is focused again or the activity is paused, and then
+     * commits the whole queue at once.
+     */
     public void showUndoDeletionBar() {
         if (mPendingDeletion) {
-            performDeletion();
+            // The bar is already showing.
+            return;
         }
         Log.v(TAG, "showing undo bar");
         mPendingDeletion = true;
@@ -1613,25 +1690,18 @@ public class CameraActivity extends Activity
                 @Override
                 public void onClick(View view) {
                     mDataAdapter.undoDataRemoval();
+                    if (mMediaSaveService != null) {
+                        for (String burstId : mRemovedBurstIds) {
+                            mMediaSaveService.resumeBurstSaves(burstId);
+                        }
+                    }
+                    mRemovedBurstIds.clear();
                     hideUndoDeletionBar(true);
                 }
             });
             // Setting undo bar clickable to avoid touch events going through
             // the bar to the buttons (eg. edit button, etc) underneath the bar.
             mUndoDeletionBar.setClickable(true);
-            // When there is user interaction going on with the undo button, we
-            // do not want to hide the undo bar.
-            button.setOnTouchListener(new View.OnTouchListener() {
-                @Override
-                public boolean onTouch(View v, MotionEvent event) {
-                    if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
-                        mIsUndoingDeletion = true;
-                    } else if (event.getActionMasked() == MotionEvent.ACTION_UP) {
-                        mIsUndoingDeletion =false;
-                    }
-                    return false;
-                }
-            });
         }
         mUndoDeletionBar.setAlpha(0f);
         mUndoDeletionBar.setVisibility(View.VISIBLE);
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.android.camera.exif.ExifInterface;
+import com.android.camera.exif.JpegProbe;
+import com.android.camera.util.CameraUtil;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The JPEG of one shot, shared by everything which processes it: saving,
+ * the capture animation, the review and the placeholder. The EXIF data, the
+ * dimensions and the downsampled bitmap are each computed at most once, on
+ * whichever thread asks first.
+ * <p>
+ * The image is reference counted. Each consumer which keeps it beyond the
+ * current call should {@link #retain()} it and {@link #release()} it when
+ * done. The JPEG bytes are dropped with the last reference, so a burst does
+ * not keep every shot alive until the slowest consumer finishes.
+ */
+public class CapturedImage {
+    private static final String TAG = "CAM_CapturedImage";
+
+    private final AtomicInteger mRefCount = new AtomicInteger(1);
+    private volatile byte[] mData;
+
+    private ExifInterface mExif;
+    private int mWidth = -1;
+    private int mHeight = -1;
+    private Bitmap mDownSampledBitmap;
+    private int mDownSampleFactor;
+
+    /** Wraps the JPEG with one reference held by the caller. */
+    public CapturedImage(byte[] jpegData) {
+        if (jpegData == null) {
+            throw new IllegalArgumentException("Null JPEG data");
+        }
+        mData = jpegData;
+    }
+
+    /** Adds a reference. */
+    public CapturedImage retain() {
+        if (mRefCount.getAndIncrement() <= 0) {
+            throw new IllegalStateException("Retaining a released image");
+        }
+        return this;
+    }
+
+    /** Drops a reference. The data is dropped with the last one. */
+    public void release() {
+        int count = mRefCount.decrementAndGet();
+        if (count == 0) {
+            mData = null;
+            synchronized (this) {
+                mExif = null;
+                mDownSampledBitmap = null;
+            }
+        } else if (count < 0) {
+            Log.e(TAG, "Unbalanced release");
+        }
+    }
+
+    /** Returns the JPEG bytes. */
+    public byte[] getData() {
+        byte[] data = mData;
+        if (data == null) {
+            throw new IllegalStateException("Image already released");
+        }
+        return data;
+    }
+
+    /** Returns the EXIF data, parsed on the first call. */
+    public synchronized ExifInterface getExif() {
+        if (mExif == null) {
+            mExif = Exif.getExif(getData());
+        }
+        return mExif;
+    }
+
+    /** Returns the clockwise rotation in the EXIF data, in degrees. */
+    public int getOrientation() {
+        return Exif.getOrientation(getExif());
+    }
+
+    /**
+     * Returns the encoded width, read from the frame header. Returns 0 if
+     * the JPEG doesn't have a valid one.
+     */
+    public int getWidth() {
+        readSize();
+        return mWidth;
+    }
+
+    /**
+     * Returns the encoded height, read from the frame header. Returns 0 if
+     * the JPEG doesn't have a valid one.
+     */
+    public int getHeight() {
+        readSize();
+        return mHeight;
+    }
+
+    /**
+     * Returns the image decoded with the sample size. The bitmap is decoded
+     * once and shared, so callers must not modify or recycle it.
+     */
+    public synchronized Bitmap getDownSampledBitmap(int downSampleFactor) {
+        if (mDownSampledBitmap == null || mDownSampleFactor != downSampleFactor) {
+            mDownSampledBitmap = CameraUtil.downSample(getData(), downSampleFactor);
+            mDownSampleFactor = downSampleFactor;
+        }
+        return mDownSampledBitmap;
+    }
+
+    private synchronized void readSize() {
+        if (mWidth < 0) {
+            JpegProbe.Result r = JpegProbe.probe(getData());
+            mWidth = r.width;
+            mHeight = r.height;
+        }
+    }
+}
@@ -20,7 +20,6 @@ import android.app.Service;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Intent;
-import android.graphics.BitmapFactory;
 import android.location.Location;
 import android.net.Uri;
 import android.os.AsyncTask;
@@ -28,10 +27,16 @@ import android.os.Binder;
 import android.os.IBinder;
 import android.provider.MediaStore.Video;
 import android.util.Log;
+import android.util.LruCache;
 import com.android.camera.PhotoModule;
+import com.android.camera.app.WorkScheduler;
 import com.android.camera.exif.ExifInterface;
+import com.android.camera.util.CameraUtil;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.Executor;
 
 /*
  * Service for saving images in the background thread.
@@ -47,6 +52,14 @@ public class MediaSaveService extends Service {
     private Listener mListener;
     // Memory used by the total queued save request, in bytes.
     private long mMemoryUse;
+    // Memory used by the shots taken but not yet added, in bytes.
+    private long mReservedMemory;
+    // The image saves which haven't finished, guarded by itself.
+    private final ArrayList<ImageSaveTask> mPendingSaves = new ArrayList<ImageSaveTask>();
+    // The bursts whose saves are held, and the ones deleted, including the
+    // frames added later. Only used on the main thread.
+    private final HashSet<String> mHeldBursts = new HashSet<String>();
+    private final HashSet<String> mCancelledBursts = new HashSet<String>();
 
     public interface Listener {
         public void onQueueStatus(boolean full);
@@ -56,6 +69,45 @@ public class MediaSaveService extends Service {
         public void onMediaSaved(Uri uri);
     }
 
+    /** A handle of an image save, to cancel it or change its priority. */
+    public interface SaveHandle {
+        /**
+         * Cancels the save. A save which hasn't started is dropped, and one
+         * which has stops at the next stage, deleting what it wrote. The
+         * listener is called with a null uri.
+         *
+         * @return {@code false} if the save has already finished.
+         */
+        public boolean cancel();
+
+        /**
+         * Changes the priority of the save, one of the
+         * {@code WorkScheduler.PRIORITY_*} constants.
+         *
+         * @return {@code false} if the save has already started or is held.
+         */
+        public boolean setPriority(int priority);
+    }
+
+    // The values inserted for the recently saved media, so the filmstrip can
+    // build their entries without querying MediaStore again.
+    private static final LruCache<Uri, ContentValues> sSavedValues =
+            new LruCache<Uri, ContentValues>(32);
+
+    /**
+     * Returns and forgets the values inserted into MediaStore for the media
+     * saved by this service, or null if they are not available.
+     */
+    public static ContentValues takeSavedValues(Uri uri) {
+        return uri == null ? null : sSavedValues.remove(uri);
+    }
+
+    private static void putSavedValues(Uri uri, ContentValues values) {
+        if (uri != null && values != null) {
+            sSavedValues.put(uri, values);
+        }
+    }
+
     class LocalBinder extends Binder {
         public MediaSaveService getService() {
             return MediaSaveService.this;
@@ -79,28 +131,166 @@ public class MediaSaveService extends Service {
     @Override
     public void onCreate() {
         mMemoryUse = 0;
+        mReservedMemory = 0;
     }
 
     public boolean isQueueFull() {
-        return (mMemoryUse >= SAVE_TASK_MEMORY_LIMIT);
+        return (mMemoryUse + mReservedMemory >= SAVE_TASK_MEMORY_LIMIT);
     }
 
-    public void addImage(final byte[] data, String title, long date, Location loc,
+    /**
+     * Counts the bytes of a shot against the queue limit while it is
+     * processed before being added, so no more shots are taken than the
+     * queue can hold. Must be balanced by {@link #releaseMemory}.
+     */
+    public void reserveMemory(int bytes) {
+        boolean previouslyFull = isQueueFull();
+        mReservedMemory += bytes;
+        if (isQueueFull() != previouslyFull) onQueueFull();
+    }
+
+    /** Releases the bytes reserved by {@link #reserveMemory}. */
+    public void releaseMemory(int bytes) {
+        boolean previouslyFull = isQueueFull();
+        mReservedMemory -= bytes;
+        if (isQueueFull() != previouslyFull) onQueueAvailable();
+    }
+
+    public SaveHandle addImage(final byte[] data, String title, long date, Location loc,
             int width, int height, int orientation, ExifInterface exif,
             OnMediaSavedListener l, ContentResolver resolver, String pictureFormat) {
-        if (isQueueFull()) {
+        CapturedImage image = new CapturedImage(data);
+        SaveHandle handle = addImage(image, title, date, loc, width, height, orientation,
+                exif, l, resolver, pictureFormat, WorkScheduler.PRIORITY_DEFAULT);
+        image.release();
+        return handle;
+    }
+
+    public SaveHandle addImage(CapturedImage image, String title, long date, Location loc,
+            int width, int height, int orientation, ExifInterface exif,
+            OnMediaSavedListener l, ContentResolver resolver, String pictureFormat) {
+        return addImage(image, title, date, loc, width, height, orientation, exif, l,
+                resolver, pictureFormat, WorkScheduler.PRIORITY_DEFAULT);
+    }
+
+    /**
+     * Saves the shot. The image is retained until it is saved, and its
+     * dimensions are read from the JPEG if the width or height is 0. The
+     * pending saves of higher priority are done first. The memory reserved
+     * for the shots being processed isn't counted when checking whether the
+     * queue is full, as they were let in when taken.
+     *
+     * <p>
+     * The frame of a burst whose saves are held is held on arrival, and the
+     * one of a cancelled burst is dropped.
+     *
+     * @param priority One of the {@code WorkScheduler.PRIORITY_*} constants.
+     * @return The handle of the save, or null if the queue is full or the
+     *         burst of the frame is cancelled.
+     */
+    public SaveHandle addImage(CapturedImage image, String title, long date, Location loc,
+            int width, int height, int orientation, ExifInterface exif,
+            OnMediaSavedListener l, ContentResolver resolver, String pictureFormat,
+            int priority) {
+        if (mMemoryUse >= SAVE_TASK_MEMORY_LIMIT) {
             Log.e(TAG, "Cannot add image when the queue is full");
-            return;
+            return null;
+        }
+        String burstId = CameraUtil.getBurstId(title);
+        if (burstId != null && mCancelledBursts.contains(burstId)) {
+            Log.v(TAG, "Dropping " + title + " of a deleted burst");
+            return null;
         }
-        ImageSaveTask t = new ImageSaveTask(data, title, date,
+        final boolean held = (burstId != null && mHeldBursts.contains(burstId));
+        final ImageSaveTask t = new ImageSaveTask(image.retain(), title, date,
                 (loc == null) ? null : new Location(loc),
                 width, height, orientation, exif, resolver, l, pictureFormat);
 
-        mMemoryUse += data.length;
+        mMemoryUse += image.getData().length;
+        StorageSpaceAccountant.getInstance().onQueued(image.getData().length);
         if (isQueueFull()) {
             onQueueFull();
         }
-        t.execute();
+        synchronized (mPendingSaves) {
+            mPendingSaves.add(t);
+        }
+        final int p = priority;
+        t.executeOnExecutor(new Executor() {
+            @Override
+            public void execute(Runnable r) {
+                // Keeps the work, to hold it later.
+                t.work = r;
+                if (held) {
+                    t.priority = p;
+                    t.held = true;
+                } else {
+                    t.submit(p);
+                }
+            }
+        });
+        return t;
+    }
+
+    /**
+     * Cancels the pending saves of the frames of a burst. The frames of the
+     * burst added later are dropped.
+     *
+     * @return The number of saves cancelled.
+     */
+    public int cancelBurstSaves(String burstId) {
+        mHeldBursts.remove(burstId);
+        mCancelledBursts.add(burstId);
+        int count = 0;
+        for (ImageSaveTask t : getBurstSaves(burstId)) {
+            if (t.cancel()) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Takes the saves of the frames of a burst which haven't started out of
+     * the queue, for example while its deletion can be undone. They stay
+     * pending, and hold their memory, until resumed or cancelled. The frames
+     * of the burst added meanwhile are held too.
+     *
+     * @return The number of saves held.
+     */
+    public int holdBurstSaves(String burstId) {
+        mHeldBursts.add(burstId);
+        int count = 0;
+        for (ImageSaveTask t : getBurstSaves(burstId)) {
+            if (t.hold()) count++;
+        }
+        return count;
+    }
+
+    /** Puts the held saves of the frames of a burst back in the queue. */
+    public void resumeBurstSaves(String burstId) {
+        mHeldBursts.remove(burstId);
+        for (ImageSaveTask t : getBurstSaves(burstId)) {
+            t.resume();
+        }
+    }
+
+    private ArrayList<ImageSaveTask> getBurstSaves(String burstId) {
+        ArrayList<ImageSaveTask> saves = new ArrayList<ImageSaveTask>();
+        synchronized (mPendingSaves) {
+            for (ImageSaveTask t : mPendingSaves) {
+                if (burstId.equals(CameraUtil.getBurstId(t.title))) {
+                    saves.add(t);
+                }
+            }
+        }
+        return saves;
+    }
+
+    private void onImageSaveDone(ImageSaveTask t) {
+        synchronized (mPendingSaves) {
+            mPendingSaves.remove(t);
+        }
+        boolean previouslyFull = isQueueFull();
+        mMemoryUse -= t.dataLength;
+        if (isQueueFull() != previouslyFull) onQueueAvailable();
     }
 
     public void addImage(final byte[] data, String title, long date, Location loc,
@@ -122,7 +312,8 @@ public class MediaSaveService extends Service {
             OnMediaSavedListener l, ContentResolver resolver) {
         // We don't set a queue limit for video saving because the file
         // is already in the storage. Only updating the database.
-        new VideoSaveTask(path, duration, values, l, resolver).execute();
+        new VideoSaveTask(path, duration, values, l, resolver).executeOnExecutor(
+                WorkScheduler.getInstance().getExecutor(WorkScheduler.LANE_CAPTURE_SAVE));
     }
 
     public void setListener(Listener l) {
@@ -139,8 +330,9 @@ public class MediaSaveService extends Service {
         if (mListener != null) mListener.onQueueStatus(false);
     }
 
-    private class ImageSaveTask extends AsyncTask <Void, Void, Uri> {
-        private byte[] data;
+    private class ImageSaveTask extends AsyncTask <Void, Void, Uri> implements SaveHandle {
+        private CapturedImage image;
+        private int dataLength;
         private String title;
         private long date;
         private Location loc;
@@ -150,11 +342,22 @@ public class MediaSaveService extends Service {
         private ContentResolver resolver;
         private OnMediaSavedListener listener;
         private String pictureFormat;
-
-        public ImageSaveTask(byte[] data, String title, long date, Location loc,
+        private ContentValues values;
+        // The work of the save, submitted again when it's resumed. Only
+        // used on the main thread.
+        private Runnable work;
+        private int priority;
+        private boolean held;
+        private volatile WorkScheduler.Token token;
+        // Set when the save starts, so a cancelled save knows whether it
+        // released its storage reservation.
+        private volatile boolean started;
+
+        public ImageSaveTask(CapturedImage image, String title, long date, Location loc,
                              int width, int height, int orientation, ExifInterface exif,
                              ContentResolver resolver, OnMediaSavedListener listener, String pictureFormat) {
-            this.data = data;
+            this.image = image;
+            this.dataLength = image.getData().length;
             this.title = title;
             this.date = date;
             this.loc = loc;
@@ -172,26 +375,99 @@ public class MediaSaveService extends Service {
             // do nothing.
         }
 
+        @Override
+        public boolean cancel() {
+            WorkScheduler.Token t = token;
+            if (t != null) {
+                // Takes the save out of the queue if it hasn't started.
+                t.cancel();
+            }
+            return cancel(false);
+        }
+
+        @Override
+        public boolean setPriority(int priority) {
+            WorkScheduler.Token t = token;
+            if (held || t == null || !t.setPriority(priority)) {
+                return false;
+            }
+            this.priority = priority;
+            return true;
+        }
+
+        private void submit(int priority) {
+            this.priority = priority;
+            // Keeps the token, to change the priority later.
+            token = WorkScheduler.getInstance().submit(
+                    WorkScheduler.LANE_CAPTURE_SAVE, priority, work);
+        }
+
+        // Takes the save out of the queue if it hasn't started. A save
+        // already taken by the worker isn't cancelled, so it still runs.
+        boolean hold() {
+            WorkScheduler.Token t = token;
+            if (held || t == null || !t.remove()) {
+                return false;
+            }
+            held = true;
+            return true;
+        }
+
+        // Puts a held save back in the queue. The work never ran, so it can
+        // be submitted again.
+        void resume() {
+            if (!held || isCancelled()) {
+                return;
+            }
+            held = false;
+            submit(priority);
+        }
+
         @Override
         protected Uri doInBackground(Void... v) {
+            started = true;
+            StorageSpaceAccountant accountant = StorageSpaceAccountant.getInstance();
+            if (isCancelled()) {
+                accountant.onSaved(dataLength, 0);
+                return null;
+            }
             if (width == 0 || height == 0) {
-                // Decode bounds
-                BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inJustDecodeBounds = true;
-                BitmapFactory.decodeByteArray(data, 0, data.length, options);
-                width = options.outWidth;
-                height = options.outHeight;
+                width = image.getWidth();
+                height = image.getHeight();
             }
-            return Storage.getInstance().addImage(
-                    resolver, title, date, loc, orientation, exif, data, width, height, pictureFormat);
+            Storage storage = Storage.getInstance();
+            String path = storage.generateFilepath(title, pictureFormat);
+            storage.writeFile(path, image.getData(), exif, pictureFormat);
+            if (isCancelled()) {
+                // Cancelled while writing, the file isn't inserted.
+                new File(path).delete();
+                accountant.onSaved(dataLength, 0);
+                return null;
+            }
+            accountant.onSaved(dataLength, dataLength);
+            values = storage.getContentValuesForData(title, date, loc, orientation,
+                    dataLength, path, width, height, pictureFormat);
+            return storage.insertImage(resolver, values);
         }
 
         @Override
         protected void onPostExecute(Uri uri) {
+            putSavedValues(uri, values);
+            image.release();
+            if (listener != null) listener.onMediaSaved(uri);
+            onImageSaveDone(this);
+        }
+
+        @Override
+        protected void onCancelled(Uri uri) {
+            // Cancelled after the insert, the image is saved anyway.
+            putSavedValues(uri, values);
+            if (!started) {
+                StorageSpaceAccountant.getInstance().onSaved(dataLength, 0);
+            }
+            image.release();
             if (listener != null) listener.onMediaSaved(uri);
-            boolean previouslyFull = isQueueFull();
-            mMemoryUse -= data.length;
-            if (isQueueFull() != previouslyFull) onQueueAvailable();
+            onImageSaveDone(this);
         }
     }
 
@@ -243,6 +519,7 @@ public class MediaSaveService extends Service {
 
         @Override
         protected void onPostExecute(Uri uri) {
+            putSavedValues(uri, values);
             if (listener != null) listener.onMediaSaved(uri);
         }
     }
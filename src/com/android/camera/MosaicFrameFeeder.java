@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import java.util.ArrayDeque;
+
+/**
+ * Feeds NV21 frames from the CPU to the mosaicer, without a GL context.
+ * <p>
+ * The frames are filled in buffers from a fixed pool, so nothing is
+ * allocated per frame. A filled buffer is aligned on the feeder's own thread
+ * while the capture fills the next one, then it goes back to the pool. When
+ * the alignment falls behind and the pool runs dry, {@link #obtainBuffer()}
+ * returns null and the caller drops the frame, like the camera does when it
+ * runs out of callback buffers.
+ * <p>
+ * This class only depends on the Java runtime, so it can also drive the
+ * native mosaicer off the device.
+ */
+public class MosaicFrameFeeder {
+    /** Aligns one frame. */
+    public interface FrameAligner {
+        /**
+         * Aligns the NV21 frame with the previous ones. The frame must not be
+         * kept after the call.
+         *
+         * @return The result of {@link Mosaic#setSourceImage(byte[])}.
+         */
+        public float[] align(byte[] nv21);
+    }
+
+    /** Receives the results of the alignments, on the feeder's thread. */
+    public interface Callback {
+        public void onFrameAligned(float[] frameData);
+    }
+
+    private final FrameAligner mAligner;
+    private final Callback mCallback;
+    private final int mFrameSize;
+
+    // Both guarded by this.
+    private final ArrayDeque<byte[]> mFreeBuffers;
+    private final ArrayDeque<byte[]> mFilledBuffers;
+    private boolean mAligning;
+    private boolean mStopped;
+
+    private final Thread mThread;
+
+    // Statistics, guarded by this.
+    private int mAlignedFrames;
+    private int mDroppedFrames;
+    private long mAlignmentNanos;
+
+    /** Wraps the native mosaicer. */
+    public static FrameAligner forMosaic(final Mosaic mosaic) {
+        return new FrameAligner() {
+            @Override
+            public float[] align(byte[] nv21) {
+                return mosaic.setSourceImage(nv21);
+            }
+        };
+    }
+
+    /**
+     * @param frameSize The size of an NV21 frame, in bytes.
+     * @param poolSize The number of buffers. Two let the capture and the
+     *            alignment overlap, more absorb the spikes of the alignment.
+     */
+    public MosaicFrameFeeder(FrameAligner aligner, Callback callback,
+            int frameSize, int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Empty pool");
+        }
+        mAligner = aligner;
+        mCallback = callback;
+        mFrameSize = frameSize;
+        mFreeBuffers = new ArrayDeque<byte[]>(poolSize);
+        mFilledBuffers = new ArrayDeque<byte[]>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            mFreeBuffers.add(new byte[frameSize]);
+        }
+        mThread = new Thread("MosaicFrameFeeder") {
+            @Override
+            public void run() {
+                alignLoop();
+            }
+        };
+        mThread.start();
+    }
+
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    /**
+     * Returns a free buffer to fill with the next frame, or null if they are
+     * all waiting for the alignment. In that case the frame is counted as
+     * dropped.
+     */
+    public synchronized byte[] obtainBuffer() {
+        byte[] buffer = mFreeBuffers.poll();
+        if (buffer == null) {
+            mDroppedFrames++;
+        }
+        return buffer;
+    }
+
+    /** Queues a buffer from {@link #obtainBuffer()}, filled with a frame. */
+    public synchronized void submit(byte[] buffer) {
+        if (mStopped) {
+            mFreeBuffers.add(buffer);
+            return;
+        }
+        mFilledBuffers.add(buffer);
+        notifyAll();
+    }
+
+    /** Gives back a buffer from {@link #obtainBuffer()} which wasn't filled. */
+    public synchronized void recycle(byte[] buffer) {
+        mFreeBuffers.add(buffer);
+        notifyAll();
+    }
+
+    /** Waits until all the submitted frames are aligned. */
+    public synchronized void drain() throws InterruptedException {
+        while (!mFilledBuffers.isEmpty() || mAligning) {
+            wait();
+        }
+    }
+
+    /**
+     * Stops the alignment thread. The frames still queued are dropped, the
+     * one being aligned finishes first.
+     */
+    public void stop() {
+        synchronized (this) {
+            mStopped = true;
+            mDroppedFrames += mFilledBuffers.size();
+            mFreeBuffers.addAll(mFilledBuffers);
+            mFilledBuffers.clear();
+            notifyAll();
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mThread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized int getAlignedFrameCount() {
+        return mAlignedFrames;
+    }
+
+    public synchronized int getDroppedFrameCount() {
+        return mDroppedFrames;
+    }
+
+    /** Returns the mean alignment time of a frame, in milliseconds. */
+    public synchronized double getMeanAlignmentMs() {
+        return (mAlignedFrames == 0 ? 0 : mAlignmentNanos / 1e6 / mAlignedFrames);
+    }
+
+    private void alignLoop() {
+        while (true) {
+            byte[] buffer;
+            synchronized (this) {
+                while (mFilledBuffers.isEmpty() && !mStopped) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        mStopped = true;
+                    }
+                }
+                if (mStopped) {
+                    notifyAll();
+                    return;
+                }
+                buffer = mFilledBuffers.poll();
+                mAligning = true;
+            }
+
+            long start = System.nanoTime();
+            float[] frameData = mAligner.align(buffer);
+            long elapsed = System.nanoTime() - start;
+            if (mCallback != null) {
+                mCallback.onFrameAligned(frameData);
+            }
+
+            synchronized (this) {
+                mFreeBuffers.add(buffer);
+                mAligning = false;
+                mAlignedFrames++;
+                mAlignmentNanos += elapsed;
+                notifyAll();
+            }
+        }
+    }
+}
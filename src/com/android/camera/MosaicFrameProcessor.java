@@ -31,9 +31,16 @@ public class MosaicFrameProcessor {
     private static final int Y_COORD_INDEX = 5;
     private static final int HR_TO_LR_DOWNSAMPLE_FACTOR = 4;
     private static final int WINDOW_SIZE = 3;
+    // One buffer being filled, one being aligned and one to absorb the
+    // spikes of the alignment.
+    private static final int CPU_FRAME_POOL_SIZE = 3;
 
     private Mosaic mMosaicer;
-    private boolean mIsMosaicMemoryAllocated = false;
+    private volatile boolean mIsMosaicMemoryAllocated = false;
+
+    // Guards the tracking state below, which the feeder thread updates while
+    // reset() and processFrame() may be called on other threads.
+    private final Object mTrackingLock = new Object();
     private float mTranslationLastX;
     private float mTranslationLastY;
 
@@ -60,6 +67,8 @@ public class MosaicFrameProcessor {
     private int mPreviewHeight;
     private int mPreviewBufferSize;
 
+    private MosaicFrameFeeder mFrameFeeder;
+
     private static MosaicFrameProcessor sMosaicFrameProcessor; // singleton
 
     public interface ProgressListener {
@@ -97,6 +106,9 @@ public class MosaicFrameProcessor {
     }
 
     public void clear() {
+        // Waits for the frame being aligned, so the memory isn't freed under
+        // the feeder thread.
+        stopCpuFeeding();
         if (mIsMosaicMemoryAllocated) {
             mMosaicer.freeMosaicMemory();
             mIsMosaicMemoryAllocated = false;
@@ -125,20 +137,22 @@ public class MosaicFrameProcessor {
     public void reset() {
         // reset() can be called even if MosaicFrameProcessor is not initialized.
         // Only counters will be changed.
-        mFirstRun = true;
-        mTotalFrameCount = 0;
         mFillIn = 0;
-        mTotalTranslationX = 0;
-        mTranslationLastX = 0;
-        mTotalTranslationY = 0;
-        mTranslationLastY = 0;
-        mPanningRateX = 0;
-        mPanningRateY = 0;
         mLastProcessFrameIdx = -1;
         mCurrProcessFrameIdx = -1;
-        for (int i = 0; i < WINDOW_SIZE; ++i) {
-            mDeltaX[i] = 0f;
-            mDeltaY[i] = 0f;
+        synchronized (mTrackingLock) {
+            mFirstRun = true;
+            mTotalFrameCount = 0;
+            mTotalTranslationX = 0;
+            mTranslationLastX = 0;
+            mTotalTranslationY = 0;
+            mTranslationLastY = 0;
+            mPanningRateX = 0;
+            mPanningRateY = 0;
+            for (int i = 0; i < WINDOW_SIZE; ++i) {
+                mDeltaX[i] = 0f;
+                mDeltaY[i] = 0f;
+            }
         }
         mMosaicer.reset();
     }
@@ -172,29 +186,105 @@ public class MosaicFrameProcessor {
 
             // TODO: make the termination condition regarding reaching
             // MAX_NUMBER_OF_FRAMES solely determined in the library.
-            if (mTotalFrameCount < MAX_NUMBER_OF_FRAMES) {
+            if (!isFinished()) {
                 // If we are still collecting new frames for the current mosaic,
                 // process the new frame.
                 calculateTranslationRate();
-
-                // Publish progress of the ongoing processing
-                if (mProgressListener != null) {
-                    mProgressListener.onProgress(false, mPanningRateX, mPanningRateY,
-                            mTranslationLastX * HR_TO_LR_DOWNSAMPLE_FACTOR / mPreviewWidth,
-                            mTranslationLastY * HR_TO_LR_DOWNSAMPLE_FACTOR / mPreviewHeight);
-                }
+                publishProgress(false);
             } else {
-                if (mProgressListener != null) {
-                    mProgressListener.onProgress(true, mPanningRateX, mPanningRateY,
-                            mTranslationLastX * HR_TO_LR_DOWNSAMPLE_FACTOR / mPreviewWidth,
-                            mTranslationLastY * HR_TO_LR_DOWNSAMPLE_FACTOR / mPreviewHeight);
-                }
+                publishProgress(true);
             }
         }
     }
 
+    /**
+     * Starts feeding the frames from the CPU instead of the GL preview. The
+     * preview frames are copied in the buffers of the returned feeder and
+     * aligned on its thread, where the progress listener is called too.
+     * {@link #initialize} must have been called.
+     */
+    public MosaicFrameFeeder startCpuFeeding() {
+        if (mFrameFeeder == null) {
+            mFrameFeeder = new MosaicFrameFeeder(MosaicFrameFeeder.forMosaic(mMosaicer),
+                    new MosaicFrameFeeder.Callback() {
+                        @Override
+                        public void onFrameAligned(float[] frameData) {
+                            processAlignedFrame(frameData);
+                        }
+                    }, mPreviewBufferSize, CPU_FRAME_POOL_SIZE);
+        }
+        return mFrameFeeder;
+    }
+
+    /** Stops feeding the frames from the CPU, waiting for the one being aligned. */
+    public void stopCpuFeeding() {
+        if (mFrameFeeder != null) {
+            mFrameFeeder.stop();
+            Log.v(TAG, "CPU frames aligned: " + mFrameFeeder.getAlignedFrameCount()
+                    + ", dropped: " + mFrameFeeder.getDroppedFrameCount()
+                    + ", mean alignment: " + mFrameFeeder.getMeanAlignmentMs() + "ms");
+            mFrameFeeder = null;
+        }
+    }
+
+    // Called on the feeder thread with the result of setSourceImage().
+    private void processAlignedFrame(float[] frameData) {
+        if (!mIsMosaicMemoryAllocated) {
+            return;
+        }
+        if (!isFinished()) {
+            synchronized (mTrackingLock) {
+                calculateTranslationRate(frameData);
+            }
+            publishProgress(false);
+        } else {
+            publishProgress(true);
+        }
+    }
+
+    private boolean isFinished() {
+        synchronized (mTrackingLock) {
+            return mTotalFrameCount >= MAX_NUMBER_OF_FRAMES;
+        }
+    }
+
+    private void publishProgress(boolean isFinished) {
+        ProgressListener listener = mProgressListener;
+        if (listener == null) {
+            return;
+        }
+        float panningRateX;
+        float panningRateY;
+        float progressX;
+        float progressY;
+        synchronized (mTrackingLock) {
+            panningRateX = mPanningRateX;
+            panningRateY = mPanningRateY;
+            progressX = mTranslationLastX * HR_TO_LR_DOWNSAMPLE_FACTOR / mPreviewWidth;
+            progressY = mTranslationLastY * HR_TO_LR_DOWNSAMPLE_FACTOR / mPreviewHeight;
+        }
+        listener.onProgress(isFinished, panningRateX, panningRateY, progressX, progressY);
+    }
+
+    /**
+     * Returns the moving average of the translation between two processed
+     * frames, in fraction of the frame size along the panning direction.
+     */
+    public float getPanningRate() {
+        synchronized (mTrackingLock) {
+            return Math.max(mPanningRateX, mPanningRateY);
+        }
+    }
+
     public void calculateTranslationRate() {
         float[] frameData = mMosaicer.setSourceImageFromGPU();
+        synchronized (mTrackingLock) {
+            calculateTranslationRate(frameData);
+        }
+    }
+
+    // Called with mTrackingLock held.
+    private void calculateTranslationRate(float[] frameData) {
         int ret_code = (int) frameData[MOSAIC_RET_CODE_INDEX];
         mTotalFrameCount  = (int) frameData[FRAME_COUNT_INDEX];
         float translationCurrX = frameData[X_COORD_INDEX];
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+/**
+ * Decides which preview frames of a panorama sweep go through the alignment.
+ * <p>
+ * A frame is skipped when the camera hasn't moved enough since the last
+ * aligned frame to add any parallax, and when the alignment can't keep up
+ * with the preview rate. In the latter case the skipped frames are spread
+ * evenly, so the aligned ones stay at a regular translation from each other
+ * instead of whichever frame happens to arrive when the aligner is free.
+ * <p>
+ * Not thread safe, the frames are offered from a single thread.
+ */
+public class MosaicFrameScheduler {
+    // The least translation between two aligned frames, in fraction of the
+    // frame width.
+    private static final float MIN_PARALLAX = 0.01f;
+    // The most frames skipped in a row for the lack of parallax, so the
+    // aligner keeps tracking a camera which barely moves.
+    private static final int MAX_PARALLAX_SKIP = 3;
+    // The share of the frame interval the alignment may take on average.
+    private static final float ALIGNMENT_BUDGET = 0.8f;
+    // The first frames are always aligned, they set the reference.
+    private static final int WARM_UP_FRAMES = 2;
+    private static final float SMOOTHING = 0.2f;
+    // The session fell behind if more frames than this were skipped for load.
+    private static final float FALLING_BEHIND_RATIO = 0.25f;
+
+    /** The frame counts and alignment latency of a sweep. */
+    public static class Stats {
+        public int offered;
+        public int processed;
+        public int skippedForParallax;
+        public int skippedForLoad;
+        public float meanAlignmentMs;
+        public long maxAlignmentMs;
+
+        public int getSkipped() {
+            return skippedForParallax + skippedForLoad;
+        }
+
+        @Override
+        public String toString() {
+            return "offered=" + offered + ", processed=" + processed
+                    + ", skipped for parallax=" + skippedForParallax
+                    + ", skipped for load=" + skippedForLoad
+                    + ", mean alignment=" + meanAlignmentMs + "ms"
+                    + ", max alignment=" + maxAlignmentMs + "ms";
+        }
+    }
+
+    private Stats mStats = new Stats();
+    private long mTotalAlignmentMs;
+    private long mLastOfferMs;
+    private float mFrameIntervalMs;
+    private float mAlignmentMs;
+    // The frames offered since the last aligned one, and its moving average
+    // at each aligned frame.
+    private int mFramesSinceAligned;
+    private float mAlignedSpan = 1f;
+
+    /** Starts a new sweep. */
+    public void reset() {
+        mStats = new Stats();
+        mTotalAlignmentMs = 0;
+        mLastOfferMs = 0;
+        mFrameIntervalMs = 0;
+        mAlignmentMs = 0;
+        mFramesSinceAligned = 0;
+        mAlignedSpan = 1f;
+    }
+
+    /**
+     * Offers a new preview frame.
+     *
+     * @param timestampMs When the frame arrived.
+     * @param panningRate The translation between two aligned frames, in
+     *            fraction of the frame width, as measured by
+     *            {@link MosaicFrameProcessor#getPanningRate()}.
+     * @return Whether to align the frame. If so,
+     *         {@link #onFrameAligned(long)} must follow.
+     */
+    public boolean offerFrame(long timestampMs, float panningRate) {
+        mStats.offered++;
+        if (mLastOfferMs != 0) {
+            mFrameIntervalMs = smooth(mFrameIntervalMs, timestampMs - mLastOfferMs);
+        }
+        mLastOfferMs = timestampMs;
+        mFramesSinceAligned++;
+
+        if (mStats.processed < WARM_UP_FRAMES) {
+            return accept();
+        }
+
+        // Keeps the alignment within its share of the preview rate.
+        if (mFrameIntervalMs > 0) {
+            int span = (int) Math.ceil(mAlignmentMs / (mFrameIntervalMs * ALIGNMENT_BUDGET));
+            if (mFramesSinceAligned < span) {
+                mStats.skippedForLoad++;
+                return false;
+            }
+        }
+
+        // The panning rate is measured between aligned frames, bring it
+        // back to one preview frame.
+        float translation = panningRate / getAlignedSpan() * mFramesSinceAligned;
+        if (translation < MIN_PARALLAX && mFramesSinceAligned <= MAX_PARALLAX_SKIP) {
+            mStats.skippedForParallax++;
+            return false;
+        }
+        return accept();
+    }
+
+    /** Records the time taken to align the last accepted frame. */
+    public void onFrameAligned(long alignmentMs) {
+        mAlignmentMs = (mStats.processed == 1)
+                ? alignmentMs : smooth(mAlignmentMs, alignmentMs);
+        mTotalAlignmentMs += alignmentMs;
+        mStats.maxAlignmentMs = Math.max(mStats.maxAlignmentMs, alignmentMs);
+        mStats.meanAlignmentMs = (float) mTotalAlignmentMs / mStats.processed;
+    }
+
+    /**
+     * Returns the moving average of the preview frames between two aligned
+     * frames, which brings a rate measured between aligned frames back to
+     * one preview frame.
+     */
+    public float getAlignedSpan() {
+        return mAlignedSpan;
+    }
+
+    /** Returns the statistics of the current sweep. */
+    public Stats getStats() {
+        return mStats;
+    }
+
+    /**
+     * Whether the alignment couldn't keep up with the preview during the
+     * sweep, a hint to align smaller frames next time.
+     */
+    public boolean isFallingBehind() {
+        return mStats.offered > 0
+                && mStats.skippedForLoad > mStats.offered * FALLING_BEHIND_RATIO;
+    }
+
+    /**
+     * Whether the alignment would still keep up with the preview if it took
+     * {@code scale} times longer, a hint that larger frames can be aligned
+     * next time.
+     */
+    public boolean hasHeadroom(float scale) {
+        return mStats.processed > WARM_UP_FRAMES && !isFallingBehind()
+                && mStats.meanAlignmentMs * scale <= mFrameIntervalMs * ALIGNMENT_BUDGET;
+    }
+
+    private boolean accept() {
+        mStats.processed++;
+        if (mStats.processed > 1) {
+            mAlignedSpan = smooth(mAlignedSpan, mFramesSinceAligned);
+        }
+        mFramesSinceAligned = 0;
+        return true;
+    }
+
+    private static float smooth(float average, float value) {
+        return (average == 0) ? value : average + SMOOTHING * (value - average);
+    }
+}
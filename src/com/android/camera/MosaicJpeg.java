@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A final mosaic encoded to JPEG.
+ */
+public class MosaicJpeg {
+    private static final String TAG = "CAM_MosaicJpeg";
+
+    public MosaicJpeg(byte[] data, int width, int height) {
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.isValid = true;
+    }
+
+    public MosaicJpeg() {
+        this.data = null;
+        this.width = 0;
+        this.height = 0;
+        this.isValid = false;
+    }
+
+    public final byte[] data;
+    public final int width;
+    public final int height;
+    public final boolean isValid;
+
+    /**
+     * Encodes the result of {@link Mosaic#getFinalMosaicNV21()}, the NV21
+     * image followed by its width and height.
+     *
+     * @return A MosaicJpeg with its isValid flag set to false if the
+     *         dimensions are invalid.
+     */
+    public static MosaicJpeg encode(byte[] imageData, int quality) {
+        int len = imageData.length - 8;
+        int width = (imageData[len + 0] << 24) + ((imageData[len + 1] & 0xFF) << 16)
+                + ((imageData[len + 2] & 0xFF) << 8) + (imageData[len + 3] & 0xFF);
+        int height = (imageData[len + 4] << 24) + ((imageData[len + 5] & 0xFF) << 16)
+                + ((imageData[len + 6] & 0xFF) << 8) + (imageData[len + 7] & 0xFF);
+        Log.d(TAG, "ImLength = " + (len) + ", W = " + width + ", H = " + height);
+
+        if (width <= 0 || height <= 0) {
+            // TODO: pop up an error message indicating that the final result is not generated.
+            Log.e(TAG, "width|height <= 0!!, len = " + (len) + ", W = " + width + ", H = " +
+                    height);
+            return new MosaicJpeg();
+        }
+
+        YuvImage yuvimage = new YuvImage(imageData, ImageFormat.NV21, width, height, null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        yuvimage.compressToJpeg(new Rect(0, 0, width, height), quality, out);
+        try {
+            out.close();
+        } catch (Exception e) {
+            Log.e(TAG, "Exception in storing final mosaic", e);
+            return new MosaicJpeg();
+        }
+        return new MosaicJpeg(out.toByteArray(), width, height);
+    }
+}
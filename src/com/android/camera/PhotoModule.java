@@ -42,6 +42,7 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.os.MessageQueue;
@@ -63,6 +64,7 @@ import com.android.camera.CameraManager.CameraPictureCallback;
 import com.android.camera.CameraManager.CameraProxy;
 import com.android.camera.CameraManager.CameraShutterCallback;
 import com.android.camera.PhotoModule.NamedImages.NamedEntity;
+import com.android.camera.app.WorkScheduler;
 import com.android.camera.exif.ExifInterface;
 import com.android.camera.exif.ExifTag;
 import com.android.camera.exif.Rational;
@@ -82,7 +84,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
-import java.util.Vector;
 import java.util.HashMap;
 import android.util.AttributeSet;
 import android.graphics.Canvas;
@@ -145,6 +146,19 @@ public class PhotoModule
 
     private static final String DEBUG_IMAGE_PREFIX = "DEBUG_";
 
+    // The frames of a ZSL burst are held until the burst is complete, so
+    // the sharpest one is saved first and the blurry ones last.
+    private static final int BURST_RING_CAPACITY = 16;
+    private static final long BURST_RING_BYTES = 32 * 1024 * 1024;
+    // The jpegs arrive well after the frames are taken, as they are encoded
+    // one after the other.
+    private static final long BURST_SELECTION_WINDOW_MS = 1000;
+    // The frames scoring less than this fraction of the selected one are
+    // saved after the others.
+    private static final float BURST_BLUR_RATIO = 0.5f;
+    // As the capture animation, so the decoded bitmap is shared.
+    private static final int BURST_SCORE_SAMPLE_FACTOR = 4;
+
     // copied from Camera hierarchy
     private CameraActivity mActivity;
     private CameraProxy mCameraDevice;
@@ -271,6 +285,8 @@ public class PhotoModule
 
     private long mFocusStartTime;
     private long mShutterCallbackTime;
+    // The shutter time of the first snap of the shot, or 0 until it comes.
+    private long mFirstShutterTime;
     private long mPostViewPictureCallbackTime;
     private long mRawPictureCallbackTime;
     private long mJpegPictureCallbackTime;
@@ -292,6 +308,27 @@ public class PhotoModule
 
     private final Handler mHandler = new MainHandler();
 
+    // The jpeg callbacks hand the shots over to the capture thread, which
+    // parses the metadata, names and saves them, so the main thread is free
+    // for the next shot. The thread is started with the first shot and quit
+    // on pause, once the shots handed over are processed.
+    private HandlerThread mCaptureThread;
+    private Handler mCaptureHandler;
+    // Posts the processed shots back to the main thread. Unlike mHandler it
+    // isn't cleared on pause, so the shots taken before pausing are saved.
+    private final Handler mCaptureResultHandler = new Handler(Looper.getMainLooper());
+    // Only used on the capture thread.
+    private final BurstFrameRing<PendingSave> mBurstRing = new BurstFrameRing<PendingSave>(
+            BURST_RING_CAPACITY, BURST_RING_BYTES, new BurstFrameRing.Listener<PendingSave>() {
+                @Override
+                public void onFrameEvicted(PendingSave frame) {
+                    postSave(frame, WorkScheduler.PRIORITY_DEFAULT);
+                }
+            });
+    private final BurstFrameRing.SharpnessMeter mSharpnessMeter =
+            new BurstFrameRing.SharpnessMeter();
+    private int[] mScoreRow = new int[0];
+
     private PreferenceGroup mPreferenceGroup;
 
     private boolean mQuickCapture;
@@ -819,6 +856,9 @@ public class PhotoModule
         @Override
         public void onShutter(CameraProxy camera) {
             mShutterCallbackTime = System.currentTimeMillis();
+            if (mFirstShutterTime == 0) {
+                mFirstShutterTime = mShutterCallbackTime;
+            }
             mShutterLag = mShutterCallbackTime - mCaptureStartTime;
             Log.e(TAG, "[KPI Perf] PROFILE_SHUTTER_LAG mShutterLag = " + mShutterLag + "ms");
             if (mNeedsAnimation) {
@@ -887,11 +927,26 @@ public class PhotoModule
 
             mFocusManager.updateFocusUI(); // Ensure focus indicator is hidden.
 
-            String jpegFilePath = new String(jpegData);
             mNamedImages.nameNewImage(mCaptureStartTime);
-            NamedEntity name = mNamedImages.getNextNameEntity();
-            String title = (name == null) ? null : name.title;
-            long date = (name == null) ? -1 : name.date;
+            // The name is taken and the file moved on the capture thread.
+            final NamedImages namedImages = mNamedImages;
+            final MediaSaveService service = mActivity.getMediaSaveService();
+            final Size s = mParameters.getPictureSize();
+            final String pictureFormat = mParameters.get(KEY_PICTURE_FORMAT);
+            getCaptureHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    moveLongshot(jpegData, namedImages, service, s, pictureFormat);
+                }
+            });
+        }
+
+        private void moveLongshot(byte[] jpegData, NamedImages namedImages,
+                final MediaSaveService service, final Size s, final String pictureFormat) {
+            String jpegFilePath = new String(jpegData);
+            NamedEntity name = namedImages.getNextNameEntity();
+            final String title = (name == null) ? null : name.title;
+            final long date = (name == null) ? -1 : name.date;
 
             if (title == null) {
                 Log.e(TAG, "Unbalanced name/data pair");
@@ -919,11 +974,15 @@ public class PhotoModule
             }
 
             if ( srcFile.renameTo(dstFile) ) {
-                Size s = mParameters.getPictureSize();
-                String pictureFormat = mParameters.get(KEY_PICTURE_FORMAT);
-                mActivity.getMediaSaveService().addImage(
-                       null, title, date, mLocation, s.width, s.height,
-                       0, null, mOnMediaSavedListener, mContentResolver, pictureFormat);
+                mCaptureResultHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        service.addImage(
+                               null, title, date, mLocation, s.width, s.height,
+                               0, null, mOnMediaSavedListener, mContentResolver,
+                               pictureFormat);
+                    }
+                });
             } else {
                 Log.e(TAG, "Failed to move jpeg file");
             }
@@ -954,11 +1013,8 @@ public class PhotoModule
 
             mReceivedSnapNum = mReceivedSnapNum + 1;
             mJpegPictureCallbackTime = System.currentTimeMillis();
-            if(mSnapshotMode == CameraInfo.CAMERA_SUPPORT_MODE_ZSL) {
-                Log.v(TAG, "JpegPictureCallback : in zslmode");
-                mParameters = mCameraDevice.getParameters();
-                mBurstSnapNum = CameraUtil.getNumSnapsPerShutter(mParameters);
-            }
+            // The burst count is read once in capture(), after the
+            // parameters of the shot are set, rather than on every jpeg.
             Log.v(TAG, "JpegPictureCallback: Received = " + mReceivedSnapNum +
                       "Burst count = " + mBurstSnapNum);
 
@@ -1002,125 +1058,15 @@ public class PhotoModule
                 setCameraState(IDLE);
             }
 
-            final ExifInterface exif = Exif.getExif(jpegData);
-            final int orientation = Exif.getOrientation(exif);
             if (!mIsImageCaptureIntent) {
                 // Burst snapshot. Generate new image name.
                 if (mReceivedSnapNum > 1)
                     mNamedImages.nameNewImage(mCaptureStartTime);
-
-                // Calculate the width and the height of the jpeg.
-                Size s = mParameters.getPictureSize();
-                boolean isSamsungHDR =
-                    (mSceneMode == CameraUtil.SCENE_MODE_HDR && CameraUtil.needSamsungHDRFormat());
-
-                int widths, heights;
-                if ((mJpegRotation + orientation) % 180 == 0 || isSamsungHDR) {
-                    widths = s.width;
-                    heights = s.height;
-                } else {
-                    widths = s.height;
-                    heights = s.width;
-                }
-
-                String pictureFormat = mParameters.get(KEY_PICTURE_FORMAT);
-                if (pictureFormat != null && !pictureFormat.equalsIgnoreCase(PIXEL_FORMAT_JPEG)) {
-                    // overwrite width and height if raw picture
-                    String pair = mParameters.get(KEY_QC_RAW_PICUTRE_SIZE);
-                    if (pair != null) {
-                        int pos = pair.indexOf('x');
-                        if (pos != -1) {
-                            widths = Integer.parseInt(pair.substring(0, pos));
-                            heights = Integer.parseInt(pair.substring(pos + 1));
-                        }
-                    }
-                }
-                final int width = widths;
-                final int height = heights;
-                NamedEntity name = mNamedImages.getNextNameEntity();
-                String titleTemp = (name == null) ? null : name.title;
-                long date = (name == null) ? -1 : name.date;
-
-                // Handle debug mode outputs
-                if (mDebugUri != null) {
-                    // If using a debug uri, save jpeg there.
-                    saveToDebugUri(jpegData);
-
-                    // Adjust the title of the debug image shown in mediastore.
-                    if (titleTemp != null) {
-                        titleTemp = DEBUG_IMAGE_PREFIX + titleTemp;
-                    }
-                }
-
-                final String title = titleTemp;
-
-                if (title == null) {
-                    Log.e(TAG, "Unbalanced name/data pair");
-                } else {
-                    if (date == -1) date = mCaptureStartTime;
-                    if (mHeading >= 0) {
-                        // heading direction has been updated by the sensor.
-                        ExifTag directionRefTag = exif.buildTag(
-                                ExifInterface.TAG_GPS_IMG_DIRECTION_REF,
-                                ExifInterface.GpsTrackRef.MAGNETIC_DIRECTION);
-                        ExifTag directionTag = exif.buildTag(
-                                ExifInterface.TAG_GPS_IMG_DIRECTION,
-                                new Rational(mHeading, 1));
-                        exif.setTag(directionRefTag);
-                        exif.setTag(directionTag);
-                    }
-                    final String mPictureFormat = mParameters.get(KEY_PICTURE_FORMAT);
-                    if (isSamsungHDR) {
-                        final long finalDate = date;
-                        new Thread(new Runnable() {
-                            public void run() {
-                                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                                Bitmap bm = CameraUtil.decodeYUV422P(jpegData, width, height);
-                                if (mJpegRotation != 0) {
-                                    Matrix matrix = new Matrix();
-                                    matrix.postRotate(mJpegRotation);
-                                    bm = Bitmap.createBitmap(bm, 0, 0, width, height, matrix, true);
-                                }
-
-                                bm.compress(Bitmap.CompressFormat.JPEG,
-                                            90,
-                                            baos);
-
-                                boolean rotated = (mJpegRotation % 180) != 0;
-
-                                mActivity.getMediaSaveService().addImage(
-                                    baos.toByteArray(), title, finalDate, mLocation,
-                                    rotated ? height : width, rotated ? width : height,
-                                    orientation,  exif, mOnMediaSavedListener,
-                                    mContentResolver, mPictureFormat);
-                            }
-                        }).start();
-
-                    } else {
-                        mActivity.getMediaSaveService().addImage(
-                            jpegData, title, date, mLocation, width, height,
-                            orientation, exif, mOnMediaSavedListener,
-                            mContentResolver, mPictureFormat);
-                    }
-                }
-                // Animate capture with real jpeg data instead of a preview frame.
-                if (mCameraState != LONGSHOT) {
-                    mUI.animateCapture(jpegData, orientation, mMirror);
-                }
-            } else {
-                mJpegImageData = jpegData;
-                if (!mQuickCapture) {
-                    mUI.showCapturedImageForReview(jpegData, orientation, mMirror);
-                } else {
-                    onCaptureDone();
-                }
             }
-
-            // Check this in advance of each shot so we don't add to shutter
-            // latency. It's true that someone else could write to the SD card in
-            // the mean time and fill it, but that could have happened between the
-            // shutter press and saving the JPEG too.
-            mActivity.updateStorageSpaceAndHint();
+            // The rest is done on the capture thread, which owns the jpeg
+            // from now on. The jpeg counts against the save queue until it
+            // is handed to the save service.
+            getCaptureHandler().post(new CaptureTask(jpegData, mLocation));
 
             long now = System.currentTimeMillis();
             mJpegCallbackFinishTime = now - mJpegPictureCallbackTime;
@@ -1148,6 +1094,340 @@ public class PhotoModule
         }
     }
 
+    /**
+     * Processes a shot on the capture thread: parses its EXIF, names it and
+     * hands it to the save service. The state of the module it needs is
+     * read when the task is created, on the main thread, and only the UI
+     * changes are posted back.
+     */
+    private final class CaptureTask implements Runnable {
+        private final byte[] mData;
+        private final Location mLocation;
+        private final boolean mImageCapture;
+        private final NamedImages mNames;
+        private final MediaSaveService mService;
+        private final Size mPictureSize;
+        private final String mPictureFormat;
+        private final String mRawPictureSize;
+        private final boolean mSamsungHDR;
+        private final int mRotation;
+        private final int mHeadingDegrees;
+        private final boolean mDebug;
+        private final boolean mAnimate;
+        private final boolean mMirrored;
+        private final long mStartTime;
+        // The number of frames of the ZSL burst, or 1, the index of this
+        // one from 1, the time of the shutter of the first frame, and the
+        // time of this frame.
+        private final int mBurstFrames;
+        private final int mFrameIndex;
+        private final long mShutterTime;
+        private final long mFrameTime;
+
+        public CaptureTask(byte[] jpegData, Location loc) {
+            mData = jpegData;
+            mLocation = loc;
+            mImageCapture = mIsImageCaptureIntent;
+            mNames = mNamedImages;
+            mService = mActivity.getMediaSaveService();
+            mService.reserveMemory(jpegData.length);
+            mPictureSize = mParameters.getPictureSize();
+            mPictureFormat = mParameters.get(KEY_PICTURE_FORMAT);
+            mRawPictureSize = mParameters.get(KEY_QC_RAW_PICUTRE_SIZE);
+            mSamsungHDR = (mSceneMode == CameraUtil.SCENE_MODE_HDR
+                    && CameraUtil.needSamsungHDRFormat());
+            mRotation = mJpegRotation;
+            mHeadingDegrees = mHeading;
+            mDebug = (mDebugUri != null);
+            mAnimate = (mCameraState != LONGSHOT);
+            mMirrored = mMirror;
+            mStartTime = mCaptureStartTime;
+            mBurstFrames = (mSnapshotMode == CameraInfo.CAMERA_SUPPORT_MODE_ZSL
+                    && mCameraState != LONGSHOT) ? mBurstSnapNum : 1;
+            mFrameIndex = mReceivedSnapNum;
+            mShutterTime = (mFirstShutterTime != 0) ? mFirstShutterTime : mShutterCallbackTime;
+            mFrameTime = mJpegPictureCallbackTime;
+        }
+
+        @Override
+        public void run() {
+            // Shared by the save, the animation and the review, so the JPEG
+            // is parsed and decoded only once.
+            final CapturedImage image = new CapturedImage(mData);
+            final ExifInterface exif = image.getExif();
+            final int orientation = image.getOrientation();
+            if (mImageCapture) {
+                mCaptureResultHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!mPaused) {
+                            mJpegImageData = mData;
+                            if (!mQuickCapture) {
+                                mUI.showCapturedImageForReview(image, orientation, mMirrored);
+                            } else {
+                                onCaptureDone();
+                            }
+                            mActivity.updateStorageSpaceAndHint();
+                        }
+                        image.release();
+                        mService.releaseMemory(mData.length);
+                    }
+                });
+                return;
+            }
+
+            // Calculate the width and the height of the jpeg.
+            int widths, heights;
+            if ((mRotation + orientation) % 180 == 0 || mSamsungHDR) {
+                widths = mPictureSize.width;
+                heights = mPictureSize.height;
+            } else {
+                widths = mPictureSize.height;
+                heights = mPictureSize.width;
+            }
+
+            if (mPictureFormat != null && !mPictureFormat.equalsIgnoreCase(PIXEL_FORMAT_JPEG)) {
+                // overwrite width and height if raw picture
+                String pair = mRawPictureSize;
+                if (pair != null) {
+                    int pos = pair.indexOf('x');
+                    if (pos != -1) {
+                        widths = Integer.parseInt(pair.substring(0, pos));
+                        heights = Integer.parseInt(pair.substring(pos + 1));
+                    }
+                }
+            }
+            NamedEntity name = mNames.getNextNameEntity();
+            String title = (name == null) ? null : name.title;
+            long date = (name == null) ? -1 : name.date;
+
+            // Handle debug mode outputs
+            if (mDebug) {
+                // If using a debug uri, save jpeg there.
+                saveToDebugUri(mData);
+
+                // Adjust the title of the debug image shown in mediastore.
+                if (title != null) {
+                    title = DEBUG_IMAGE_PREFIX + title;
+                }
+            }
+
+            CapturedImage saved = null;
+            int width = widths;
+            int height = heights;
+            if (title == null) {
+                Log.e(TAG, "Unbalanced name/data pair");
+            } else {
+                if (date == -1) date = mStartTime;
+                if (mHeadingDegrees >= 0) {
+                    // heading direction has been updated by the sensor.
+                    ExifTag directionRefTag = exif.buildTag(
+                            ExifInterface.TAG_GPS_IMG_DIRECTION_REF,
+                            ExifInterface.GpsTrackRef.MAGNETIC_DIRECTION);
+                    ExifTag directionTag = exif.buildTag(
+                            ExifInterface.TAG_GPS_IMG_DIRECTION,
+                            new Rational(mHeadingDegrees, 1));
+                    exif.setTag(directionRefTag);
+                    exif.setTag(directionTag);
+                }
+                if (mSamsungHDR) {
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    Bitmap bm = CameraUtil.decodeYUV422P(mData, width, height);
+                    if (mRotation != 0) {
+                        Matrix matrix = new Matrix();
+                        matrix.postRotate(mRotation);
+                        bm = Bitmap.createBitmap(bm, 0, 0, width, height, matrix, true);
+                    }
+
+                    bm.compress(Bitmap.CompressFormat.JPEG,
+                                90,
+                                baos);
+
+                    boolean rotated = (mRotation % 180) != 0;
+                    saved = new CapturedImage(baos.toByteArray());
+                    if (rotated) {
+                        width = heights;
+                        height = widths;
+                    }
+                } else {
+                    saved = image.retain();
+                }
+            }
+            if (mBurstFrames > 1 && mFrameIndex == 1) {
+                // Left over from a burst that didn't complete.
+                flushBurstFrames();
+            }
+            if (saved != null) {
+                PendingSave save = new PendingSave(saved, title, date, mLocation, width,
+                        height, orientation, exif, mService, mPictureFormat, mData.length);
+                if (mBurstFrames > 1) {
+                    mBurstRing.add(save, mFrameTime, scoreSharpness(saved),
+                            saved.getData().length);
+                } else {
+                    // A single shot goes ahead of the longshot frames.
+                    postSave(save, mAnimate ? WorkScheduler.PRIORITY_HIGH
+                            : WorkScheduler.PRIORITY_DEFAULT);
+                }
+            }
+            if (mBurstFrames > 1 && mFrameIndex >= mBurstFrames) {
+                saveBurstFrames(mShutterTime);
+            }
+            postShown(image, orientation, saved == null);
+        }
+
+        // Animates the capture and updates the storage hint, on the main
+        // thread. Releases the image, and the memory reserved for the jpeg
+        // if it isn't saved.
+        private void postShown(final CapturedImage image, final int orientation,
+                final boolean dropped) {
+            mCaptureResultHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (dropped) {
+                        mService.releaseMemory(mData.length);
+                    }
+                    if (!mPaused) {
+                        // Animate capture with real jpeg data instead of a
+                        // preview frame.
+                        if (mAnimate) {
+                            mUI.animateCapture(image, orientation, mMirrored);
+                        }
+                        // Check this in advance of each shot so we don't add
+                        // to shutter latency.
+                        mActivity.updateStorageSpaceAndHint();
+                    }
+                    image.release();
+                }
+            });
+        }
+    }
+
+    // A shot ready to be handed to the save service. Holds a reference to
+    // the image.
+    private static final class PendingSave {
+        final CapturedImage image;
+        final String title;
+        final long date;
+        final Location location;
+        final int width;
+        final int height;
+        final int orientation;
+        final ExifInterface exif;
+        final MediaSaveService service;
+        final String pictureFormat;
+        // The memory reserved in the service for the jpeg of the shot.
+        final int reserved;
+
+        PendingSave(CapturedImage image, String title, long date, Location location,
+                int width, int height, int orientation, ExifInterface exif,
+                MediaSaveService service, String pictureFormat, int reserved) {
+            this.image = image;
+            this.title = title;
+            this.date = date;
+            this.location = location;
+            this.width = width;
+            this.height = height;
+            this.orientation = orientation;
+            this.exif = exif;
+            this.service = service;
+            this.pictureFormat = pictureFormat;
+            this.reserved = reserved;
+        }
+    }
+
+    // Hands the shot to the save service on the main thread, and releases
+    // its image and its reserved memory. The saves of higher priority are
+    // done first.
+    private void postSave(final PendingSave save, final int priority) {
+        mCaptureResultHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                save.service.addImage(save.image, save.title, save.date, save.location,
+                        save.width, save.height, save.orientation, save.exif,
+                        mOnMediaSavedListener, mContentResolver, save.pictureFormat,
+                        priority);
+                save.image.release();
+                save.service.releaseMemory(save.reserved);
+            }
+        });
+    }
+
+    // Scores the sharpness of a burst frame on every other row of its
+    // downsampled luma. Runs on the capture thread.
+    private float scoreSharpness(CapturedImage image) {
+        Bitmap bitmap = image.getDownSampledBitmap(BURST_SCORE_SAMPLE_FACTOR);
+        if (bitmap == null) {
+            return 0f;
+        }
+        int width = bitmap.getWidth();
+        if (mScoreRow.length < width) {
+            mScoreRow = new int[width];
+        }
+        mSharpnessMeter.reset(width);
+        for (int y = 0; y < bitmap.getHeight(); y += 2) {
+            bitmap.getPixels(mScoreRow, 0, width, 0, y, width, 1);
+            mSharpnessMeter.addRow(mScoreRow);
+        }
+        return mSharpnessMeter.getScore();
+    }
+
+    // Saves the sharpest frame of the burst close to the shutter first, ahead
+    // of the other saves, then the other frames, oldest first. The frames
+    // much blurrier than the selected one are still saved, after the other
+    // saves. Runs on the capture thread.
+    private void saveBurstFrames(long shutterTime) {
+        BurstFrameRing<PendingSave> ring = mBurstRing;
+        int selected = ring.select(shutterTime, BURST_SELECTION_WINDOW_MS);
+        if (selected < 0) return;
+        float threshold = ring.getScore(selected) * BURST_BLUR_RATIO;
+        postSave(ring.get(selected), WorkScheduler.PRIORITY_HIGH);
+        for (int i = 0; i < ring.size(); i++) {
+            if (i == selected) continue;
+            PendingSave frame = ring.get(i);
+            if (ring.getScore(i) >= threshold) {
+                postSave(frame, WorkScheduler.PRIORITY_DEFAULT);
+            } else {
+                Log.v(TAG, "Saving blurry burst frame " + frame.title + " last");
+                postSave(frame, WorkScheduler.PRIORITY_LOW);
+            }
+        }
+        ring.clear();
+    }
+
+    // Saves the frames held in the burst ring, oldest first. Runs on the
+    // capture thread.
+    private void flushBurstFrames() {
+        for (int i = 0; i < mBurstRing.size(); i++) {
+            postSave(mBurstRing.get(i), WorkScheduler.PRIORITY_DEFAULT);
+        }
+        mBurstRing.clear();
+    }
+
+    private Handler getCaptureHandler() {
+        if (mCaptureHandler == null) {
+            mCaptureThread = new HandlerThread("CaptureProcessor");
+            mCaptureThread.start();
+            mCaptureHandler = new Handler(mCaptureThread.getLooper());
+        }
+        return mCaptureHandler;
+    }
+
+    // Quits the capture thread once the shots already handed over to it are
+    // processed. The frames of an incomplete burst are all saved.
+    private void stopCaptureThread() {
+        if (mCaptureHandler == null) return;
+        final Looper looper = mCaptureThread.getLooper();
+        mCaptureHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                flushBurstFrames();
+                looper.quit();
+            }
+        });
+        mCaptureHandler = null;
+        mCaptureThread = null;
+    }
+
     private OnSeekBarChangeListener mskinToneSeekListener = new OnSeekBarChangeListener() {
         public void onStartTrackingTouch(SeekBar bar) {
         // no support
@@ -1205,29 +1485,99 @@ public class PhotoModule
     }
 
     /**
-     * This class is just a thread-safe queue for name,date holder objects.
+     * A bounded queue of the names of the images being captured, from the
+     * main thread, which names the images, to the capture thread, which takes
+     * the names. There must be one thread naming and one thread taking the
+     * names. The names are written into preallocated slots handed over
+     * without locking, so naming an image doesn't allocate.
      */
     public static class NamedImages {
-        private Vector<NamedEntity> mQueue;
+        // A power of two, more than the images in flight during a longshot.
+        private static final int CAPACITY = 64;
+        // Room for a burst frame name, so the slots never grow.
+        private static final int NAME_CAPACITY = 64;
+
+        private final Slot[] mSlots = new Slot[CAPACITY];
+        // The number of names taken, only written by the taking thread.
+        private volatile int mHead;
+        // The number of names added, only written by the naming thread.
+        private volatile int mTail;
+
+        // The frames named between startBurst() and endBurst() share the id
+        // of the burst, so the filmstrip can stack them.
+        private boolean mInBurst;
+        private final StringBuilder mBurstId = new StringBuilder(NAME_CAPACITY);
+        private int mBurstFrameCount;
+
+        private static class Slot {
+            final StringBuilder title = new StringBuilder(NAME_CAPACITY);
+            long date;
+        }
 
         public NamedImages() {
-            mQueue = new Vector<NamedEntity>();
+            for (int i = 0; i < CAPACITY; i++) {
+                mSlots[i] = new Slot();
+            }
+        }
+
+        /** Names the following images as the frames of a new burst. */
+        public void startBurst() {
+            mInBurst = true;
+            mBurstId.setLength(0);
+            mBurstFrameCount = 0;
+        }
+
+        /** Names the following images as single shots. */
+        public void endBurst() {
+            mInBurst = false;
+            mBurstId.setLength(0);
         }
 
         public void nameNewImage(long date) {
-            NamedEntity r = new NamedEntity();
-            r.title = CameraUtil.createJpegName(date);
-            r.date = date;
-            mQueue.add(r);
+            int tail = mTail;
+            if (tail - mHead == CAPACITY) {
+                Log.w(TAG, "Too many images waiting for their jpeg, name dropped");
+                return;
+            }
+            Slot slot = mSlots[tail & (CAPACITY - 1)];
+            slot.title.setLength(0);
+            if (mInBurst) {
+                if (mBurstId.length() == 0) {
+                    CameraUtil.createJpegName(date, mBurstId);
+                }
+                CameraUtil.createBurstJpegName(mBurstId, ++mBurstFrameCount, slot.title);
+            } else {
+                CameraUtil.createJpegName(date, slot.title);
+            }
+            slot.date = date;
+            // Hands the slot over.
+            mTail = tail + 1;
         }
 
         public NamedEntity getNextNameEntity() {
-            synchronized(mQueue) {
-                if (!mQueue.isEmpty()) {
-                    return mQueue.remove(0);
-                }
+            int head = mHead;
+            if (head == mTail) {
+                return null;
             }
-            return null;
+            Slot slot = mSlots[head & (CAPACITY - 1)];
+            NamedEntity r = new NamedEntity();
+            r.title = slot.title.toString();
+            r.date = slot.date;
+            // Gives the slot back.
+            mHead = head + 1;
+            return r;
+        }
+
+        /**
+         * Returns the last name added, or null if there is none. Must be
+         * called on the naming thread.
+         */
+        public String getLastTitle() {
+            int tail = mTail;
+            if (tail == mHead) {
+                return null;
+            }
+            return mSlots[(tail - 1) & (CAPACITY - 1)].title.toString();
         }
 
         public static class NamedEntity {
@@ -1271,6 +1621,7 @@ public class PhotoModule
             return false;
         }
         mCaptureStartTime = System.currentTimeMillis();
+        mFirstShutterTime = 0;
         mPostViewPictureCallbackTime = 0;
         mJpegImageData = null;
 
@@ -1342,6 +1693,11 @@ public class PhotoModule
             setCameraState(SNAPSHOT_IN_PROGRESS);
         }
 
+        if (mCameraState == LONGSHOT || mBurstSnapNum > 1) {
+            mNamedImages.startBurst();
+        } else {
+            mNamedImages.endBurst();
+        }
         mNamedImages.nameNewImage(mCaptureStartTime);
 
         if (mSnapshotMode != CameraInfo.CAMERA_SUPPORT_MODE_ZSL) {
@@ -1349,7 +1705,7 @@ public class PhotoModule
         }
         UsageStatistics.onEvent(UsageStatistics.COMPONENT_CAMERA,
                 UsageStatistics.ACTION_CAPTURE_DONE, "Photo", 0,
-                UsageStatistics.hashFileName(mNamedImages.mQueue.lastElement().title + ".jpg"));
+                UsageStatistics.hashFileName(mNamedImages.getLastTitle() + ".jpg"));
         return true;
     }
 
@@ -1794,6 +2150,7 @@ public class PhotoModule
         stopPreview();
 
         mNamedImages = null;
+        stopCaptureThread();
 
         if (mLocationManager != null) mLocationManager.recordLocation(false);
 
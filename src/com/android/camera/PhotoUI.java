@@ -63,6 +63,7 @@ import com.android.camera.util.CameraUtil;
 import com.android.camera2.R;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class PhotoUI implements PieListener,
     PreviewGestures.SingleTapListener,
@@ -160,12 +161,15 @@ public class PhotoUI implements PieListener,
     };
 
     private class DecodeTask extends AsyncTask<Void, Void, Bitmap> {
-        private final byte [] mData;
+        private final CapturedImage mImage;
+        // The image is released by whichever of the decode and the
+        // cancellation comes first.
+        private final AtomicBoolean mImageReleased = new AtomicBoolean();
         private int mOrientation;
         private boolean mMirror;
 
-        public DecodeTask(byte[] data, int orientation, boolean mirror) {
-            mData = data;
+        public DecodeTask(CapturedImage image, int orientation, boolean mirror) {
+            mImage = image.retain();
             mOrientation = orientation;
             mMirror = mirror;
         }
@@ -173,7 +177,12 @@ public class PhotoUI implements PieListener,
         @Override
         protected Bitmap doInBackground(Void... params) {
             // Decode image in background.
-            Bitmap bitmap = CameraUtil.downSample(mData, DOWN_SAMPLE_FACTOR);
+            Bitmap bitmap;
+            try {
+                bitmap = mImage.getDownSampledBitmap(DOWN_SAMPLE_FACTOR);
+            } finally {
+                releaseImage();
+            }
             if ((mOrientation != 0 || mMirror) && (bitmap != null)) {
                 Matrix m = new Matrix();
                 if (mMirror) {
@@ -192,11 +201,23 @@ public class PhotoUI implements PieListener,
             mPreviewThumb.setImageBitmap(bitmap);
             mAnimationManager.startCaptureAnimation(mPreviewThumb);
         }
+
+        @Override
+        protected void onCancelled() {
+            // The task may have been cancelled before it started.
+            releaseImage();
+        }
+
+        private void releaseImage() {
+            if (mImageReleased.compareAndSet(false, true)) {
+                mImage.release();
+            }
+        }
     }
 
     private class DecodeImageForReview extends DecodeTask {
-        public DecodeImageForReview(byte[] data, int orientation, boolean mirror) {
-            super(data, orientation, mirror);
+        public DecodeImageForReview(CapturedImage image, int orientation, boolean mirror) {
+            super(image, orientation, mirror);
         }
 
         @Override
@@ -418,9 +439,9 @@ public class PhotoUI implements PieListener,
         updateOnScreenIndicators(params, prefGroup, prefs);
     }
 
-    public void animateCapture(final byte[] jpegData, int orientation, boolean mirror) {
+    public void animateCapture(CapturedImage image, int orientation, boolean mirror) {
         // Decode jpeg byte array and then animate the jpeg
-        DecodeTask task = new DecodeTask(jpegData, orientation, mirror);
+        DecodeTask task = new DecodeTask(image, orientation, mirror);
         task.execute();
     }
 
@@ -753,8 +774,9 @@ public class PhotoUI implements PieListener,
         return ret;
     }
 
-    protected void showCapturedImageForReview(byte[] jpegData, int orientation, boolean mirror) {
-        mDecodeTaskForReview = new DecodeImageForReview(jpegData, orientation, mirror);
+    protected void showCapturedImageForReview(CapturedImage image, int orientation,
+            boolean mirror) {
+        mDecodeTaskForReview = new DecodeImageForReview(image, orientation, mirror);
         mDecodeTaskForReview.execute();
         mOnScreenIndicators.setVisibility(View.GONE);
         mMenuButton.setVisibility(View.GONE);
@@ -255,7 +255,8 @@ public class Storage {
         }
     }
 
-    private Uri insertImage(ContentResolver resolver, ContentValues values) {
+    // Insert the image values into MediaStore.
+    public Uri insertImage(ContentResolver resolver, ContentValues values) {
         Uri uri = null;
         try {
             uri = resolver.insert(Images.Media.EXTERNAL_CONTENT_URI, values);
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.android.camera.app.WorkScheduler;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps an estimate of the free space of the storage, so the capture path
+ * doesn't have to query the file system for every shot.
+ * <p>
+ * The space is sampled with {@link Storage#getAvailableSpace()} in the
+ * background, periodically and when the media is mounted or unmounted. The
+ * bytes queued for saving and the bytes written since the last sample are
+ * taken off the sample, so the estimate stays on the safe side during a
+ * burst. {@link #getAvailableSpace()} is lock-free and can be called from
+ * any thread.
+ */
+public class StorageSpaceAccountant {
+    private static final String TAG = "CAM_StorageSpace";
+
+    private static final long SAMPLE_INTERVAL_MS = 10000;
+
+    public interface Listener {
+        /** Called on the main thread when a new sample differs from the last one. */
+        public void onStorageSpaceChanged(long bytes);
+    }
+
+    // A sample of the file system, with the bytes written by the app up to
+    // when it was taken.
+    private static class Sample {
+        final long space;
+        final long writtenBytes;
+
+        Sample(long space, long writtenBytes) {
+            this.space = space;
+            this.writtenBytes = writtenBytes;
+        }
+    }
+
+    private static StorageSpaceAccountant sAccountant;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicLong mQueuedBytes = new AtomicLong();
+    private final AtomicLong mWrittenBytes = new AtomicLong();
+    private final AtomicBoolean mSamplePending = new AtomicBoolean();
+    private volatile Sample mSample;
+
+    private Context mContext;
+    private Listener mListener;
+
+    private final Runnable mSampleTimer = new Runnable() {
+        @Override
+        public void run() {
+            requestSample();
+            mMainHandler.postDelayed(this, SAMPLE_INTERVAL_MS);
+        }
+    };
+
+    private final Runnable mSampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mSamplePending.set(false);
+            Sample previous = mSample;
+            final Sample sample = sample();
+            if (previous == null || previous.space != sample.space) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mListener != null) {
+                            mListener.onStorageSpaceChanged(getAvailableSpace());
+                        }
+                    }
+                });
+            }
+        }
+    };
+
+    private final BroadcastReceiver mMediaReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.v(TAG, "Media event: " + intent.getAction());
+            requestSample();
+        }
+    };
+
+    private StorageSpaceAccountant() {}
+
+    public static synchronized StorageSpaceAccountant getInstance() {
+        if (sAccountant == null) {
+            sAccountant = new StorageSpaceAccountant();
+        }
+        return sAccountant;
+    }
+
+    /**
+     * Starts sampling the storage periodically and on the media events.
+     * Must be called on the main thread.
+     */
+    public void start(Context context, Listener listener) {
+        stop();
+        mContext = context;
+        mListener = listener;
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_MEDIA_MOUNTED);
+        filter.addAction(Intent.ACTION_MEDIA_UNMOUNTED);
+        filter.addAction(Intent.ACTION_MEDIA_CHECKING);
+        filter.addAction(Intent.ACTION_MEDIA_EJECT);
+        filter.addAction(Intent.ACTION_MEDIA_REMOVED);
+        filter.addAction(Intent.ACTION_MEDIA_BAD_REMOVAL);
+        filter.addAction(Intent.ACTION_MEDIA_SHARED);
+        filter.addDataScheme("file");
+        context.registerReceiver(mMediaReceiver, filter);
+        mSampleTimer.run();
+    }
+
+    /** Stops sampling the storage. Must be called on the main thread. */
+    public void stop() {
+        if (mContext == null) return;
+        mContext.unregisterReceiver(mMediaReceiver);
+        mMainHandler.removeCallbacks(mSampleTimer);
+        mContext = null;
+        mListener = null;
+    }
+
+    /**
+     * Returns the estimated free space in bytes, or one of
+     * {@link Storage#UNAVAILABLE}, {@link Storage#PREPARING} and
+     * {@link Storage#UNKNOWN_SIZE}. The storage is only queried if it has
+     * never been sampled or the sample was invalidated.
+     */
+    public long getAvailableSpace() {
+        Sample sample = mSample;
+        if (sample == null) {
+            sample = sample();
+        }
+        if (sample.space < 0) {
+            return sample.space;
+        }
+        long space = sample.space - mQueuedBytes.get()
+                - (mWrittenBytes.get() - sample.writtenBytes);
+        return Math.max(space, 0);
+    }
+
+    /** Samples the storage again in the background. */
+    public void requestSample() {
+        if (mSamplePending.compareAndSet(false, true)) {
+            WorkScheduler.getInstance().submit(WorkScheduler.LANE_METADATA, mSampleRunnable);
+        }
+    }
+
+    /**
+     * Drops the sample, so the next {@link #getAvailableSpace()} queries the
+     * storage. Used when the storage root changes.
+     */
+    public void invalidate() {
+        mSample = null;
+    }
+
+    /** Accounts for bytes which are queued to be written. */
+    public void onQueued(long bytes) {
+        mQueuedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Accounts for a finished save.
+     *
+     * @param queuedBytes The bytes passed to {@link #onQueued(long)} for the
+     *            save, 0 if it wasn't queued.
+     * @param writtenBytes The bytes written to the storage, 0 if the save
+     *            failed.
+     */
+    public void onSaved(long queuedBytes, long writtenBytes) {
+        // Counts the write before dropping the reservation, so the estimate
+        // never goes up in between.
+        mWrittenBytes.addAndGet(writtenBytes);
+        mQueuedBytes.addAndGet(-queuedBytes);
+    }
+
+    private Sample sample() {
+        // The writes finishing while the storage is queried are counted
+        // twice, which only makes the estimate lower until the next sample.
+        long written = mWrittenBytes.get();
+        Sample sample = new Sample(Storage.getInstance().getAvailableSpace(), written);
+        mSample = sample;
+        return sample;
+    }
+}
@@ -18,10 +18,46 @@ package com.android.camera;
 
 import android.graphics.Bitmap;
 import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.util.LruCache;
 
 import java.io.FileDescriptor;
+import java.lang.reflect.Method;
 
 public class Thumbnail {
+    // The memory used by the thumbnails of the recently recorded videos.
+    private static final int VIDEO_THUMBNAIL_CACHE_BYTES = 8 * 1024 * 1024;
+
+    private static final LruCache<Uri, Bitmap> sVideoThumbnails =
+            new LruCache<Uri, Bitmap>(VIDEO_THUMBNAIL_CACHE_BYTES) {
+                @Override
+                protected int sizeOf(Uri key, Bitmap value) {
+                    return value.getRowBytes() * value.getHeight();
+                }
+            };
+
+    // MediaMetadataRetriever.getScaledFrameAtTime() if the platform has it.
+    private static Method sGetScaledFrameAtTime;
+    private static boolean sScaledFrameMethodChecked;
+
+    /**
+     * Stores the thumbnail of a video so it doesn't need to be extracted
+     * from the video file again.
+     */
+    public static void putVideoThumbnail(Uri uri, Bitmap bitmap) {
+        if (uri != null && bitmap != null) {
+            sVideoThumbnails.put(uri, bitmap);
+        }
+    }
+
+    /**
+     * Returns the thumbnail stored by {@link #putVideoThumbnail}, or null if
+     * not available.
+     */
+    public static Bitmap getVideoThumbnail(Uri uri) {
+        return (uri == null) ? null : sVideoThumbnails.get(uri);
+    }
+
     public static Bitmap createVideoThumbnailBitmap(FileDescriptor fd, int targetWidth) {
         return createVideoThumbnailBitmap(null, fd, targetWidth);
     }
@@ -40,7 +76,10 @@ public class Thumbnail {
             } else {
                 retriever.setDataSource(fd);
             }
-            bitmap = retriever.getFrameAtTime(-1);
+            bitmap = getScaledFrame(retriever, targetWidth);
+            if (bitmap == null) {
+                bitmap = retriever.getFrameAtTime(-1);
+            }
         } catch (IllegalArgumentException ex) {
             // Assume this is a corrupt video file
         } catch (RuntimeException ex) {
@@ -65,4 +104,49 @@ public class Thumbnail {
         }
         return bitmap;
     }
+
+    /**
+     * Asks the retriever for a frame already scaled to the target width, so
+     * a full resolution frame is never decoded. Returns null if the platform
+     * doesn't support it.
+     */
+    private static Bitmap getScaledFrame(MediaMetadataRetriever retriever, int targetWidth) {
+        Method method = getScaledFrameAtTimeMethod();
+        if (method == null) {
+            return null;
+        }
+        String w = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH);
+        String h = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT);
+        if (w == null || h == null) {
+            return null;
+        }
+        int width = Integer.parseInt(w);
+        int height = Integer.parseInt(h);
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        if (width > targetWidth) {
+            height = Math.round((float) height * targetWidth / width);
+            width = targetWidth;
+        }
+        try {
+            return (Bitmap) method.invoke(retriever, -1L,
+                    MediaMetadataRetriever.OPTION_CLOSEST_SYNC, width, height);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static synchronized Method getScaledFrameAtTimeMethod() {
+        if (!sScaledFrameMethodChecked) {
+            sScaledFrameMethodChecked = true;
+            try {
+                sGetScaledFrameAtTime = MediaMetadataRetriever.class.getMethod(
+                        "getScaledFrameAtTime", long.class, int.class, int.class, int.class);
+            } catch (NoSuchMethodException e) {
+                sGetScaledFrameAtTime = null;
+            }
+        }
+        return sGetScaledFrameAtTime;
+    }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+/**
+ * Follows the pacing of a time lapse on a monotonic clock, and accounts for
+ * the frames it would capture, for statistics.
+ * <p>
+ * Frame k is due at start + k * interval. The first camera frame at or
+ * after a deadline is captured for it, and the next deadline is the first
+ * one after that frame, so a late frame never delays the frames after it
+ * and the schedule doesn't drift. The deadlines passed without any frame,
+ * when the camera stalls, are counted as missed and skipped rather than
+ * caught up with a burst.
+ * <p>
+ * The recorder captures the frames of the video itself, the frames offered
+ * here only measure how well the camera keeps up with the schedule.
+ * <p>
+ * Not thread safe, the frames are offered from a single thread.
+ */
+public class TimeLapsePacer {
+    /** The frame counts and pacing of a time lapse. */
+    public static class Stats {
+        public int offered;
+        public int captured;
+        public int missed;
+        // How late the captured frames were after their deadline.
+        public float meanLatenessMs;
+        public float jitterMs;
+        public long maxLatenessMs;
+        // How late the last captured frame was.
+        public long driftMs;
+        // The drift a schedule counted from each captured frame, instead
+        // of from the start, would have accumulated.
+        public long relativeDriftMs;
+
+        @Override
+        public String toString() {
+            return "offered=" + offered + ", captured=" + captured
+                    + ", missed=" + missed
+                    + ", mean lateness=" + meanLatenessMs + "ms"
+                    + ", jitter=" + jitterMs + "ms"
+                    + ", max lateness=" + maxLatenessMs + "ms"
+                    + ", drift=" + driftMs + "ms"
+                    + ", relative drift=" + relativeDriftMs + "ms";
+        }
+    }
+
+    private Stats mStats = new Stats();
+    private long mStartMs;
+    private long mIntervalMs;
+    private long mNextDeadlineMs;
+    // The running variance of the lateness, after Welford.
+    private double mLatenessM2;
+
+    /**
+     * Starts a new time lapse.
+     *
+     * @param startMs The time of the first deadline, on the clock the
+     *            frames are offered with.
+     * @param intervalMs The time between two frames.
+     */
+    public void start(long startMs, long intervalMs) {
+        if (intervalMs <= 0) {
+            throw new IllegalArgumentException("Invalid interval: " + intervalMs);
+        }
+        mStats = new Stats();
+        mStartMs = startMs;
+        mIntervalMs = intervalMs;
+        mNextDeadlineMs = startMs;
+        mLatenessM2 = 0;
+    }
+
+    /**
+     * Offers a camera frame.
+     *
+     * @param timestampMs When the frame was captured, on a monotonic clock.
+     * @return Whether the frame is captured.
+     */
+    public boolean offerFrame(long timestampMs) {
+        mStats.offered++;
+        if (mIntervalMs == 0 || timestampMs < mNextDeadlineMs) {
+            return false;
+        }
+        long lateness = timestampMs - mNextDeadlineMs;
+        // The deadlines which passed in the meantime had no frame.
+        mStats.missed += (int) (lateness / mIntervalMs);
+        mNextDeadlineMs = getDeadline(getSlot(timestampMs) + 1);
+        lateness %= mIntervalMs;
+
+        Stats s = mStats;
+        s.captured++;
+        double delta = lateness - s.meanLatenessMs;
+        s.meanLatenessMs += delta / s.captured;
+        mLatenessM2 += delta * (lateness - s.meanLatenessMs);
+        s.jitterMs = (float) Math.sqrt(mLatenessM2 / s.captured);
+        s.maxLatenessMs = Math.max(s.maxLatenessMs, lateness);
+        s.driftMs = lateness;
+        s.relativeDriftMs += lateness;
+        return true;
+    }
+
+    /** Returns the time the next frame is due. */
+    public long getNextDeadline() {
+        return mNextDeadlineMs;
+    }
+
+    /** Returns the number of frames due by the time, missed or not. */
+    public long getExpectedFrames(long nowMs) {
+        return (nowMs < mStartMs || mIntervalMs == 0) ? 0 : getSlot(nowMs) + 1;
+    }
+
+    /** Returns the statistics of the current time lapse. */
+    public Stats getStats() {
+        return mStats;
+    }
+
+    private long getSlot(long timestampMs) {
+        return (timestampMs - mStartMs) / mIntervalMs;
+    }
+
+    private long getDeadline(long slot) {
+        return mStartMs + slot * mIntervalMs;
+    }
+}
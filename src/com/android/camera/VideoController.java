@@ -39,4 +39,6 @@ public interface VideoController extends OnShutterButtonListener {
     // Callbacks for camera preview UI events.
     public void onPreviewUIReady();
     public void onPreviewUIDestroyed();
+    // Called on each preview frame shown, with the time it was captured.
+    public void onPreviewFrameShown(long timestampNs);
 }
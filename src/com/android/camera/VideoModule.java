@@ -45,6 +45,8 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.Message;
 import android.os.SystemProperties;
 import android.os.ParcelFileDescriptor;
@@ -75,6 +77,7 @@ import com.android.camera.PhotoModule;
 import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -100,6 +103,8 @@ public class VideoModule implements CameraModule,
     private static final int SET_VIDEO_UI_PARAMS = 10;
 
     private static final int SCREEN_DELAY = 2 * 60 * 1000;
+    // How long the UI thread waits for a background recorder stop, well
+    // under the time an input event can wait.
 
     private static final long SHUTTER_BUTTON_TIMEOUT = 500L; // 500ms
 
@@ -146,6 +151,10 @@ public class VideoModule implements CameraModule,
     // The video file that has already been recorded, and that is being
     // examined by the user.
     private String mCurrentVideoFilename;
+    // A downscaled preview frame taken when the recording stops.
+    // A preview frame taken while recording, in the orientation of the video.
+    private Bitmap mRecordingThumbnail;
+    private int mRecordingOrientationHint;
     private Uri mCurrentVideoUri;
     private boolean mCurrentVideoUriFromMediaSaved;
     private ContentValues mCurrentVideoValues;
@@ -159,6 +168,12 @@ public class VideoModule implements CameraModule,
     private boolean mCaptureTimeLapse = false;
     // Default 0. If it is larger than 0, the camcorder is in time lapse mode.
     private int mTimeBetweenTimeLapseFrameCaptureMs = 0;
+    // Measures how well the camera keeps up with the time lapse schedule,
+    // on the timestamps of the preview frames. Started with the first one.
+    private final TimeLapsePacer mTimeLapsePacer = new TimeLapsePacer();
+    private boolean mTimeLapsePacerStarted;
+    // The pacing of the last time lapse, reported with its usage event.
+    private String mTimeLapsePacing;
 
     boolean mPreviewing = false; // True if preview is started.
     // The display rotation in degrees. This is only valid when mPreviewing is
@@ -188,6 +203,17 @@ public class VideoModule implements CameraModule,
 
     private boolean mStartRecPending = false;
     private boolean mStopRecPending = false;
+    // The time the last stop was requested, for the stop-to-ready latency.
+    private long mStopRequestTime;
+    // Set while a recorder is being stopped on the recorder thread. The
+    // camera must not be locked, released or switched until the recorder
+    // lets it go, so that work waits in mAfterRecorderStop, in order.
+    private boolean mRecorderStopping;
+    private final ArrayList<Runnable> mAfterRecorderStop = new ArrayList<Runnable>();
+    // Stops the recorders, so the stop doesn't wait behind the saves. The
+    // thread is started with the first stop and quit on pause.
+    private HandlerThread mRecorderStopThread;
+    private Handler mRecorderStopHandler;
     private boolean mStartPrevPending = false;
     private boolean mStopPrevPending = false;
 
@@ -860,6 +886,16 @@ public class VideoModule implements CameraModule,
 
     @Override
     public void onResumeAfterSuper() {
+        if (mRecorderStopping) {
+            // The camera is still held by the recorder.
+            runAfterRecorderStop(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mPaused) onResumeAfterSuper();
+                }
+            });
+            return;
+        }
         mUI.enableShutter(false);
         mZoomValue = 0;
 
@@ -991,6 +1027,16 @@ public class VideoModule implements CameraModule,
 
     private void closeCamera() {
         Log.v(TAG, "closeCamera");
+        if (mRecorderStopping) {
+            Log.v(TAG, "Recorder still stopping, closing the camera after it.");
+            runAfterRecorderStop(new Runnable() {
+                @Override
+                public void run() {
+                    closeCamera();
+                }
+            });
+            return;
+        }
         if (mCameraDevice == null) {
             Log.d(TAG, "already stopped.");
             return;
@@ -1048,6 +1094,7 @@ public class VideoModule implements CameraModule,
         mUI.removeDisplayChangeListener();
 
         stopSmartCapture();
+        stopRecorderThread();
     }
 
     @Override
@@ -1360,6 +1407,8 @@ public class VideoModule implements CameraModule,
             }
         }
         mMediaRecorder.setOrientationHint(rotation);
+        mRecordingOrientationHint = rotation;
+        setVideoSize(mCurrentVideoValues, rotation);
         setupMediaRecorderPreviewDisplay();
 
         try {
@@ -1424,29 +1473,56 @@ public class VideoModule implements CameraModule,
         Log.v(TAG, "New video filename: " + mVideoFilename);
     }
 
-    private void saveVideo() {
-        if (mVideoFileDescriptor == null) {
-            long duration = SystemClock.uptimeMillis() - mRecordingStartTime;
-            if (duration > 0) {
-                if (mCaptureTimeLapse) {
-                    duration = getTimeLapseVideoLength(duration);
-                }
-            } else {
-                Log.w(TAG, "Video duration <= 0 : " + duration);
+    // Put the displayed size of the video, so the filmstrip doesn't need to
+    // read it from the file.
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void setVideoSize(ContentValues values, int rotation) {
+        // The two fields are available since ICS but got published in JB
+        if (values == null || !ApiHelper.HAS_MEDIA_COLUMNS_WIDTH_AND_HEIGHT) {
+            return;
+        }
+        boolean swap = (rotation == 90 || rotation == 270);
+        values.put(MediaColumns.WIDTH,
+                swap ? mProfile.videoFrameHeight : mProfile.videoFrameWidth);
+        values.put(MediaColumns.HEIGHT,
+                swap ? mProfile.videoFrameWidth : mProfile.videoFrameHeight);
+    }
+
+    private long getRecordedDuration() {
+        long duration = SystemClock.uptimeMillis() - mRecordingStartTime;
+        if (duration > 0) {
+            if (mCaptureTimeLapse) {
+                duration = getTimeLapseVideoLength(duration);
             }
+        } else {
+            Log.w(TAG, "Video duration <= 0 : " + duration);
+        }
+        return duration;
+    }
 
-            File origFile = new File(mCurrentVideoFilename);
+    private void saveVideo(String filename, ContentValues values, long duration,
+            final Bitmap thumbnail) {
+        if (mVideoFileDescriptor == null) {
+            File origFile = new File(filename);
             if (!origFile.exists() || origFile.length() <= 0) {
                 Log.e(TAG, "Invalid file");
-                mCurrentVideoValues = null;
                 return;
             }
-
-            mActivity.getMediaSaveService().addVideo(mCurrentVideoFilename,
-                    duration, mCurrentVideoValues,
-                    mOnVideoSavedListener, mContentResolver);
+            // The recorder wrote the file, the accountant doesn't know it.
+            StorageSpaceAccountant.getInstance().onSaved(0, origFile.length());
+
+            mActivity.getMediaSaveService().addVideo(filename,
+                    duration, values,
+                    new MediaSaveService.OnMediaSavedListener() {
+                        @Override
+                        public void onMediaSaved(Uri uri) {
+                            // Put the thumbnail before notifying the filmstrip
+                            // so it doesn't need to extract one.
+                            Thumbnail.putVideoThumbnail(uri, thumbnail);
+                            mOnVideoSavedListener.onMediaSaved(uri);
+                        }
+                    }, mContentResolver);
         }
-        mCurrentVideoValues = null;
     }
 
     private void deleteVideoFile(String fileName) {
@@ -1545,6 +1621,7 @@ public class VideoModule implements CameraModule,
         //??
         //if (!mCameraDevice.waitDone()) return;
         mCurrentVideoUri = null;
+        mRecordingThumbnail = null;
 
         initializeRecorder();
         if (mUnsupportedResolution == true) {
@@ -1590,6 +1667,7 @@ public class VideoModule implements CameraModule,
         mMediaRecorderRecording = true;
         mOrientationManager.lockOrientation();
         mRecordingStartTime = SystemClock.uptimeMillis();
+        mTimeLapsePacerStarted = false;
         mUI.showRecordingUI(true);
 
         updateRecordingTime();
@@ -1599,9 +1677,37 @@ public class VideoModule implements CameraModule,
         mStartRecPending = false;
     }
 
+    /**
+     * Keeps a preview frame as the thumbnail of the video being recorded, so
+     * the frame doesn't have to be extracted from the file later. The
+     * preview is turned by the display orientation of the camera, so the
+     * frame is turned to the orientation hint of the recording instead.
+     */
+    private void takeRecordingThumbnail() {
+        Bitmap bitmap = mUI.getPreviewBitmap(mDesiredPreviewWidth / 2);
+        if (bitmap == null) {
+            return;
+        }
+        CameraInfo info = CameraHolder.instance().getCameraInfo()[mCameraId];
+        if (info.facing == CameraInfo.CAMERA_FACING_FRONT) {
+            // The preview is mirrored before it is rotated, the video isn't.
+            mRecordingThumbnail = CameraUtil.rotateAndMirror(bitmap,
+                    (mRecordingOrientationHint + mCameraDisplayOrientation) % 360, true);
+        } else {
+            mRecordingThumbnail = CameraUtil.rotateAndMirror(bitmap,
+                    (mRecordingOrientationHint - mCameraDisplayOrientation + 360) % 360,
+                    false);
+        }
+    }
+
     private Bitmap getVideoThumbnail() {
         Bitmap bitmap = null;
-        if (mVideoFileDescriptor != null) {
+        if (mRecordingThumbnail != null) {
+            // Already in the orientation of the video, like the retriever
+            // frames. Copied, because the saved video may still use it and
+            // mirroring recycles the bitmap it is given.
+            bitmap = mRecordingThumbnail.copy(mRecordingThumbnail.getConfig(), false);
+        } else if (mVideoFileDescriptor != null) {
             bitmap = Thumbnail.createVideoThumbnailBitmap(mVideoFileDescriptor.getFileDescriptor(),
                     mDesiredPreviewWidth);
         } else if (mCurrentVideoUri != null) {
@@ -1638,12 +1744,27 @@ public class VideoModule implements CameraModule,
 
     private boolean stopVideoRecording() {
         Log.v(TAG, "stopVideoRecording");
+        if (mStopRecPending) {
+            // The previous recorder is still being stopped in the background.
+            return false;
+        }
+        mStopRequestTime = SystemClock.uptimeMillis();
         mStopRecPending = true;
+        mTimeLapsePacing = null;
+        if (mMediaRecorderRecording && mTimeLapsePacerStarted) {
+            mTimeLapsePacing = mTimeLapsePacer.getStats().toString();
+            Log.v(TAG, "Time lapse pacing: " + mTimeLapsePacing);
+        }
         mUI.setSwipingEnabled(true);
         if (!isVideoCaptureIntent()) {
             mUI.showSwitcher();
         }
 
+        if (mMediaRecorderRecording && canStopRecorderInBackground()) {
+            stopVideoRecordingInBackground();
+            return false;
+        }
+
         boolean fail = false;
         if (mMediaRecorderRecording) {
             boolean shouldAddToMediaStoreNow = false;
@@ -1661,6 +1782,7 @@ public class VideoModule implements CameraModule,
             } catch (RuntimeException e) {
                 Log.e(TAG, "stop fail",  e);
                 if (mVideoFilename != null) deleteVideoFile(mVideoFilename);
+                mRecordingThumbnail = null;
                 fail = true;
             }
             mMediaRecorderRecording = false;
@@ -1683,7 +1805,9 @@ public class VideoModule implements CameraModule,
             keepScreenOnAwhile();
             if (shouldAddToMediaStoreNow && !fail) {
                 if (mVideoFileDescriptor == null) {
-                    saveVideo();
+                    saveVideo(mCurrentVideoFilename, mCurrentVideoValues,
+                            getRecordedDuration(), mRecordingThumbnail);
+                    mCurrentVideoValues = null;
                 } else if (mIsVideoCaptureIntent) {
                     // if no file save is needed, we can show the post capture UI now
                     showCaptureResult();
@@ -1707,11 +1831,141 @@ public class VideoModule implements CameraModule,
         UsageStatistics.onEvent(UsageStatistics.COMPONENT_CAMERA,
                 fail ? UsageStatistics.ACTION_CAPTURE_FAIL :
                     UsageStatistics.ACTION_CAPTURE_DONE, "Video",
-                    SystemClock.uptimeMillis() - mRecordingStartTime);
+                    SystemClock.uptimeMillis() - mRecordingStartTime, null, mTimeLapsePacing);
         mStopRecPending = false;
+        Log.v(TAG, "Recorder ready " + (SystemClock.uptimeMillis() - mStopRequestTime)
+                + "ms after stop");
         return fail;
     }
 
+    /**
+     * Returns whether {@link MediaRecorder#stop()} can run off the UI thread.
+     * Capture intents need the result before returning to the caller, and a
+     * paused module has to release the camera right away.
+     */
+    private boolean canStopRecorderInBackground() {
+        return !mPaused && !mIsVideoCaptureIntent && mVideoFileDescriptor == null
+                && ApiHelper.HAS_SURFACE_TEXTURE_RECORDING;
+    }
+
+    /**
+     * Hands the recorder to a thread of its own, which stops and releases
+     * it, and returns the UI to the preview state right away. The stop
+     * doesn't wait behind the saves in the capture lane. The camera is
+     * locked again and the video saved in {@link #onRecorderStopped} once the
+     * recorder is released.
+     */
+    private void stopVideoRecordingInBackground() {
+        final MediaRecorder recorder = mMediaRecorder;
+        final String filename = mVideoFilename;
+        final ContentValues values = mCurrentVideoValues;
+        final long duration = getRecordedDuration();
+        final Bitmap thumbnail = mRecordingThumbnail;
+        mMediaRecorder = null;
+        mVideoFilename = null;
+        mCurrentVideoValues = null;
+        mCurrentVideoFilename = filename;
+        recorder.setOnErrorListener(null);
+        recorder.setOnInfoListener(null);
+
+        mMediaRecorderRecording = false;
+        mOrientationManager.unlockOrientation();
+        mUI.showRecordingUI(false);
+        mUI.enableCameraControls(true);
+        mUI.setOrientationIndicator(0, true);
+        keepScreenOnAwhile();
+        AccessibilityUtils.makeAnnouncement(mUI.getShutterButton(),
+                mActivity.getString(R.string.video_recording_stopped));
+
+        mRecorderStopping = true;
+        getRecorderStopHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                boolean stopped = false;
+                try {
+                    recorder.stop();
+                    stopped = true;
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "stop fail", e);
+                    if (filename != null) deleteVideoFile(filename);
+                }
+                recorder.reset();
+                recorder.release();
+
+                final boolean success = stopped;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRecorderStopped(success, filename, values, duration, thumbnail);
+                    }
+                });
+            }
+        });
+    }
+
+    private Handler getRecorderStopHandler() {
+        if (mRecorderStopHandler == null) {
+            mRecorderStopThread = new HandlerThread("VideoRecorderStop");
+            mRecorderStopThread.start();
+            mRecorderStopHandler = new Handler(mRecorderStopThread.getLooper());
+        }
+        return mRecorderStopHandler;
+    }
+
+    // Quits the recorder thread once the stop handed over to it is done.
+    private void stopRecorderThread() {
+        if (mRecorderStopHandler == null) return;
+        final Looper looper = mRecorderStopThread.getLooper();
+        mRecorderStopHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                looper.quit();
+            }
+        });
+        mRecorderStopHandler = null;
+        mRecorderStopThread = null;
+    }
+
+    // Runs the work now, or once the recorder being stopped lets the camera
+    // go. Never blocks the UI thread.
+    private void runAfterRecorderStop(Runnable work) {
+        if (mRecorderStopping) {
+            mAfterRecorderStop.add(work);
+        } else {
+            work.run();
+        }
+    }
+
+    private void onRecorderStopped(boolean success, String filename, ContentValues values,
+            long duration, Bitmap thumbnail) {
+        mRecorderStopping = false;
+        if (!mPaused && mCameraDevice != null) {
+            mCameraDevice.lock();
+            // Update the parameters here because the parameters might have
+            // been altered by MediaRecorder.
+            mParameters = mCameraDevice.getParameters();
+        }
+        if (success) {
+            saveVideo(filename, values, duration, thumbnail);
+        } else {
+            mRecordingThumbnail = null;
+        }
+        UsageStatistics.onEvent(UsageStatistics.COMPONENT_CAMERA,
+                success ? UsageStatistics.ACTION_CAPTURE_DONE :
+                    UsageStatistics.ACTION_CAPTURE_FAIL, "Video", duration, null,
+                    mTimeLapsePacing);
+        mStopRecPending = false;
+        Log.v(TAG, "Recorder ready " + (SystemClock.uptimeMillis() - mStopRequestTime)
+                + "ms after stop");
+
+        // The work which waited for the camera, such as a close on pause.
+        ArrayList<Runnable> after = new ArrayList<Runnable>(mAfterRecorderStop);
+        mAfterRecorderStop.clear();
+        for (Runnable work : after) {
+            work.run();
+        }
+    }
+
     private void resetScreenOn() {
         mHandler.removeMessages(CLEAR_SCREEN_DELAY);
         mActivity.getWindow().clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
@@ -2139,6 +2393,17 @@ public class VideoModule implements CameraModule,
             return;
         }
 
+        if (mRecorderStopping) {
+            Log.v(TAG, "Recorder still stopping, switching the camera after it.");
+            runAfterRecorderStop(new Runnable() {
+                @Override
+                public void run() {
+                    if (mPendingSwitchCameraId != -1) switchCamera();
+                }
+            });
+            return;
+        }
+
         Log.d(TAG, "Start to switch camera.");
         mCameraId = mPendingSwitchCameraId;
         mPendingSwitchCameraId = -1;
@@ -2353,4 +2618,25 @@ public class VideoModule implements CameraModule,
     public void onPreviewUIDestroyed() {
         stopPreview();
     }
+
+    @Override
+    public void onPreviewFrameShown(long timestampNs) {
+        if (!mMediaRecorderRecording) {
+            return;
+        }
+        if (mRecordingThumbnail == null) {
+            takeRecordingThumbnail();
+        }
+        if (!mCaptureTimeLapse) {
+            return;
+        }
+        // The time the camera captured the frame, rather than the time the
+        // UI thread got to it. Its clock may not be the uptime one.
+        long timestampMs = timestampNs / 1000000;
+        if (!mTimeLapsePacerStarted) {
+            mTimeLapsePacer.start(timestampMs, mTimeBetweenTimeLapseFrameCaptureMs);
+            mTimeLapsePacerStarted = true;
+        }
+        mTimeLapsePacer.offerFrame(timestampMs);
+    }
 }
@@ -357,6 +357,19 @@ public class VideoUI implements PieRenderer.PieListener,
         mAnimationManager.startFlashAnimation(mFlashOverlay);
     }
 
+    /**
+     * Returns a copy of the current preview frame scaled to the width, or
+     * null if the preview is not available.
+     */
+    public Bitmap getPreviewBitmap(int width) {
+        if (mTextureView == null || mSurfaceTextureUncroppedWidth <= 0) {
+            return null;
+        }
+        int height = (int) (width * mSurfaceTextureUncroppedHeight
+                / mSurfaceTextureUncroppedWidth);
+        return mTextureView.getBitmap(width, height);
+    }
+
     /**
      * Starts a capture animation
      */
@@ -843,6 +856,7 @@ public class VideoUI implements PieRenderer.PieListener,
         if (mPreviewCover.getVisibility() != View.GONE) {
             mPreviewCover.setVisibility(View.GONE);
         }
+        mController.onPreviewFrameShown(surface.getTimestamp());
     }
 
     // SurfaceHolder callbacks
@@ -23,40 +23,31 @@ import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
 import android.graphics.PixelFormat;
 import android.graphics.Point;
-import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
-import android.graphics.YuvImage;
 import android.hardware.Camera.Parameters;
 import android.hardware.Camera.Size;
-import android.location.Location;
-import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.Message;
-import android.os.PowerManager;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.OrientationEventListener;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.WindowManager;
-import com.android.camera.PhotoModule;
 import com.android.camera.CameraManager.CameraProxy;
+import com.android.camera.app.AppManagerFactory;
 import com.android.camera.app.OrientationManager;
-import com.android.camera.data.LocalData;
-import com.android.camera.exif.ExifInterface;
+import com.android.camera.app.PanoramaStitchingManager;
+import com.android.camera.app.WorkScheduler;
 import com.android.camera.util.CameraUtil;
 import com.android.camera.util.UsageStatistics;
 import com.android.camera2.R;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.IOException;
 import java.util.List;
-import java.util.TimeZone;
 
 /**
  * Activity to handle panorama capturing.
@@ -68,6 +59,11 @@ public class WideAnglePanoramaModule
     public static final int DEFAULT_SWEEP_ANGLE = 160;
     public static final int DEFAULT_BLEND_MODE = Mosaic.BLENDTYPE_HORIZONTAL;
     public static final int DEFAULT_CAPTURE_PIXELS = 960 * 720;
+    // The alignment runs on a quarter of the preview, so a device which
+    // couldn't keep up gets a smaller preview from the next camera setup,
+    // until a sweep shows the default size would keep up again.
+    private static final int REDUCED_CAPTURE_PIXELS = 640 * 480;
+    private static int sCapturePixels = DEFAULT_CAPTURE_PIXELS;
 
     private static final int MSG_LOW_RES_FINAL_MOSAIC_READY = 1;
     private static final int MSG_GENERATE_FINAL_MOSAIC_ERROR = 2;
@@ -93,7 +89,6 @@ public class WideAnglePanoramaModule
 
     private MosaicPreviewRenderer mMosaicPreviewRenderer;
     private Object mRendererLock = new Object();
-    private Object mWaitObject = new Object();
 
     private String mPreparePreviewString;
     private String mDialogTitle;
@@ -108,15 +103,17 @@ public class WideAnglePanoramaModule
     private int mCameraPreviewHeight;
     private int mCameraState;
     private int mCaptureState;
-    private PowerManager.WakeLock mPartialWakeLock;
     private MosaicFrameProcessor mMosaicFrameProcessor;
+    private final MosaicFrameScheduler mFrameScheduler = new MosaicFrameScheduler();
     private boolean mMosaicFrameProcessorInitialized;
     private AsyncTask <Void, Void, Void> mWaitProcessorTask;
     private long mTimeTaken;
     private Handler mMainHandler;
     private SurfaceTexture mCameraTexture;
     private boolean mThreadRunning;
-    private boolean mCancelComputation;
+    private PanoramaStitchingManager mStitchingManager;
+    // The low resolution mosaic, shown in the filmstrip while stitching.
+    private volatile byte[] mLowResJpeg;
     private float mHorizontalViewAngle;
     private float mVerticalViewAngle;
 
@@ -160,27 +157,6 @@ public class WideAnglePanoramaModule
 
     }
 
-    private class MosaicJpeg {
-        public MosaicJpeg(byte[] data, int width, int height) {
-            this.data = data;
-            this.width = width;
-            this.height = height;
-            this.isValid = true;
-        }
-
-        public MosaicJpeg() {
-            this.data = null;
-            this.width = 0;
-            this.height = 0;
-            this.isValid = false;
-        }
-
-        public final byte[] data;
-        public final int width;
-        public final int height;
-        public final boolean isValid;
-    }
-
     private class PanoOrientationEventListener extends OrientationEventListener {
         public PanoOrientationEventListener(Context context) {
             super(context);
@@ -243,16 +219,21 @@ public class WideAnglePanoramaModule
                 } else {
                     if (mCaptureState == CAPTURE_STATE_VIEWFINDER) {
                         renderer.showPreviewFrame();
-                    } else {
+                    } else if (mFrameScheduler.offerFrame(SystemClock.uptimeMillis(),
+                            mMosaicFrameProcessor.getPanningRate())) {
+                        long start = SystemClock.uptimeMillis();
                         renderer.alignFrameSync();
                         mMosaicFrameProcessor.processFrame();
+                        mFrameScheduler.onFrameAligned(SystemClock.uptimeMillis() - start);
+                    } else {
+                        renderer.showPreviewFrame();
                     }
                 }
             }
         };
 
-        PowerManager pm = (PowerManager) mActivity.getSystemService(Context.POWER_SERVICE);
-        mPartialWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "Panorama");
+        mStitchingManager = AppManagerFactory.getInstance(mActivity)
+                .getPanoramaStitchingManager();
 
         mOrientationEventListener = new PanoOrientationEventListener(mActivity);
 
@@ -384,14 +365,14 @@ public class WideAnglePanoramaModule
 
     private boolean findBestPreviewSize(List<Size> supportedSizes, boolean need4To3,
             boolean needSmaller) {
-        int pixelsDiff = DEFAULT_CAPTURE_PIXELS;
+        int pixelsDiff = sCapturePixels;
         boolean hasFound = false;
         for (Size size : supportedSizes) {
             int h = size.height;
             int w = size.width;
             // we only want 4:3 format.
-            int d = DEFAULT_CAPTURE_PIXELS - h * w;
-            if (needSmaller && d < 0) { // no bigger preview than 960x720.
+            int d = sCapturePixels - h * w;
+            if (needSmaller && d < 0) { // no bigger preview than sCapturePixels.
                 continue;
             }
             if (need4To3 && (h * 4 != w * 3)) {
@@ -413,7 +394,8 @@ public class WideAnglePanoramaModule
         if (!findBestPreviewSize(supportedSizes, true, true)) {
             Log.w(TAG, "No 4:3 ratio preview size supported.");
             if (!findBestPreviewSize(supportedSizes, false, true)) {
-                Log.w(TAG, "Can't find a supported preview size smaller than 960x720.");
+                Log.w(TAG, "Can't find a supported preview size smaller than "
+                        + sCapturePixels + " pixels.");
                 findBestPreviewSize(supportedSizes, false, false);
             }
         }
@@ -529,8 +511,8 @@ public class WideAnglePanoramaModule
 
     public void startCapture() {
         // Reset values so we can do this again.
-        mCancelComputation = false;
         mTimeTaken = System.currentTimeMillis();
+        mFrameScheduler.reset();
         mActivity.setSwipingEnabled(false);
         mCaptureState = CAPTURE_STATE_MOSAIC;
         mUI.onStartCapture();
@@ -546,8 +528,11 @@ public class WideAnglePanoramaModule
                         || (Math.abs(accumulatedVerticalAngle) >= DEFAULT_SWEEP_ANGLE)) {
                     stopCapture(false);
                 } else {
-                    float panningRateXInDegree = panningRateX * mHorizontalViewAngle;
-                    float panningRateYInDegree = panningRateY * mVerticalViewAngle;
+                    // The rates are measured between aligned frames, while
+                    // the threshold is per preview frame.
+                    float span = mFrameScheduler.getAlignedSpan();
+                    float panningRateXInDegree = panningRateX / span * mHorizontalViewAngle;
+                    float panningRateYInDegree = panningRateY / span * mVerticalViewAngle;
                     mUI.updateCaptureProgress(panningRateXInDegree, panningRateYInDegree,
                             accumulatedHorizontalAngle, accumulatedVerticalAngle,
                             PANNING_SPEED_THRESHOLD);
@@ -576,6 +561,7 @@ public class WideAnglePanoramaModule
 
         mMosaicFrameProcessor.setProgressListener(null);
         stopCameraPreview();
+        onSweepFinished();
 
         mCameraTexture.setOnFrameAvailableListener(null);
 
@@ -584,7 +570,7 @@ public class WideAnglePanoramaModule
             // Hide shutter button, shutter icon, etc when waiting for
             // panorama to stitch
             mUI.hideUI();
-            runBackgroundThread(new Thread() {
+            runBackgroundThread(new Runnable() {
                 @Override
                 public void run() {
                     MosaicJpeg jpeg = generateFinalMosaic(false);
@@ -592,6 +578,7 @@ public class WideAnglePanoramaModule
                     if (jpeg != null && jpeg.isValid) {
                         Bitmap bitmap = null;
                         bitmap = BitmapFactory.decodeByteArray(jpeg.data, 0, jpeg.data.length);
+                        mLowResJpeg = jpeg.data;
                         mMainHandler.sendMessage(mMainHandler.obtainMessage(
                                 MSG_LOW_RES_FINAL_MOSAIC_READY, bitmap));
                     } else {
@@ -604,6 +591,18 @@ public class WideAnglePanoramaModule
         keepScreenOnAwhile();
     }
 
+    private void onSweepFinished() {
+        Log.v(TAG, "Panorama frames: " + mFrameScheduler.getStats());
+        if (mFrameScheduler.isFallingBehind() && sCapturePixels > REDUCED_CAPTURE_PIXELS) {
+            Log.w(TAG, "Alignment fell behind, reducing the preview size");
+            sCapturePixels = REDUCED_CAPTURE_PIXELS;
+        } else if (sCapturePixels < DEFAULT_CAPTURE_PIXELS && mFrameScheduler.hasHeadroom(
+                (float) DEFAULT_CAPTURE_PIXELS / sCapturePixels)) {
+            Log.v(TAG, "Alignment keeps up, restoring the preview size");
+            sCapturePixels = DEFAULT_CAPTURE_PIXELS;
+        }
+    }
+
     @Override
     public void onShutterButtonClick() {
         // If mCameraTexture == null then GL setup is not finished yet.
@@ -633,35 +632,6 @@ public class WideAnglePanoramaModule
         }
     }
 
-    public void reportProgress() {
-        mUI.resetSavingProgress();
-        Thread t = new Thread() {
-            @Override
-            public void run() {
-                while (mThreadRunning) {
-                    final int progress = mMosaicFrameProcessor.reportProgress(
-                            true, mCancelComputation);
-
-                    try {
-                        synchronized (mWaitObject) {
-                            mWaitObject.wait(50);
-                        }
-                    } catch (InterruptedException e) {
-                        throw new RuntimeException("Panorama reportProgress failed", e);
-                    }
-                    // Update the progress bar
-                    mActivity.runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            mUI.updateSavingProgress(progress);
-                        }
-                    });
-                }
-            }
-        };
-        t.start();
-    }
-
     private int getCaptureOrientation() {
         // The panorama image returned from the library is oriented based on the
         // natural orientation of a camera. We need to set an orientation for the image
@@ -688,43 +658,41 @@ public class WideAnglePanoramaModule
     }
 
     public void saveHighResMosaic() {
-        runBackgroundThread(new Thread() {
+        String filename = PanoUtil.createName(
+                mActivity.getResources().getString(R.string.pano_file_name_format), mTimeTaken);
+        UsageStatistics.onEvent(UsageStatistics.COMPONENT_PANORAMA,
+                UsageStatistics.ACTION_CAPTURE_DONE, null, 0,
+                UsageStatistics.hashFileName(filename + ".jpg"));
+
+        PanoramaStitchingManager.Session session = new PanoramaStitchingManager.Session(
+                filename, mTimeTaken, mLocationManager.getCurrentLocation(),
+                getCaptureOrientation(), mLowResJpeg);
+        mLowResJpeg = null;
+        mThreadRunning = true;
+        mUI.resetSavingProgress();
+        // The manager keeps encoding and saving the panorama in the
+        // background, the next capture only waits for the native stitching.
+        mStitchingManager.stitch(session, new PanoramaStitchingManager.StitchingCallback() {
             @Override
-            public void run() {
-                mPartialWakeLock.acquire();
-                MosaicJpeg jpeg;
-                try {
-                    jpeg = generateFinalMosaic(true);
-                } finally {
-                    mPartialWakeLock.release();
-                }
+            public void onProgress(int progress) {
+                mUI.updateSavingProgress(progress);
+            }
 
-                if (jpeg == null) {  // Cancelled by user.
-                    mMainHandler.sendEmptyMessage(MSG_END_DIALOG_RESET_TO_PREVIEW);
-                } else if (!jpeg.isValid) {  // Error when generating mosaic.
+            @Override
+            public void onMosaicerReleased(int result) {
+                if (result == Mosaic.MOSAIC_RET_ERROR) {
                     mMainHandler.sendEmptyMessage(MSG_GENERATE_FINAL_MOSAIC_ERROR);
                 } else {
-                    int orientation = getCaptureOrientation();
-                    final Uri uri = savePanorama(jpeg.data, jpeg.width, jpeg.height, orientation);
-                    if (uri != null) {
-                        mActivity.runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                mActivity.notifyNewMedia(uri);
-                            }
-                        });
-                    }
-                    mMainHandler.sendMessage(
-                            mMainHandler.obtainMessage(MSG_END_DIALOG_RESET_TO_PREVIEW));
+                    mMainHandler.sendEmptyMessage(MSG_END_DIALOG_RESET_TO_PREVIEW);
                 }
             }
         });
-        reportProgress();
     }
 
-    private void runBackgroundThread(Thread thread) {
+    private void runBackgroundThread(Runnable work) {
         mThreadRunning = true;
-        thread.start();
+        // Not a save, so it doesn't hold the saves up.
+        WorkScheduler.getInstance().submit(WorkScheduler.LANE_IDLE, work);
     }
 
     private void onBackgroundThreadFinished() {
@@ -733,10 +701,7 @@ public class WideAnglePanoramaModule
     }
 
     private void cancelHighResComputation() {
-        mCancelComputation = true;
-        synchronized (mWaitObject) {
-            mWaitObject.notify();
-        }
+        mStitchingManager.cancel();
     }
 
     // This function will be called upon the first camera frame is available.
@@ -770,48 +735,6 @@ public class WideAnglePanoramaModule
         mUI.showFinalMosaic(bitmap, getCaptureOrientation());
     }
 
-    private Uri savePanorama(byte[] jpegData, int width, int height, int orientation) {
-        if (jpegData != null) {
-            String filename = PanoUtil.createName(
-                    mActivity.getResources().getString(R.string.pano_file_name_format), mTimeTaken);
-            String filepath = Storage.getInstance().generateFilepath(filename,
-                              PhotoModule.PIXEL_FORMAT_JPEG);
-
-            UsageStatistics.onEvent(UsageStatistics.COMPONENT_PANORAMA,
-                    UsageStatistics.ACTION_CAPTURE_DONE, null, 0,
-                    UsageStatistics.hashFileName(filename + ".jpg"));
-
-            Location loc = mLocationManager.getCurrentLocation();
-            ExifInterface exif = new ExifInterface();
-            try {
-                exif.readExif(jpegData);
-                exif.addGpsDateTimeStampTag(mTimeTaken);
-                exif.addDateTimeStampTag(ExifInterface.TAG_DATE_TIME, mTimeTaken,
-                        TimeZone.getDefault());
-                exif.setTag(exif.buildTag(ExifInterface.TAG_ORIENTATION,
-                        ExifInterface.getOrientationValueForRotation(orientation)));
-                writeLocation(loc, exif);
-                exif.writeExif(jpegData, filepath);
-            } catch (IOException e) {
-                Log.e(TAG, "Cannot set exif for " + filepath, e);
-                Storage.getInstance().writeFile(filepath, jpegData);
-            }
-            int jpegLength = (int) (new File(filepath).length());
-            return Storage.getInstance().addImage(
-                    mContentResolver, filename, mTimeTaken, loc, orientation,
-                    jpegLength, filepath, width, height, LocalData.MIME_TYPE_JPEG);
-        }
-        return null;
-    }
-
-    private static void writeLocation(Location location, ExifInterface exif) {
-        if (location == null) {
-            return;
-        }
-        exif.addGpsTags(location.getLatitude(), location.getLongitude());
-        exif.setTag(exif.buildTag(ExifInterface.TAG_GPS_PROCESSING_METHOD, location.getProvider()));
-    }
-
     private void clearMosaicFrameProcessorIfNeeded() {
         if (!mPaused || mThreadRunning) return;
         // Only clear the processor if it is initialized by this activity
@@ -967,30 +890,7 @@ public class WideAnglePanoramaModule
             return new MosaicJpeg();
         }
 
-        int len = imageData.length - 8;
-        int width = (imageData[len + 0] << 24) + ((imageData[len + 1] & 0xFF) << 16)
-                + ((imageData[len + 2] & 0xFF) << 8) + (imageData[len + 3] & 0xFF);
-        int height = (imageData[len + 4] << 24) + ((imageData[len + 5] & 0xFF) << 16)
-                + ((imageData[len + 6] & 0xFF) << 8) + (imageData[len + 7] & 0xFF);
-        Log.d(TAG, "ImLength = " + (len) + ", W = " + width + ", H = " + height);
-
-        if (width <= 0 || height <= 0) {
-            // TODO: pop up an error message indicating that the final result is not generated.
-            Log.e(TAG, "width|height <= 0!!, len = " + (len) + ", W = " + width + ", H = " +
-                    height);
-            return new MosaicJpeg();
-        }
-
-        YuvImage yuvimage = new YuvImage(imageData, ImageFormat.NV21, width, height, null);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        yuvimage.compressToJpeg(new Rect(0, 0, width, height), 100, out);
-        try {
-            out.close();
-        } catch (Exception e) {
-            Log.e(TAG, "Exception in storing final mosaic", e);
-            return new MosaicJpeg();
-        }
-        return new MosaicJpeg(out.toByteArray(), width, height);
+        return MosaicJpeg.encode(imageData, 100);
     }
 
     private void startCameraPreview() {
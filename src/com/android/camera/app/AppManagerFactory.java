@@ -39,8 +39,8 @@ public class AppManagerFactory {
 
     /** No public constructor. */
     private AppManagerFactory(Context ctx) {
-        mPanoramaStitchingManager = new PanoramaStitchingManager(ctx);
         mGcamProcessingManager = new PlaceholderManager(ctx);
+        mPanoramaStitchingManager = new PanoramaStitchingManager(ctx, mGcamProcessingManager);
     }
 
     public PanoramaStitchingManager getPanoramaStitchingManager() {
@@ -17,15 +17,16 @@
 package com.android.camera.app;
 
 import android.content.Context;
-import android.graphics.BitmapFactory;
 import android.location.Location;
 import android.net.Uri;
 
+import com.android.camera.CapturedImage;
 import com.android.camera.ImageTaskManager;
 import com.android.camera.Storage;
 import com.android.camera.exif.ExifInterface;
 import com.android.camera.util.CameraUtil;
 
+import java.io.File;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -135,12 +136,11 @@ public class PlaceholderManager implements ImageTaskManager {
             throw new IllegalArgumentException("Null argument passed to insertPlaceholder");
         }
 
-        // Decode bounds
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeByteArray(placeholder, 0, placeholder.length, options);
-        int width = options.outWidth;
-        int height = options.outHeight;
+        // Read the bounds from the frame header.
+        CapturedImage image = new CapturedImage(placeholder);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        image.release();
 
         if (width <= 0 || height <= 0) {
             throw new IllegalArgumentException("Image had bad height/width");
@@ -171,6 +171,12 @@ public class PlaceholderManager implements ImageTaskManager {
         Storage.getInstance().updateImage(
                 session.outputUri, mContext.getContentResolver(), session.outputTitle,
                 session.time, location, orientation, exif, jpeg, width, height, mimeType);
+        // The image may have been written somewhere else than the placeholder.
+        String placeholderPath = getPlaceholderPath(session);
+        if (!placeholderPath.equals(
+                Storage.getInstance().generateFilepath(session.outputTitle, mimeType))) {
+            new File(placeholderPath).delete();
+        }
 
         synchronized (mListenerRefs) {
             for (TaskListener l : getListeners()) {
@@ -182,6 +188,12 @@ public class PlaceholderManager implements ImageTaskManager {
 
     public void removePlaceholder(Session session) {
         Storage.getInstance().deleteImage(mContext.getContentResolver(), session.outputUri);
+        new File(getPlaceholderPath(session)).delete();
+    }
+
+    private static String getPlaceholderPath(Session session) {
+        return Storage.getInstance().generateFilepath(
+                session.outputTitle, PLACEHOLDER_MIME_TYPE);
     }
 
 }
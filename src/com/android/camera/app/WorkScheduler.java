@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.app;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A singleton scheduler for all the background work of the app, such as
+ * saving captures and decoding bitmaps.
+ * <p>
+ * Work is submitted to one of the lanes. Capture saves have their own worker
+ * so they never wait behind other work. All the other lanes share a bounded
+ * set of background priority workers, and pending work in a lane is always
+ * taken before pending work in the lanes after it.
+ * <p>
+ * Within a lane, pending work is taken by priority, then in the order it was
+ * submitted.
+ */
+public class WorkScheduler {
+    private static final String TAG = "CAM_WorkScheduler";
+
+    /** Saving captured photos and videos. */
+    public static final int LANE_CAPTURE_SAVE = 0;
+    /** Decoding bitmaps which are visible on the screen. */
+    public static final int LANE_VISIBLE_THUMBNAIL = 1;
+    /** Decoding bitmaps which will probably be visible soon. */
+    public static final int LANE_PREFETCH = 2;
+    /** Loading metadata of media. */
+    public static final int LANE_METADATA = 3;
+    /** Anything else which can wait. */
+    public static final int LANE_IDLE = 4;
+    private static final int LANE_COUNT = 5;
+
+    /** Work which can wait for the rest of its lane. */
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_DEFAULT = 1;
+    /** Work which goes ahead of the rest of its lane. */
+    public static final int PRIORITY_HIGH = 2;
+    private static final int PRIORITY_COUNT = 3;
+
+    private static final int MIN_SHARED_WORKERS = 2;
+
+    private static WorkScheduler sScheduler;
+
+    public static synchronized WorkScheduler getInstance() {
+        if (sScheduler == null) {
+            sScheduler = new WorkScheduler();
+        }
+        return sScheduler;
+    }
+
+    /**
+     * A handle of the submitted work, which can be used to cancel the work.
+     * Long running work should check {@link #isCancelled()} periodically.
+     */
+    public static class Token {
+        private volatile boolean mCancelled;
+        private Job mJob;
+
+        /**
+         * Cancels the work. If the work has not started, it will not be run.
+         *
+         * @return {@code false} if the work has already started or finished.
+         */
+        public boolean cancel() {
+            mCancelled = true;
+            Job job = mJob;
+            return job != null && job.mQueue.remove(job);
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * Takes the work out of the queue if it has not started, without
+         * cancelling it, so the same work can be submitted again. Work which
+         * has already been taken by a worker runs as usual.
+         *
+         * @return {@code false} if the work has already started or finished.
+         */
+        public boolean remove() {
+            Job job = mJob;
+            if (job == null || mCancelled) {
+                return false;
+            }
+            synchronized (job) {
+                return job.mQueue.remove(job);
+            }
+        }
+
+        /**
+         * Changes the priority of the work, if it has not started.
+         *
+         * @return {@code false} if the work has already started or finished.
+         */
+        public boolean setPriority(int priority) {
+            checkPriority(priority);
+            Job job = mJob;
+            if (job == null || mCancelled) {
+                return false;
+            }
+            synchronized (job) {
+                if (!job.mQueue.remove(job)) {
+                    return false;
+                }
+                job.mPriority = priority;
+                job.mQueue.add(job);
+            }
+            return true;
+        }
+    }
+
+    private class Job implements Runnable, Comparable<Job> {
+        final int mLane;
+        // Only changed while the job is out of its queue.
+        int mPriority;
+        final long mSequence;
+        final Runnable mWork;
+        final Token mToken;
+        final BlockingQueue<Runnable> mQueue;
+
+        Job(int lane, int priority, long sequence, Runnable work, Token token,
+                BlockingQueue<Runnable> queue) {
+            mLane = lane;
+            mPriority = priority;
+            mSequence = sequence;
+            mWork = work;
+            mToken = token;
+            mQueue = queue;
+        }
+
+        @Override
+        public void run() {
+            if (!mToken.isCancelled()) {
+                mWork.run();
+            }
+        }
+
+        @Override
+        public int compareTo(Job another) {
+            if (mLane != another.mLane) {
+                return mLane < another.mLane ? -1 : 1;
+            }
+            if (mPriority != another.mPriority) {
+                return mPriority > another.mPriority ? -1 : 1;
+            }
+            return mSequence < another.mSequence ? -1
+                    : (mSequence == another.mSequence ? 0 : 1);
+        }
+    }
+
+    private static class Worker extends Thread {
+        private final BlockingQueue<Runnable> mQueue;
+        private final int mPriority;
+
+        Worker(String name, BlockingQueue<Runnable> queue, int priority) {
+            super(name);
+            mQueue = queue;
+            mPriority = priority;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(mPriority);
+            while (true) {
+                Runnable r;
+                try {
+                    r = mQueue.take();
+                } catch (InterruptedException e) {
+                    // The workers live as long as the process, an interrupt
+                    // only ever targets the work.
+                    Log.w(TAG, getName() + " interrupted while idle");
+                    continue;
+                }
+                r.run();
+                // A FutureTask cancelled with an interrupt leaves the flag
+                // set, clear it so it doesn't reach the next work.
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private final BlockingQueue<Runnable> mCaptureQueue = new PriorityBlockingQueue<Runnable>();
+    private final BlockingQueue<Runnable> mSharedQueue = new PriorityBlockingQueue<Runnable>();
+    private final Executor[][] mExecutors = new Executor[LANE_COUNT][PRIORITY_COUNT];
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /** No public constructor. */
+    private WorkScheduler() {
+        for (int i = 0; i < LANE_COUNT; i++) {
+            final int lane = i;
+            for (int j = 0; j < PRIORITY_COUNT; j++) {
+                final int priority = j;
+                mExecutors[i][j] = new Executor() {
+                    @Override
+                    public void execute(Runnable r) {
+                        submit(lane, priority, r);
+                    }
+                };
+            }
+        }
+
+        new Worker("CaptureSaveWorker", mCaptureQueue,
+                Process.THREAD_PRIORITY_DEFAULT).start();
+        // Leave one core to the UI and the camera handler threads, but keep
+        // two workers, so a long run of work in the first lanes doesn't hold
+        // the later lanes up on a device with few cores.
+        int workers = Math.max(MIN_SHARED_WORKERS,
+                Runtime.getRuntime().availableProcessors() - 1);
+        for (int i = 0; i < workers; i++) {
+            new Worker("BackgroundWorker-" + i, mSharedQueue,
+                    Process.THREAD_PRIORITY_BACKGROUND).start();
+        }
+    }
+
+    /**
+     * Submits the work to a lane.
+     *
+     * @param lane One of the {@code LANE_*} constants.
+     * @param work The work to run.
+     * @return The {@link Token} to cancel the work.
+     */
+    public Token submit(int lane, Runnable work) {
+        return submit(lane, PRIORITY_DEFAULT, work);
+    }
+
+    /**
+     * Submits the work to a lane, with a priority.
+     *
+     * @param lane One of the {@code LANE_*} constants.
+     * @param priority One of the {@code PRIORITY_*} constants.
+     * @param work The work to run.
+     * @return The {@link Token} to cancel the work or change its priority.
+     */
+    public Token submit(int lane, int priority, Runnable work) {
+        if (lane < 0 || lane >= LANE_COUNT) {
+            throw new IllegalArgumentException("Unknown lane: " + lane);
+        }
+        checkPriority(priority);
+        BlockingQueue<Runnable> queue =
+                (lane == LANE_CAPTURE_SAVE ? mCaptureQueue : mSharedQueue);
+        Token token = new Token();
+        Job job = new Job(lane, priority, mSequence.getAndIncrement(), work, token, queue);
+        token.mJob = job;
+        queue.add(job);
+        return token;
+    }
+
+    /**
+     * Returns an {@link Executor} which submits to the lane, for example to
+     * run an {@link android.os.AsyncTask} with
+     * {@link android.os.AsyncTask#executeOnExecutor}.
+     */
+    public Executor getExecutor(int lane) {
+        return mExecutors[lane][PRIORITY_DEFAULT];
+    }
+
+    /** Returns an {@link Executor} which submits to the lane with the priority. */
+    public Executor getExecutor(int lane, int priority) {
+        checkPriority(priority);
+        return mExecutors[lane][priority];
+    }
+
+    private static void checkPriority(int priority) {
+        if (priority < 0 || priority >= PRIORITY_COUNT) {
+            throw new IllegalArgumentException("Unknown priority: " + priority);
+        }
+    }
+}
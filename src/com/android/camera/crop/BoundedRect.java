@@ -19,11 +19,12 @@ import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.graphics.RectF;
 
-import java.util.Arrays;
-
 /**
  * Maintains invariant that inner rectangle is constrained to be within the
  * outer, rotated rectangle.
+ * <p>
+ * The moves and resizes run on every touch event, so they work on the
+ * scratch arrays below and don't allocate. Not thread safe.
  */
 public class BoundedRect {
     private float rot;
@@ -31,6 +32,20 @@ public class BoundedRect {
     private RectF inner;
     private float[] innerRotated;
 
+    // scratch state for the moves and resizes
+    private final Matrix rotMatrix = new Matrix();
+    private final Matrix inverseRotMatrix = new Matrix();
+    private final RectF scratchRect = new RectF();
+    private final float[] outerCorners = new float[8];
+    private final float[] oldInnerCorners = new float[8];
+    private final float[] newInnerCorners = new float[8];
+    private final float[] unrotated = new float[8];
+    private final float[] side = new float[4];
+    private final float[] path = new float[4];
+    private final float[] point = new float[2];
+    private final float[] vec = new float[2];
+    private final float[] correction = new float[2];
+
     public BoundedRect(float rotation, Rect outerRect, Rect innerRect) {
         rot = rotation;
         outer = new RectF(outerRect);
@@ -55,7 +70,7 @@ public class BoundedRect {
         rot = rotation;
         outer.set(outerRect);
         inner.set(innerRect);
-        innerRotated = CropMath.getCornersFromRect(inner);
+        CropMath.getCornersFromRect(inner, innerRotated);
         rotateInner();
         if (!isConstrained())
             reconstrain();
@@ -67,8 +82,8 @@ public class BoundedRect {
     public void setInner(RectF newInner) {
         if (inner.equals(newInner))
             return;
-        inner = newInner;
-        innerRotated = CropMath.getCornersFromRect(inner);
+        inner.set(newInner);
+        CropMath.getCornersFromRect(inner, innerRotated);
         rotateInner();
         if (!isConstrained())
             reconstrain();
@@ -81,7 +96,7 @@ public class BoundedRect {
         if (rotation == rot)
             return;
         rot = rotation;
-        innerRotated = CropMath.getCornersFromRect(inner);
+        CropMath.getCornersFromRect(inner, innerRotated);
         rotateInner();
         if (!isConstrained())
             reconstrain();
@@ -111,30 +126,34 @@ public class BoundedRect {
     public void moveInner(float dx, float dy) {
         Matrix m0 = getInverseRotMatrix();
 
-        RectF translatedInner = new RectF(inner);
+        RectF translatedInner = scratchRect;
+        translatedInner.set(inner);
         translatedInner.offset(dx, dy);
 
-        float[] translatedInnerCorners = CropMath.getCornersFromRect(translatedInner);
-        float[] outerCorners = CropMath.getCornersFromRect(outer);
+        // innerRotated isn't read again before it is set to the result
+        float[] translatedInnerCorners = CropMath.getCornersFromRect(translatedInner,
+                innerRotated);
+        CropMath.getCornersFromRect(outer, outerCorners);
 
         m0.mapPoints(translatedInnerCorners);
-        float[] correction = {
-                0, 0
-        };
+        correction[0] = 0;
+        correction[1] = 0;
 
         // find correction vectors for corners that have moved out of bounds
         for (int i = 0; i < translatedInnerCorners.length; i += 2) {
             float correctedInnerX = translatedInnerCorners[i] + correction[0];
             float correctedInnerY = translatedInnerCorners[i + 1] + correction[1];
             if (!CropMath.inclusiveContains(outer, correctedInnerX, correctedInnerY)) {
-                float[] badCorner = {
-                        correctedInnerX, correctedInnerY
-                };
-                float[] nearestSide = CropMath.closestSide(badCorner, outerCorners);
-                float[] correctionVec =
-                        GeometryMathUtils.shortestVectorFromPointToLine(badCorner, nearestSide);
-                correction[0] += correctionVec[0];
-                correction[1] += correctionVec[1];
+                float[] badCorner = point;
+                badCorner[0] = correctedInnerX;
+                badCorner[1] = correctedInnerY;
+                if (CropMath.closestSide(badCorner, outerCorners, side, vec)
+                        && GeometryMathUtils.shortestVectorFromPointToLine(
+                                badCorner[0], badCorner[1],
+                                side[0], side[1], side[2], side[3], vec)) {
+                    correction[0] += vec[0];
+                    correction[1] += vec[1];
+                }
             }
         }
 
@@ -142,9 +161,9 @@ public class BoundedRect {
             float correctedInnerX = translatedInnerCorners[i] + correction[0];
             float correctedInnerY = translatedInnerCorners[i + 1] + correction[1];
             if (!CropMath.inclusiveContains(outer, correctedInnerX, correctedInnerY)) {
-                float[] correctionVec = {
-                        correctedInnerX, correctedInnerY
-                };
+                float[] correctionVec = vec;
+                correctionVec[0] = correctedInnerX;
+                correctionVec[1] = correctedInnerY;
                 CropMath.getEdgePoints(outer, correctionVec);
                 correctionVec[0] -= correctedInnerX;
                 correctionVec[1] -= correctedInnerY;
@@ -162,7 +181,6 @@ public class BoundedRect {
             translatedInnerCorners[i + 1] = correctedInnerY;
         }
 
-        innerRotated = translatedInnerCorners;
         // reconstrain to update inner
         reconstrain();
     }
@@ -175,28 +193,31 @@ public class BoundedRect {
         Matrix m = getRotMatrix();
         Matrix m0 = getInverseRotMatrix();
 
-        float[] outerCorners = CropMath.getCornersFromRect(outer);
+        CropMath.getCornersFromRect(outer, outerCorners);
         m.mapPoints(outerCorners);
-        float[] oldInnerCorners = CropMath.getCornersFromRect(inner);
-        float[] newInnerCorners = CropMath.getCornersFromRect(newInner);
-        RectF ret = new RectF(newInner);
+        CropMath.getCornersFromRect(inner, oldInnerCorners);
+        CropMath.getCornersFromRect(newInner, newInnerCorners);
+        RectF ret = scratchRect;
+        ret.set(newInner);
 
         for (int i = 0; i < newInnerCorners.length; i += 2) {
-            float[] c = {
-                    newInnerCorners[i], newInnerCorners[i + 1]
-            };
-            float[] c0 = Arrays.copyOf(c, 2);
+            float[] c0 = point;
+            c0[0] = newInnerCorners[i];
+            c0[1] = newInnerCorners[i + 1];
             m0.mapPoints(c0);
             if (!CropMath.inclusiveContains(outer, c0[0], c0[1])) {
-                float[] outerSide = CropMath.closestSide(c, outerCorners);
-                float[] pathOfCorner = {
-                        newInnerCorners[i], newInnerCorners[i + 1],
-                        oldInnerCorners[i], oldInnerCorners[i + 1]
-                };
-                float[] p = GeometryMathUtils.lineIntersect(pathOfCorner, outerSide);
-                if (p == null) {
+                float[] c = point;
+                c[0] = newInnerCorners[i];
+                c[1] = newInnerCorners[i + 1];
+                float[] pathOfCorner = path;
+                pathOfCorner[0] = newInnerCorners[i];
+                pathOfCorner[1] = newInnerCorners[i + 1];
+                pathOfCorner[2] = oldInnerCorners[i];
+                pathOfCorner[3] = oldInnerCorners[i + 1];
+                float[] p = vec;
+                if (!CropMath.closestSide(c, outerCorners, side, p)
+                        || !GeometryMathUtils.lineIntersect(pathOfCorner, side, p)) {
                     // lines are parallel or not well defined, so don't resize
-                    p = new float[2];
                     p[0] = oldInnerCorners[i];
                     p[1] = oldInnerCorners[i + 1];
                 }
@@ -228,9 +249,7 @@ public class BoundedRect {
                 }
             }
         }
-        float[] retCorners = CropMath.getCornersFromRect(ret);
-        m0.mapPoints(retCorners);
-        innerRotated = retCorners;
+        m0.mapPoints(CropMath.getCornersFromRect(ret, innerRotated));
         // reconstrain to update inner
         reconstrain();
     }
@@ -247,11 +266,11 @@ public class BoundedRect {
         float aspectW = inner.width();
         float aspectH = inner.height();
         float aspRatio = aspectW / aspectH;
-        float[] corners = CropMath.getCornersFromRect(outer);
+        float[] corners = CropMath.getCornersFromRect(outer, outerCorners);
 
         m.mapPoints(corners);
-        float[] oldInnerCorners = CropMath.getCornersFromRect(inner);
-        float[] newInnerCorners = CropMath.getCornersFromRect(newInner);
+        CropMath.getCornersFromRect(inner, oldInnerCorners);
+        CropMath.getCornersFromRect(newInner, newInnerCorners);
 
         // find fixed corner
         int fixed = -1;
@@ -272,25 +291,27 @@ public class BoundedRect {
         float widthSoFar = newInner.width();
         int moved = -1;
         for (int i = 0; i < newInnerCorners.length; i += 2) {
-            float[] c = {
-                    newInnerCorners[i], newInnerCorners[i + 1]
-            };
-            float[] c0 = Arrays.copyOf(c, 2);
+            float[] c0 = point;
+            c0[0] = newInnerCorners[i];
+            c0[1] = newInnerCorners[i + 1];
             m0.mapPoints(c0);
             if (!CropMath.inclusiveContains(outer, c0[0], c0[1])) {
                 moved = i;
                 if (moved == fixed)
                     continue;
-                float[] l2 = CropMath.closestSide(c, corners);
-                float[] l1 = {
-                        newInnerCorners[i], newInnerCorners[i + 1],
-                        oldInnerCorners[i], oldInnerCorners[i + 1]
-                };
-                float[] p = GeometryMathUtils.lineIntersect(l1, l2);
-                if (p == null) {
+                float[] c = point;
+                c[0] = newInnerCorners[i];
+                c[1] = newInnerCorners[i + 1];
+                float[] l1 = path;
+                l1[0] = newInnerCorners[i];
+                l1[1] = newInnerCorners[i + 1];
+                l1[2] = oldInnerCorners[i];
+                l1[3] = oldInnerCorners[i + 1];
+                float[] p = vec;
+                if (!CropMath.closestSide(c, corners, side, p)
+                        || !GeometryMathUtils.lineIntersect(l1, side, p)) {
                     // lines are parallel or not well defined, so set to old
                     // corner
-                    p = new float[2];
                     p[0] = oldInnerCorners[i];
                     p[1] = oldInnerCorners[i + 1];
                 }
@@ -307,7 +328,8 @@ public class BoundedRect {
         }
 
         float heightSoFar = widthSoFar / aspRatio;
-        RectF ret = new RectF(inner);
+        RectF ret = scratchRect;
+        ret.set(inner);
         if (fixed == 0) {
             ret.right = ret.left + widthSoFar;
             ret.bottom = ret.top + heightSoFar;
@@ -321,9 +343,7 @@ public class BoundedRect {
             ret.right = ret.left + widthSoFar;
             ret.top = ret.bottom - heightSoFar;
         }
-        float[] retCorners = CropMath.getCornersFromRect(ret);
-        m0.mapPoints(retCorners);
-        innerRotated = retCorners;
+        m0.mapPoints(CropMath.getCornersFromRect(ret, innerRotated));
         // reconstrain to update inner
         reconstrain();
     }
@@ -342,9 +362,9 @@ public class BoundedRect {
         // innerRotated has been changed to have incorrect values
         CropMath.getEdgePoints(outer, innerRotated);
         Matrix m = getRotMatrix();
-        float[] unrotated = Arrays.copyOf(innerRotated, 8);
+        System.arraycopy(innerRotated, 0, unrotated, 0, 8);
         m.mapPoints(unrotated);
-        inner = CropMath.trapToRect(unrotated);
+        CropMath.trapToRect(unrotated, inner);
     }
 
     private void rotateInner() {
@@ -353,14 +373,12 @@ public class BoundedRect {
     }
 
     private Matrix getRotMatrix() {
-        Matrix m = new Matrix();
-        m.setRotate(rot, outer.centerX(), outer.centerY());
-        return m;
+        rotMatrix.setRotate(rot, outer.centerX(), outer.centerY());
+        return rotMatrix;
     }
 
     private Matrix getInverseRotMatrix() {
-        Matrix m = new Matrix();
-        m.setRotate(-rot, outer.centerX(), outer.centerY());
-        return m;
+        inverseRotMatrix.setRotate(-rot, outer.centerX(), outer.centerY());
+        return inverseRotMatrix;
     }
 }
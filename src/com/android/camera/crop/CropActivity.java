@@ -42,6 +42,7 @@ import android.view.View.OnClickListener;
 import android.view.WindowManager;
 import android.widget.Toast;
 
+import com.android.camera.app.WorkScheduler;
 import com.android.camera2.R;
 
 import java.io.ByteArrayInputStream;
@@ -184,7 +185,8 @@ public class CropActivity extends Activity {
             final View loading = findViewById(R.id.loading);
             loading.setVisibility(View.VISIBLE);
             mLoadBitmapTask = new LoadBitmapTask();
-            mLoadBitmapTask.execute(uri);
+            mLoadBitmapTask.executeOnExecutor(WorkScheduler.getInstance().getExecutor(
+                    WorkScheduler.LANE_VISIBLE_THUMBNAIL), uri);
         } else {
             cannotLoadImage();
             done();
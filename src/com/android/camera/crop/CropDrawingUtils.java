@@ -25,13 +25,32 @@ import android.graphics.RectF;
 import android.graphics.Region;
 import android.graphics.drawable.Drawable;
 
+/**
+ * Drawing helpers of the crop view. They are called on every frame while the
+ * crop is dragged, so they draw with preallocated paints and geometry and
+ * must only be called on the UI thread.
+ */
 public abstract class CropDrawingUtils {
+    private static final Paint sRuleOfThirdPaint = new Paint();
+    private static final Paint sCropRectPaint = new Paint();
+    private static final Paint sShadePaint = new Paint();
+    private static final RectF sRect1 = new RectF();
+    private static final RectF sRect2 = new RectF();
+    private static final Path sPath = new Path();
+
+    static {
+        sRuleOfThirdPaint.setStyle(Paint.Style.STROKE);
+        sRuleOfThirdPaint.setColor(Color.argb(128, 255, 255, 255));
+        sRuleOfThirdPaint.setStrokeWidth(2);
+        sCropRectPaint.setStyle(Paint.Style.STROKE);
+        sCropRectPaint.setColor(Color.WHITE);
+        sCropRectPaint.setStrokeWidth(3);
+        sShadePaint.setStyle(Paint.Style.FILL);
+        sShadePaint.setColor(Color.BLACK & 0x88000000);
+    }
 
     public static void drawRuleOfThird(Canvas canvas, RectF bounds) {
-        Paint p = new Paint();
-        p.setStyle(Paint.Style.STROKE);
-        p.setColor(Color.argb(128, 255, 255, 255));
-        p.setStrokeWidth(2);
+        Paint p = sRuleOfThirdPaint;
         float stepX = bounds.width() / 3.0f;
         float stepY = bounds.height() / 3.0f;
         float x = bounds.left + stepX;
@@ -47,21 +66,15 @@ public abstract class CropDrawingUtils {
     }
 
     public static void drawCropRect(Canvas canvas, RectF bounds) {
-        Paint p = new Paint();
-        p.setStyle(Paint.Style.STROKE);
-        p.setColor(Color.WHITE);
-        p.setStrokeWidth(3);
-        canvas.drawRect(bounds, p);
+        canvas.drawRect(bounds, sCropRectPaint);
     }
 
     public static void drawShade(Canvas canvas, RectF bounds) {
         int w = canvas.getWidth();
         int h = canvas.getHeight();
-        Paint p = new Paint();
-        p.setStyle(Paint.Style.FILL);
-        p.setColor(Color.BLACK & 0x88000000);
+        Paint p = sShadePaint;
 
-        RectF r = new RectF();
+        RectF r = sRect1;
         r.set(0,0,w,bounds.top);
         canvas.drawRect(r, p);
         r.set(0,bounds.top,bounds.left,h);
@@ -118,18 +131,21 @@ public abstract class CropDrawingUtils {
         float sy = cropBounds.height() * spotY;
         float cx = cropBounds.centerX();
         float cy = cropBounds.centerY();
-        RectF r1 = new RectF(cx - sx / 2, cy - sy / 2, cx + sx / 2, cy + sy / 2);
+        RectF r1 = sRect1;
+        r1.set(cx - sx / 2, cy - sy / 2, cx + sx / 2, cy + sy / 2);
         float temp = sx;
         sx = sy;
         sy = temp;
-        RectF r2 = new RectF(cx - sx / 2, cy - sy / 2, cx + sx / 2, cy + sy / 2);
+        RectF r2 = sRect2;
+        r2.set(cx - sx / 2, cy - sy / 2, cx + sx / 2, cy + sy / 2);
         canvas.save();
         canvas.clipRect(cropBounds);
         canvas.clipRect(r1, Region.Op.DIFFERENCE);
         canvas.clipRect(r2, Region.Op.DIFFERENCE);
         canvas.drawPaint(shadowPaint);
         canvas.restore();
-        Path path = new Path();
+        Path path = sPath;
+        path.reset();
         path.moveTo(r1.left, r1.top);
         path.lineTo(r1.right, r1.top);
         path.moveTo(r1.left, r1.top);
@@ -172,7 +188,7 @@ public abstract class CropDrawingUtils {
 
     public static boolean setImageToScreenMatrix(Matrix dst, RectF image,
             RectF screen, int rotation) {
-        RectF rotatedImage = new RectF();
+        RectF rotatedImage = sRect1;
         dst.setRotate(rotation, image.centerX(), image.centerY());
         if (!dst.mapRect(rotatedImage, image)) {
             return false; // fails for rotations that are not multiples of 90
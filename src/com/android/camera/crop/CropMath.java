@@ -38,13 +38,27 @@ public class CropMath {
      */
 
     public static float[] getCornersFromRect(RectF r) {
-        float[] corners = {
-                r.left, r.top,
-                r.right, r.top,
-                r.right, r.bottom,
-                r.left, r.bottom
-        };
-        return corners;
+        return getCornersFromRect(r, new float[8]);
+    }
+
+    /**
+     * Same as {@link #getCornersFromRect(RectF)}, writing the corners into
+     * the given array.
+     *
+     * @param r  the rectangle to get the corners of
+     * @param out  the array to write the corners into (at least 8 floats)
+     * @return  out
+     */
+    public static float[] getCornersFromRect(RectF r, float[] out) {
+        out[0] = r.left;
+        out[1] = r.top;
+        out[2] = r.right;
+        out[3] = r.top;
+        out[4] = r.right;
+        out[5] = r.bottom;
+        out[6] = r.left;
+        out[7] = r.bottom;
+        return out;
     }
 
     /**
@@ -69,7 +83,18 @@ public class CropMath {
      * @return smallest rectangle containing coordinates
      */
     public static RectF trapToRect(float[] array) {
-        RectF r = new RectF(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+        return trapToRect(array, new RectF());
+    }
+
+    /**
+     * Same as {@link #trapToRect(float[])}, setting the given rectangle.
+     *
+     * @param array array of 2D coordinates
+     * @param r gets set to the smallest rectangle containing coordinates
+     * @return r
+     */
+    public static RectF trapToRect(float[] array, RectF r) {
+        r.set(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
                 Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
         for (int i = 1; i < array.length; i += 2) {
             float x = array[i - 1];
@@ -109,22 +134,47 @@ public class CropMath {
      * @return two corners representing the side of the rectangle
      */
     public static float[] closestSide(float[] point, float[] corners) {
+        float[] line = new float[4];
+        if (!closestSide(point, corners, line, new float[2]))
+            return null;
+        return line;
+    }
+
+    /**
+     * Same as {@link #closestSide(float[], float[])}, writing the side into
+     * the given array.
+     *
+     * @param point the point which is being checked
+     * @param corners the corners of the rectangle
+     * @param outLine gets set to the two corners representing the side
+     * @param scratch a 2 float array used for the intermediate vectors
+     * @return false if there is no side, in which case outLine is unchanged
+     */
+    public static boolean closestSide(float[] point, float[] corners, float[] outLine,
+            float[] scratch) {
         int len = corners.length;
         float oldMag = Float.POSITIVE_INFINITY;
-        float[] bestLine = null;
+        int best = -1;
         for (int i = 0; i < len; i += 2) {
-            float[] line = {
+            if (!GeometryMathUtils.shortestVectorFromPointToLine(point[0], point[1],
                     corners[i], corners[(i + 1) % len],
-                    corners[(i + 2) % len], corners[(i + 3) % len]
-            };
-            float mag = GeometryMathUtils.vectorLength(
-                    GeometryMathUtils.shortestVectorFromPointToLine(point, line));
+                    corners[(i + 2) % len], corners[(i + 3) % len], scratch)) {
+                // degenerate side
+                continue;
+            }
+            float mag = GeometryMathUtils.vectorLength(scratch);
             if (mag < oldMag) {
                 oldMag = mag;
-                bestLine = line;
+                best = i;
             }
         }
-        return bestLine;
+        if (best < 0)
+            return false;
+        outLine[0] = corners[best];
+        outLine[1] = corners[(best + 1) % len];
+        outLine[2] = corners[(best + 2) % len];
+        outLine[3] = corners[(best + 3) % len];
+        return true;
     }
 
     /**
@@ -44,6 +44,12 @@ public class CropObject {
 
     private int mMovingEdges = MOVE_NONE;
 
+    // Scratch state for the drags, which run on every touch event.
+    private final RectF mCrop = new RectF();
+    private final RectF mNewCrop = new RectF();
+    private final float[] mDiagonal = new float[2];
+    private final float[] mDisplacement = new float[2];
+
     public CropObject(Rect outerBound, Rect innerBound, int outerAngle) {
         mBoundedRect = new BoundedRect(outerAngle % 360, outerBound, innerBound);
     }
@@ -187,7 +193,8 @@ public class CropObject {
         if (mMovingEdges == MOVE_NONE) {
             return false;
         }
-        RectF crop = mBoundedRect.getInner();
+        RectF crop = mCrop;
+        mBoundedRect.setToInner(crop);
 
         float minWidthHeight = mMinSideSize;
 
@@ -215,27 +222,26 @@ public class CropObject {
             }
 
             if (mFixAspectRatio) {
-                float[] l1 = {
-                        crop.left, crop.bottom
-                };
-                float[] l2 = {
-                        crop.right, crop.top
-                };
+                float l1y = crop.bottom;
+                float l2y = crop.top;
                 if (movingEdges == TOP_LEFT || movingEdges == BOTTOM_RIGHT) {
-                    l1[1] = crop.top;
-                    l2[1] = crop.bottom;
+                    l1y = crop.top;
+                    l2y = crop.bottom;
                 }
-                float[] b = {
-                        l1[0] - l2[0], l1[1] - l2[1]
-                };
-                float[] disp = {
-                        dx, dy
-                };
-                float[] bUnit = GeometryMathUtils.normalize(b);
+                float[] bUnit = mDiagonal;
+                bUnit[0] = crop.left - crop.right;
+                bUnit[1] = l1y - l2y;
+                GeometryMathUtils.normalize(bUnit, bUnit);
+                float[] disp = mDisplacement;
+                disp[0] = dx;
+                disp[1] = dy;
                 float sp = GeometryMathUtils.scalarProjection(disp, bUnit);
                 dx = sp * bUnit[0];
                 dy = sp * bUnit[1];
-                RectF newCrop = fixedCornerResize(crop, movingEdges, dx, dy);
+                RectF newCrop = fixedCornerResize(crop, movingEdges, dx, dy, mNewCrop);
+                if (newCrop == null) {
+                    return true;
+                }
 
                 mBoundedRect.fixedAspectResizeInner(newCrop);
             } else {
@@ -260,7 +266,8 @@ public class CropObject {
     // Helper methods
 
     private int calculateSelectedEdge(float x, float y) {
-        RectF cropped = mBoundedRect.getInner();
+        RectF cropped = mCrop;
+        mBoundedRect.setToInner(cropped);
 
         float left = Math.abs(x - cropped.left);
         float right = Math.abs(x - cropped.right);
@@ -290,23 +297,26 @@ public class CropObject {
         return edgeSelected;
     }
 
-    private static RectF fixedCornerResize(RectF r, int moving_corner, float dx, float dy) {
-        RectF newCrop = null;
+    // Sets and returns out, or returns null if moving_corner isn't a corner.
+    private static RectF fixedCornerResize(RectF r, int moving_corner, float dx, float dy,
+            RectF out) {
         // Fix opposite corner in place and move sides
         if (moving_corner == BOTTOM_RIGHT) {
-            newCrop = new RectF(r.left, r.top, r.left + r.width() + dx, r.top + r.height()
+            out.set(r.left, r.top, r.left + r.width() + dx, r.top + r.height()
                     + dy);
         } else if (moving_corner == BOTTOM_LEFT) {
-            newCrop = new RectF(r.right - r.width() + dx, r.top, r.right, r.top + r.height()
+            out.set(r.right - r.width() + dx, r.top, r.right, r.top + r.height()
                     + dy);
         } else if (moving_corner == TOP_LEFT) {
-            newCrop = new RectF(r.right - r.width() + dx, r.bottom - r.height() + dy,
+            out.set(r.right - r.width() + dx, r.bottom - r.height() + dy,
                     r.right, r.bottom);
         } else if (moving_corner == TOP_RIGHT) {
-            newCrop = new RectF(r.left, r.bottom - r.height() + dy, r.left
+            out.set(r.left, r.bottom - r.height() + dy, r.left
                     + r.width() + dx, r.bottom);
+        } else {
+            return null;
         }
-        return newCrop;
+        return out;
     }
 
     private static int fixEdgeToCorner(int moving_edges) {
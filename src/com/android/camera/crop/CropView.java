@@ -42,6 +42,11 @@ public class CropView extends View {
     private RectF mScreenImageBounds = new RectF();
     private RectF mScreenCropBounds = new RectF();
     private Rect mShadowBounds = new Rect();
+    // Preallocated, onDraw runs on every frame of a drag.
+    private final Matrix mImageToScreen = new Matrix();
+    private final Matrix mScreenToImage = new Matrix();
+    private final Paint mOverlayShadowPaint = new Paint();
+    private final Paint mWPMarkerPaint = new Paint();
 
     private Bitmap mBitmap;
     private Paint mPaint = new Paint();
@@ -107,6 +112,14 @@ public class CropView extends View {
         mWPMarkerColor = (int) rsc.getColor(R.color.crop_wp_markers);
         mDashOnLength = rsc.getDimension(R.dimen.wp_selector_dash_length);
         mDashOffLength = rsc.getDimension(R.dimen.wp_selector_off_length);
+        mOverlayShadowPaint.setStyle(Paint.Style.FILL);
+        mWPMarkerPaint.setColor(mWPMarkerColor);
+        mWPMarkerPaint.setStrokeWidth(3);
+        mWPMarkerPaint.setStyle(Paint.Style.STROKE);
+        mWPMarkerPaint.setPathEffect(new DashPathEffect(new float[]
+                {mDashOnLength, mDashOnLength + mDashOffLength}, 0));
+        mPaint.setAntiAlias(true);
+        mPaint.setFilterBitmap(true);
     }
 
     public void initialize(Bitmap image, RectF newCropBounds, RectF newPhotoBounds, int rotation) {
@@ -294,8 +307,8 @@ public class CropView extends View {
             clearDisplay();
         }
 
-        mImageBounds = new RectF(0, 0, mBitmap.getWidth(), mBitmap.getHeight());
-        mScreenBounds = new RectF(0, 0, canvas.getWidth(), canvas.getHeight());
+        mImageBounds.set(0, 0, mBitmap.getWidth(), mBitmap.getHeight());
+        mScreenBounds.set(0, 0, canvas.getWidth(), canvas.getHeight());
         mScreenBounds.inset(mMargin, mMargin);
 
         // If crop object doesn't exist, create it and update it from master
@@ -307,7 +320,7 @@ public class CropView extends View {
 
         // If display matrix doesn't exist, create it and its dependencies
         if (mDisplayMatrix == null || mDisplayMatrixInverse == null) {
-            mDisplayMatrix = new Matrix();
+            mDisplayMatrix = mImageToScreen;
             mDisplayMatrix.reset();
             if (!CropDrawingUtils.setImageToScreenMatrix(mDisplayMatrix, mImageBounds, mScreenBounds,
                     mRotation)) {
@@ -315,7 +328,7 @@ public class CropView extends View {
                 mDisplayMatrix = null;
                 return;
             }
-            mDisplayMatrixInverse = new Matrix();
+            mDisplayMatrixInverse = mScreenToImage;
             mDisplayMatrixInverse.reset();
             if (!mDisplayMatrix.invert(mDisplayMatrixInverse)) {
                 Log.w(LOGTAG, "could not invert display matrix");
@@ -339,8 +352,6 @@ public class CropView extends View {
             mShadow.draw(canvas);
         }
 
-        mPaint.setAntiAlias(true);
-        mPaint.setFilterBitmap(true);
         // Draw actual bitmap
         canvas.drawBitmap(mBitmap, mDisplayMatrix, mPaint);
 
@@ -349,9 +360,8 @@ public class CropView extends View {
         if (mDisplayMatrix.mapRect(mScreenCropBounds)) {
 
             // Draw overlay shadows
-            Paint p = new Paint();
+            Paint p = mOverlayShadowPaint;
             p.setColor(mOverlayShadowColor);
-            p.setStyle(Paint.Style.FILL);
             CropDrawingUtils.drawShadows(canvas, p, mScreenCropBounds, mScreenImageBounds);
 
             // Draw crop rect and markers
@@ -359,15 +369,9 @@ public class CropView extends View {
             if (!mDoSpot) {
                 CropDrawingUtils.drawRuleOfThird(canvas, mScreenCropBounds);
             } else {
-                Paint wpPaint = new Paint();
-                wpPaint.setColor(mWPMarkerColor);
-                wpPaint.setStrokeWidth(3);
-                wpPaint.setStyle(Paint.Style.STROKE);
-                wpPaint.setPathEffect(new DashPathEffect(new float[]
-                        {mDashOnLength, mDashOnLength + mDashOffLength}, 0));
                 p.setColor(mOverlayWPShadowColor);
                 CropDrawingUtils.drawWallpaperSelectionFrame(canvas, mScreenCropBounds,
-                        mSpotX, mSpotY, wpPaint, p);
+                        mSpotX, mSpotY, mWPMarkerPaint, p);
             }
             CropDrawingUtils.drawIndicators(canvas, mCropIndicator, mIndicatorSize,
                     mScreenCropBounds, mCropObj.isFixedAspect(), decode(mCropObj.getSelectState(), mRotation));
@@ -51,6 +51,19 @@ public final class GeometryMathUtils {
     }
 
     public static float[] lineIntersect(float[] line1, float[] line2) {
+        float[] intersect = new float[2];
+        if (!lineIntersect(line1, line2, intersect))
+            return null;
+        return intersect;
+    }
+
+    /**
+     * Intersects two lines, each given as two points [x0, y0, x1, y1].
+     *
+     * @param out gets set to the intersection.
+     * @return false if the lines are parallel, in which case out is unchanged.
+     */
+    public static boolean lineIntersect(float[] line1, float[] line2, float[] out) {
         float a0 = line1[0];
         float a1 = line1[1];
         float b0 = line1[2];
@@ -68,32 +81,40 @@ public final class GeometryMathUtils {
 
         float denom = t1 * t4 - t0 * t5;
         if (denom == 0)
-            return null;
+            return false;
         float u = (t3 * t4 + t5 * t2) / denom;
-        float[] intersect = {
-                b0 + u * t0, b1 + u * t1
-        };
-        return intersect;
+        out[0] = b0 + u * t0;
+        out[1] = b1 + u * t1;
+        return true;
     }
 
     public static float[] shortestVectorFromPointToLine(float[] point, float[] line) {
-        float x1 = line[0];
-        float x2 = line[2];
-        float y1 = line[1];
-        float y2 = line[3];
+        float[] vec = new float[2];
+        if (!shortestVectorFromPointToLine(point[0], point[1],
+                line[0], line[1], line[2], line[3], vec))
+            return null;
+        return vec;
+    }
+
+    /**
+     * Gets the shortest vector from the point (px, py) to the line going
+     * through (x1, y1) and (x2, y2).
+     *
+     * @param out gets set to the vector.
+     * @return false if the two points of the line are the same, in which case
+     *         out is unchanged.
+     */
+    public static boolean shortestVectorFromPointToLine(float px, float py,
+            float x1, float y1, float x2, float y2, float[] out) {
         float xdelt = x2 - x1;
         float ydelt = y2 - y1;
         if (xdelt == 0 && ydelt == 0)
-            return null;
-        float u = ((point[0] - x1) * xdelt + (point[1] - y1) * ydelt)
+            return false;
+        float u = ((px - x1) * xdelt + (py - y1) * ydelt)
                 / (xdelt * xdelt + ydelt * ydelt);
-        float[] ret = {
-                (x1 + u * (x2 - x1)), (y1 + u * (y2 - y1))
-        };
-        float[] vec = {
-                ret[0] - point[0], ret[1] - point[1]
-        };
-        return vec;
+        out[0] = (x1 + u * (x2 - x1)) - px;
+        out[1] = (y1 + u * (y2 - y1)) - py;
+        return true;
     }
 
     // A . B
@@ -102,11 +123,15 @@ public final class GeometryMathUtils {
     }
 
     public static float[] normalize(float[] a) {
+        return normalize(a, new float[2]);
+    }
+
+    // out may be a
+    public static float[] normalize(float[] a, float[] out) {
         float length = (float) Math.sqrt(a[0] * a[0] + a[1] * a[1]);
-        float[] b = {
-                a[0] / length, a[1] / length
-        };
-        return b;
+        out[0] = a[0] / length;
+        out[1] = a[1] / length;
+        return out;
     }
 
     // A onto B
@@ -138,14 +163,20 @@ public final class GeometryMathUtils {
 
     // A - B
     public static float[] vectorSubtract(float[] a, float[] b) {
+        if (a.length != b.length)
+            return null;
+        return vectorSubtract(a, b, new float[a.length]);
+    }
+
+    // A - B into out, which may be A or B
+    public static float[] vectorSubtract(float[] a, float[] b, float[] out) {
         int len = a.length;
-        if (len != b.length)
+        if (len != b.length || len > out.length)
             return null;
-        float[] ret = new float[len];
         for (int i = 0; i < len; i++) {
-            ret[i] = a[i] - b[i];
+            out[i] = a[i] - b[i];
         }
-        return ret;
+        return out;
     }
 
     public static float vectorLength(float[] a) {
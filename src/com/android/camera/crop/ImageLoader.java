@@ -26,13 +26,16 @@ import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
 import android.util.Log;
 import android.webkit.MimeTypeMap;
 
 import com.android.camera.exif.ExifInterface;
 import com.android.camera.exif.ExifTag;
+import com.android.camera.exif.JpegProbe;
 
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -129,7 +132,7 @@ public final class ImageLoader {
             String path = uri.getPath();
             ExifInterface exif = new ExifInterface();
             try {
-                exif.readExif(path);
+                exif.readExif(path, new int[] { ExifInterface.TAG_ORIENTATION });
                 Integer tagval = exif.getTagIntValue(ExifInterface.TAG_ORIENTATION);
                 if (tagval != null) {
                     int orientation = tagval;
@@ -224,7 +227,26 @@ public final class ImageLoader {
      * Returns the bounds of the bitmap stored at a given Url.
      */
     public static Rect loadBitmapBounds(Context context, Uri uri) {
+        // Read the JPEG headers first, which avoids decoding anything.
+        ParcelFileDescriptor pfd = null;
+        FileInputStream fis = null;
+        try {
+            pfd = context.getContentResolver().openFileDescriptor(uri, "r");
+            if (pfd != null) {
+                fis = new FileInputStream(pfd.getFileDescriptor());
+                JpegProbe.Result r = JpegProbe.probe(fis.getChannel());
+                if (r.isValid()) {
+                    return new Rect(0, 0, r.width, r.height);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(LOGTAG, "Failed to probe " + uri, e);
+        } finally {
+            Utils.closeSilently(fis);
+            Utils.closeSilently(pfd);
+        }
         BitmapFactory.Options o = new BitmapFactory.Options();
+        o.inJustDecodeBounds = true;
         loadBitmap(context, uri, o);
         return new Rect(0, 0, o.outWidth, o.outHeight);
     }
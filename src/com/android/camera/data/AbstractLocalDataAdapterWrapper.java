@@ -17,6 +17,7 @@
 package com.android.camera.data;
 
 import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.content.Context;
 import android.net.Uri;
 
@@ -64,6 +65,11 @@ public abstract class AbstractLocalDataAdapterWrapper implements LocalDataAdapte
         mAdapter.requestLoad(resolver);
     }
 
+    @Override
+    public void requestSync(ContentResolver resolver) {
+        mAdapter.requestSync(resolver);
+    }
+
     @Override
     public void addNewVideo(ContentResolver resolver, Uri uri) {
         mAdapter.addNewVideo(resolver, uri);
@@ -74,6 +80,16 @@ public abstract class AbstractLocalDataAdapterWrapper implements LocalDataAdapte
         mAdapter.addNewPhoto(resolver, uri);
     }
 
+    @Override
+    public void addNewVideo(ContentResolver resolver, Uri uri, ContentValues values) {
+        mAdapter.addNewVideo(resolver, uri, values);
+    }
+
+    @Override
+    public void addNewPhoto(ContentResolver resolver, Uri uri, ContentValues values) {
+        mAdapter.addNewPhoto(resolver, uri, values);
+    }
+
     @Override
     public void insertData(LocalData data) {
         mAdapter.insertData(data);
@@ -94,6 +110,11 @@ public abstract class AbstractLocalDataAdapterWrapper implements LocalDataAdapte
         return mAdapter.undoDataRemoval();
     }
 
+    @Override
+    public void expandBurst(Uri uri) {
+        mAdapter.expandBurst(uri);
+    }
+
     @Override
     public void refresh(ContentResolver resolver, Uri uri) {
         mAdapter.refresh(resolver, uri);
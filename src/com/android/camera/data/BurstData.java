@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.data;
+
+import android.app.Activity;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import com.android.camera.util.PhotoSphereHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The frames of one burst, shown as a single stacked item in the filmstrip.
+ * Everything but the size and the actions comes from the cover, the first
+ * frame of the burst, so only the cover's thumbnail is ever decoded. Frames
+ * which arrive while the burst is being shot are appended without touching
+ * the filmstrip layout.
+ * <p>
+ * Unlike the other {@link LocalData}, the frame list is mutable. It must only
+ * be changed on the UI thread.
+ */
+public class BurstData implements LocalData {
+    private static final int BADGE_PADDING = 8;
+    private static final int BADGE_TEXT_SIZE = 18;
+
+    private final String mBurstId;
+    private final ArrayList<LocalData> mFrames = new ArrayList<LocalData>();
+    private TextView mBadge;
+
+    /** Creates a burst with the cover as its only frame. */
+    public BurstData(String burstId, LocalData cover) {
+        mBurstId = burstId;
+        mFrames.add(cover);
+    }
+
+    /** Creates a burst of the frames, the first one being the cover. */
+    public BurstData(String burstId, List<LocalData> frames) {
+        if (frames.isEmpty()) {
+            throw new IllegalArgumentException("Empty burst " + burstId);
+        }
+        mBurstId = burstId;
+        mFrames.addAll(frames);
+    }
+
+    public String getBurstId() {
+        return mBurstId;
+    }
+
+    public LocalData getCover() {
+        return mFrames.get(0);
+    }
+
+    /** Returns the frames, the cover first. */
+    public List<LocalData> getFrames() {
+        return Collections.unmodifiableList(mFrames);
+    }
+
+    public int getFrameCount() {
+        return mFrames.size();
+    }
+
+    /**
+     * Adds the frame, or replaces the frame with the same content URI.
+     *
+     * @return Whether the cover has been replaced.
+     */
+    boolean addFrame(LocalData frame) {
+        int index = indexOf(frame.getContentUri());
+        if (index != -1) {
+            mFrames.set(index, frame);
+            return index == 0;
+        }
+        mFrames.add(frame);
+        updateBadge();
+        return false;
+    }
+
+    /**
+     * Removes the frame with the content URI.
+     *
+     * @return Whether the frame was found.
+     */
+    boolean removeFrame(Uri uri) {
+        int index = indexOf(uri);
+        if (index == -1 || mFrames.size() == 1) {
+            return false;
+        }
+        mFrames.remove(index);
+        updateBadge();
+        return true;
+    }
+
+    int indexOf(Uri uri) {
+        for (int i = 0; i < mFrames.size(); i++) {
+            if (mFrames.get(i).getContentUri().equals(uri)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void updateBadge() {
+        if (mBadge != null) {
+            mBadge.setText(String.valueOf(mFrames.size()));
+        }
+    }
+
+    @Override
+    public View getView(Activity a, int width, int height,
+            Drawable placeHolder, LocalDataAdapter adapter) {
+        View v = getCover().getView(a, width, height, placeHolder, adapter);
+
+        // The frame count in the corner marks the stack.
+        TextView badge = new TextView(a);
+        badge.setTextColor(Color.WHITE);
+        badge.setShadowLayer(2f, 0f, 0f, Color.BLACK);
+        badge.setTextSize(TypedValue.COMPLEX_UNIT_SP, BADGE_TEXT_SIZE);
+        int padding = (int) (BADGE_PADDING * a.getResources().getDisplayMetrics().density);
+        badge.setPadding(padding, padding, padding, padding);
+        badge.setLayoutParams(new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT,
+                ViewGroup.LayoutParams.WRAP_CONTENT, Gravity.TOP | Gravity.RIGHT));
+        mBadge = badge;
+        updateBadge();
+
+        FrameLayout f = new FrameLayout(a);
+        f.addView(v);
+        f.addView(badge);
+        return f;
+    }
+
+    @Override
+    public long getDateTaken() {
+        return getCover().getDateTaken();
+    }
+
+    @Override
+    public long getDateModified() {
+        return getCover().getDateModified();
+    }
+
+    @Override
+    public String getTitle() {
+        return getCover().getTitle();
+    }
+
+    @Override
+    public boolean isDataActionSupported(int actions) {
+        // Only the actions which make sense for the whole burst.
+        if ((actions & ~ACTION_DELETE) != 0) {
+            return false;
+        }
+        for (LocalData frame : mFrames) {
+            if (!frame.isDataActionSupported(actions)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean delete(Context c) {
+        boolean deleted = true;
+        for (LocalData frame : mFrames) {
+            deleted &= frame.delete(c);
+        }
+        return deleted;
+    }
+
+    @Override
+    public boolean rotate90Degrees(Context context, LocalDataAdapter adapter,
+            int currentDataId, boolean clockwise) {
+        return false;
+    }
+
+    @Override
+    public void onFullScreen(boolean fullScreen) {
+        getCover().onFullScreen(fullScreen);
+    }
+
+    @Override
+    public boolean canSwipeInFullScreen() {
+        return getCover().canSwipeInFullScreen();
+    }
+
+    @Override
+    public String getPath() {
+        return getCover().getPath();
+    }
+
+    @Override
+    public String getMimeType() {
+        return getCover().getMimeType();
+    }
+
+    @Override
+    public MediaDetails getMediaDetails(Context context) {
+        return getCover().getMediaDetails(context);
+    }
+
+    @Override
+    public int getLocalDataType() {
+        return LOCAL_BURST;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        long size = 0;
+        for (LocalData frame : mFrames) {
+            size += frame.getSizeInBytes();
+        }
+        return size;
+    }
+
+    @Override
+    public LocalData refresh(ContentResolver resolver) {
+        LocalData cover = getCover().refresh(resolver);
+        if (cover == null) {
+            return null;
+        }
+        ArrayList<LocalData> frames = new ArrayList<LocalData>(mFrames);
+        frames.set(0, cover);
+        return new BurstData(mBurstId, frames);
+    }
+
+    @Override
+    public long getContentId() {
+        return getCover().getContentId();
+    }
+
+    @Override
+    public int getWidth() {
+        return getCover().getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return getCover().getHeight();
+    }
+
+    @Override
+    public int getOrientation() {
+        return getCover().getOrientation();
+    }
+
+    @Override
+    public int getViewType() {
+        return getCover().getViewType();
+    }
+
+    @Override
+    public double[] getLatLong() {
+        return getCover().getLatLong();
+    }
+
+    @Override
+    public boolean isUIActionSupported(int action) {
+        return getCover().isUIActionSupported(action);
+    }
+
+    @Override
+    public void prepare() {
+        getCover().prepare();
+    }
+
+    @Override
+    public void recycle() {
+        getCover().recycle();
+    }
+
+    @Override
+    public void isPhotoSphere(Context context, PanoramaSupportCallback callback) {
+        callback.panoramaInfoAvailable(false, false);
+    }
+
+    @Override
+    public void viewPhotoSphere(PhotoSphereHelper.PanoramaViewHelper helper) {
+        // Bursts are never panoramas.
+    }
+
+    @Override
+    public boolean isPhoto() {
+        return getCover().isPhoto();
+    }
+
+    @Override
+    public Uri getContentUri() {
+        return getCover().getContentUri();
+    }
+}
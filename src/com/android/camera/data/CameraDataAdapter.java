@@ -18,6 +18,8 @@ package com.android.camera.data;
 
 import android.app.Activity;
 import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.graphics.drawable.Drawable;
@@ -27,12 +29,20 @@ import android.provider.MediaStore;
 import android.util.Log;
 import android.view.View;
 
+import com.android.camera.ImageTaskManager;
 import com.android.camera.Storage;
 import com.android.camera.app.PlaceholderManager;
+import com.android.camera.app.WorkScheduler;
 import com.android.camera.ui.FilmStripView.ImageData;
+import com.android.camera.util.CameraUtil;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 
 /**
  * A {@link LocalDataAdapter} that provides data in the camera folder.
@@ -42,6 +52,14 @@ public class CameraDataAdapter implements LocalDataAdapter {
 
     private static final int DEFAULT_DECODE_SIZE = 1600;
 
+    // A delta sync with more changes than this reloads everything instead.
+    private static final int MAX_SYNC_CHANGES = 100;
+
+    // The data shown from the index before the rest is built.
+    private static final int FIRST_PAGE_SIZE = 16;
+
+    private static final String INDEX_FILE_NAME = "media_index";
+
     private LocalDataList mImages;
 
     private Listener mListener;
@@ -50,17 +68,81 @@ public class CameraDataAdapter implements LocalDataAdapter {
     private int mSuggestedWidth = DEFAULT_DECODE_SIZE;
     private int mSuggestedHeight = DEFAULT_DECODE_SIZE;
 
-    private LocalData mLocalDataToDelete;
+    // The removed data waiting to be deleted, in the order of removal.
+    private final ArrayList<LocalData> mLocalDataToDelete = new ArrayList<LocalData>();
+    private final MediaDeleter mDeleter = new MediaDeleter();
+
+    private final ThumbnailPrefetcher mPrefetcher = new ThumbnailPrefetcher();
 
-    public CameraDataAdapter(Drawable placeHolder) {
+    // The bursts in the list by their ids, to stack the frames still coming.
+    private final HashMap<String, BurstData> mBursts = new HashMap<String, BurstData>();
+
+    // The newest rows seen in MediaStore, for the delta sync.
+    private final SyncMark mPhotoMark = new SyncMark();
+    private final SyncMark mVideoMark = new SyncMark();
+
+    private final MediaIndex mIndex;
+    // Whether the list holds all the data of the camera folder, so the index
+    // can be written from it.
+    private boolean mIndexed;
+
+    public CameraDataAdapter(Context context, Drawable placeHolder) {
         mImages = new LocalDataList();
         mPlaceHolder = placeHolder;
+        mIndex = new MediaIndex(new File(context.getFilesDir(), INDEX_FILE_NAME));
     }
 
+    /**
+     * Shows the data of the index first if there is one, then checks it
+     * against MediaStore.
+     */
     @Override
     public void requestLoad(ContentResolver resolver) {
-        QueryTask qtask = new QueryTask();
-        qtask.execute(resolver);
+        new QueryTask(true).execute(resolver);
+    }
+
+    /** Loads all the data from MediaStore and rebuilds the index. */
+    private void requestFullLoad(ContentResolver resolver) {
+        new QueryTask(false).execute(resolver);
+    }
+
+    @Override
+    public void requestSync(ContentResolver resolver) {
+        if (mImages.size() == 0) {
+            requestLoad(resolver);
+            return;
+        }
+        startSync(resolver);
+    }
+
+    private void startSync(ContentResolver resolver) {
+        // Snapshot the known ids here, the list is only touched on the UI
+        // thread. The data waiting to be deleted is still known, or the sync
+        // would add it back.
+        BitSet photoIds = new BitSet();
+        BitSet videoIds = new BitSet();
+        for (LocalData data : mImages) {
+            addKnownIds(photoIds, videoIds, data);
+        }
+        for (LocalData data : mLocalDataToDelete) {
+            addKnownIds(photoIds, videoIds, data);
+        }
+        new SyncTask(resolver, photoIds, videoIds, mPhotoMark.copy(), mVideoMark.copy())
+                .executeOnExecutor(
+                        WorkScheduler.getInstance().getExecutor(WorkScheduler.LANE_METADATA));
+    }
+
+    private static void addKnownIds(BitSet photoIds, BitSet videoIds, LocalData data) {
+        if (data instanceof BurstData) {
+            for (LocalData frame : ((BurstData) data).getFrames()) {
+                photoIds.set((int) frame.getContentId());
+            }
+            return;
+        }
+        if (data.getContentUri() == null) {
+            return;
+        }
+        (isVideo(data) ? videoIds : photoIds).set((int) data.getContentId());
     }
 
     @Override
@@ -92,6 +174,32 @@ public class CameraDataAdapter implements LocalDataAdapter {
         }
     }
 
+    @Override
+    public void prefetch(int fromDataID, int toDataID) {
+        int last = mImages.size() - 1;
+        if ((fromDataID < 0 && toDataID < 0) || (fromDataID > last && toDataID > last)) {
+            return;
+        }
+        fromDataID = Math.max(0, Math.min(last, fromDataID));
+        toDataID = Math.max(0, Math.min(last, toDataID));
+        ArrayList<LocalMediaData> list = new ArrayList<LocalMediaData>();
+        int step = (toDataID >= fromDataID ? 1 : -1);
+        for (int id = fromDataID; ; id += step) {
+            LocalData data = mImages.get(id);
+            if (data instanceof BurstData) {
+                // Only the cover of a burst is shown.
+                data = ((BurstData) data).getCover();
+            }
+            if (data instanceof LocalMediaData) {
+                list.add((LocalMediaData) data);
+            }
+            if (id == toDataID || list.size() == ThumbnailPrefetcher.MAX_PREFETCH_COUNT) {
+                break;
+            }
+        }
+        mPrefetcher.prefetch(list, mSuggestedWidth, mSuggestedHeight);
+    }
+
     @Override
     public View getView(Activity activity, int dataID) {
         if (dataID >= mImages.size() || dataID < 0) {
@@ -123,9 +231,7 @@ public class CameraDataAdapter implements LocalDataAdapter {
     public void removeData(Context c, int dataID) {
         if (dataID >= mImages.size()) return;
         LocalData d = mImages.remove(dataID);
-        // Delete previously removed data first.
-        executeDeletion(c);
-        mLocalDataToDelete = d;
+        mLocalDataToDelete.add(d);
         mListener.onDataRemoved(dataID, d);
     }
 
@@ -144,6 +250,7 @@ public class CameraDataAdapter implements LocalDataAdapter {
         int pos = findDataByContentUri(uri);
         LocalMediaData.VideoData newData = LocalMediaData.VideoData.buildFromCursor(c);
         if (newData != null) {
+            updateMark(mPhotoMark, mVideoMark, newData);
             if (pos != -1) {
                 // A duplicate one, just do a substitute.
                 updateData(pos, newData);
@@ -151,6 +258,7 @@ public class CameraDataAdapter implements LocalDataAdapter {
                 // A new data.
                 insertData(newData);
             }
+            indexNewData(newData, pos != -1);
         } else {
             Log.e(TAG, "video data not found");
         }
@@ -170,13 +278,144 @@ public class CameraDataAdapter implements LocalDataAdapter {
         }
         int pos = findDataByContentUri(uri);
         LocalMediaData.PhotoData newData = LocalMediaData.PhotoData.buildFromCursor(c);
+        updateMark(mPhotoMark, mVideoMark, newData);
         if (pos != -1) {
             // a duplicate one, just do a substitute.
             Log.v(TAG, "found duplicate photo");
             updateData(pos, newData);
         } else {
             // a new data.
-            insertData(newData);
+            addData(newData);
+        }
+        indexNewData(newData, pos != -1);
+    }
+
+    @Override
+    public void addNewVideo(ContentResolver cr, Uri uri, ContentValues values) {
+        LocalMediaData.VideoData newData =
+                LocalMediaData.VideoData.buildFromContentValues(uri, values);
+        if (newData == null) {
+            addNewVideo(cr, uri);
+            return;
+        }
+        addSavedData(cr, uri, newData);
+    }
+
+    @Override
+    public void addNewPhoto(ContentResolver cr, Uri uri, ContentValues values) {
+        LocalMediaData.PhotoData newData =
+                LocalMediaData.PhotoData.buildFromContentValues(uri, values);
+        if (newData == null) {
+            addNewPhoto(cr, uri);
+            return;
+        }
+        addSavedData(cr, uri, newData);
+    }
+
+    /**
+     * Adds the data built at save time and checks it against MediaStore in
+     * the background. A new capture is the newest data, so both the lookup
+     * and the insertion finish at the head of the list. The capture moves
+     * the sync marks, so the next sync doesn't report it as a change.
+     */
+    private void addSavedData(ContentResolver cr, Uri uri, LocalMediaData newData) {
+        updateMark(mPhotoMark, mVideoMark, newData);
+        if (addToBurst(newData)) {
+            // The frame is stacked under the cover of its burst, it isn't
+            // shown so it's not worth reconciling.
+            indexNewData(newData, false);
+            return;
+        }
+        int pos = findDataByContentUri(uri);
+        if (pos != -1) {
+            updateData(pos, newData);
+        } else {
+            insertData(startBurst(newData));
+        }
+        indexNewData(newData, pos != -1);
+        new ReconcileTask(cr, uri, newData).executeOnExecutor(
+                WorkScheduler.getInstance().getExecutor(WorkScheduler.LANE_METADATA));
+    }
+
+    /**
+     * Adds a new capture to the index. A capture is the newest data and is
+     * appended, unless it replaces data already there.
+     */
+    private void indexNewData(LocalData data, boolean replaced) {
+        if (!mIndexed) {
+            return;
+        }
+        if (replaced) {
+            mIndex.rewrite(Storage.getInstance().generateDirectory(), mImages);
+        } else {
+            mIndex.append(data);
+        }
+    }
+
+    /** Rewrites the index after changes other than new captures. */
+    private void reindex() {
+        if (mIndexed) {
+            mIndex.rewrite(Storage.getInstance().generateDirectory(), mImages);
+        }
+    }
+
+    /**
+     * Adds the data, stacking it in its burst if it's a burst frame.
+     */
+    private void addData(LocalData data) {
+        if (!addToBurst(data)) {
+            insertData(startBurst(data));
+        }
+    }
+
+    /**
+     * Adds the data to the burst it belongs to if that burst is in the list,
+     * without any relayout unless the cover changes.
+     *
+     * @return Whether the data has been added to a burst.
+     */
+    private boolean addToBurst(LocalData data) {
+        String burstId = CameraUtil.getBurstId(data.getTitle());
+        if (burstId == null) {
+            return false;
+        }
+        BurstData burst = mBursts.get(burstId);
+        // The burst may have been deleted or expanded.
+        if (burst == null || mImages.get(burst.getContentUri()) != burst) {
+            return false;
+        }
+        if (burst.addFrame(data)) {
+            updateData(findDataByContentUri(burst.getContentUri()), burst);
+        }
+        return true;
+    }
+
+    /**
+     * Returns a new {@link BurstData} with the data as its cover if the data
+     * is a burst frame, or the data itself otherwise.
+     */
+    private LocalData startBurst(LocalData data) {
+        String burstId = CameraUtil.getBurstId(data.getTitle());
+        if (burstId == null) {
+            return data;
+        }
+        BurstData burst = new BurstData(burstId, data);
+        mBursts.put(burstId, burst);
+        return burst;
+    }
+
+    @Override
+    public void expandBurst(Uri uri) {
+        int pos = findDataByContentUri(uri);
+        if (pos == -1 || !(mImages.get(pos) instanceof BurstData)) {
+            return;
+        }
+        BurstData burst = (BurstData) mImages.get(pos);
+        mBursts.remove(burst.getBurstId());
+        List<LocalData> frames = burst.getFrames();
+        updateData(pos, frames.get(0));
+        for (int i = 1; i < frames.size(); i++) {
+            insertData(frames.get(i));
         }
     }
 
@@ -190,25 +429,36 @@ public class CameraDataAdapter implements LocalDataAdapter {
 
     @Override
     public boolean undoDataRemoval() {
-        if (mLocalDataToDelete == null) return false;
-        LocalData d = mLocalDataToDelete;
-        mLocalDataToDelete = null;
-        insertData(d);
+        if (mLocalDataToDelete.isEmpty()) return false;
+        for (LocalData d : mLocalDataToDelete) {
+            insertData(d);
+        }
+        mLocalDataToDelete.clear();
         return true;
     }
 
     @Override
     public boolean executeDeletion(Context c) {
-        if (mLocalDataToDelete == null) return false;
+        if (mLocalDataToDelete.isEmpty()) return false;
 
-        DeletionTask task = new DeletionTask(c);
-        task.execute(mLocalDataToDelete);
-        mLocalDataToDelete = null;
+        mDeleter.delete(c, mLocalDataToDelete);
+        mLocalDataToDelete.clear();
+        reindex();
         return true;
     }
 
+    /**
+     * Returns the {@link ImageTaskManager} which reports the progress of the
+     * deletions.
+     */
+    public ImageTaskManager getDeletionManager() {
+        return mDeleter;
+    }
+
     @Override
     public void flush() {
+        // The list no longer matches the folder, the index is left as is.
+        mIndexed = false;
         replaceData(new LocalDataList());
     }
 
@@ -223,6 +473,7 @@ public class CameraDataAdapter implements LocalDataAdapter {
         LocalData refreshedData = data.refresh(resolver);
         if (refreshedData != null) {
             updateData(pos, refreshedData);
+            reindex();
         }
     }
 
@@ -259,18 +510,399 @@ public class CameraDataAdapter implements LocalDataAdapter {
         }
     }
 
+    private static void updateMark(SyncMark photoMark, SyncMark videoMark, LocalData data) {
+        if (data instanceof BurstData) {
+            for (LocalData frame : ((BurstData) data).getFrames()) {
+                photoMark.update(frame);
+            }
+        } else {
+            (isVideo(data) ? videoMark : photoMark).update(data);
+        }
+    }
+
+    private static boolean isVideo(LocalData data) {
+        String mimeType = data.getMimeType();
+        return mimeType != null && mimeType.startsWith("video/");
+    }
+
+    private static boolean hasChanged(LocalData oldData, LocalData newData) {
+        return newData.getDateModified() != oldData.getDateModified()
+                || newData.getDateTaken() != oldData.getDateTaken()
+                || newData.getSizeInBytes() != oldData.getSizeInBytes()
+                || newData.getWidth() != oldData.getWidth()
+                || newData.getHeight() != oldData.getHeight()
+                || !CameraUtil.equals(newData.getMimeType(), oldData.getMimeType())
+                || !CameraUtil.equals(newData.getPath(), oldData.getPath());
+    }
+
     /** Update all the data */
     private void replaceData(LocalDataList list) {
+        mPhotoMark.reset();
+        mVideoMark.reset();
+        for (LocalData data : list) {
+            updateMark(mPhotoMark, mVideoMark, data);
+        }
         if (list.size() == 0 && mImages.size() == 0) {
             return;
         }
+        mPrefetcher.cancel();
         mImages = list;
+        mBursts.clear();
+        for (LocalData data : list) {
+            if (data instanceof BurstData) {
+                mBursts.put(((BurstData) data).getBurstId(), (BurstData) data);
+            }
+        }
         if (mListener != null) {
             mListener.onDataLoaded();
         }
     }
 
-    private class QueryTask extends AsyncTask<ContentResolver, Void, LocalDataList> {
+    /**
+     * Collapses the frames of each burst into a {@link BurstData} at the
+     * position of its newest frame. A burst of one frame is left alone.
+     */
+    private static LocalDataList groupBursts(LocalDataList list) {
+        HashMap<String, ArrayList<LocalData>> bursts =
+                new HashMap<String, ArrayList<LocalData>>();
+        for (LocalData data : list) {
+            String burstId = CameraUtil.getBurstId(data.getTitle());
+            if (burstId == null) {
+                continue;
+            }
+            ArrayList<LocalData> frames = bursts.get(burstId);
+            if (frames == null) {
+                frames = new ArrayList<LocalData>();
+                bursts.put(burstId, frames);
+            }
+            frames.add(data);
+        }
+        if (bursts.isEmpty()) {
+            return list;
+        }
+
+        // The frame indexes are zero padded, but may outgrow the padding.
+        Comparator<LocalData> frameOrder = new Comparator<LocalData>() {
+            @Override
+            public int compare(LocalData d1, LocalData d2) {
+                String t1 = d1.getTitle();
+                String t2 = d2.getTitle();
+                return (t1.length() != t2.length() ? t1.length() - t2.length()
+                        : t1.compareTo(t2));
+            }
+        };
+        LocalDataList grouped = new LocalDataList();
+        for (LocalData data : list) {
+            String burstId = CameraUtil.getBurstId(data.getTitle());
+            if (burstId == null) {
+                grouped.add(data);
+                continue;
+            }
+            ArrayList<LocalData> frames = bursts.remove(burstId);
+            if (frames == null) {
+                // Already added with its burst.
+                continue;
+            }
+            if (frames.size() == 1) {
+                grouped.add(data);
+                continue;
+            }
+            Collections.sort(frames, frameOrder);
+            grouped.add(new BurstData(burstId, frames));
+        }
+        return grouped;
+    }
+
+    /** Builds the photo data from the cursor, wrapping placeholders. */
+    private static LocalData buildPhotoData(Cursor c) {
+        LocalData data = LocalMediaData.PhotoData.buildFromCursor(c);
+        if (data != null
+                && data.getMimeType().equals(PlaceholderManager.PLACEHOLDER_MIME_TYPE)) {
+            return new InProgressDataWrapper(data, true);
+        }
+        return data;
+    }
+
+    /** The newest row seen of one media type. */
+    private static class SyncMark {
+        long mMaxId;
+        long mMaxDateModified;
+
+        void reset() {
+            mMaxId = 0;
+            mMaxDateModified = 0;
+        }
+
+        void update(LocalData data) {
+            mMaxId = Math.max(mMaxId, data.getContentId());
+            mMaxDateModified = Math.max(mMaxDateModified, data.getDateModified());
+        }
+
+        SyncMark copy() {
+            SyncMark mark = new SyncMark();
+            mark.mMaxId = mMaxId;
+            mark.mMaxDateModified = mMaxDateModified;
+            return mark;
+        }
+    }
+
+    /** The changes found by {@link SyncTask}. */
+    private static class SyncResult {
+        final ArrayList<LocalData> mChanged = new ArrayList<LocalData>();
+        final ArrayList<Uri> mRemoved = new ArrayList<Uri>();
+        // Too many changes to apply one by one.
+        boolean mReloadNeeded;
+    }
+
+    /**
+     * Finds the rows added or modified in MediaStore since the last load, by
+     * their ids and modification dates, and the rows deleted or missed, by
+     * comparing the ids in MediaStore with the known ones.
+     */
+    private class SyncTask extends AsyncTask<Void, Void, SyncResult> {
+        private final ContentResolver mResolver;
+        private final BitSet mPhotoIds;
+        private final BitSet mVideoIds;
+        private final SyncMark mPhotoSyncMark;
+        private final SyncMark mVideoSyncMark;
+
+        SyncTask(ContentResolver resolver, BitSet photoIds, BitSet videoIds,
+                SyncMark photoMark, SyncMark videoMark) {
+            mResolver = resolver;
+            mPhotoIds = photoIds;
+            mVideoIds = videoIds;
+            mPhotoSyncMark = photoMark;
+            mVideoSyncMark = videoMark;
+        }
+
+        @Override
+        protected SyncResult doInBackground(Void... v) {
+            SyncResult result = new SyncResult();
+            String cameraPath = Storage.getInstance().generateDirectory() + "%";
+            if (!syncTable(result, cameraPath, false) || !syncTable(result, cameraPath, true)) {
+                result.mReloadNeeded = true;
+            }
+            return result;
+        }
+
+        /** Returns false if there are too many changes. */
+        private boolean syncTable(SyncResult result, String cameraPath, boolean video) {
+            Uri contentUri = (video ? LocalMediaData.VideoData.CONTENT_URI
+                    : LocalMediaData.PhotoData.CONTENT_URI);
+            SyncMark mark = (video ? mVideoSyncMark : mPhotoSyncMark);
+            BitSet knownIds = (video ? mVideoIds : mPhotoIds);
+
+            // The new and the modified rows. Rows modified within the same
+            // second as the mark are included, they are compared later.
+            Cursor c = mResolver.query(contentUri,
+                    (video ? LocalMediaData.VideoData.QUERY_PROJECTION
+                            : LocalMediaData.PhotoData.QUERY_PROJECTION),
+                    MediaStore.MediaColumns.DATA + " like ? AND ("
+                            + MediaStore.MediaColumns._ID + " > ? OR "
+                            + MediaStore.MediaColumns.DATE_MODIFIED + " >= ?)",
+                    new String[] { cameraPath, Long.toString(mark.mMaxId),
+                            Long.toString(mark.mMaxDateModified) },
+                    null);
+            if (c != null) {
+                try {
+                    if (c.getCount() > MAX_SYNC_CHANGES) {
+                        return false;
+                    }
+                    while (c.moveToNext()) {
+                        LocalData data = (video ? LocalMediaData.VideoData.buildFromCursor(c)
+                                : buildPhotoData(c));
+                        if (data != null) {
+                            result.mChanged.add(data);
+                        }
+                    }
+                } finally {
+                    c.close();
+                }
+            }
+
+            // The deleted rows: known ids which are no longer present.
+            BitSet presentIds = new BitSet();
+            c = mResolver.query(contentUri, new String[] { MediaStore.MediaColumns._ID },
+                    MediaStore.MediaColumns.DATA + " like ?", new String[] { cameraPath },
+                    null);
+            if (c == null) {
+                // The provider is not available, don't remove anything.
+                return true;
+            }
+            try {
+                while (c.moveToNext()) {
+                    presentIds.set((int) c.getLong(0));
+                }
+            } finally {
+                c.close();
+            }
+            BitSet removedIds = (BitSet) knownIds.clone();
+            removedIds.andNot(presentIds);
+            // The older rows the list is missing, if it was loaded from an
+            // index which missed some changes.
+            BitSet missedIds = presentIds;
+            missedIds.andNot(knownIds);
+            for (LocalData data : result.mChanged) {
+                missedIds.clear((int) data.getContentId());
+            }
+            if (removedIds.cardinality() + missedIds.cardinality()
+                    + result.mChanged.size() > MAX_SYNC_CHANGES) {
+                return false;
+            }
+            for (int id = removedIds.nextSetBit(0); id >= 0;
+                    id = removedIds.nextSetBit(id + 1)) {
+                result.mRemoved.add(ContentUris.withAppendedId(contentUri, id));
+            }
+            if (!missedIds.isEmpty()) {
+                queryMissed(result, contentUri, video, missedIds);
+            }
+            return true;
+        }
+
+        private void queryMissed(SyncResult result, Uri contentUri, boolean video,
+                BitSet ids) {
+            StringBuilder selection = new StringBuilder(MediaStore.MediaColumns._ID + " IN (");
+            for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+                selection.append(id).append(',');
+            }
+            selection.setCharAt(selection.length() - 1, ')');
+            Cursor c = mResolver.query(contentUri,
+                    (video ? LocalMediaData.VideoData.QUERY_PROJECTION
+                            : LocalMediaData.PhotoData.QUERY_PROJECTION),
+                    selection.toString(), null, null);
+            if (c == null) {
+                return;
+            }
+            try {
+                while (c.moveToNext()) {
+                    LocalData data = (video ? LocalMediaData.VideoData.buildFromCursor(c)
+                            : buildPhotoData(c));
+                    if (data != null) {
+                        result.mChanged.add(data);
+                    }
+                }
+            } finally {
+                c.close();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(SyncResult result) {
+            if (result.mReloadNeeded) {
+                Log.v(TAG, "Too many changes to sync, reloading");
+                requestFullLoad(mResolver);
+                return;
+            }
+            applySyncResult(result);
+        }
+    }
+
+    private void applySyncResult(SyncResult result) {
+        for (Uri uri : result.mRemoved) {
+            int pos = findDataByContentUri(uri);
+            if (pos == -1) {
+                // Maybe a frame under the cover of a burst.
+                for (BurstData burst : mBursts.values()) {
+                    if (burst.removeFrame(uri)) {
+                        break;
+                    }
+                }
+                continue;
+            }
+            LocalData d = mImages.remove(pos);
+            if (mListener != null) {
+                mListener.onDataRemoved(pos, d);
+            }
+            if (d instanceof BurstData && ((BurstData) d).removeFrame(uri)) {
+                // The next frame is the new cover.
+                insertData(d);
+            }
+        }
+        // Rows modified within the second of the mark are always reported.
+        boolean changed = !result.mRemoved.isEmpty();
+        for (LocalData data : result.mChanged) {
+            updateMark(mPhotoMark, mVideoMark, data);
+            int pos = findDataByContentUri(data.getContentUri());
+            if (pos == -1) {
+                addData(data);
+                changed = true;
+                continue;
+            }
+            LocalData oldData = mImages.get(pos);
+            if (oldData instanceof BurstData) {
+                BurstData burst = (BurstData) oldData;
+                if (!hasChanged(burst.getCover(), data)) {
+                    continue;
+                }
+                changed = true;
+                if (burst.addFrame(data)) {
+                    updateData(pos, oldData);
+                }
+                continue;
+            }
+            if (!hasChanged(oldData, data)) {
+                continue;
+            }
+            changed = true;
+            if (data.getDateTaken() == oldData.getDateTaken()) {
+                updateData(pos, data);
+            } else {
+                // The position may change with the date.
+                mImages.remove(pos);
+                if (mListener != null) {
+                    mListener.onDataRemoved(pos, oldData);
+                }
+                insertData(data);
+            }
+        }
+        Log.v(TAG, "Synced " + result.mChanged.size() + " changed and "
+                + result.mRemoved.size() + " removed data");
+        if (changed) {
+            reindex();
+        }
+    }
+
+    /**
+     * Appends the data older than all the data in the list, stacking the
+     * frames of the bursts already in the list.
+     */
+    private void appendOlderData(LocalDataList list) {
+        for (LocalData data : list) {
+            updateMark(mPhotoMark, mVideoMark, data);
+            if (data instanceof BurstData) {
+                BurstData burst = (BurstData) data;
+                if (mBursts.containsKey(burst.getBurstId())) {
+                    // The burst started on the first page.
+                    for (LocalData frame : burst.getFrames()) {
+                        addToBurst(frame);
+                    }
+                    continue;
+                }
+                mBursts.put(burst.getBurstId(), burst);
+            } else if (addToBurst(data)) {
+                continue;
+            }
+            mImages.add(data);
+            if (mListener != null) {
+                mListener.onDataInserted(mImages.size() - 1, data);
+            }
+        }
+    }
+
+    private class QueryTask extends AsyncTask<ContentResolver, LocalDataList, LocalDataList> {
+        private final boolean mUseIndex;
+        private ContentResolver mResolver;
+        private String mDirectory;
+        // Whether the result is the rest of the index after the first page.
+        private boolean mFromIndex;
+
+        /**
+         * @param useIndex Whether to load the data from the index, if there
+         *            is a valid one.
+         */
+        QueryTask(boolean useIndex) {
+            mUseIndex = useIndex;
+        }
 
         /**
          * Loads all the photo and video data in the camera folder in background
@@ -281,9 +913,18 @@ public class CameraDataAdapter implements LocalDataAdapter {
          */
         @Override
         protected LocalDataList doInBackground(ContentResolver... resolver) {
+            mResolver = resolver[0];
+            mDirectory = Storage.getInstance().generateDirectory();
+            if (mUseIndex) {
+                LocalDataList rest = loadFromIndex();
+                if (rest != null) {
+                    mFromIndex = true;
+                    return rest;
+                }
+            }
+
             LocalDataList l = new LocalDataList();
-            final String[] cameraPath =
-                    { Storage.getInstance().generateDirectory() + "%" };
+            final String[] cameraPath = { mDirectory + "%" };
             // Photos
             Cursor c = resolver[0].query(
                     LocalMediaData.PhotoData.CONTENT_URI,
@@ -293,13 +934,9 @@ public class CameraDataAdapter implements LocalDataAdapter {
             if (c != null && c.moveToFirst()) {
                 // build up the list.
                 while (true) {
-                    LocalData data = LocalMediaData.PhotoData.buildFromCursor(c);
+                    LocalData data = buildPhotoData(c);
                     if (data != null) {
-                        if (data.getMimeType().equals(PlaceholderManager.PLACEHOLDER_MIME_TYPE)) {
-                            l.add(new InProgressDataWrapper(data, true));
-                        } else {
-                            l.add(data);
-                        }
+                        l.add(data);
                     } else {
                         Log.e(TAG, "Error loading data:"
                                 + c.getString(LocalMediaData.PhotoData.COL_DATA));
@@ -345,32 +982,126 @@ public class CameraDataAdapter implements LocalDataAdapter {
                 l.sort(new LocalData.NewestFirstComparator());
             }
 
+            return groupBursts(l);
+        }
+
+        /**
+         * Publishes the first page of the index, then reads the rest, so the
+         * time to show the newest data doesn't depend on the number of data.
+         *
+         * @return The data after the first page, or null if the index is
+         *         missing or corrupted.
+         */
+        private LocalDataList loadFromIndex() {
+            MediaIndex.Snapshot index = mIndex.open(mDirectory);
+            if (index == null) {
+                return null;
+            }
+            int pageSize = Math.min(FIRST_PAGE_SIZE, index.size());
+            LocalDataList page = readIndex(index, 0, pageSize);
+            if (page == null) {
+                return null;
+            }
+            // The page goes on to the end of the burst it ends in, so the
+            // burst isn't split over the two groupings.
+            String burstId = (pageSize == 0) ? null
+                    : CameraUtil.getBurstId(page.get(pageSize - 1).getTitle());
+            while (burstId != null && pageSize < index.size()) {
+                LocalData data = index.get(pageSize);
+                if (data == null) {
+                    Log.w(TAG, "Corrupted media index, loading from MediaStore");
+                    return null;
+                }
+                if (!burstId.equals(CameraUtil.getBurstId(data.getTitle()))) {
+                    break;
+                }
+                page.add(data);
+                pageSize++;
+            }
+            publishProgress(groupBursts(page));
+            LocalDataList rest = readIndex(index, pageSize, index.size());
+            return (rest == null ? null : groupBursts(rest));
+        }
+
+        private LocalDataList readIndex(MediaIndex.Snapshot index, int from, int to) {
+            LocalDataList l = new LocalDataList();
+            for (int i = from; i < to; i++) {
+                LocalData data = index.get(i);
+                if (data == null) {
+                    Log.w(TAG, "Corrupted media index, loading from MediaStore");
+                    return null;
+                }
+                l.add(data);
+            }
             return l;
         }
 
+        @Override
+        protected void onProgressUpdate(LocalDataList... page) {
+            replaceData(page[0]);
+        }
+
         @Override
         protected void onPostExecute(LocalDataList l) {
-            replaceData(l);
+            mIndexed = true;
+            if (mFromIndex) {
+                appendOlderData(l);
+                // The index may have missed changes made outside the app.
+                startSync(mResolver);
+            } else {
+                replaceData(l);
+                mIndex.rewrite(mDirectory, l);
+            }
         }
     }
 
-    private class DeletionTask extends AsyncTask<LocalData, Void, Void> {
-        Context mContext;
+    /**
+     * Loads the data added from the saved values back from MediaStore, and
+     * replaces it if the provider filled in anything different, such as the
+     * modification date.
+     */
+    private class ReconcileTask extends AsyncTask<Void, Void, LocalData> {
+        private final ContentResolver mResolver;
+        private final Uri mUri;
+        private final LocalData mSavedData;
 
-        DeletionTask(Context context) {
-            mContext = context;
+        ReconcileTask(ContentResolver resolver, Uri uri, LocalData savedData) {
+            mResolver = resolver;
+            mUri = uri;
+            mSavedData = savedData;
         }
 
         @Override
-        protected Void doInBackground(LocalData... data) {
-            for (int i = 0; i < data.length; i++) {
-                if (!data[i].isDataActionSupported(LocalData.ACTION_DELETE)) {
-                    Log.v(TAG, "Deletion is not supported:" + data[i]);
-                    continue;
+        protected LocalData doInBackground(Void... v) {
+            return mSavedData.refresh(mResolver);
+        }
+
+        @Override
+        protected void onPostExecute(LocalData data) {
+            if (data == null) {
+                return;
+            }
+            int pos = findDataByContentUri(mUri);
+            if (pos == -1) {
+                return;
+            }
+            LocalData current = mImages.get(pos);
+            if (current instanceof BurstData
+                    && ((BurstData) current).getCover() == mSavedData) {
+                // The cover of a burst still being shot.
+                if (hasChanged(mSavedData, data)) {
+                    ((BurstData) current).addFrame(data);
+                    updateData(pos, current);
                 }
-                data[i].delete(mContext);
+                return;
+            }
+            // Leave the data alone if it has been replaced in the meantime.
+            if (current != mSavedData) {
+                return;
+            }
+            if (hasChanged(mSavedData, data)) {
+                updateData(pos, data);
             }
-            return null;
         }
     }
 }
@@ -101,6 +101,14 @@ public class FixedFirstDataAdapter extends AbstractLocalDataAdapterWrapper
         }
     }
 
+    @Override
+    public void prefetch(int fromDataID, int toDataID) {
+        // The first data is never prefetched.
+        fromDataID = Math.max(1, fromDataID);
+        toDataID = Math.max(1, toDataID);
+        mAdapter.prefetch(fromDataID - 1, toDataID - 1);
+    }
+
     @Override
     public int getTotalNumber() {
         return (mAdapter.getTotalNumber() + 1);
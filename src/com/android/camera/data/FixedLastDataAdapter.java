@@ -104,6 +104,13 @@ public class FixedLastDataAdapter extends AbstractLocalDataAdapterWrapper {
         }
     }
 
+    @Override
+    public void prefetch(int fromDataID, int toDataID) {
+        // The last data is never prefetched.
+        int last = mAdapter.getTotalNumber() - 1;
+        mAdapter.prefetch(Math.min(last, fromDataID), Math.min(last, toDataID));
+    }
+
     @Override
     public int getTotalNumber() {
         return mAdapter.getTotalNumber() + 1;
@@ -73,6 +73,11 @@ public interface LocalData extends FilmStripView.ImageData {
      * any actions like sharing, editing, etc.
      */
     public static final int LOCAL_IN_PROGRESS_DATA = 7;
+    /**
+     * Constant for denoting the frames of a burst, shown as one item. Only
+     * deletion applies to the whole burst.
+     */
+    public static final int LOCAL_BURST            = 8;
 
     View getView(Activity a, int width, int height, Drawable placeHolder,
             LocalDataAdapter adapter);
@@ -150,7 +155,8 @@ public interface LocalData extends FilmStripView.ImageData {
      *
      * @return The local data type. Could be one of the following:
      * {@code LOCAL_CAMERA_PREVIEW}, {@code LOCAL_VIEW}, {@code LOCAL_IMAGE},
-     * {@code LOCAL_VIDEO}, {@code LOCAL_PHOTO_SPHERE}, and {@code LOCAL_360_PHOTO_SPHERE}
+     * {@code LOCAL_VIDEO}, {@code LOCAL_PHOTO_SPHERE}, {@code LOCAL_360_PHOTO_SPHERE}
+     * and {@code LOCAL_BURST}
      */
     int getLocalDataType();
 
@@ -17,6 +17,7 @@
 package com.android.camera.data;
 
 import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.content.Context;
 import android.net.Uri;
 
@@ -35,6 +36,14 @@ public interface LocalDataAdapter extends DataAdapter {
      */
     public void requestLoad(ContentResolver resolver);
 
+    /**
+     * Request for applying only the changes in MediaStore since the last
+     * load. The changes are reported as insertions, removals and updates.
+     *
+     * @param resolver  {@link ContentResolver} used for data loading.
+     */
+    public void requestSync(ContentResolver resolver);
+
     /**
      * Returns the specified {@link LocalData}.
      *
@@ -67,6 +76,30 @@ public interface LocalDataAdapter extends DataAdapter {
      */
     public void addNewPhoto(ContentResolver resolver, Uri uri);
 
+    /**
+     * Adds new local video data built from the values inserted into
+     * MediaStore, without querying the provider on the calling thread. Falls
+     * back to {@link #addNewVideo(ContentResolver, Uri)} if the values are not
+     * complete.
+     *
+     * @param resolver  {@link ContentResolver} used to reconcile the data.
+     * @param uri       {@link Uri} of the video.
+     * @param values    The values inserted into MediaStore.
+     */
+    public void addNewVideo(ContentResolver resolver, Uri uri, ContentValues values);
+
+    /**
+     * Adds new local photo data built from the values inserted into
+     * MediaStore, without querying the provider on the calling thread. Falls
+     * back to {@link #addNewPhoto(ContentResolver, Uri)} if the values are not
+     * complete.
+     *
+     * @param resolver  {@link ContentResolver} used to reconcile the data.
+     * @param uri       {@link Uri} of the photo.
+     * @param values    The values inserted into MediaStore.
+     */
+    public void addNewPhoto(ContentResolver resolver, Uri uri, ContentValues values);
+
     /**
      * Refresh the data by {@link Uri}.
      *
@@ -89,7 +122,8 @@ public interface LocalDataAdapter extends DataAdapter {
     public void flush();
 
     /**
-     * Executes the deletion task. Delete the data waiting in the deletion queue.
+     * Executes the deletion task. Delete all the data waiting in the deletion
+     * queue, as one batch.
      *
      * @param context The {@link Context} from the caller.
      * @return        {@code true} if task has been executed, {@code false}
@@ -99,12 +133,20 @@ public interface LocalDataAdapter extends DataAdapter {
 
     /**
      * Undo a deletion. If there is any data waiting to be deleted in the queue,
-     * move it out of the deletion queue.
+     * move all of it out of the deletion queue.
      *
      * @return {@code true} if there are items in the queue, {@code false} otherwise.
      */
     public boolean undoDataRemoval();
 
+    /**
+     * Shows the frames of a burst as separate data in place of the stacked
+     * {@link BurstData}. Nothing happens if the data is not a burst.
+     *
+     * @param uri The content URI of the burst, which is the one of its cover.
+     */
+    public void expandBurst(Uri uri);
+
     /**
      * Update the data in a specific position.
      *
@@ -21,12 +21,13 @@ import android.net.Uri;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 
 /**
  * Fast access data structure for an ordered LocalData list.
  */
-public class LocalDataList {
+public class LocalDataList implements Iterable<LocalData> {
     /**
      * We use this as a way to compare a Uri to LocalData instances inside a
      * LinkedList. A linked list in indexOf does a other.equals(get(i)).
@@ -56,7 +57,7 @@ public class LocalDataList {
 
     public LocalData remove(int index) {
         LocalData removedItem = mList.remove(index);
-        mUriMap.remove(removedItem);
+        mUriMap.remove(removedItem.getContentUri());
         return removedItem;
     }
 
@@ -83,6 +84,12 @@ public class LocalDataList {
         return mList.size();
     }
 
+    /** Iterates the data in order. The list must not be modified meanwhile. */
+    @Override
+    public Iterator<LocalData> iterator() {
+        return Collections.unmodifiableList(mList).iterator();
+    }
+
     public void sort(Comparator<LocalData> comparator) {
         Collections.sort(mList, comparator);
     }
@@ -18,6 +18,7 @@ package com.android.camera.data;
 
 import android.app.Activity;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
@@ -38,12 +39,16 @@ import android.view.ViewGroup;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
 
+import com.android.camera.Thumbnail;
+import com.android.camera.app.WorkScheduler;
+import com.android.camera.exif.JpegProbe;
 import com.android.camera.ui.FilmStripView;
 import com.android.camera.util.CameraUtil;
 import com.android.camera.util.PhotoSphereHelper;
 import com.android.camera2.R;
 
 import java.io.File;
+import java.io.IOException;
 import java.text.DateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -205,11 +210,17 @@ public abstract class LocalMediaData implements LocalData {
             int decodeWidth, int decodeHeight, Drawable placeHolder,
             LocalDataAdapter adapter) {
         v.setScaleType(ImageView.ScaleType.FIT_XY);
+        Bitmap prefetched = ThumbnailPrefetcher.getCachedThumbnail(getThumbnailKey());
+        if (prefetched != null) {
+            v.setImageDrawable(new BitmapDrawable(prefetched));
+            return v;
+        }
         v.setImageDrawable(placeHolder);
 
         BitmapLoadTask task = getBitmapLoadTask(v, decodeWidth, decodeHeight,
                 ctx.getContentResolver(), adapter);
-        task.execute();
+        task.executeOnExecutor(
+                WorkScheduler.getInstance().getExecutor(WorkScheduler.LANE_VISIBLE_THUMBNAIL));
         return v;
     }
 
@@ -280,10 +291,59 @@ public abstract class LocalMediaData implements LocalData {
     @Override
     public abstract int getViewType();
 
+    /**
+     * Returns the key identifying the thumbnail of this data. It changes when
+     * the content of the data changes.
+     */
+    String getThumbnailKey() {
+        return mPath + '/' + mDateModifiedInSeconds + '/' + getOrientation();
+    }
+
+    /**
+     * Decodes the thumbnail of this data. Called on a background thread.
+     *
+     * @param decodeWidth The maximum decode width.
+     * @param decodeHeight The maximum decode height.
+     * @param tempStorage The temp storage for decoding, or null. Must not be
+     *                    shared among threads.
+     * @return The decoded bitmap, or null if failed.
+     */
+    abstract Bitmap decodeThumbnail(int decodeWidth, int decodeHeight, byte[] tempStorage);
+
     protected abstract BitmapLoadTask getBitmapLoadTask(
             ImageView v, int decodeWidth, int decodeHeight,
             ContentResolver resolver, LocalDataAdapter adapter);
 
+    /**
+     * Reads the encoded size from the JPEG headers without decoding.
+     *
+     * @return The width and the height, or null if the file is not a JPEG
+     *         with a valid frame header.
+     */
+    private static int[] readJpegSize(String path) {
+        try {
+            JpegProbe.Result r = JpegProbe.probe(new File(path));
+            return r.isValid() ? new int[] { r.width, r.height } : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static long getLong(ContentValues values, String key, long defaultValue) {
+        Long v = values.getAsLong(key);
+        return (v == null ? defaultValue : v);
+    }
+
+    private static int getInt(ContentValues values, String key, int defaultValue) {
+        Integer v = values.getAsInteger(key);
+        return (v == null ? defaultValue : v);
+    }
+
+    private static double getDouble(ContentValues values, String key, double defaultValue) {
+        Double v = values.getAsDouble(key);
+        return (v == null ? defaultValue : v);
+    }
+
     public static final class PhotoData extends LocalMediaData {
         private static final String TAG = "CAM_PhotoData";
 
@@ -329,8 +389,14 @@ public abstract class LocalMediaData implements LocalData {
         private static final int mSupportedDataActions =
                 LocalData.ACTION_DELETE;
 
-        /** 32K buffer. */
-        private static final byte[] DECODE_TEMP_STORAGE = new byte[32 * 1024];
+        /** 32K buffer for each decoding thread. */
+        private static final ThreadLocal<byte[]> DECODE_TEMP_STORAGE =
+                new ThreadLocal<byte[]>() {
+                    @Override
+                    protected byte[] initialValue() {
+                        return new byte[32 * 1024];
+                    }
+                };
 
         /** from MediaStore, can only be 0, 90, 180, 270 */
         private final int mOrientation;
@@ -357,12 +423,17 @@ public abstract class LocalMediaData implements LocalData {
             if (width <= 0 || height <= 0) {
                 Log.w(TAG, "Zero dimension in ContentResolver for "
                         + path + ":" + width + "x" + height);
+                int[] size = readJpegSize(path);
                 BitmapFactory.Options opts = new BitmapFactory.Options();
-                opts.inJustDecodeBounds = true;
-                BitmapFactory.decodeFile(path, opts);
-                if (opts.outWidth > 0 && opts.outHeight > 0) {
-                    width = opts.outWidth;
-                    height = opts.outHeight;
+                if (size == null) {
+                    // Not a JPEG, decode the bounds.
+                    opts.inJustDecodeBounds = true;
+                    BitmapFactory.decodeFile(path, opts);
+                    size = new int[] { opts.outWidth, opts.outHeight };
+                }
+                if (size[0] > 0 && size[1] > 0) {
+                    width = size[0];
+                    height = size[1];
                 } else {
                     Log.w(TAG, "Dimension decode failed for " + path);
                     Bitmap b = BitmapFactory.decodeFile(path);
@@ -389,6 +460,35 @@ public abstract class LocalMediaData implements LocalData {
             return result;
         }
 
+        /**
+         * Builds the data from the values inserted into MediaStore when the
+         * photo was saved, without querying the provider.
+         *
+         * @param uri The content Uri returned by the insert.
+         * @param values The inserted values.
+         * @return The data, or null if the values miss required columns.
+         */
+        static PhotoData buildFromContentValues(Uri uri, ContentValues values) {
+            String path = values.getAsString(Images.ImageColumns.DATA);
+            int width = getInt(values, Images.ImageColumns.WIDTH, 0);
+            int height = getInt(values, Images.ImageColumns.HEIGHT, 0);
+            Long dateTaken = values.getAsLong(Images.ImageColumns.DATE_TAKEN);
+            if (path == null || width <= 0 || height <= 0 || dateTaken == null) {
+                return null;
+            }
+            return new PhotoData(ContentUris.parseId(uri),
+                    values.getAsString(Images.ImageColumns.TITLE),
+                    values.getAsString(Images.ImageColumns.MIME_TYPE),
+                    dateTaken,
+                    getLong(values, Images.ImageColumns.DATE_MODIFIED, dateTaken / 1000),
+                    path,
+                    getInt(values, Images.ImageColumns.ORIENTATION, 0),
+                    width, height,
+                    getLong(values, Images.ImageColumns.SIZE, 0),
+                    getDouble(values, Images.ImageColumns.LATITUDE, 0),
+                    getDouble(values, Images.ImageColumns.LONGITUDE, 0));
+        }
+
         @Override
         public int getOrientation() {
             return mOrientation;
@@ -493,26 +593,32 @@ public abstract class LocalMediaData implements LocalData {
 
             @Override
             protected Bitmap doInBackground(Void... v) {
-                int sampleSize = 1;
-                if (mWidth > mDecodeWidth || mHeight > mDecodeHeight) {
-                    int heightRatio = Math.round((float) mHeight / (float) mDecodeHeight);
-                    int widthRatio = Math.round((float) mWidth / (float) mDecodeWidth);
-                    sampleSize = Math.max(heightRatio, widthRatio);
+                // The thumbnail may have been prefetched while this task was
+                // waiting in the queue.
+                Bitmap prefetched = ThumbnailPrefetcher.getCachedThumbnail(getThumbnailKey());
+                if (prefetched != null) {
+                    return prefetched;
                 }
 
                 // For correctness, we need to double check the size here. The
-                // good news is that decoding bounds take much less time than
-                // decoding samples like < 1%.
+                // good news is that reading the JPEG headers takes much less
+                // time than decoding samples.
                 // TODO: better organize the decoding and sampling by using a
                 // image cache.
                 int decodedWidth = 0;
                 int decodedHeight = 0;
-                BitmapFactory.Options justBoundsOpts = new BitmapFactory.Options();
-                justBoundsOpts.inJustDecodeBounds = true;
-                BitmapFactory.decodeFile(mPath, justBoundsOpts);
-                if (justBoundsOpts.outWidth > 0 && justBoundsOpts.outHeight > 0) {
-                    decodedWidth = justBoundsOpts.outWidth;
-                    decodedHeight = justBoundsOpts.outHeight;
+                int[] size = readJpegSize(mPath);
+                if (size != null) {
+                    decodedWidth = size[0];
+                    decodedHeight = size[1];
+                } else {
+                    BitmapFactory.Options justBoundsOpts = new BitmapFactory.Options();
+                    justBoundsOpts.inJustDecodeBounds = true;
+                    BitmapFactory.decodeFile(mPath, justBoundsOpts);
+                    if (justBoundsOpts.outWidth > 0 && justBoundsOpts.outHeight > 0) {
+                        decodedWidth = justBoundsOpts.outWidth;
+                        decodedHeight = justBoundsOpts.outHeight;
+                    }
                 }
 
                 // If the width and height is valid and not matching the values
@@ -530,23 +636,10 @@ public abstract class LocalMediaData implements LocalData {
                     return null;
                 }
 
-                BitmapFactory.Options opts = new BitmapFactory.Options();
-                opts.inSampleSize = sampleSize;
-                opts.inTempStorage = DECODE_TEMP_STORAGE;
                 if (isCancelled() || !isUsing()) {
                     return null;
                 }
-                Bitmap b = BitmapFactory.decodeFile(mPath, opts);
-
-                if (mOrientation != 0 && b != null) {
-                    if (isCancelled() || !isUsing()) {
-                        return null;
-                    }
-                    Matrix m = new Matrix();
-                    m.setRotate(mOrientation);
-                    b = Bitmap.createBitmap(b, 0, 0, b.getWidth(), b.getHeight(), m, false);
-                }
-                return b;
+                return decodeThumbnail(mDecodeWidth, mDecodeHeight, DECODE_TEMP_STORAGE.get());
             }
 
             @Override
@@ -558,6 +651,28 @@ public abstract class LocalMediaData implements LocalData {
             }
         }
 
+        @Override
+        Bitmap decodeThumbnail(int decodeWidth, int decodeHeight, byte[] tempStorage) {
+            int sampleSize = 1;
+            if (mWidth > decodeWidth || mHeight > decodeHeight) {
+                int heightRatio = Math.round((float) mHeight / (float) decodeHeight);
+                int widthRatio = Math.round((float) mWidth / (float) decodeWidth);
+                sampleSize = Math.max(heightRatio, widthRatio);
+            }
+
+            BitmapFactory.Options opts = new BitmapFactory.Options();
+            opts.inSampleSize = sampleSize;
+            opts.inTempStorage = tempStorage;
+            Bitmap b = BitmapFactory.decodeFile(mPath, opts);
+
+            if (mOrientation != 0 && b != null) {
+                Matrix m = new Matrix();
+                m.setRotate(mOrientation);
+                b = Bitmap.createBitmap(b, 0, 0, b.getWidth(), b.getHeight(), m, false);
+            }
+            return b;
+        }
+
         @Override
         public boolean rotate90Degrees(Context context, LocalDataAdapter adapter,
                 int currentDataId, boolean clockwise) {
@@ -625,6 +740,10 @@ public abstract class LocalMediaData implements LocalData {
             mDurationInSeconds = durationInSeconds;
         }
 
+        long getDurationInSeconds() {
+            return mDurationInSeconds;
+        }
+
         static VideoData buildFromCursor(Cursor c) {
             long id = c.getLong(COL_ID);
             String title = c.getString(COL_TITLE);
@@ -689,6 +808,36 @@ public abstract class LocalMediaData implements LocalData {
             return d;
         }
 
+        /**
+         * Builds the data from the values inserted into MediaStore when the
+         * video was saved, without querying the provider or the file.
+         *
+         * @param uri The content Uri returned by the insert.
+         * @param values The inserted values. The width and height must already
+         *               account for the rotation of the video.
+         * @return The data, or null if the values miss required columns.
+         */
+        static VideoData buildFromContentValues(Uri uri, ContentValues values) {
+            String path = values.getAsString(MediaStore.Video.VideoColumns.DATA);
+            int width = getInt(values, MediaStore.Video.VideoColumns.WIDTH, 0);
+            int height = getInt(values, MediaStore.Video.VideoColumns.HEIGHT, 0);
+            Long dateTaken = values.getAsLong(MediaStore.Video.VideoColumns.DATE_TAKEN);
+            if (path == null || width <= 0 || height <= 0 || dateTaken == null) {
+                return null;
+            }
+            return new VideoData(ContentUris.parseId(uri),
+                    values.getAsString(MediaStore.Video.VideoColumns.TITLE),
+                    values.getAsString(MediaStore.Video.VideoColumns.MIME_TYPE),
+                    dateTaken,
+                    getLong(values, MediaStore.Video.VideoColumns.DATE_MODIFIED,
+                            dateTaken / 1000),
+                    path, width, height,
+                    getLong(values, MediaStore.Video.VideoColumns.SIZE, 0),
+                    getDouble(values, MediaStore.Video.VideoColumns.LATITUDE, 0),
+                    getDouble(values, MediaStore.Video.VideoColumns.LONGITUDE, 0),
+                    getLong(values, MediaStore.Video.VideoColumns.DURATION, 0) / 1000);
+        }
+
         @Override
         public String toString() {
             return "Video:" + ",data=" + mPath + ",mimeType=" + mMimeType
@@ -803,26 +952,37 @@ public abstract class LocalMediaData implements LocalData {
                 if (isCancelled() || !isUsing()) {
                     return null;
                 }
-                MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-                Bitmap bitmap = null;
-                try {
-                    retriever.setDataSource(mPath);
-                    byte[] data = retriever.getEmbeddedPicture();
-                    if (!isCancelled() && isUsing()) {
-                        if (data != null) {
-                            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
-                        }
-                        if (bitmap == null) {
-                            bitmap = retriever.getFrameAtTime();
-                        }
-                    }
-                } catch (IllegalArgumentException e) {
-                    Log.e(TAG, "MediaMetadataRetriever.setDataSource() fail:"
-                            + e.getMessage());
+                Bitmap prefetched = ThumbnailPrefetcher.getCachedThumbnail(getThumbnailKey());
+                if (prefetched != null) {
+                    return prefetched;
                 }
-                retriever.release();
+                return decodeThumbnail(0, 0, null);
+            }
+        }
+
+        @Override
+        Bitmap decodeThumbnail(int decodeWidth, int decodeHeight, byte[] tempStorage) {
+            // Videos recorded in this session already have their thumbnails.
+            Bitmap bitmap = Thumbnail.getVideoThumbnail(getContentUri());
+            if (bitmap != null) {
                 return bitmap;
             }
+            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+            try {
+                retriever.setDataSource(mPath);
+                byte[] data = retriever.getEmbeddedPicture();
+                if (data != null) {
+                    bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
+                }
+                if (bitmap == null) {
+                    bitmap = retriever.getFrameAtTime();
+                }
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "MediaMetadataRetriever.setDataSource() fail:"
+                        + e.getMessage());
+            }
+            retriever.release();
+            return bitmap;
         }
 
         @Override
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import com.android.camera.ImageTaskManager;
+import com.android.camera.app.WorkScheduler;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deletes batches of {@link LocalData}. The MediaStore rows of a batch are
+ * deleted in a single {@link ContentResolver#applyBatch} transaction, then
+ * the files are unlinked in parallel in the idle lane of
+ * {@link WorkScheduler}. Data which isn't backed by MediaStore falls back to
+ * {@link LocalData#delete(Context)}.
+ * <p>
+ * For each data, the listeners get {@code onTaskQueued} when the batch is
+ * committed, {@code onTaskProgress} once the rows are gone and
+ * {@code onTaskDone} once the file is gone. They may be called on any
+ * thread.
+ */
+class MediaDeleter implements ImageTaskManager {
+    private static final String TAG = "CAM_MediaDeleter";
+
+    private static final int PROGRESS_ROWS_DELETED = 50;
+
+    private final ArrayList<TaskListener> mListeners = new ArrayList<TaskListener>();
+    private final ConcurrentHashMap<Uri, Integer> mProgress =
+            new ConcurrentHashMap<Uri, Integer>();
+
+    @Override
+    public void addTaskListener(TaskListener l) {
+        synchronized (mListeners) {
+            if (!mListeners.contains(l)) {
+                mListeners.add(l);
+            }
+        }
+    }
+
+    @Override
+    public void removeTaskListener(TaskListener l) {
+        synchronized (mListeners) {
+            mListeners.remove(l);
+        }
+    }
+
+    @Override
+    public int getTaskProgress(Uri uri) {
+        Integer progress = mProgress.get(uri);
+        return (progress == null ? -1 : progress);
+    }
+
+    /**
+     * Deletes the data in the background. Data which doesn't support
+     * {@link LocalData#ACTION_DELETE} is skipped.
+     */
+    void delete(Context context, List<LocalData> data) {
+        final ContentResolver resolver = context.getContentResolver();
+        final Context appContext = context.getApplicationContext();
+        // A burst is deleted frame by frame, in the same batch.
+        ArrayList<LocalData> expanded = new ArrayList<LocalData>(data.size());
+        for (LocalData d : data) {
+            if (d instanceof BurstData) {
+                expanded.addAll(((BurstData) d).getFrames());
+            } else {
+                expanded.add(d);
+            }
+        }
+        final ArrayList<LocalData> batch = new ArrayList<LocalData>(expanded.size());
+        for (LocalData d : expanded) {
+            if (!d.isDataActionSupported(LocalData.ACTION_DELETE)) {
+                Log.v(TAG, "Deletion is not supported:" + d);
+                continue;
+            }
+            batch.add(d);
+            setProgress(d.getContentUri(), 0);
+            notifyQueued(d);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        WorkScheduler.getInstance().submit(WorkScheduler.LANE_IDLE, new Runnable() {
+            @Override
+            public void run() {
+                commit(appContext, resolver, batch);
+            }
+        });
+    }
+
+    private void commit(Context context, ContentResolver resolver, List<LocalData> batch) {
+        ArrayList<ContentProviderOperation> ops =
+                new ArrayList<ContentProviderOperation>(batch.size());
+        ArrayList<LocalData> mediaData = new ArrayList<LocalData>(batch.size());
+        for (LocalData d : batch) {
+            if (d instanceof LocalMediaData.PhotoData
+                    || d instanceof LocalMediaData.VideoData) {
+                ops.add(ContentProviderOperation.newDelete(d.getContentUri()).build());
+                mediaData.add(d);
+            } else {
+                d.delete(context);
+                notifyDone(d);
+            }
+        }
+        if (ops.isEmpty()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            resolver.applyBatch(MediaStore.AUTHORITY, ops);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Batch deletion failed, deleting one by one", e);
+            deleteEach(context, mediaData);
+            return;
+        } catch (OperationApplicationException e) {
+            Log.e(TAG, "Batch deletion failed, deleting one by one", e);
+            deleteEach(context, mediaData);
+            return;
+        }
+        Log.v(TAG, "Deleted " + ops.size() + " rows in "
+                + (System.currentTimeMillis() - start) + "ms");
+
+        WorkScheduler scheduler = WorkScheduler.getInstance();
+        final AtomicInteger remaining = new AtomicInteger(mediaData.size());
+        for (final LocalData d : mediaData) {
+            notifyProgress(d, PROGRESS_ROWS_DELETED);
+            // The unlinks don't wait for each other, so they spread over all
+            // the background workers.
+            scheduler.submit(WorkScheduler.LANE_IDLE, new Runnable() {
+                @Override
+                public void run() {
+                    File f = new File(d.getPath());
+                    if (!f.delete() && f.exists()) {
+                        Log.w(TAG, "Failed to delete " + f);
+                    }
+                    notifyDone(d);
+                    if (remaining.decrementAndGet() == 0) {
+                        Log.v(TAG, "Batch deletion finished");
+                    }
+                }
+            });
+        }
+    }
+
+    private void deleteEach(Context context, List<LocalData> data) {
+        for (LocalData d : data) {
+            d.delete(context);
+            notifyDone(d);
+        }
+    }
+
+    private void setProgress(Uri uri, int progress) {
+        if (uri != null) {
+            mProgress.put(uri, progress);
+        }
+    }
+
+    private TaskListener[] getListeners() {
+        synchronized (mListeners) {
+            return mListeners.toArray(new TaskListener[mListeners.size()]);
+        }
+    }
+
+    private void notifyQueued(LocalData d) {
+        for (TaskListener l : getListeners()) {
+            l.onTaskQueued(d.getPath(), d.getContentUri());
+        }
+    }
+
+    private void notifyProgress(LocalData d, int progress) {
+        setProgress(d.getContentUri(), progress);
+        for (TaskListener l : getListeners()) {
+            l.onTaskProgress(d.getPath(), d.getContentUri(), progress);
+        }
+    }
+
+    private void notifyDone(LocalData d) {
+        Uri uri = d.getContentUri();
+        if (uri != null) {
+            mProgress.remove(uri);
+        }
+        for (TaskListener l : getListeners()) {
+            l.onTaskDone(d.getPath(), d.getContentUri());
+        }
+    }
+}
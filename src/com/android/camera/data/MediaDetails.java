@@ -34,6 +34,20 @@ public class MediaDetails implements Iterable<Entry<Integer, Object>> {
     @SuppressWarnings("unused")
     private static final String TAG = "MediaDetails";
 
+    // The tags shown in the details, the only ones read from the file.
+    private static final int[] DETAIL_EXIF_TAGS = {
+            ExifInterface.TAG_FLASH,
+            ExifInterface.TAG_IMAGE_WIDTH,
+            ExifInterface.TAG_IMAGE_LENGTH,
+            ExifInterface.TAG_MAKE,
+            ExifInterface.TAG_MODEL,
+            ExifInterface.TAG_APERTURE_VALUE,
+            ExifInterface.TAG_ISO_SPEED_RATINGS,
+            ExifInterface.TAG_WHITE_BALANCE,
+            ExifInterface.TAG_EXPOSURE_TIME,
+            ExifInterface.TAG_FOCAL_LENGTH,
+    };
+
     private TreeMap<Integer, Object> mDetails = new TreeMap<Integer, Object>();
     private SparseIntArray mUnits = new SparseIntArray();
 
@@ -137,7 +151,7 @@ public class MediaDetails implements Iterable<Entry<Integer, Object>> {
     public static void extractExifInfo(MediaDetails details, String filePath) {
         ExifInterface exif = new ExifInterface();
         try {
-            exif.readExif(filePath);
+            exif.readExif(filePath, DETAIL_EXIF_TAGS);
         } catch (FileNotFoundException e) {
             Log.w(TAG, "Could not find file to read exif: " + filePath, e);
         } catch (IOException e) {
@@ -0,0 +1,572 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.data;
+
+import android.util.Log;
+
+import com.android.camera.app.WorkScheduler;
+import com.android.camera.util.CameraUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * An on-disk copy of the data list, so the filmstrip can show the newest
+ * data on launch without querying MediaStore or reading the files.
+ * <p>
+ * The index is made of two files. The record file holds a header and one
+ * fixed size record per photo or video, oldest first, so a new capture is
+ * an append and the newest page is the tail of the file. The strings of the
+ * records are kept in a separate pool file, which starts with the camera
+ * folder the index was built for. Both files are memory-mapped for reading.
+ * <p>
+ * The writes are queued and run in order on
+ * {@link WorkScheduler#LANE_METADATA}. A rewrite, or an append which goes
+ * before newer records, goes to temporary files renamed over the index, so
+ * a reader which has mapped the old files is not affected. Other appends
+ * write past the records and the strings a reader has mapped, then update
+ * the header the reader has already read. The index is only a hint: the
+ * loaded data is always checked against MediaStore afterwards.
+ */
+class MediaIndex {
+    private static final String TAG = "CAM_MediaIndex";
+
+    private static final int MAGIC = 0x434d4958; // "CMIX"
+    private static final int VERSION = 1;
+
+    // magic, version, generation, count, reserved, pool length
+    private static final int HEADER_SIZE = 32;
+    private static final int HEADER_COUNT = 16;
+    private static final int HEADER_POOL_LENGTH = 24;
+    // magic, version, generation, then the camera folder
+    private static final int POOL_HEADER_SIZE = 16;
+
+    // The layout of a record.
+    private static final int RECORD_SIZE = 88;
+    private static final int REC_ID = 0;
+    private static final int REC_DATE_TAKEN = 8;
+    private static final int REC_DATE_MODIFIED = 16;
+    private static final int REC_SIZE = 24;
+    private static final int REC_LATITUDE = 32;
+    private static final int REC_LONGITUDE = 40;
+    private static final int REC_DURATION = 48;
+    private static final int REC_WIDTH = 56;
+    private static final int REC_HEIGHT = 60;
+    private static final int REC_ORIENTATION = 64;
+    private static final int REC_FLAGS = 68;
+    private static final int REC_TITLE = 72;
+    private static final int REC_MIME_TYPE = 76;
+    private static final int REC_PATH = 80;
+
+    private static final int FLAG_VIDEO = 1;
+
+    // How many newer records an appended record can go before. Only the
+    // saves still queued can be overtaken, so it's never far.
+    private static final int MAX_INSERT_DISTANCE = 64;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // The length stored for a null string, such as a missing title.
+    private static final int NULL_STRING_LENGTH = 0xffff;
+    // Returned by readString() for an offset out of the pool.
+    private static final String INVALID_STRING = new String("invalid");
+    private static final String POOL_SUFFIX = ".strings";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mFile;
+    private final File mPoolFile;
+
+    // The writes not run yet, in order.
+    private final ArrayList<Runnable> mPendingWrites = new ArrayList<Runnable>();
+    private boolean mDrainScheduled;
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                Runnable write;
+                synchronized (mPendingWrites) {
+                    if (mPendingWrites.isEmpty()) {
+                        mDrainScheduled = false;
+                        return;
+                    }
+                    write = mPendingWrites.remove(0);
+                }
+                synchronized (MediaIndex.this) {
+                    write.run();
+                }
+            }
+        }
+    };
+
+    /**
+     * The records of an index, newest first. The data is built on demand
+     * from the mapped files.
+     */
+    static class Snapshot {
+        private final ByteBuffer mRecords;
+        private final ByteBuffer mPool;
+        private final int mCount;
+
+        private Snapshot(ByteBuffer records, ByteBuffer pool, int count) {
+            mRecords = records;
+            mPool = pool;
+            mCount = count;
+        }
+
+        int size() {
+            return mCount;
+        }
+
+        /**
+         * Builds the data at the position in the newest first order.
+         *
+         * @return The data, or null if the record is corrupted.
+         */
+        LocalData get(int position) {
+            int r = HEADER_SIZE + (mCount - 1 - position) * RECORD_SIZE;
+            String title = readString(mPool, mRecords.getInt(r + REC_TITLE));
+            String mimeType = readString(mPool, mRecords.getInt(r + REC_MIME_TYPE));
+            String path = readString(mPool, mRecords.getInt(r + REC_PATH));
+            if (title == INVALID_STRING || mimeType == INVALID_STRING
+                    || path == INVALID_STRING) {
+                return null;
+            }
+            long id = mRecords.getLong(r + REC_ID);
+            long dateTaken = mRecords.getLong(r + REC_DATE_TAKEN);
+            long dateModified = mRecords.getLong(r + REC_DATE_MODIFIED);
+            long sizeInBytes = mRecords.getLong(r + REC_SIZE);
+            double latitude = mRecords.getDouble(r + REC_LATITUDE);
+            double longitude = mRecords.getDouble(r + REC_LONGITUDE);
+            int width = mRecords.getInt(r + REC_WIDTH);
+            int height = mRecords.getInt(r + REC_HEIGHT);
+            if ((mRecords.getInt(r + REC_FLAGS) & FLAG_VIDEO) != 0) {
+                return new LocalMediaData.VideoData(id, title, mimeType, dateTaken,
+                        dateModified, path, width, height, sizeInBytes, latitude, longitude,
+                        mRecords.getLong(r + REC_DURATION));
+            }
+            return new LocalMediaData.PhotoData(id, title, mimeType, dateTaken,
+                    dateModified, path, mRecords.getInt(r + REC_ORIENTATION), width, height,
+                    sizeInBytes, latitude, longitude);
+        }
+    }
+
+    MediaIndex(File file) {
+        mFile = file;
+        mPoolFile = new File(file.getPath() + POOL_SUFFIX);
+    }
+
+    /**
+     * Maps the index for reading.
+     *
+     * @param directory The camera folder the data is loaded for.
+     * @return The records, or null if there is no valid index of the folder.
+     */
+    synchronized Snapshot open(String directory) {
+        if (!mFile.exists() || !mPoolFile.exists()) {
+            return null;
+        }
+        RandomAccessFile file = null;
+        RandomAccessFile pool = null;
+        try {
+            file = new RandomAccessFile(mFile, "r");
+            pool = new RandomAccessFile(mPoolFile, "r");
+            ByteBuffer records = file.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 0, file.length());
+            ByteBuffer strings = pool.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 0, pool.length());
+            if (records.capacity() < HEADER_SIZE || strings.capacity() < POOL_HEADER_SIZE
+                    || records.getInt(0) != MAGIC || records.getInt(4) != VERSION
+                    || strings.getInt(0) != MAGIC || strings.getInt(4) != VERSION
+                    || records.getLong(8) != strings.getLong(8)) {
+                Log.w(TAG, "Discarding an index of another version or generation");
+                return null;
+            }
+            int count = records.getInt(HEADER_COUNT);
+            long poolLength = records.getLong(HEADER_POOL_LENGTH);
+            if (count < 0 || HEADER_SIZE + (long) count * RECORD_SIZE > records.capacity()
+                    || poolLength > strings.capacity()) {
+                Log.w(TAG, "Discarding a truncated index");
+                return null;
+            }
+            // The strings appended after the header was written are not
+            // part of the index.
+            strings.limit((int) poolLength);
+            if (!directory.equals(readString(strings, POOL_HEADER_SIZE))) {
+                return null;
+            }
+            return new Snapshot(records, strings, count);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not map the index", e);
+            return null;
+        } finally {
+            // The mappings stay valid after the files are closed.
+            CameraUtil.closeSilently(file);
+            CameraUtil.closeSilently(pool);
+        }
+    }
+
+    /**
+     * Replaces the index with the data. Can be called on the UI thread, the
+     * data is written in the background.
+     *
+     * @param directory The camera folder the data was loaded from.
+     * @param list All the data of the folder, newest first.
+     */
+    void rewrite(final String directory, LocalDataList list) {
+        final ArrayList<LocalMediaData> data = new ArrayList<LocalMediaData>(list.size());
+        for (LocalData d : list) {
+            if (d instanceof BurstData) {
+                for (LocalData frame : ((BurstData) d).getFrames()) {
+                    addIndexable(data, frame);
+                }
+            } else {
+                addIndexable(data, d);
+            }
+        }
+        synchronized (mPendingWrites) {
+            // The new content covers all the writes still pending.
+            mPendingWrites.clear();
+        }
+        enqueue(new Runnable() {
+            @Override
+            public void run() {
+                writeAll(directory, data);
+            }
+        });
+    }
+
+    /**
+     * Appends the data, which is usually newer than all the indexed data.
+     * Older data, such as a capture saved after a later one of higher
+     * priority, is inserted in order. Can be called on the UI thread, the
+     * data is written in the background.
+     */
+    void append(LocalData d) {
+        if (!(d instanceof LocalMediaData)) {
+            return;
+        }
+        final LocalMediaData data = (LocalMediaData) d;
+        enqueue(new Runnable() {
+            @Override
+            public void run() {
+                appendRecord(data);
+            }
+        });
+    }
+
+    /** Deletes the index, for example when it can't be kept up to date. */
+    void delete() {
+        synchronized (mPendingWrites) {
+            mPendingWrites.clear();
+        }
+        enqueue(new Runnable() {
+            @Override
+            public void run() {
+                deleteFiles();
+            }
+        });
+    }
+
+    private void enqueue(Runnable write) {
+        synchronized (mPendingWrites) {
+            mPendingWrites.add(write);
+            if (!mDrainScheduled) {
+                mDrainScheduled = true;
+                WorkScheduler.getInstance().submit(WorkScheduler.LANE_METADATA, mDrain);
+            }
+        }
+    }
+
+    private static void addIndexable(List<LocalMediaData> list, LocalData data) {
+        // The placeholders of the captures in progress are left out.
+        if (data instanceof LocalMediaData) {
+            list.add((LocalMediaData) data);
+        }
+    }
+
+    private void writeAll(String directory, List<LocalMediaData> data) {
+        File tempFile = new File(mFile.getPath() + TEMP_SUFFIX);
+        File tempPool = new File(mPoolFile.getPath() + TEMP_SUFFIX);
+        long generation = System.currentTimeMillis();
+        DataOutputStream records = null;
+        DataOutputStream pool = null;
+        boolean written = false;
+        try {
+            records = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tempFile)));
+            pool = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tempPool)));
+            pool.writeInt(MAGIC);
+            pool.writeInt(VERSION);
+            pool.writeLong(generation);
+            writeString(pool, directory);
+
+            HashMap<String, Integer> mimeTypes = new HashMap<String, Integer>();
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            int count = data.size();
+            // The pool is complete before the records are written, so write
+            // the strings of all the records first.
+            int[] offsets = new int[count * 3];
+            for (int i = 0; i < count; i++) {
+                LocalMediaData d = data.get(count - 1 - i);
+                offsets[i * 3] = writeString(pool, d.getTitle());
+                Integer mimeType = mimeTypes.get(d.getMimeType());
+                if (mimeType == null) {
+                    mimeType = writeString(pool, d.getMimeType());
+                    mimeTypes.put(d.getMimeType(), mimeType);
+                }
+                offsets[i * 3 + 1] = mimeType;
+                offsets[i * 3 + 2] = writeString(pool, d.getPath());
+            }
+            pool.close();
+            long poolLength = tempPool.length();
+
+            records.writeInt(MAGIC);
+            records.writeInt(VERSION);
+            records.writeLong(generation);
+            records.writeInt(count);
+            records.writeInt(0);
+            records.writeLong(poolLength);
+            for (int i = 0; i < count; i++) {
+                fillRecord(record, data.get(count - 1 - i),
+                        offsets[i * 3], offsets[i * 3 + 1], offsets[i * 3 + 2]);
+                records.write(record.array());
+            }
+            records.close();
+            records = null;
+            pool = null;
+
+            // A crash between the renames leaves files of different
+            // generations, which are discarded by open().
+            written = tempPool.renameTo(mPoolFile) && tempFile.renameTo(mFile);
+            if (!written) {
+                Log.e(TAG, "Could not rename the index");
+                deleteFiles();
+            } else {
+                Log.v(TAG, "Indexed " + count + " data");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write the index", e);
+        } finally {
+            CameraUtil.closeSilently(records);
+            CameraUtil.closeSilently(pool);
+            if (!written) {
+                tempFile.delete();
+                tempPool.delete();
+            }
+        }
+    }
+
+    private void appendRecord(LocalMediaData data) {
+        if (!mFile.exists() || !mPoolFile.exists()) {
+            // Nothing to append to, the next load rebuilds the index.
+            return;
+        }
+        RandomAccessFile file = null;
+        RandomAccessFile pool = null;
+        try {
+            file = new RandomAccessFile(mFile, "rw");
+            pool = new RandomAccessFile(mPoolFile, "rw");
+            if (file.length() < HEADER_SIZE || file.readInt() != MAGIC) {
+                throw new IOException("Invalid index");
+            }
+            file.seek(HEADER_COUNT);
+            int count = file.readInt();
+            file.seek(HEADER_POOL_LENGTH);
+            long poolLength = file.readLong();
+            // The saves are not always done in the order of capture, so
+            // the data may go before the newest records.
+            int position = count;
+            while (position > 0 && count - position <= MAX_INSERT_DISTANCE) {
+                file.seek(HEADER_SIZE + (long) (position - 1) * RECORD_SIZE + REC_DATE_TAKEN);
+                if (file.readLong() <= data.getDateTaken()) {
+                    break;
+                }
+                position--;
+            }
+            if (count - position > MAX_INSERT_DISTANCE) {
+                // Far out of order, for example after a clock change.
+                throw new IOException("Appending older data");
+            }
+
+            // The strings and the record go after the indexed ones, then the
+            // header commits them.
+            ByteBuffer strings = ByteBuffer.allocate(
+                    encodedLength(data.getTitle()) + encodedLength(data.getMimeType())
+                    + encodedLength(data.getPath()));
+            int title = (int) poolLength + putString(strings, data.getTitle());
+            int mimeType = (int) poolLength + putString(strings, data.getMimeType());
+            int path = (int) poolLength + putString(strings, data.getPath());
+            pool.seek(poolLength);
+            pool.write(strings.array());
+
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            fillRecord(record, data, title, mimeType, path);
+            if (position < count) {
+                insertRecord(file, record.array(), position, count,
+                        poolLength + strings.capacity());
+                return;
+            }
+            file.seek(HEADER_SIZE + (long) count * RECORD_SIZE);
+            file.write(record.array());
+
+            file.seek(HEADER_POOL_LENGTH);
+            file.writeLong(poolLength + strings.capacity());
+            file.seek(HEADER_COUNT);
+            file.writeInt(count + 1);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not append to the index, deleting it", e);
+            CameraUtil.closeSilently(file);
+            CameraUtil.closeSilently(pool);
+            file = null;
+            pool = null;
+            deleteFiles();
+        } finally {
+            CameraUtil.closeSilently(file);
+            CameraUtil.closeSilently(pool);
+        }
+    }
+
+    /**
+     * Writes the records with the new one at the position to a temporary
+     * file renamed over the index, as the newer records can't be moved
+     * under a mapped snapshot. The strings must already be in the pool.
+     */
+    private void insertRecord(RandomAccessFile file, byte[] record, int position, int count,
+            long poolLength) throws IOException {
+        byte[] records = new byte[HEADER_SIZE + count * RECORD_SIZE];
+        file.seek(0);
+        file.readFully(records);
+        ByteBuffer header = ByteBuffer.wrap(records);
+        header.putInt(HEADER_COUNT, count + 1);
+        header.putLong(HEADER_POOL_LENGTH, poolLength);
+
+        File tempFile = new File(mFile.getPath() + TEMP_SUFFIX);
+        int offset = HEADER_SIZE + position * RECORD_SIZE;
+        FileOutputStream out = null;
+        boolean written = false;
+        try {
+            out = new FileOutputStream(tempFile);
+            out.write(records, 0, offset);
+            out.write(record);
+            out.write(records, offset, records.length - offset);
+            out.close();
+            out = null;
+            written = tempFile.renameTo(mFile);
+        } finally {
+            CameraUtil.closeSilently(out);
+            if (!written) {
+                tempFile.delete();
+            }
+        }
+        if (!written) {
+            throw new IOException("Could not rename the index");
+        }
+    }
+
+    private void deleteFiles() {
+        mFile.delete();
+        mPoolFile.delete();
+    }
+
+    private static void fillRecord(ByteBuffer record, LocalMediaData data,
+            int title, int mimeType, int path) {
+        boolean video = data instanceof LocalMediaData.VideoData;
+        record.clear();
+        record.putLong(REC_ID, data.getContentId());
+        record.putLong(REC_DATE_TAKEN, data.getDateTaken());
+        record.putLong(REC_DATE_MODIFIED, data.getDateModified());
+        record.putLong(REC_SIZE, data.getSizeInBytes());
+        record.putDouble(REC_LATITUDE, data.mLatitude);
+        record.putDouble(REC_LONGITUDE, data.mLongitude);
+        record.putLong(REC_DURATION, video
+                ? ((LocalMediaData.VideoData) data).getDurationInSeconds() : 0);
+        record.putInt(REC_WIDTH, data.getWidth());
+        record.putInt(REC_HEIGHT, data.getHeight());
+        record.putInt(REC_ORIENTATION, video ? 0 : data.getOrientation());
+        record.putInt(REC_FLAGS, video ? FLAG_VIDEO : 0);
+        record.putInt(REC_TITLE, title);
+        record.putInt(REC_MIME_TYPE, mimeType);
+        record.putInt(REC_PATH, path);
+        record.putInt(REC_PATH + 4, 0);
+    }
+
+    // A string is stored as its UTF-8 length on two bytes, then the bytes.
+    // A null string is stored as NULL_STRING_LENGTH alone.
+
+    private static int encodedLength(String s) {
+        return 2 + (s == null ? 0 : s.getBytes(UTF_8).length);
+    }
+
+    /** Returns the offset of the string, relative to the buffer start. */
+    private static int putString(ByteBuffer buffer, String s) {
+        int offset = buffer.position();
+        if (s == null) {
+            buffer.putShort((short) NULL_STRING_LENGTH);
+            return offset;
+        }
+        byte[] bytes = s.getBytes(UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+        return offset;
+    }
+
+    /** Returns the offset of the string in the pool. */
+    private static int writeString(DataOutputStream pool, String s) throws IOException {
+        int offset = pool.size();
+        if (s == null) {
+            pool.writeShort(NULL_STRING_LENGTH);
+            return offset;
+        }
+        byte[] bytes = s.getBytes(UTF_8);
+        pool.writeShort(bytes.length);
+        pool.write(bytes);
+        return offset;
+    }
+
+    /**
+     * Returns the string at the offset, which may be null, or
+     * {@link #INVALID_STRING} if it is out of the pool.
+     */
+    private static String readString(ByteBuffer pool, int offset) {
+        if (offset < POOL_HEADER_SIZE || offset + 2 > pool.limit()) {
+            return INVALID_STRING;
+        }
+        int length = pool.getShort(offset) & 0xffff;
+        if (length == NULL_STRING_LENGTH) {
+            return null;
+        }
+        if (offset + 2 + length > pool.limit()) {
+            return INVALID_STRING;
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer b = pool.duplicate();
+        b.position(offset + 2);
+        b.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import android.content.Context;
 import android.net.Uri;
 
+import com.android.camera.app.WorkScheduler;
 import com.android.camera.util.PhotoSphereHelper;
 import com.android.camera.util.PhotoSphereHelper.PanoramaMetadata;
 
@@ -67,15 +68,14 @@ public class PanoramaMetadataLoader {
             if (mCallbacksWaiting == null) {
                 mCallbacksWaiting = new ArrayList<PanoramaMetadataCallback>();
 
-                // TODO: Don't create a new thread each time, use a pool or
-                // single instance.
-                (new Thread() {
-                    @Override
-                    public void run() {
-                        onLoadingDone(PhotoSphereHelper.getPanoramaMetadata(context,
-                                mMediaUri));
-                    }
-                }).start();
+                WorkScheduler.getInstance().submit(WorkScheduler.LANE_METADATA,
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                onLoadingDone(PhotoSphereHelper.getPanoramaMetadata(context,
+                                        mMediaUri));
+                            }
+                        });
             }
             mCallbacksWaiting.add(callback);
         }
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.data;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.android.camera.app.WorkScheduler;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes the thumbnails of {@link LocalMediaData} ahead of time, before the
+ * filmstrip builds their views. Requests come from the filmstrip scroll and
+ * fling predictions, the most recent request always wins: thumbnails which
+ * are no longer requested are dropped from the queue. The decoding runs in
+ * the prefetch lane of {@link WorkScheduler}, behind the decoding of visible
+ * thumbnails.
+ * <p>
+ * The decoded thumbnails are kept in a process-wide cache which
+ * {@link LocalMediaData} checks before starting its own decode.
+ */
+class ThumbnailPrefetcher {
+    private static final String TAG = "CAM_ThumbnailPrefetcher";
+
+    static final int MAX_PREFETCH_COUNT = 16;
+
+    private static final LruCache<String, Bitmap> sCache =
+            new LruCache<String, Bitmap>((int) (Runtime.getRuntime().maxMemory() / 8)) {
+                @Override
+                protected int sizeOf(String key, Bitmap value) {
+                    return value.getRowBytes() * value.getHeight();
+                }
+            };
+
+    /**
+     * The submitted tasks, accessed only from the UI thread. A task is
+     * removed once it finishes, so a failed decode is retried by the next
+     * request.
+     */
+    private final HashMap<String, WorkScheduler.Token> mPending =
+            new HashMap<String, WorkScheduler.Token>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Returns the prefetched thumbnail of the key, or null if it's not
+     * available.
+     */
+    static Bitmap getCachedThumbnail(String key) {
+        return sCache.get(key);
+    }
+
+    /**
+     * Replaces the current prefetch requests. Any pending decode not in
+     * {@code data} is cancelled.
+     *
+     * @param data The data to prefetch, in the order they will be shown.
+     * @param decodeWidth The maximum decode width.
+     * @param decodeHeight The maximum decode height.
+     */
+    void prefetch(List<LocalMediaData> data, int decodeWidth, int decodeHeight) {
+        HashMap<String, LocalMediaData> requested = new HashMap<String, LocalMediaData>();
+        int count = Math.min(MAX_PREFETCH_COUNT, data.size());
+        for (int i = 0; i < count; i++) {
+            LocalMediaData d = data.get(i);
+            requested.put(d.getThumbnailKey(), d);
+        }
+
+        // Cancel the work the user already passed.
+        Iterator<Map.Entry<String, WorkScheduler.Token>> it = mPending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, WorkScheduler.Token> entry = it.next();
+            if (!requested.containsKey(entry.getKey())) {
+                entry.getValue().cancel();
+                it.remove();
+            }
+        }
+
+        // The data closer to the current position goes first.
+        WorkScheduler scheduler = WorkScheduler.getInstance();
+        for (int i = 0; i < count; i++) {
+            LocalMediaData d = data.get(i);
+            String key = d.getThumbnailKey();
+            if (sCache.get(key) != null || mPending.containsKey(key)) {
+                continue;
+            }
+            PrefetchTask task = new PrefetchTask(d, key, decodeWidth, decodeHeight);
+            task.mToken = scheduler.submit(WorkScheduler.LANE_PREFETCH, task);
+            mPending.put(key, task.mToken);
+        }
+    }
+
+    /** Cancels all the pending prefetch. */
+    void cancel() {
+        for (WorkScheduler.Token token : mPending.values()) {
+            token.cancel();
+        }
+        mPending.clear();
+    }
+
+    private class PrefetchTask implements Runnable {
+        private final LocalMediaData mData;
+        private final String mKey;
+        private final int mDecodeWidth;
+        private final int mDecodeHeight;
+        // Set on the UI thread, right after the task is submitted.
+        private WorkScheduler.Token mToken;
+
+        PrefetchTask(LocalMediaData data, String key, int decodeWidth, int decodeHeight) {
+            mData = data;
+            mKey = key;
+            mDecodeWidth = decodeWidth;
+            mDecodeHeight = decodeHeight;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (sCache.get(mKey) != null) {
+                    return;
+                }
+                Bitmap b = mData.decodeThumbnail(mDecodeWidth, mDecodeHeight, null);
+                if (b != null) {
+                    sCache.put(mKey, b);
+                } else {
+                    Log.w(TAG, "Prefetch failed for " + mKey);
+                }
+            } finally {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onFinished();
+                    }
+                });
+            }
+        }
+
+        private void onFinished() {
+            // The key may have been requested again since, by a new task.
+            if (mPending.get(mKey) == mToken) {
+                mPending.remove(mKey);
+            }
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.exif;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+
+/**
+ * Reads selected EXIF tags of a JPEG file with positional reads on a
+ * {@link FileChannel}. Unlike {@link ExifReader}, which streams through the
+ * whole APP1 segment, it jumps from the IFD offsets straight to the entries
+ * and the values of the requested tags. The IFDs without requested tags are
+ * not visited and the thumbnail is never read, so the cost follows the
+ * number of tags rather than the size of the EXIF data.
+ */
+class ExifChannelReader {
+    private static final String TAG = "ExifChannelReader";
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final int IFD_ENTRY_SIZE = 12;
+    // More entries than this is a corrupted IFD.
+    private static final int MAX_IFD_ENTRIES = 1000;
+
+    private static final short TAG_EXIF_IFD =
+            ExifInterface.getTrueTagKey(ExifInterface.TAG_EXIF_IFD);
+    private static final short TAG_GPS_IFD =
+            ExifInterface.getTrueTagKey(ExifInterface.TAG_GPS_IFD);
+    private static final short TAG_INTEROPERABILITY_IFD =
+            ExifInterface.getTrueTagKey(ExifInterface.TAG_INTEROPERABILITY_IFD);
+
+    private final FileChannel mChannel;
+    private final HashSet<Integer> mTags = new HashSet<Integer>();
+    private final boolean[] mRequestedIfds = new boolean[IfdId.TYPE_IFD_COUNT];
+
+    // The bounds of the TIFF data in the file, once found.
+    private long mTiffStart;
+    private long mTiffEnd;
+    private ByteOrder mByteOrder;
+
+    /**
+     * @param tags The tags to read, as defined in {@link ExifInterface}.
+     */
+    ExifChannelReader(FileChannel channel, int[] tags) {
+        mChannel = channel;
+        for (int tag : tags) {
+            mTags.add(tag);
+            int ifd = ExifInterface.getTrueIfd(tag);
+            if (ExifTag.isValidIfd(ifd)) {
+                mRequestedIfds[ifd] = true;
+            }
+        }
+        // The pointers to the other IFDs are in IFD0, the interoperability
+        // IFD is pointed to by the EXIF IFD.
+        if (mRequestedIfds[IfdId.TYPE_IFD_INTEROPERABILITY]) {
+            mRequestedIfds[IfdId.TYPE_IFD_EXIF] = true;
+        }
+        for (int i = 0; i < mRequestedIfds.length; i++) {
+            if (mRequestedIfds[i]) {
+                mRequestedIfds[IfdId.TYPE_IFD_0] = true;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the position right after the APP1 segment with the EXIF data,
+     * or -1 if the file doesn't have one.
+     */
+    static long findExifEnd(FileChannel channel) throws IOException {
+        ExifChannelReader reader = new ExifChannelReader(channel, new int[0]);
+        return reader.seekTiffData() ? reader.mTiffEnd : -1;
+    }
+
+    /**
+     * Reads the requested tags. A file without EXIF data gives an empty
+     * {@link ExifData}.
+     */
+    ExifData read() throws IOException, ExifInvalidFormatException {
+        if (!seekTiffData()) {
+            return new ExifData(ExifInterface.DEFAULT_BYTE_ORDER);
+        }
+        ByteBuffer header = readAt(mTiffStart, 8, ByteOrder.BIG_ENDIAN);
+        if (header == null) {
+            throw new ExifInvalidFormatException("Invalid TIFF header");
+        }
+        short byteOrder = header.getShort();
+        if (byteOrder == ExifParser.LITTLE_ENDIAN_TAG) {
+            mByteOrder = ByteOrder.LITTLE_ENDIAN;
+        } else if (byteOrder == ExifParser.BIG_ENDIAN_TAG) {
+            mByteOrder = ByteOrder.BIG_ENDIAN;
+        } else {
+            throw new ExifInvalidFormatException("Invalid TIFF header");
+        }
+        header.order(mByteOrder);
+        if (header.getShort() != ExifParser.TIFF_HEADER_TAIL) {
+            throw new ExifInvalidFormatException("Invalid TIFF header");
+        }
+        long ifd0 = header.getInt() & 0xffffffffL;
+
+        ExifData data = new ExifData(mByteOrder);
+        if (mRequestedIfds[IfdId.TYPE_IFD_0]) {
+            readIfd(data, IfdId.TYPE_IFD_0, ifd0);
+        }
+        return data;
+    }
+
+    private boolean seekTiffData() throws IOException {
+        ByteBuffer b = readAt(0, 2, ByteOrder.BIG_ENDIAN);
+        if (b == null || b.getShort() != JpegHeader.SOI) {
+            return false;
+        }
+        long position = 2;
+        while (true) {
+            b = readAt(position, 4, ByteOrder.BIG_ENDIAN);
+            if (b == null) {
+                return false;
+            }
+            short marker = b.getShort();
+            if (marker == JpegHeader.EOI || JpegHeader.isSofMarker(marker)) {
+                return false;
+            }
+            int length = b.getShort() & 0xffff;
+            if (length < 2) {
+                Log.w(TAG, "Invalid JPEG format.");
+                return false;
+            }
+            // Some invalid formatted image contains multiple APP1, looks for
+            // the one with Exif data.
+            if (marker == JpegHeader.APP1 && length >= 8) {
+                b = readAt(position + 4, 6, ByteOrder.BIG_ENDIAN);
+                if (b != null && b.getInt() == ExifParser.EXIF_HEADER
+                        && b.getShort() == ExifParser.EXIF_HEADER_TAIL) {
+                    mTiffStart = position + 10;
+                    mTiffEnd = position + 2 + length;
+                    return true;
+                }
+            }
+            position += 2 + length;
+        }
+    }
+
+    private void readIfd(ExifData data, int ifdType, long offset) throws IOException {
+        ByteBuffer b = readAt(mTiffStart + offset, 2, mByteOrder);
+        if (b == null) {
+            Log.w(TAG, "Invalid offset of IFD " + ifdType + ": " + offset);
+            return;
+        }
+        int count = Math.min(b.getShort() & 0xffff, MAX_IFD_ENTRIES);
+        // The entries and the offset of the next IFD.
+        ByteBuffer entries = readAt(mTiffStart + offset + 2,
+                count * IFD_ENTRY_SIZE + 4, mByteOrder);
+        if (entries == null) {
+            Log.w(TAG, "Truncated IFD " + ifdType);
+            return;
+        }
+        data.addIfdData(new IfdData(ifdType));
+
+        long exifIfd = 0;
+        long gpsIfd = 0;
+        long interoperabilityIfd = 0;
+        for (int i = 0; i < count; i++) {
+            int entry = i * IFD_ENTRY_SIZE;
+            short tagId = entries.getShort(entry);
+            if (ifdType == IfdId.TYPE_IFD_0 && tagId == TAG_EXIF_IFD) {
+                exifIfd = entries.getInt(entry + 8) & 0xffffffffL;
+            } else if (ifdType == IfdId.TYPE_IFD_0 && tagId == TAG_GPS_IFD) {
+                gpsIfd = entries.getInt(entry + 8) & 0xffffffffL;
+            } else if (ifdType == IfdId.TYPE_IFD_EXIF && tagId == TAG_INTEROPERABILITY_IFD) {
+                interoperabilityIfd = entries.getInt(entry + 8) & 0xffffffffL;
+            }
+            if (mTags.contains(ExifInterface.defineTag(ifdType, tagId))) {
+                ExifTag tag = readTag(entries, entry, ifdType, offset + 2 + entry);
+                if (tag != null) {
+                    data.getIfdData(ifdType).setTag(tag);
+                }
+            }
+        }
+        long nextIfd = entries.getInt(count * IFD_ENTRY_SIZE) & 0xffffffffL;
+
+        if (exifIfd != 0 && mRequestedIfds[IfdId.TYPE_IFD_EXIF]) {
+            readIfd(data, IfdId.TYPE_IFD_EXIF, exifIfd);
+        }
+        if (interoperabilityIfd != 0 && mRequestedIfds[IfdId.TYPE_IFD_INTEROPERABILITY]) {
+            readIfd(data, IfdId.TYPE_IFD_INTEROPERABILITY, interoperabilityIfd);
+        }
+        if (gpsIfd != 0 && mRequestedIfds[IfdId.TYPE_IFD_GPS]) {
+            readIfd(data, IfdId.TYPE_IFD_GPS, gpsIfd);
+        }
+        if (ifdType == IfdId.TYPE_IFD_0 && nextIfd != 0 && mRequestedIfds[IfdId.TYPE_IFD_1]) {
+            readIfd(data, IfdId.TYPE_IFD_1, nextIfd);
+        }
+    }
+
+    private ExifTag readTag(ByteBuffer entries, int entry, int ifdType, long entryOffset)
+            throws IOException {
+        short tagId = entries.getShort(entry);
+        short type = entries.getShort(entry + 2);
+        long count = entries.getInt(entry + 4) & 0xffffffffL;
+        if (!ExifTag.isValidType(type)) {
+            Log.w(TAG, String.format("Tag %04x: Invalid data type %d", tagId, type));
+            return null;
+        }
+        long size = count * ExifTag.getElementSize(type);
+        if (size > mTiffEnd - mTiffStart) {
+            Log.w(TAG, String.format("Tag %04x: Invalid size %d", tagId, size));
+            return null;
+        }
+        ExifTag tag = new ExifTag(tagId, type, (int) count, ifdType,
+                ((int) count) != ExifTag.SIZE_UNDEFINED);
+
+        ByteBuffer value;
+        if (size <= 4) {
+            value = entries.duplicate().order(mByteOrder);
+            value.position(entry + 8);
+            tag.setOffset((int) (entryOffset + 8));
+        } else {
+            long offset = entries.getInt(entry + 8) & 0xffffffffL;
+            value = readAt(mTiffStart + offset, (int) size, mByteOrder);
+            if (value == null) {
+                Log.w(TAG, String.format("Tag %04x: Invalid offset %d", tagId, offset));
+                return null;
+            }
+            tag.setOffset((int) offset);
+        }
+
+        // Set defined count to 0 so we can add \0 to non-terminated strings,
+        // like ExifParser.
+        boolean defCount = tag.hasDefinedCount();
+        tag.setHasDefinedCount(false);
+        setValue(tag, value, (int) count);
+        tag.setHasDefinedCount(defCount);
+        return tag;
+    }
+
+    private static void setValue(ExifTag tag, ByteBuffer b, int count) {
+        switch (tag.getDataType()) {
+            case ExifTag.TYPE_UNSIGNED_BYTE:
+            case ExifTag.TYPE_UNDEFINED: {
+                byte buf[] = new byte[count];
+                b.get(buf);
+                tag.setValue(buf);
+            }
+                break;
+            case ExifTag.TYPE_ASCII: {
+                byte buf[] = new byte[count];
+                b.get(buf);
+                tag.setValue(new String(buf, US_ASCII));
+            }
+                break;
+            case ExifTag.TYPE_UNSIGNED_LONG: {
+                long value[] = new long[count];
+                for (int i = 0; i < count; i++) {
+                    value[i] = b.getInt() & 0xffffffffL;
+                }
+                tag.setValue(value);
+            }
+                break;
+            case ExifTag.TYPE_UNSIGNED_RATIONAL: {
+                Rational value[] = new Rational[count];
+                for (int i = 0; i < count; i++) {
+                    long nomi = b.getInt() & 0xffffffffL;
+                    long denomi = b.getInt() & 0xffffffffL;
+                    value[i] = new Rational(nomi, denomi);
+                }
+                tag.setValue(value);
+            }
+                break;
+            case ExifTag.TYPE_UNSIGNED_SHORT: {
+                int value[] = new int[count];
+                for (int i = 0; i < count; i++) {
+                    value[i] = b.getShort() & 0xffff;
+                }
+                tag.setValue(value);
+            }
+                break;
+            case ExifTag.TYPE_LONG: {
+                int value[] = new int[count];
+                for (int i = 0; i < count; i++) {
+                    value[i] = b.getInt();
+                }
+                tag.setValue(value);
+            }
+                break;
+            case ExifTag.TYPE_RATIONAL: {
+                Rational value[] = new Rational[count];
+                for (int i = 0; i < count; i++) {
+                    long nomi = b.getInt();
+                    long denomi = b.getInt();
+                    value[i] = new Rational(nomi, denomi);
+                }
+                tag.setValue(value);
+            }
+                break;
+        }
+    }
+
+    /**
+     * Reads the bytes at the position in the file. Returns null if they go
+     * past the end of the file, or past the EXIF data once it's found.
+     */
+    private ByteBuffer readAt(long position, int length, ByteOrder order) throws IOException {
+        if (mTiffEnd > 0 && position + length > mTiffEnd) {
+            return null;
+        }
+        ByteBuffer b = ByteBuffer.allocate(length);
+        while (b.hasRemaining()) {
+            if (mChannel.read(b, position + b.position()) < 0) {
+                return null;
+            }
+        }
+        b.flip();
+        b.order(order);
+        return b;
+    }
+}
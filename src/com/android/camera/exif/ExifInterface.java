@@ -34,6 +34,7 @@ import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -768,6 +769,51 @@ public class ExifInterface {
         is.close();
     }
 
+    /**
+     * Reads only the given exif tags from a file, clearing this ExifInterface
+     * object's existing exif tags. Unlike {@link #readExif(String)}, the file
+     * is read at the offsets of the requested tags: the IFDs without any of
+     * them are skipped and the thumbnail is never read.
+     *
+     * @param inFileName a string representing the filepath to jpeg file.
+     * @param tagIds the tags to read, as defined in this class.
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public void readExif(String inFileName, int[] tagIds)
+            throws FileNotFoundException, IOException {
+        if (inFileName == null) {
+            throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
+        }
+        FileInputStream is = new FileInputStream(inFileName);
+        try {
+            readExif(is.getChannel(), tagIds);
+        } finally {
+            closeSilently(is);
+        }
+    }
+
+    /**
+     * Reads only the given exif tags from a file channel, clearing this
+     * ExifInterface object's existing exif tags. The position of the channel
+     * is unchanged.
+     *
+     * @param channel a FileChannel of a jpeg file.
+     * @param tagIds the tags to read, as defined in this class.
+     * @throws IOException
+     * @see #readExif(String, int[])
+     */
+    public void readExif(FileChannel channel, int[] tagIds) throws IOException {
+        if (channel == null || tagIds == null) {
+            throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
+        }
+        try {
+            mData = new ExifChannelReader(channel, tagIds).read();
+        } catch (ExifInvalidFormatException e) {
+            throw new IOException("Invalid exif format : " + e);
+        }
+    }
+
     /**
      * Sets the exif tags, clearing this ExifInterface object's existing exif
      * tags.
@@ -967,6 +1013,25 @@ public class ExifInterface {
         return eos;
     }
 
+    /**
+     * Returns the APP1 segment holding the exif tags of this ExifInterface
+     * object, from its marker on, so it can be put in a jpeg without passing
+     * the image through {@link #getExifWriterStream(OutputStream)}.
+     *
+     * @throws IOException if the exif data can't fit in a segment.
+     */
+    public byte[] getExifSegment() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream s = getExifWriterStream(out);
+        // The segment follows the SOI marker.
+        s.write(new byte[] {
+                (byte) (JpegHeader.SOI >> 8), (byte) JpegHeader.SOI
+        });
+        s.flush();
+        byte[] segment = out.toByteArray();
+        return Arrays.copyOfRange(segment, 2, segment.length);
+    }
+
     /**
      * Returns an OutputStream object that writes to a file. Exif tags in this
      * ExifInterface object will be added to a jpeg image written to this
@@ -1010,43 +1075,33 @@ public class ExifInterface {
     public boolean rewriteExif(String filename, Collection<ExifTag> tags)
             throws FileNotFoundException, IOException {
         RandomAccessFile file = null;
-        InputStream is = null;
         boolean ret;
         try {
             File temp = new File(filename);
-            is = new BufferedInputStream(new FileInputStream(temp));
+            file = new RandomAccessFile(temp, "rw");
 
-            // Parse beginning of APP1 in exif to find size of exif header.
-            ExifParser parser = null;
-            try {
-                parser = ExifParser.parse(is, this);
-            } catch (ExifInvalidFormatException e) {
-                throw new IOException("Invalid exif format : ", e);
-            }
-            long exifSize = parser.getOffsetToExifEndFromSOF();
+            // Find the end of APP1 from the segment headers, without parsing
+            // the exif data.
+            long exifSize = ExifChannelReader.findExifEnd(file.getChannel());
+            if (exifSize < 0) {
+                // Nothing to overwrite.
+                ret = false;
+            } else {
+                long fileLength = file.length();
+                if (fileLength < exifSize) {
+                    throw new IOException("Filesize changed during operation");
+                }
 
-            // Free up resources
-            is.close();
-            is = null;
+                // Map only exif header into memory.
+                ByteBuffer buf = file.getChannel().map(MapMode.READ_WRITE, 0, exifSize);
 
-            // Open file for memory mapping.
-            file = new RandomAccessFile(temp, "rw");
-            long fileLength = file.length();
-            if (fileLength < exifSize) {
-                throw new IOException("Filesize changed during operation");
+                // Attempt to overwrite tag values without changing lengths
+                // (avoids file copy).
+                ret = rewriteExif(buf, tags);
             }
-
-            // Map only exif header into memory.
-            ByteBuffer buf = file.getChannel().map(MapMode.READ_WRITE, 0, exifSize);
-
-            // Attempt to overwrite tag values without changing lengths (avoids
-            // file copy).
-            ret = rewriteExif(buf, tags);
         } catch (IOException e) {
             closeSilently(file);
             throw e;
-        } finally {
-            closeSilently(is);
         }
         file.close();
         return ret;
@@ -21,6 +21,7 @@ class JpegHeader {
     public static final short APP1 = (short) 0xFFE1;
     public static final short APP0 = (short) 0xFFE0;
     public static final short EOI = (short) 0xFFD9;
+    public static final short SOS = (short) 0xFFDA;
 
     /**
      *  SOF (start of frame). All value between SOF0 and SOF15 is SOF marker except for DHT, JPG,
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.exif;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the dimensions and the EXIF orientation of a JPEG by walking its
+ * marker segments, without decoding anything. Only the segment headers, the
+ * start of the APP1 segment and the frame header are read, which are
+ * usually within the first few kilobytes of the file.
+ */
+public final class JpegProbe {
+    /** The EXIF orientation tag. */
+    private static final int TAG_ORIENTATION = 0x0112;
+    /** The most of an APP1 segment read for the orientation. */
+    private static final int APP1_READ_LIMIT = 1024;
+
+    /** The result of a probe. */
+    public static final class Result {
+        /** The encoded width, 0 if unknown. */
+        public final int width;
+        /** The encoded height, 0 if unknown. */
+        public final int height;
+        /** The clockwise rotation in the EXIF data, in degrees. */
+        public final int orientation;
+
+        Result(int width, int height, int orientation) {
+            this.width = width;
+            this.height = height;
+            this.orientation = orientation;
+        }
+
+        /** Returns whether a frame header with valid dimensions was found. */
+        public boolean isValid() {
+            return width > 0 && height > 0;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + ", orientation=" + orientation;
+        }
+    }
+
+    private static final Result INVALID = new Result(0, 0, 0);
+
+    private interface Input {
+        /**
+         * Reads up to {@code length} bytes at the position. Returns the
+         * number of bytes read, which is less than {@code length} only at the
+         * end of the input.
+         */
+        int read(long position, byte[] dst, int length) throws IOException;
+    }
+
+    private static class ArrayInput implements Input {
+        private final byte[] mData;
+        private final int mOffset;
+        private final int mLength;
+
+        ArrayInput(byte[] data, int offset, int length) {
+            mData = data;
+            mOffset = offset;
+            mLength = length;
+        }
+
+        @Override
+        public int read(long position, byte[] dst, int length) {
+            if (position >= mLength) {
+                return 0;
+            }
+            int n = (int) Math.min(length, mLength - position);
+            System.arraycopy(mData, mOffset + (int) position, dst, 0, n);
+            return n;
+        }
+    }
+
+    private static class ChannelInput implements Input {
+        private final FileChannel mChannel;
+
+        ChannelInput(FileChannel channel) {
+            mChannel = channel;
+        }
+
+        @Override
+        public int read(long position, byte[] dst, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(dst, 0, length);
+            while (buffer.hasRemaining()) {
+                if (mChannel.read(buffer, position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            return buffer.position();
+        }
+    }
+
+    private JpegProbe() {
+    }
+
+    public static Result probe(byte[] data) {
+        return probe(data, 0, data.length);
+    }
+
+    public static Result probe(byte[] data, int offset, int length) {
+        try {
+            return walk(new ArrayInput(data, offset, length));
+        } catch (IOException e) {
+            // Not thrown by an array.
+            return INVALID;
+        }
+    }
+
+    /** Probes the channel with positional reads, its position is unchanged. */
+    public static Result probe(FileChannel channel) throws IOException {
+        return walk(new ChannelInput(channel));
+    }
+
+    public static Result probe(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return probe(in.getChannel());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Result walk(Input in) throws IOException {
+        byte[] buf = new byte[APP1_READ_LIMIT];
+        if (in.read(0, buf, 2) < 2 || readShort(buf, 0, false) != JpegHeader.SOI) {
+            return INVALID;
+        }
+        int orientation = 0;
+        long position = 2;
+        while (in.read(position, buf, 4) == 4) {
+            if ((buf[0] & 0xff) != 0xff) {
+                return INVALID;
+            }
+            int code = buf[1] & 0xff;
+            if (code == 0xff) {
+                // Fill byte before a marker.
+                position++;
+                continue;
+            }
+            if (code == 0x01 || (code >= 0xd0 && code <= 0xd7)) {
+                // TEM and RSTn don't have a length.
+                position += 2;
+                continue;
+            }
+            short marker = readShort(buf, 0, false);
+            if (marker == JpegHeader.EOI || marker == JpegHeader.SOS) {
+                // No frame header before the image data.
+                return INVALID;
+            }
+            int length = readShort(buf, 2, false) & 0xffff;
+            if (length < 2) {
+                return INVALID;
+            }
+            if (JpegHeader.isSofMarker(marker)) {
+                // Sample precision, then the height and the width.
+                if (in.read(position + 4, buf, 5) < 5) {
+                    return INVALID;
+                }
+                return new Result(readShort(buf, 3, false) & 0xffff,
+                        readShort(buf, 1, false) & 0xffff, orientation);
+            }
+            if (marker == JpegHeader.APP1 && orientation == 0) {
+                int n = in.read(position + 4, buf, Math.min(length - 2, buf.length));
+                orientation = parseOrientation(buf, n);
+            }
+            position += 2 + length;
+        }
+        return INVALID;
+    }
+
+    /** Finds the orientation in IFD0 of an EXIF APP1 payload. */
+    private static int parseOrientation(byte[] b, int length) {
+        // "Exif\0\0", then the TIFF header.
+        if (length < 14 || b[0] != 'E' || b[1] != 'x' || b[2] != 'i' || b[3] != 'f'
+                || b[4] != 0 || b[5] != 0) {
+            return 0;
+        }
+        int tiff = 6;
+        boolean littleEndian;
+        if (b[tiff] == 'I' && b[tiff + 1] == 'I') {
+            littleEndian = true;
+        } else if (b[tiff] == 'M' && b[tiff + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return 0;
+        }
+        long ifdOffset = readInt(b, tiff + 4, littleEndian) & 0xffffffffL;
+        if (ifdOffset > length) {
+            return 0;
+        }
+        int ifd = tiff + (int) ifdOffset;
+        if (ifd + 2 > length) {
+            return 0;
+        }
+        int count = readShort(b, ifd, littleEndian) & 0xffff;
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > length) {
+                break;
+            }
+            if ((readShort(b, entry, littleEndian) & 0xffff) == TAG_ORIENTATION) {
+                return getRotation(readShort(b, entry + 8, littleEndian));
+            }
+        }
+        return 0;
+    }
+
+    /** Same mapping as {@link ExifInterface#getRotationForOrientationValue}. */
+    private static int getRotation(short orientation) {
+        // The constants of ExifInterface.Orientation, spelled out to keep
+        // this class free of Android dependencies.
+        switch (orientation) {
+            case 6: // RIGHT_TOP
+                return 90;
+            case 3: // BOTTOM_LEFT
+                return 180;
+            case 8: // RIGHT_BOTTOM
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    private static short readShort(byte[] b, int offset, boolean littleEndian) {
+        if (littleEndian) {
+            return (short) ((b[offset] & 0xff) | ((b[offset + 1] & 0xff) << 8));
+        }
+        return (short) (((b[offset] & 0xff) << 8) | (b[offset + 1] & 0xff));
+    }
+
+    private static int readInt(byte[] b, int offset, boolean littleEndian) {
+        if (littleEndian) {
+            return (b[offset] & 0xff) | ((b[offset + 1] & 0xff) << 8)
+                    | ((b[offset + 2] & 0xff) << 16) | ((b[offset + 3] & 0xff) << 24);
+        }
+        return ((b[offset] & 0xff) << 24) | ((b[offset + 1] & 0xff) << 16)
+                | ((b[offset + 2] & 0xff) << 8) | (b[offset + 3] & 0xff);
+    }
+}
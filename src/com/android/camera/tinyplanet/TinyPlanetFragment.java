@@ -45,6 +45,7 @@ import com.android.camera.CameraActivity;
 import com.android.camera.MediaSaveService;
 import com.android.camera.PhotoModule;
 import com.android.camera.MediaSaveService.OnMediaSavedListener;
+import com.android.camera.app.WorkScheduler;
 import com.android.camera.exif.ExifInterface;
 import com.android.camera.tinyplanet.TinyPlanetPreview.PreviewSizeListener;
 import com.android.camera.util.XmpUtil;
@@ -178,7 +179,8 @@ public class TinyPlanetFragment extends DialogFragment implements PreviewSizeLis
                         }
                     }
                 }
-            }).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            }).executeOnExecutor(WorkScheduler.getInstance().getExecutor(
+                    WorkScheduler.LANE_VISIBLE_THUMBNAIL));
         }
     };
 
@@ -324,7 +326,8 @@ public class TinyPlanetFragment extends DialogFragment implements PreviewSizeLis
                         image.mSize, image.mSize, 0, null, doneListener, getActivity()
                                 .getContentResolver(),PhotoModule.PIXEL_FORMAT_JPEG);
             }
-        }).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }).executeOnExecutor(WorkScheduler.getInstance().getExecutor(
+                WorkScheduler.LANE_IDLE));
     }
 
     /**
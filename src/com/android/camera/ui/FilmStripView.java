@@ -46,12 +46,17 @@ import com.android.camera.util.PhotoSphereHelper.PanoramaViewHelper;
 import com.android.camera.util.UsageStatistics;
 import com.android.camera2.R;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
 
 public class FilmStripView extends ViewGroup implements BottomControlsListener {
     private static final String TAG = "CAM_FilmStripView";
 
     private static final int BUFFER_SIZE = 5;
+    // The maximum number of data prepared ahead of the buffer during a fling.
+    private static final int MAX_FLING_LOOKAHEAD = 8;
+    // The number of data prefetched beyond the buffer when the buffer steps.
+    private static final int STEP_PREFETCH_COUNT = 2;
     private static final int GEOMETRY_ADJUST_TIME_MS = 400;
     private static final int SNAP_IN_CENTER_TIME_MS = 600;
     private static final float FLING_COASTING_DURATION_S = 0.05f;
@@ -76,6 +81,11 @@ public class FilmStripView extends ViewGroup implements BottomControlsListener {
     private MyController mController;
     private int mCenterX = -1;
     private ViewItem[] mViewItem = new ViewItem[BUFFER_SIZE];
+    // Recycled view items. Only accessed from the UI thread.
+    private final ArrayDeque<ViewItem> mViewItemPool = new ArrayDeque<ViewItem>();
+    // The data range [mLookaheadStart, mLookaheadEnd] prepared ahead of a fling.
+    private int mLookaheadStart = -1;
+    private int mLookaheadEnd = -1;
 
     private Listener mListener;
     private ZoomView mZoomView = null;
@@ -294,6 +304,19 @@ public class FilmStripView extends ViewGroup implements BottomControlsListener {
          */
         public void suggestViewSizeBound(int w, int h);
 
+        /**
+         * Hints the data adapter that the data in the range are going to be
+         * shown soon so their content can be loaded ahead of time. Data
+         * closer to {@code fromDataID} should be loaded first. Pending
+         * loading of data outside the range from previous hints can be
+         * cancelled.
+         *
+         * @param fromDataID The ID of the data to be shown first.
+         * @param toDataID The ID of the data to be shown last. Can be smaller
+         *                 than {@code fromDataID}.
+         */
+        public void prefetch(int fromDataID, int toDataID);
+
         /**
          * Sets the listener for data events over the ImageData.
          *
@@ -432,14 +455,33 @@ public class FilmStripView extends ViewGroup implements BottomControlsListener {
          */
         public ViewItem(
                 int id, View v, ValueAnimator.AnimatorUpdateListener listener) {
+            mViewArea = new RectF();
+            mTranslationXAnimator = new ValueAnimator();
+            mTranslationXAnimator.addUpdateListener(listener);
+            bind(id, v);
+        }
+
+        /**
+         * Binds a recycled item to new data. The {@code RectF} and the
+         * animator are reused.
+         *
+         * @param id The id of the data from {@link DataAdapter}.
+         * @param v The {@code View} representing the data.
+         */
+        public void bind(int id, View v) {
             v.setPivotX(0f);
             v.setPivotY(0f);
             mDataId = id;
             mView = v;
             mLeftPosition = -1;
-            mViewArea = new RectF();
-            mTranslationXAnimator = new ValueAnimator();
-            mTranslationXAnimator.addUpdateListener(listener);
+            mViewArea.setEmpty();
+        }
+
+        /** Releases the view so this item can be put back into the pool. */
+        public void unbind() {
+            mTranslationXAnimator.cancel();
+            mView = null;
+            mDataId = -1;
         }
 
         /** Returns the data id from {@link DataAdapter}. */
@@ -882,8 +924,7 @@ public class FilmStripView extends ViewGroup implements BottomControlsListener {
         if (v == null) {
             return null;
         }
-        ViewItem item = new ViewItem(dataID, v, mViewItemUpdateListener);
-        v = item.getView();
+        ViewItem item = obtainViewItem(dataID, v);
         if (v != mCameraView) {
             addView(item.getView());
         } else {
@@ -895,6 +936,22 @@ public class FilmStripView extends ViewGroup implements BottomControlsListener {
         return item;
     }
 
+    private ViewItem obtainViewItem(int dataID, View v) {
+        ViewItem item = mViewItemPool.poll();
+        if (item == null) {
+            return new ViewItem(dataID, v, mViewItemUpdateListener);
+        }
+        item.bind(dataID, v);
+        return item;
+    }
+
+    private void recycleViewItem(ViewItem item) {
+        item.unbind();
+        if (mViewItemPool.size() < BUFFER_SIZE + MAX_FLING_LOOKAHEAD) {
+            mViewItemPool.offer(item);
+        }
+    }
+
     private void removeItem(int itemID) {
         if (itemID >= mViewItem.length || mViewItem[itemID] == null) {
             return;
@@ -905,9 +962,78 @@ public class FilmStripView extends ViewGroup implements BottomControlsListener {
             return;
         }
         checkForRemoval(data, mViewItem[itemID].getView());
+        recycleViewItem(mViewItem[itemID]);
         mViewItem[itemID] = null;
     }
 
+    /**
+     * Prepares the data a fling is going to reach beyond the buffer so they
+     * are ready before they are scrolled into the buffer.
+     *
+     * @param distance The estimated distance of the fling in pixels.
+     * @param viewWidth The width of an item used for estimation.
+     */
+    private void prepareLookahead(int distance, int viewWidth) {
+        recycleLookahead();
+        if (viewWidth <= 0 || mViewItem[mCurrentItem] == null) {
+            return;
+        }
+        int count = Math.min(MAX_FLING_LOOKAHEAD,
+                Math.abs(distance) / (viewWidth + mViewGap) - mCurrentItem);
+        if (count <= 0) {
+            return;
+        }
+        int start;
+        int end;
+        if (distance > 0) {
+            ViewItem last = mViewItem[BUFFER_SIZE - 1];
+            if (last == null) {
+                return;
+            }
+            start = last.getId() + 1;
+            end = Math.min(mDataAdapter.getTotalNumber() - 1, start + count - 1);
+        } else {
+            ViewItem first = mViewItem[0];
+            if (first == null) {
+                return;
+            }
+            end = first.getId() - 1;
+            start = Math.max(0, end - count + 1);
+        }
+        for (int id = start; id <= end; id++) {
+            ImageData data = mDataAdapter.getImageData(id);
+            if (data != null) {
+                data.prepare();
+            }
+        }
+        mLookaheadStart = start;
+        mLookaheadEnd = end;
+        // Load the ones to be scrolled in first.
+        if (distance > 0) {
+            mDataAdapter.prefetch(start, end);
+        } else {
+            mDataAdapter.prefetch(end, start);
+        }
+    }
+
+    /** Recycles the data prepared by the last fling that are not in the buffer. */
+    private void recycleLookahead() {
+        if (mLookaheadStart < 0 || mDataAdapter == null) {
+            return;
+        }
+        for (int id = mLookaheadStart; id <= mLookaheadEnd; id++) {
+            if (findItemByDataID(id) != -1) {
+                continue;
+            }
+            ImageData data = mDataAdapter.getImageData(id);
+            if (data != null) {
+                data.recycle();
+            }
+        }
+        mLookaheadStart = -1;
+        mLookaheadEnd = -1;
+    }
+
     /**
      * We try to keep the one closest to the center of the screen at position
      * mCurrentItem.
@@ -957,12 +1083,34 @@ public class FilmStripView extends ViewGroup implements BottomControlsListener {
                 }
             }
         }
+        prefetchBeyondBuffer(adjust > 0);
         invalidate();
         if (mListener != null) {
             mListener.onDataFocusChanged(mViewItem[mCurrentItem].getId(), true);
         }
     }
 
+    /**
+     * Prefetches the data next to the buffer edge in the scrolling direction
+     * unless a fling lookahead is already covering it.
+     */
+    private void prefetchBeyondBuffer(boolean toRight) {
+        if (mLookaheadStart >= 0) {
+            return;
+        }
+        if (toRight) {
+            ViewItem last = mViewItem[BUFFER_SIZE - 1];
+            if (last != null) {
+                mDataAdapter.prefetch(last.getId() + 1, last.getId() + STEP_PREFETCH_COUNT);
+            }
+        } else {
+            ViewItem first = mViewItem[0];
+            if (first != null && first.getId() > 0) {
+                mDataAdapter.prefetch(first.getId() - 1, first.getId() - STEP_PREFETCH_COUNT);
+            }
+        }
+    }
+
     /**
      * Check the bounds of {@code mCenterX}. Always call this function after:
      * 1. Any changes to {@code mCenterX}. 2. Any size change of the view
@@ -1832,6 +1980,7 @@ public class FilmStripView extends ViewGroup implements BottomControlsListener {
         }
         newItem.copyGeometry(item);
         mViewItem[itemID] = newItem;
+        recycleViewItem(item);
 
         boolean stopScroll = clampCenterX();
         checkCurrentDataCentered(getCurrentId());
@@ -1942,7 +2091,9 @@ public class FilmStripView extends ViewGroup implements BottomControlsListener {
             if (imageData != null) {
                 imageData.recycle();
             }
+            recycleViewItem(mViewItem[i]);
         }
+        recycleLookahead();
 
         // Clear out the mViewItems and rebuild with camera in the center.
         Arrays.fill(mViewItem, null);
@@ -2021,6 +2172,7 @@ public class FilmStripView extends ViewGroup implements BottomControlsListener {
                     @Override
                     public void onScrollEnd() {
                         mCanStopScroll = true;
+                        recycleLookahead();
                         if (mViewItem[mCurrentItem] == null) {
                             return;
                         }
@@ -2186,6 +2338,7 @@ public class FilmStripView extends ViewGroup implements BottomControlsListener {
             // the possible maximum too.
             int maxX = estimateMaxX(item.getId(), item.getLeftPosition(), w);
             mScroller.fling(mCenterX, 0, (int) -velocityX, 0, minX, maxX, 0, 0);
+            prepareLookahead(mScroller.getFinalX() - mCenterX, w);
         }
 
         @Override
@@ -2567,6 +2720,11 @@ public class FilmStripView extends ViewGroup implements BottomControlsListener {
             return (mScroller.isFinished() && !mXScrollAnimator.isRunning());
         }
 
+        /** Returns where the current fling will end. */
+        public int getFinalX() {
+            return mScroller.getFinalX();
+        }
+
         public void forceFinished(boolean finished) {
             mScroller.forceFinished(finished);
             if (finished) {
@@ -120,6 +120,17 @@ public class PieRenderer extends OverlayRenderer
     private int mSliceRadius;
     private int mArcRadius, mMaxArcRadius;
     private int mArcOffset;
+    private final RectF mArcBounds = new RectF();
+
+    // The slice of each level, shared by the items of the level. They are
+    // only rebuilt when the pie moves or is resized.
+    private final ArrayList<Path> mSlices = new ArrayList<Path>();
+    private final RectF mSliceOuter = new RectF();
+    private final RectF mSliceInner = new RectF();
+    private int mValidSlices;
+    private int mSlicesCenterX;
+    private int mSlicesCenterY;
+    private int mSlicesRadius;
 
     private int mDialAngle;
     private RectF mCircle;
@@ -381,6 +392,13 @@ public class PieRenderer extends OverlayRenderer
 
     private void layoutPie() {
         mCenterAngle = getCenterAngle();
+        if (mPieCenterX != mSlicesCenterX || mArcCenterY != mSlicesCenterY
+                || mArcRadius != mSlicesRadius) {
+            mSlicesCenterX = mPieCenterX;
+            mSlicesCenterY = mArcCenterY;
+            mSlicesRadius = mArcRadius;
+            mValidSlices = 0;
+        }
         layoutItems(0, getRoot().getItems());
         layoutLabel(getLevel());
     }
@@ -395,10 +413,7 @@ public class PieRenderer extends OverlayRenderer
     }
 
     private void layoutItems(int level, List<PieItem> items) {
-        int extend = 1;
-        Path path = makeSlice(getDegrees(0) + extend, getDegrees(SWEEP_ARC) - extend,
-                mArcRadius, mArcRadius + mRadiusInc + mRadiusInc / 4,
-                mPieCenterX, mArcCenterY - level * mRadiusInc);
+        Path path = getSlice(level);
         final int count = items.size();
         int pos = 0;
         for (PieItem item : items) {
@@ -421,20 +436,31 @@ public class PieRenderer extends OverlayRenderer
         }
     }
 
-    private Path makeSlice(float start, float end, int inner, int outer, int cx, int cy) {
-        RectF bb =
-                new RectF(cx - outer, cy - outer, cx + outer,
-                        cy + outer);
-        RectF bbi =
-                new RectF(cx - inner, cy - inner, cx + inner,
-                        cy + inner);
-        Path path = new Path();
-        path.arcTo(bb, start, end - start, true);
-        path.arcTo(bbi, end, start - end);
-        path.close();
+    private Path getSlice(int level) {
+        while (mSlices.size() <= level) {
+            mSlices.add(new Path());
+        }
+        Path path = mSlices.get(level);
+        if ((mValidSlices & (1 << level)) == 0) {
+            int extend = 1;
+            makeSlice(path, getDegrees(0) + extend, getDegrees(SWEEP_ARC) - extend,
+                    mArcRadius, mArcRadius + mRadiusInc + mRadiusInc / 4,
+                    mPieCenterX, mArcCenterY - level * mRadiusInc);
+            mValidSlices |= 1 << level;
+        }
         return path;
     }
 
+    private void makeSlice(Path path, float start, float end, int inner, int outer,
+            int cx, int cy) {
+        mSliceOuter.set(cx - outer, cy - outer, cx + outer, cy + outer);
+        mSliceInner.set(cx - inner, cy - inner, cx + inner, cy + inner);
+        path.reset();
+        path.arcTo(mSliceOuter, start, end - start, true);
+        path.arcTo(mSliceInner, end, start - end);
+        path.close();
+    }
+
     private float getArcCenter(PieItem item, int pos, int count) {
         return getCenter(pos, count, SWEEP_ARC);
     }
@@ -559,12 +585,12 @@ public class PieRenderer extends OverlayRenderer
         if (!hasOpenItem() || (mXFade != null)) {
             // draw base menu
             drawArc(canvas, getLevel(), getParent());
+            // Indexed loops, an iterator per frame adds up while animating.
             List<PieItem> items = getParent().getItems();
             final int count = items.size();
-            int pos = 0;
-            for (PieItem item : getParent().getItems()) {
-                drawItem(Math.max(0, mOpen.size() - 2), pos, count, canvas, item, alpha);
-                pos++;
+            for (int pos = 0; pos < count; pos++) {
+                drawItem(Math.max(0, mOpen.size() - 2), pos, count, canvas, items.get(pos),
+                        alpha);
             }
             mLabel.draw(canvas);
         }
@@ -573,14 +599,13 @@ public class PieRenderer extends OverlayRenderer
             drawArc(canvas, level, getOpenItem());
             List<PieItem> items = getOpenItem().getItems();
             final int count = items.size();
-            int pos = 0;
-            for (PieItem inner : items) {
+            for (int pos = 0; pos < count; pos++) {
+                PieItem inner = items.get(pos);
                 if (mFadeOut != null) {
                     drawItem(level, pos, count, canvas, inner, alpha);
                 } else {
                     drawItem(level, pos, count, canvas, inner, (mXFade != null) ? (1 - 0.5f * alpha) : 1);
                 }
-                pos++;
             }
             mLabel.draw(canvas);
         }
@@ -594,8 +619,9 @@ public class PieRenderer extends OverlayRenderer
             float start = mCenterAngle + (count * SWEEP_ARC / 2f);
             float end =  mCenterAngle - (count * SWEEP_ARC / 2f);
             int cy = mArcCenterY - level * mRadiusInc;
-            canvas.drawArc(new RectF(mPieCenterX - mArcRadius, cy - mArcRadius,
-                    mPieCenterX + mArcRadius, cy + mArcRadius),
+            mArcBounds.set(mPieCenterX - mArcRadius, cy - mArcRadius,
+                    mPieCenterX + mArcRadius, cy + mArcRadius);
+            canvas.drawArc(mArcBounds,
                     getDegrees(end), getDegrees(start) - getDegrees(end), false, mMenuArcPaint);
         }
     }
@@ -37,7 +37,7 @@ public class ProgressRenderer {
     private final Paint mProgressBasePaint;
     private final Paint mProgressPaint;
 
-    private RectF mArcBounds = new RectF(0, 0, 1, 1);
+    private final RectF mArcBounds = new RectF(0, 0, 1, 1);
     private int mProgressAngleDegrees = 270;
     private boolean mVisible = false;
     private VisibilityListener mVisibilityListener;
@@ -91,9 +91,8 @@ public class ProgressRenderer {
         if (!mVisible) {
             return;
         }
-        mArcBounds = new RectF(centerX - mProgressRadius, centerY - mProgressRadius, centerX
-                + mProgressRadius,
-                centerY + mProgressRadius);
+        mArcBounds.set(centerX - mProgressRadius, centerY - mProgressRadius,
+                centerX + mProgressRadius, centerY + mProgressRadius);
 
         canvas.drawCircle(centerX, centerY, mProgressRadius, mProgressBasePaint);
         canvas.drawArc(mArcBounds, -90, mProgressAngleDegrees, false, mProgressPaint);
@@ -163,7 +163,9 @@ public class RenderOverlay extends FrameLayout {
             super.draw(canvas);
             if (mClients == null) return;
             boolean redraw = false;
-            for (Renderer renderer : mClients) {
+            // No iterator, this runs on every frame while a renderer animates.
+            for (int i = 0, n = mClients.size(); i < n; i++) {
+                Renderer renderer = mClients.get(i);
                 renderer.draw(canvas);
                 redraw = redraw || ((OverlayRenderer) renderer).isVisible();
             }
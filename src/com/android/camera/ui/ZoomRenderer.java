@@ -50,6 +50,9 @@ public class ZoomRenderer extends OverlayRenderer
     private int mOuterStroke;
     private int mZoomSig;
     private int mZoomFraction;
+    // The zoom label and its bounds, updated with the zoom value rather than
+    // on every frame.
+    private String mZoomText;
     private boolean mInZoom;
     private Rect mTextBounds;
 
@@ -75,6 +78,7 @@ public class ZoomRenderer extends OverlayRenderer
         mDetector = new ScaleGestureDetector(ctx, this);
         mMinCircle = res.getDimensionPixelSize(R.dimen.zoom_ring_min);
         mTextBounds = new Rect();
+        setZoomValue(0);
         setVisible(false);
     }
 
@@ -90,8 +94,14 @@ public class ZoomRenderer extends OverlayRenderer
 
     public void setZoomValue(int value) {
         value = value / 10;
-        mZoomSig = value / 10;
-        mZoomFraction = value % 10;
+        int sig = value / 10;
+        int fraction = value % 10;
+        if (sig != mZoomSig || fraction != mZoomFraction || mZoomText == null) {
+            mZoomSig = sig;
+            mZoomFraction = fraction;
+            mZoomText = mZoomSig + "." + mZoomFraction + "x";
+            mTextPaint.getTextBounds(mZoomText, 0, mZoomText.length(), mTextBounds);
+        }
     }
 
     public void setOnZoomChangeListener(OnZoomChangedListener listener) {
@@ -121,10 +131,8 @@ public class ZoomRenderer extends OverlayRenderer
         mPaint.setStrokeWidth(mOuterStroke);
         canvas.drawCircle((float) mCenterX, (float) mCenterY,
                 (float) mCircleSize, mPaint);
-        String txt = mZoomSig+"."+mZoomFraction+"x";
-        mTextPaint.getTextBounds(txt, 0, txt.length(), mTextBounds);
-        canvas.drawText(txt, mCenterX - mTextBounds.centerX(), mCenterY - mTextBounds.centerY(),
-                mTextPaint);
+        canvas.drawText(mZoomText, mCenterX - mTextBounds.centerX(),
+                mCenterY - mTextBounds.centerY(), mTextPaint);
     }
 
     @Override
@@ -29,6 +29,8 @@ import android.util.Log;
 import android.view.View;
 import android.widget.ImageView;
 
+import com.android.camera.app.WorkScheduler;
+
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -230,7 +232,9 @@ public class ZoomView extends ImageView {
         // Cancel on-going partial decoding tasks
         cancelPartialDecodingTask();
         mPartialDecodingTask = new DecodePartialBitmap();
-        mPartialDecodingTask.execute(endRect);
+        mPartialDecodingTask.executeOnExecutor(
+                WorkScheduler.getInstance().getExecutor(WorkScheduler.LANE_VISIBLE_THUMBNAIL),
+                endRect);
     }
 
     private void decodeImageSize() {
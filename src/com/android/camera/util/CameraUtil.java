@@ -64,6 +64,9 @@ import com.android.camera2.R;
 import java.io.Closeable;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.text.DateFormat;
+import java.text.FieldPosition;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
@@ -189,6 +192,10 @@ public class CameraUtil {
     private static float sPixelDensity = 1;
     private static ImageFileNamer sImageFileNamer;
 
+    // Separates the burst id from the frame index in the name of a frame.
+    private static final String BURST_NAME_TAG = "_BURST";
+    private static final int BURST_INDEX_DIGITS = 3;
+
     // Use samsung HDR format
     private static boolean sSamsungHDRFormat;
 
@@ -834,9 +841,94 @@ public class CameraUtil {
     }
 
     public static String createJpegName(long dateTaken) {
+        StringBuilder name = new StringBuilder();
+        createJpegName(dateTaken, name);
+        return name.toString();
+    }
+
+    /**
+     * Appends a new jpeg name to the builder. Doesn't allocate once the
+     * first name of the minute has been generated, as long as the builder
+     * has room for the name.
+     */
+    public static void createJpegName(long dateTaken, StringBuilder out) {
         synchronized (sImageFileNamer) {
-            return sImageFileNamer.generateName(dateTaken);
+            sImageFileNamer.generateName(dateTaken, out);
+        }
+    }
+
+    /**
+     * Returns the name of a burst frame. The frames of a burst share the name
+     * generated for the first one, which is the id of the burst, followed by
+     * their index from 1.
+     */
+    public static String createBurstJpegName(String burstId, int index) {
+        StringBuilder name = new StringBuilder();
+        createBurstJpegName(burstId, index, name);
+        return name.toString();
+    }
+
+    /**
+     * Appends the name of a burst frame to the builder, as
+     * {@link #createBurstJpegName(String, int)}, without allocating as long
+     * as the builder has room for the name.
+     */
+    public static void createBurstJpegName(CharSequence burstId, int index, StringBuilder out) {
+        // Char by char, appending a CharSequence may copy it to a String.
+        for (int i = 0; i < burstId.length(); i++) {
+            out.append(burstId.charAt(i));
         }
+        out.append(BURST_NAME_TAG);
+        appendDecimal(out, index, BURST_INDEX_DIGITS);
+    }
+
+    /**
+     * Appends the non-negative value in decimal, zero padded to the number
+     * of digits, without the temporary string of {@link StringBuilder#append(int)}.
+     */
+    private static void appendDecimal(StringBuilder out, int value, int minDigits) {
+        int digits = 1;
+        for (int v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        for (int i = digits; i < minDigits; i++) {
+            out.append('0');
+        }
+        int start = out.length();
+        out.setLength(start + digits);
+        for (int i = start + digits - 1; i >= start; i--) {
+            out.setCharAt(i, (char) ('0' + value % 10));
+            value /= 10;
+        }
+    }
+
+    /**
+     * Returns the id of the burst in the name of a frame, or null if the name
+     * is not the one of a burst frame, as generated by
+     * {@link #createBurstJpegName(String, int)}.
+     */
+    public static String getBurstId(String name) {
+        if (name == null) {
+            return null;
+        }
+        int i = name.length() - BURST_NAME_TAG.length() - BURST_INDEX_DIGITS;
+        if (i <= 0 || !name.startsWith(BURST_NAME_TAG, i)) {
+            return null;
+        }
+        for (int j = i + BURST_NAME_TAG.length(); j < name.length(); j++) {
+            if (!ImageFileNamer.isAsciiDigit(name.charAt(j))) {
+                return null;
+            }
+        }
+        String burstId = name.substring(0, i);
+        if (sImageFileNamer != null) {
+            synchronized (sImageFileNamer) {
+                if (!sImageFileNamer.isName(burstId)) {
+                    return null;
+                }
+            }
+        }
+        return burstId;
     }
 
     public static void broadcastNewPicture(Context context, Uri uri) {
@@ -1022,25 +1114,96 @@ public class CameraUtil {
         // Number of names generated for the same second.
         private int mSameSecondCount;
 
+        // The date formatted at the start of the current minute. Within the
+        // minute only its seconds change, which are patched in place if the
+        // format shows them as two digits and has no finer field.
+        private final Date mDate = new Date();
+        private final StringBuffer mFormatted = new StringBuffer();
+        private final FieldPosition mSeconds = new FieldPosition(DateFormat.SECOND_FIELD);
+        private final boolean mHasMilliseconds;
+        private char[] mName = new char[0];
+        private int mNameLength;
+        private long mNameMinute = Long.MIN_VALUE;
+        private boolean mPatchSeconds;
+
         public ImageFileNamer(String format) {
             mFormat = new SimpleDateFormat(format);
+            FieldPosition milliseconds = new FieldPosition(DateFormat.MILLISECOND_FIELD);
+            mFormat.format(new Date(), new StringBuffer(), milliseconds);
+            mHasMilliseconds = milliseconds.getEndIndex() > milliseconds.getBeginIndex();
         }
 
-        public String generateName(long dateTaken) {
-            Date date = new Date(dateTaken);
-            String result = mFormat.format(date);
+        public void generateName(long dateTaken, StringBuilder out) {
+            long minute = dateTaken / 60000;
+            if (minute == mNameMinute && mPatchSeconds) {
+                int seconds = (int) (dateTaken / 1000 % 60);
+                int i = mSeconds.getBeginIndex();
+                mName[i] = (char) ('0' + seconds / 10);
+                mName[i + 1] = (char) ('0' + seconds % 10);
+            } else {
+                formatName(dateTaken, minute);
+            }
+            out.append(mName, 0, mNameLength);
 
             // If the last name was generated for the same second,
             // we append _1, _2, etc to the name.
             if (dateTaken / 1000 == mLastDate / 1000) {
                 mSameSecondCount++;
-                result += "_" + mSameSecondCount;
+                out.append('_');
+                appendDecimal(out, mSameSecondCount, 1);
             } else {
                 mLastDate = dateTaken;
                 mSameSecondCount = 0;
             }
+        }
+
+        private void formatName(long dateTaken, long minute) {
+            mDate.setTime(dateTaken);
+            mFormatted.setLength(0);
+            mFormat.format(mDate, mFormatted, mSeconds);
+            mNameLength = mFormatted.length();
+            if (mName.length < mNameLength) {
+                mName = new char[mNameLength];
+            }
+            mFormatted.getChars(0, mNameLength, mName, 0);
+            mNameMinute = minute;
+            // The digits of some locales are not ASCII.
+            int i = mSeconds.getBeginIndex();
+            mPatchSeconds = !mHasMilliseconds && dateTaken >= 0
+                    && mSeconds.getEndIndex() - i == 2
+                    && isAsciiDigit(mName[i]) && isAsciiDigit(mName[i + 1]);
+        }
+
+        /**
+         * Returns whether the name could have been generated, as a date in
+         * the format, possibly followed by the count within its second.
+         */
+        public boolean isName(String name) {
+            if (isFormattedDate(name)) {
+                return true;
+            }
+            int i = name.lastIndexOf('_');
+            if (i <= 0 || i == name.length() - 1) {
+                return false;
+            }
+            for (int j = i + 1; j < name.length(); j++) {
+                if (!isAsciiDigit(name.charAt(j))) {
+                    return false;
+                }
+            }
+            return isFormattedDate(name.substring(0, i));
+        }
+
+        private boolean isFormattedDate(String name) {
+            ParsePosition position = new ParsePosition(0);
+            Date date = mFormat.parse(name, position);
+            // Formatted back to the same text, so a lenient parse can't pass.
+            return date != null && position.getIndex() == name.length()
+                    && mFormat.format(date).equals(name);
+        }
 
-            return result;
+        static boolean isAsciiDigit(char c) {
+            return c >= '0' && c <= '9';
         }
     }
 
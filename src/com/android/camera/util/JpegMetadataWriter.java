@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.util;
+
+import android.util.Log;
+
+import com.adobe.xmp.XMPMeta;
+import com.android.camera.exif.ExifInterface;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replaces the EXIF and the XMP metadata of a jpeg file in one pass.
+ * <p>
+ * Only the marker segments before the image data are looked at. The new
+ * segments are written to a temporary file next to the jpeg, the other
+ * segments and the entropy-coded data are copied over with
+ * {@link FileChannel#transferTo}, and the temporary file is renamed over the
+ * jpeg. The image data is neither parsed nor buffered.
+ */
+public class JpegMetadataWriter {
+    private static final String TAG = "CAM_JpegMetadataWriter";
+
+    private static final int M_SOI = 0xd8;
+    private static final int M_EOI = 0xd9;
+    private static final int M_SOS = 0xda;
+    private static final int M_APP1 = 0xe1;
+    private static final int XMP_HEADER_SIZE = 29;
+    private static final byte[] EXIF_HEADER = { 'E', 'x', 'i', 'f', 0, 0 };
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // A marker segment of the source file, marker and length included.
+    private static class Segment {
+        final long offset;
+        final int size;
+        final boolean exif;
+        final boolean xmp;
+
+        Segment(long offset, int size, boolean exif, boolean xmp) {
+            this.offset = offset;
+            this.size = size;
+            this.exif = exif;
+            this.xmp = xmp;
+        }
+    }
+
+    /**
+     * Writes the metadata into the jpeg file.
+     *
+     * @param filename The jpeg file.
+     * @param exif The EXIF to replace the one of the file with, or null to
+     *            keep the EXIF of the file.
+     * @param xmp The XMP to replace the one of the file with, or null to
+     *            keep the XMP of the file.
+     * @return Whether the file was written. If not, it is left untouched.
+     */
+    public static boolean write(String filename, ExifInterface exif, XMPMeta xmp) {
+        byte[] exifSegment = null;
+        byte[] xmpSegment = null;
+        try {
+            if (exif != null) {
+                exifSegment = exif.getExifSegment();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not serialize the exif of " + filename, e);
+            return false;
+        }
+        if (xmp != null) {
+            byte[] xmpData = XmpUtil.serializeXMPSection(xmp);
+            if (xmpData == null) {
+                return false;
+            }
+            xmpSegment = buildSegment(M_APP1, xmpData);
+        }
+
+        File file = new File(filename);
+        File temp = new File(filename + TEMP_SUFFIX);
+        RandomAccessFile in = null;
+        FileOutputStream out = null;
+        boolean written = false;
+        try {
+            in = new RandomAccessFile(file, "r");
+            FileChannel src = in.getChannel();
+            List<Segment> segments = new ArrayList<Segment>();
+            long imageData = readSegments(src, segments);
+            if (imageData < 0) {
+                Log.e(TAG, "Not a valid jpeg: " + filename);
+                return false;
+            }
+
+            out = new FileOutputStream(temp);
+            FileChannel dst = out.getChannel();
+            dst.write(ByteBuffer.wrap(new byte[] { (byte) 0xff, (byte) M_SOI }));
+            // The EXIF goes first and the XMP right after it, as the readers
+            // expect them.
+            if (exifSegment != null) {
+                dst.write(ByteBuffer.wrap(exifSegment));
+            } else {
+                copySegments(src, dst, segments, true, false);
+            }
+            if (xmpSegment != null) {
+                dst.write(ByteBuffer.wrap(xmpSegment));
+            } else {
+                copySegments(src, dst, segments, false, true);
+            }
+            copySegments(src, dst, segments, false, false);
+            transfer(src, dst, imageData, src.size() - imageData);
+            out.close();
+            out = null;
+            written = temp.renameTo(file);
+            if (!written) {
+                Log.e(TAG, "Could not rename " + temp + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write the metadata of " + filename, e);
+        } finally {
+            CameraUtil.closeSilently(in);
+            CameraUtil.closeSilently(out);
+            if (!written) {
+                temp.delete();
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Collects the marker segments up to the image data.
+     *
+     * @return The offset of the image data, from the SOS marker on, or -1 if
+     *         the file isn't a valid jpeg.
+     */
+    private static long readSegments(FileChannel src, List<Segment> segments)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4 + XMP_HEADER_SIZE);
+        if (!readFully(src, header, 0, 2)
+                || (header.get(0) & 0xff) != 0xff || (header.get(1) & 0xff) != M_SOI) {
+            return -1;
+        }
+        long offset = 2;
+        long size = src.size();
+        while (offset < size) {
+            if (!readFully(src, header, offset, 2) || (header.get(0) & 0xff) != 0xff) {
+                return -1;
+            }
+            int marker = header.get(1) & 0xff;
+            if (marker == 0xff) {
+                // Fill byte.
+                offset++;
+                continue;
+            }
+            if (marker == M_SOS || marker == M_EOI) {
+                return offset;
+            }
+            int available = (int) Math.min(header.capacity(), size - offset);
+            if (available < 4 || !readFully(src, header, offset, 4)) {
+                return -1;
+            }
+            int length = header.getShort(2) & 0xffff;
+            if (length < 2 || offset + 2 + length > size) {
+                return -1;
+            }
+            boolean exif = false;
+            boolean xmp = false;
+            if (marker == M_APP1) {
+                int content = Math.min(length - 2, available - 4);
+                readFully(src, header, offset, 4 + content);
+                byte[] data = new byte[content];
+                header.position(4);
+                header.get(data);
+                exif = startsWith(data, EXIF_HEADER);
+                xmp = !exif && XmpUtil.hasXMPHeader(data);
+            }
+            segments.add(new Segment(offset, 2 + length, exif, xmp));
+            offset += 2 + length;
+        }
+        return -1;
+    }
+
+    private static void copySegments(FileChannel src, FileChannel dst,
+            List<Segment> segments, boolean exif, boolean xmp) throws IOException {
+        for (Segment segment : segments) {
+            if (segment.exif == exif && segment.xmp == xmp) {
+                transfer(src, dst, segment.offset, segment.size);
+            }
+        }
+    }
+
+    private static void transfer(FileChannel src, FileChannel dst, long offset, long count)
+            throws IOException {
+        while (count > 0) {
+            long n = src.transferTo(offset, count, dst);
+            if (n <= 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            offset += n;
+            count -= n;
+        }
+    }
+
+    private static boolean readFully(FileChannel src, ByteBuffer buffer, long offset,
+            int count) throws IOException {
+        buffer.clear();
+        buffer.limit(count);
+        while (buffer.hasRemaining()) {
+            if (src.read(buffer, offset + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] buildSegment(int marker, byte[] data) {
+        int length = data.length + 2;
+        byte[] segment = new byte[data.length + 4];
+        segment[0] = (byte) 0xff;
+        segment[1] = (byte) marker;
+        segment[2] = (byte) (length >> 8);
+        segment[3] = (byte) length;
+        System.arraycopy(data, 0, segment, 4, data.length);
+        return segment;
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private JpegMetadataWriter() {}
+}
@@ -25,7 +25,6 @@ import com.adobe.xmp.options.SerializeOptions;
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -143,7 +142,8 @@ public class XmpUtil {
   }
 
   /**
-   * Writes the XMPMeta to the jpeg image file.
+   * Writes the XMPMeta to the jpeg image file. The image data is not parsed,
+   * see {@link JpegMetadataWriter}.
    */
   public static boolean writeXMPMeta(String filename, XMPMeta meta) {
     if (!filename.toLowerCase().endsWith(".jpg")
@@ -151,35 +151,7 @@ public class XmpUtil {
       Log.d(TAG, "XMP parse: only jpeg file is supported");
       return false;
     }
-    List<Section> sections = null;
-    try {
-      sections = parse(new FileInputStream(filename), false);
-      sections = insertXMPSection(sections, meta);
-      if (sections == null) {
-        return false;
-      }
-    } catch (FileNotFoundException e) {
-      Log.e(TAG, "Could not read file: " + filename, e);
-      return false;
-    }
-    FileOutputStream os = null;
-    try {
-      // Overwrite the image file with the new meta data.
-      os = new FileOutputStream(filename);
-      writeJpegFile(os, sections);
-    } catch (IOException e) {
-      Log.d(TAG, "Write file failed:" + filename, e);
-      return false;
-    } finally {
-      if (os != null) {
-        try {
-          os.close();
-        } catch (IOException e) {
-          // Ignore.
-        }
-      }
-    }
-    return true;
+    return JpegMetadataWriter.write(filename, null, meta);
   }
 
   /**
@@ -237,27 +209,10 @@ public class XmpUtil {
     if (sections == null || sections.size() <= 1) {
       return null;
     }
-    byte[] buffer;
-    try {
-      SerializeOptions options = new SerializeOptions();
-      options.setUseCompactFormat(true);
-      // We have to omit packet wrapper here because
-      // javax.xml.parsers.DocumentBuilder
-      // fails to parse the packet end <?xpacket end="w"?> in android.
-      options.setOmitPacketWrapper(true);
-      buffer = XMPMetaFactory.serializeToBuffer(meta, options);
-    } catch (XMPException e) {
-      Log.d(TAG, "Serialize xmp failed", e);
-      return null;
-    }
-    if (buffer.length > MAX_XMP_BUFFER_SIZE) {
-      // Do not support extended xmp now.
+    byte[] xmpdata = serializeXMPSection(meta);
+    if (xmpdata == null) {
       return null;
     }
-    // The XMP section starts with XMP_HEADER and then the real xmp data.
-    byte[] xmpdata = new byte[buffer.length + XMP_HEADER_SIZE];
-    System.arraycopy(XMP_HEADER.getBytes(), 0, xmpdata, 0, XMP_HEADER_SIZE);
-    System.arraycopy(buffer, 0, xmpdata, XMP_HEADER_SIZE, buffer.length);
     Section xmpSection = new Section();
     xmpSection.marker = M_APP1;
     // Adds the length place (2 bytes) to the section length.
@@ -283,13 +238,45 @@ public class XmpUtil {
     return newSections;
   }
 
+  /**
+   * Serializes the XMPMeta into the content of an APP1 section, XMP header
+   * included.
+   *
+   * @return The section content, or null if the XMPMeta can't be serialized
+   *         or needs extended xmp.
+   */
+  static byte[] serializeXMPSection(XMPMeta meta) {
+    byte[] buffer;
+    try {
+      SerializeOptions options = new SerializeOptions();
+      options.setUseCompactFormat(true);
+      // We have to omit packet wrapper here because
+      // javax.xml.parsers.DocumentBuilder
+      // fails to parse the packet end <?xpacket end="w"?> in android.
+      options.setOmitPacketWrapper(true);
+      buffer = XMPMetaFactory.serializeToBuffer(meta, options);
+    } catch (XMPException e) {
+      Log.d(TAG, "Serialize xmp failed", e);
+      return null;
+    }
+    if (buffer.length > MAX_XMP_BUFFER_SIZE) {
+      // Do not support extended xmp now.
+      return null;
+    }
+    // The XMP section starts with XMP_HEADER and then the real xmp data.
+    byte[] xmpdata = new byte[buffer.length + XMP_HEADER_SIZE];
+    System.arraycopy(XMP_HEADER.getBytes(), 0, xmpdata, 0, XMP_HEADER_SIZE);
+    System.arraycopy(buffer, 0, xmpdata, XMP_HEADER_SIZE, buffer.length);
+    return xmpdata;
+  }
+
   /**
    * Checks whether the byte array has XMP header. The XMP section contains
    * a fixed length header XMP_HEADER.
    *
    * @param data Xmp metadata.
    */
-  private static boolean hasXMPHeader(byte[] data) {
+  static boolean hasXMPHeader(byte[] data) {
     if (data.length < XMP_HEADER_SIZE) {
       return false;
     }
@@ -17,27 +17,409 @@
 package com.android.camera.app;
 
 import android.content.Context;
+import android.location.Location;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.PowerManager;
+import android.util.Log;
 
-import com.android.camera.ImageTaskManager;
+import com.android.camera.Mosaic;
+import com.android.camera.MosaicFrameProcessor;
+import com.android.camera.MosaicJpeg;
+import com.android.camera.PhotoModule;
+import com.android.camera.Storage;
+import com.android.camera.StorageSpaceAccountant;
+import com.android.camera.exif.ExifInterface;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stitches the high resolution panoramas in the background, so the panorama
+ * module can go back to the preview as soon as the native mosaicer is done
+ * with the frames of a capture.
+ * <p>
+ * A stitch goes through two stages. The native stitching runs on a thread of
+ * the manager, one panorama at a time since there is a single native
+ * mosaicer. The JPEG encoding then runs in the idle lane of
+ * {@link WorkScheduler}, overlapping with the next capture, and only the
+ * write of the JPEG goes to the capture save lane. The stitched images and
+ * the JPEGs waiting to be encoded or written are bounded by
+ * {@link #MAX_PENDING_BYTES}.
+ * <p>
+ * The panorama is shown in the filmstrip as soon as it's queued, from the low
+ * resolution mosaic, and replaced once saved. The listeners may be called on
+ * any thread.
+ */
 public class PanoramaStitchingManager implements ImageTaskManager {
+    private static final String TAG = "CAM_PanoStitching";
+
+    // The stitched NV21 images and the JPEGs waiting to be encoded or
+    // written. A full sweep is about
+    // 10MB, so this keeps at most a couple of them.
+    private static final long MAX_PENDING_BYTES = 24 * 1024 * 1024;
+    private static final int PROGRESS_POLL_INTERVAL_MS = 50;
+    private static final int JPEG_QUALITY = 100;
+
+    /** The capture to stitch. */
+    public static class Session {
+        final String mTitle;
+        final long mTimeTaken;
+        final Location mLocation;
+        final int mOrientation;
+        final byte[] mPlaceholderJpeg;
+
+        /**
+         * @param title The title of the panorama, also its file name.
+         * @param timeTaken When the capture started.
+         * @param location Where it was taken, or null.
+         * @param orientation The clockwise rotation of the mosaic, in degrees.
+         * @param placeholderJpeg The low resolution mosaic shown until the
+         *            panorama is saved, or null.
+         */
+        public Session(String title, long timeTaken, Location location, int orientation,
+                byte[] placeholderJpeg) {
+            mTitle = title;
+            mTimeTaken = timeTaken;
+            mLocation = location;
+            mOrientation = orientation;
+            mPlaceholderJpeg = placeholderJpeg;
+        }
+    }
+
+    /** Follows the native stitching of a session, on the main thread. */
+    public interface StitchingCallback {
+        /** The progress of the native stitching, from 0 to 100. */
+        public void onProgress(int progress);
+
+        /**
+         * The native mosaicer is done with the frames and can be reset for
+         * the next capture. The panorama may still be encoding.
+         *
+         * @param result One of the {@code Mosaic.MOSAIC_RET_*} codes.
+         */
+        public void onMosaicerReleased(int result);
+    }
+
+    private final Context mContext;
+    private final PlaceholderManager mPlaceholderManager;
+    private final Handler mMainHandler;
+    private final Handler mStitchHandler;
+    private final Handler mProgressHandler;
+    private final PowerManager.WakeLock mPartialWakeLock;
+
+    private final ArrayList<TaskListener> mListeners = new ArrayList<TaskListener>();
+    private final ConcurrentHashMap<Uri, Integer> mProgress =
+            new ConcurrentHashMap<Uri, Integer>();
+
+    private final Object mPendingLock = new Object();
+    private long mPendingBytes;
+
+    private volatile boolean mCancelled;
 
-    public PanoramaStitchingManager(Context ctx) {
+    /**
+     * @param placeholderManager Inserts and replaces the placeholders, so
+     *            its listeners follow the panoramas too.
+     */
+    public PanoramaStitchingManager(Context ctx, PlaceholderManager placeholderManager) {
+        mContext = ctx.getApplicationContext();
+        mPlaceholderManager = placeholderManager;
+        mMainHandler = new Handler(Looper.getMainLooper());
+        HandlerThread t = new HandlerThread("PanoramaStitching");
+        t.start();
+        mStitchHandler = new Handler(t.getLooper());
+        // The stitching thread is blocked in the native code, so the progress
+        // is polled on a thread of its own.
+        HandlerThread progress = new HandlerThread("PanoramaProgress");
+        progress.start();
+        mProgressHandler = new Handler(progress.getLooper());
+        PowerManager pm = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+        mPartialWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "Panorama");
     }
 
     @Override
     public void addTaskListener(TaskListener l) {
-        // do nothing.
+        synchronized (mListeners) {
+            if (!mListeners.contains(l)) {
+                mListeners.add(l);
+            }
+        }
     }
 
     @Override
     public void removeTaskListener(TaskListener l) {
-        // do nothing.
+        synchronized (mListeners) {
+            mListeners.remove(l);
+        }
     }
 
     @Override
     public int getTaskProgress(Uri uri) {
-        return -1;
+        Integer progress = mProgress.get(uri);
+        return (progress == null ? -1 : progress);
+    }
+
+    /**
+     * Stitches the frames held by the native mosaicer and saves the panorama.
+     * The mosaicer must not be reset before
+     * {@link StitchingCallback#onMosaicerReleased} is called.
+     */
+    public void stitch(final Session session, final StitchingCallback callback) {
+        mCancelled = false;
+        mStitchHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                runNativeStitching(session, callback);
+            }
+        });
+    }
+
+    /** Cancels the native stitching in progress, if any. */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    private void runNativeStitching(final Session session, final StitchingCallback callback) {
+        PlaceholderManager.Session placeholder = null;
+        if (session.mPlaceholderJpeg != null) {
+            try {
+                placeholder = mPlaceholderManager.insertPlaceholder(
+                        session.mTitle, session.mPlaceholderJpeg, session.mTimeTaken);
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Cannot insert the placeholder of " + session.mTitle, e);
+            }
+        }
+        final Uri uri = (placeholder == null ? null : placeholder.outputUri);
+        if (uri != null) {
+            mProgress.put(uri, 0);
+            notifyQueued(uri);
+        }
+
+        ProgressPoller poller = new ProgressPoller(uri, callback);
+        poller.start();
+        mPartialWakeLock.acquire();
+        MosaicFrameProcessor processor = MosaicFrameProcessor.getInstance();
+        int result;
+        byte[] nv21 = null;
+        try {
+            result = processor.createMosaic(true);
+            if (result != Mosaic.MOSAIC_RET_CANCELLED && result != Mosaic.MOSAIC_RET_ERROR) {
+                // Holds the next image until the encoder catches up.
+                waitForPendingBytes();
+                nv21 = processor.getFinalMosaicNV21();
+                if (nv21 == null) {
+                    Log.e(TAG, "getFinalMosaicNV21() returned null.");
+                    result = Mosaic.MOSAIC_RET_ERROR;
+                }
+            }
+        } finally {
+            mPartialWakeLock.release();
+            poller.stop();
+        }
+
+        final int released = result;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onMosaicerReleased(released);
+            }
+        });
+
+        if (nv21 == null) {
+            discard(placeholder);
+            return;
+        }
+        final PlaceholderManager.Session saving = placeholder;
+        final byte[] image = nv21;
+        addPendingBytes(image.length);
+        // Only the write goes to the capture save lane, so the saves of the
+        // photos don't wait behind the encoding.
+        WorkScheduler.getInstance().submit(WorkScheduler.LANE_IDLE, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    encode(session, saving, image);
+                } finally {
+                    addPendingBytes(-image.length);
+                }
+            }
+        });
+    }
+
+    private void encode(final Session session, final PlaceholderManager.Session placeholder,
+            byte[] nv21) {
+        MosaicJpeg mosaic = MosaicJpeg.encode(nv21, JPEG_QUALITY);
+        if (!mosaic.isValid) {
+            discard(placeholder);
+            return;
+        }
+        final byte[] jpeg = mosaic.data;
+
+        final ExifInterface exif = new ExifInterface();
+        try {
+            exif.readExif(jpeg);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot read the exif of " + session.mTitle, e);
+        }
+        exif.addGpsDateTimeStampTag(session.mTimeTaken);
+        exif.addDateTimeStampTag(ExifInterface.TAG_DATE_TIME, session.mTimeTaken,
+                TimeZone.getDefault());
+        exif.setTag(exif.buildTag(ExifInterface.TAG_ORIENTATION,
+                ExifInterface.getOrientationValueForRotation(session.mOrientation)));
+        writeLocation(session.mLocation, exif);
+
+        final int jpegWidth = mosaic.width;
+        final int jpegHeight = mosaic.height;
+        addPendingBytes(jpeg.length);
+        WorkScheduler.getInstance().submit(WorkScheduler.LANE_CAPTURE_SAVE, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    save(session, placeholder, exif, jpeg, jpegWidth, jpegHeight);
+                } finally {
+                    addPendingBytes(-jpeg.length);
+                }
+            }
+        });
+    }
+
+    private void save(Session session, PlaceholderManager.Session placeholder,
+            ExifInterface exif, byte[] jpeg, int width, int height) {
+        // Counted ahead of the write, which keeps the estimate on the safe side.
+        StorageSpaceAccountant.getInstance().onSaved(0, jpeg.length);
+
+        if (placeholder != null) {
+            mPlaceholderManager.replacePlaceholder(placeholder, session.mLocation,
+                    session.mOrientation, exif, jpeg, width, height,
+                    PhotoModule.PIXEL_FORMAT_JPEG);
+            notifyDone(placeholder.outputUri);
+            return;
+        }
+        // Without a placeholder, the panorama shows up once saved.
+        Uri uri = Storage.getInstance().addImage(
+                mContext.getContentResolver(), session.mTitle, session.mTimeTaken,
+                session.mLocation, session.mOrientation, exif, jpeg, width, height,
+                PhotoModule.PIXEL_FORMAT_JPEG);
+        if (uri != null) {
+            notifyQueued(uri);
+            notifyDone(uri);
+        }
+    }
+
+    private void discard(PlaceholderManager.Session placeholder) {
+        if (placeholder == null) {
+            return;
+        }
+        mPlaceholderManager.removePlaceholder(placeholder);
+        notifyDone(placeholder.outputUri);
+    }
+
+    private static void writeLocation(Location location, ExifInterface exif) {
+        if (location == null) {
+            return;
+        }
+        exif.addGpsTags(location.getLatitude(), location.getLongitude());
+        exif.setTag(exif.buildTag(ExifInterface.TAG_GPS_PROCESSING_METHOD, location.getProvider()));
+    }
+
+    private void waitForPendingBytes() {
+        synchronized (mPendingLock) {
+            while (mPendingBytes >= MAX_PENDING_BYTES) {
+                try {
+                    mPendingLock.wait();
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "Interrupted while waiting for the encoder");
+                    return;
+                }
+            }
+        }
+    }
+
+    private void addPendingBytes(long bytes) {
+        synchronized (mPendingLock) {
+            mPendingBytes += bytes;
+            mPendingLock.notifyAll();
+        }
+    }
+
+    /**
+     * Polls the progress of the native stitching on the progress thread, and
+     * only hands the progress to the main thread. The poll also carries the
+     * cancellation to the native code.
+     */
+    private class ProgressPoller implements Runnable, Handler.Callback {
+        private final Uri mUri;
+        private final StitchingCallback mCallback;
+        private final Handler mCallbackHandler;
+        private volatile boolean mRunning;
+
+        ProgressPoller(Uri uri, StitchingCallback callback) {
+            mUri = uri;
+            mCallback = callback;
+            mCallbackHandler = new Handler(Looper.getMainLooper(), this);
+        }
+
+        void start() {
+            mRunning = true;
+            mProgressHandler.post(this);
+        }
+
+        void stop() {
+            mRunning = false;
+            mProgressHandler.removeCallbacks(this);
+        }
+
+        @Override
+        public void run() {
+            if (!mRunning) {
+                return;
+            }
+            int progress = MosaicFrameProcessor.getInstance().reportProgress(true, mCancelled);
+            mCallbackHandler.obtainMessage(0, progress, 0).sendToTarget();
+            if (mUri != null) {
+                mProgress.put(mUri, progress);
+                notifyProgress(mUri, progress);
+            }
+            mProgressHandler.postDelayed(this, PROGRESS_POLL_INTERVAL_MS);
+        }
+
+        @Override
+        public boolean handleMessage(Message msg) {
+            // Dropped once stopped, so it doesn't follow onMosaicerReleased().
+            if (mRunning) {
+                mCallback.onProgress(msg.arg1);
+            }
+            return true;
+        }
+    }
+
+    private TaskListener[] getListeners() {
+        synchronized (mListeners) {
+            return mListeners.toArray(new TaskListener[mListeners.size()]);
+        }
+    }
+
+    private void notifyQueued(Uri uri) {
+        for (TaskListener l : getListeners()) {
+            l.onTaskQueued(uri.getPath(), uri);
+        }
+    }
+
+    private void notifyProgress(Uri uri, int progress) {
+        for (TaskListener l : getListeners()) {
+            l.onTaskProgress(uri.getPath(), uri, progress);
+        }
+    }
+
+    private void notifyDone(Uri uri) {
+        mProgress.remove(uri);
+        for (TaskListener l : getListeners()) {
+            l.onTaskDone(uri.getPath(), uri);
+        }
     }
 }
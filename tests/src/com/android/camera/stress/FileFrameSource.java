@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.stress;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads recorded preview frames back, to replay a panorama sweep through
+ * {@link com.android.camera.MosaicFrameFeeder} without a camera. The file is
+ * the raw NV21 frames, one after the other, all of the same size.
+ */
+public class FileFrameSource implements Closeable {
+    private final FileInputStream mInput;
+    private final int mFrameSize;
+
+    /**
+     * @param width The width of the frames, in pixels.
+     * @param height The height of the frames, in pixels.
+     */
+    public FileFrameSource(File file, int width, int height) throws IOException {
+        mInput = new FileInputStream(file);
+        mFrameSize = width * height * 3 / 2;
+    }
+
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    /**
+     * Reads the next frame into the buffer.
+     *
+     * @return False at the end of the file. A truncated last frame is
+     *         ignored.
+     */
+    public boolean read(byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < mFrameSize) {
+            int n = mInput.read(buffer, offset, mFrameSize - offset);
+            if (n < 0) {
+                return false;
+            }
+            offset += n;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInput.close();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.stress;
+
+import android.os.Environment;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.android.camera.exif.JpegProbe;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how fast {@link JpegProbe} reads the dimensions and the
+ * orientation of the JPEGs in {@link #CORPUS_DIR}, on one thread per core.
+ */
+public class JpegProbeThroughput extends InstrumentationTestCase {
+    private static final String TAG = "JpegProbeThroughput";
+    private static final String CORPUS_DIR =
+            Environment.getExternalStorageDirectory().toString() + "/DCIM";
+    private static final String CAMERA_TEST_OUTPUT_FILE =
+            Environment.getExternalStorageDirectory().toString() + "/mediaStressOut.txt";
+
+    @LargeTest
+    public void testJpegProbeThroughput() throws Exception {
+        List<File> files = new ArrayList<File>();
+        collectJpegs(new File(CORPUS_DIR), files);
+        if (files.isEmpty()) {
+            Log.w(TAG, "No JPEG under " + CORPUS_DIR + ", skipping");
+            return;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        // Warm up the JIT and the file cache.
+        probeAll(files, threads);
+
+        long start = System.nanoTime();
+        JpegProbe.Result[] results = probeAll(files, threads);
+        long elapsedNs = System.nanoTime() - start;
+
+        int valid = 0;
+        for (JpegProbe.Result r : results) {
+            if (r != null && r.isValid()) {
+                valid++;
+            }
+        }
+        report("JPEG probe: " + files.size() + " files, " + valid + " valid, " + threads
+                + " threads, " + (elapsedNs / 1000000) + "ms, "
+                + (files.size() * 1000000000L / Math.max(1, elapsedNs)) + " files/s\n");
+    }
+
+    /**
+     * Probes the files on the number of threads.
+     *
+     * @return The results, in the order of the files. A file which can't be
+     *         read gets null.
+     */
+    private static JpegProbe.Result[] probeAll(final List<File> files, int threads)
+            throws InterruptedException {
+        final JpegProbe.Result[] results = new JpegProbe.Result[files.size()];
+        final AtomicInteger next = new AtomicInteger();
+        Thread[] workers = new Thread[Math.max(1, Math.min(threads, files.size()))];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread("JpegProbe-" + i) {
+                @Override
+                public void run() {
+                    int index;
+                    while ((index = next.getAndIncrement()) < results.length) {
+                        try {
+                            results[index] = JpegProbe.probe(files.get(index));
+                        } catch (IOException e) {
+                            results[index] = null;
+                        }
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return results;
+    }
+
+    private static void collectJpegs(File file, List<File> out) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    collectJpegs(child, out);
+                }
+            }
+        } else {
+            String name = file.getName().toLowerCase();
+            if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+                out.add(file);
+            }
+        }
+    }
+
+    private void report(String stats) {
+        Log.v(TAG, stats);
+        BufferedWriter output = null;
+        try {
+            output = new BufferedWriter(new FileWriter(CAMERA_TEST_OUTPUT_FILE, true));
+            output.write(stats);
+        } catch (IOException e) {
+            Log.e(TAG, "testJpegProbeThroughput IOException writing to log " + e.toString());
+        } finally {
+            try {
+                if (output != null) {
+                    output.close();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing file: " + e.toString());
+            }
+        }
+    }
+}
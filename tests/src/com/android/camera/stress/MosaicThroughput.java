@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.stress;
+
+import android.os.Environment;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.android.camera.MosaicFrameFeeder;
+import com.android.camera.MosaicFrameProcessor;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Measures the alignment and blending throughput of the mosaicer on a
+ * recorded sweep, fed from the CPU through
+ * {@link MosaicFrameProcessor#startCpuFeeding}. Neither the camera nor GL is
+ * needed.
+ * The sweep is the raw NV21 preview frames of {@link #FRAME_WIDTH} x
+ * {@link #FRAME_HEIGHT}, one after the other, in {@link #FRAMES_FILE}.
+ */
+public class MosaicThroughput extends InstrumentationTestCase {
+    private static final String TAG = "MosaicThroughput";
+    private static final String FRAMES_FILE =
+            Environment.getExternalStorageDirectory().toString() + "/panorama_frames.nv21";
+    private static final String CAMERA_TEST_OUTPUT_FILE =
+            Environment.getExternalStorageDirectory().toString() + "/mediaStressOut.txt";
+    private static final int FRAME_WIDTH = 640;
+    private static final int FRAME_HEIGHT = 480;
+
+    @LargeTest
+    public void testMosaicThroughput() throws Exception {
+        File frames = new File(FRAMES_FILE);
+        if (!frames.exists()) {
+            Log.w(TAG, "No recorded sweep at " + FRAMES_FILE + ", skipping");
+            return;
+        }
+
+        MosaicFrameProcessor processor = MosaicFrameProcessor.getInstance();
+        processor.initialize(FRAME_WIDTH, FRAME_HEIGHT, FRAME_WIDTH * FRAME_HEIGHT * 3 / 2);
+        try {
+            processor.reset();
+            FileFrameSource source = new FileFrameSource(frames, FRAME_WIDTH, FRAME_HEIGHT);
+            MosaicFrameFeeder feeder = processor.startCpuFeeding();
+            int read = 0;
+            long start = System.currentTimeMillis();
+            try {
+                while (true) {
+                    byte[] buffer;
+                    // Replays as fast as the alignment goes, nothing is dropped.
+                    while ((buffer = feeder.obtainBuffer()) == null) {
+                        feeder.drain();
+                    }
+                    if (!source.read(buffer)) {
+                        feeder.recycle(buffer);
+                        break;
+                    }
+                    feeder.submit(buffer);
+                    read++;
+                }
+                feeder.drain();
+            } finally {
+                processor.stopCpuFeeding();
+                source.close();
+            }
+            long alignmentMs = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            int lowRes = processor.createMosaic(false);
+            long lowResMs = System.currentTimeMillis() - start;
+            start = System.currentTimeMillis();
+            int highRes = processor.createMosaic(true);
+            long highResMs = System.currentTimeMillis() - start;
+
+            assertEquals(read, feeder.getAlignedFrameCount());
+            report("Mosaic frames aligned: " + read + " in " + alignmentMs + "ms, mean "
+                    + feeder.getMeanAlignmentMs() + "ms per frame, panning rate "
+                    + processor.getPanningRate() + "\n"
+                    + "Mosaic low-res blending: " + lowResMs + "ms, result " + lowRes + "\n"
+                    + "Mosaic high-res blending: " + highResMs + "ms, result " + highRes + "\n");
+        } finally {
+            processor.clear();
+        }
+    }
+
+    private void report(String stats) {
+        Log.v(TAG, stats);
+        BufferedWriter output = null;
+        try {
+            output = new BufferedWriter(new FileWriter(CAMERA_TEST_OUTPUT_FILE, true));
+            output.write(stats);
+        } catch (IOException e) {
+            Log.e(TAG, "testMosaicThroughput IOException writing to log " + e.toString());
+        } finally {
+            try {
+                if (output != null) {
+                    output.close();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing file: " + e.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.BurstFrameRing;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+
+@SmallTest
+public class BurstFrameRingTest extends TestCase {
+    private final ArrayList<String> mEvicted = new ArrayList<String>();
+
+    private BurstFrameRing<String> newRing(int capacity, long byteBudget) {
+        return new BurstFrameRing<String>(capacity, byteBudget,
+                new BurstFrameRing.Listener<String>() {
+                    @Override
+                    public void onFrameEvicted(String frame) {
+                        mEvicted.add(frame);
+                    }
+                });
+    }
+
+    public void testEvictsTheOldestBeyondTheCapacity() {
+        BurstFrameRing<String> ring = newRing(3, 1000);
+        for (int i = 0; i < 5; i++) {
+            ring.add("f" + i, i, 1f, 10);
+        }
+        assertEquals(3, ring.size());
+        assertEquals("f2", ring.get(0));
+        assertEquals("f4", ring.get(2));
+        assertEquals(30, ring.getBytes());
+        assertEquals(2, mEvicted.size());
+        assertEquals("f0", mEvicted.get(0));
+        assertEquals("f1", mEvicted.get(1));
+    }
+
+    public void testEvictsTheOldestBeyondTheBudget() {
+        BurstFrameRing<String> ring = newRing(8, 100);
+        ring.add("a", 0, 1f, 40);
+        ring.add("b", 1, 1f, 40);
+        ring.add("c", 2, 1f, 40);
+        assertEquals(2, ring.size());
+        assertEquals("b", ring.get(0));
+        assertEquals(80, ring.getBytes());
+        // A frame over the budget is kept alone.
+        ring.add("d", 3, 1f, 500);
+        assertEquals(1, ring.size());
+        assertEquals("d", ring.get(0));
+        assertEquals(3, mEvicted.size());
+    }
+
+    public void testSelectsTheSharpestFrameAfterTheShutter() {
+        BurstFrameRing<String> ring = newRing(8, 1000);
+        ring.add("before", 90, 9f, 1);
+        ring.add("first", 110, 2f, 1);
+        ring.add("sharp", 150, 5f, 1);
+        ring.add("tie", 160, 5f, 1);
+        ring.add("late", 400, 8f, 1);
+        assertEquals(2, ring.select(100, 100));
+        assertEquals(4, ring.select(100, 300));
+        // Nothing in the window, the closest frame is picked.
+        assertEquals(0, ring.select(85, 1));
+        ring.clear();
+        assertEquals(-1, ring.select(100, 100));
+        assertEquals(0, mEvicted.size());
+    }
+
+    public void testSharpEdgesScoreHigherThanBlurredOnes() {
+        final int width = 32;
+        int[] sharp = new int[width];
+        int[] blurred = new int[width];
+        for (int x = 0; x < width; x++) {
+            int on = ((x / 4) % 2 == 0) ? 255 : 0;
+            sharp[x] = 0xff000000 | (on << 16) | (on << 8) | on;
+            // The same stripes, ramped over their width.
+            int ramp = ((x / 4) % 2 == 0) ? 255 - (x % 4) * 64 : (x % 4) * 64;
+            blurred[x] = 0xff000000 | (ramp << 16) | (ramp << 8) | ramp;
+        }
+        BurstFrameRing.SharpnessMeter meter = new BurstFrameRing.SharpnessMeter();
+        meter.reset(width);
+        for (int y = 0; y < 8; y++) {
+            meter.addRow(sharp);
+        }
+        float sharpScore = meter.getScore();
+        meter.reset(width);
+        for (int y = 0; y < 8; y++) {
+            meter.addRow(blurred);
+        }
+        float blurredScore = meter.getScore();
+        assertTrue(sharpScore + " <= " + blurredScore, sharpScore > blurredScore);
+
+        int[] flat = new int[width];
+        meter.reset(width);
+        meter.addRow(flat);
+        meter.addRow(flat);
+        assertEquals(0f, meter.getScore(), 0f);
+    }
+}
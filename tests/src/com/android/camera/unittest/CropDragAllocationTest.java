@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.crop.BoundedRect;
+import com.android.camera.crop.CropObject;
+
+import android.graphics.RectF;
+import android.os.Debug;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs crop drags over a 13MP image, and fails if they allocate. Half of the
+ * drags push the crop out of the rotated image, so the clamping paths run
+ * too.
+ */
+@SmallTest
+public class CropDragAllocationTest extends TestCase {
+    private static final int DRAGS = 10000;
+    private static final RectF IMAGE = new RectF(0, 0, 4160, 3120);
+
+    private interface Drag {
+        public void run(int i);
+    }
+
+    private static int countAllocations(Drag drag) {
+        // The first drag isn't counted, in case anything is set up lazily.
+        drag.run(0);
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 1; i <= DRAGS; i++) {
+            drag.run(i);
+        }
+        Debug.stopAllocCounting();
+        return Debug.getThreadAllocCount();
+    }
+
+    // Alternates between small steps and steps large enough to leave the image.
+    private static float step(int i) {
+        return (i % 2 == 0) ? 3 : -((i % 7) * 400);
+    }
+
+    public void testBoundedRectMovesAndResizes() {
+        final BoundedRect rect = new BoundedRect(30, IMAGE, new RectF(1000, 800, 3000, 2200));
+        final RectF inner = new RectF();
+        int allocations = countAllocations(new Drag() {
+            @Override
+            public void run(int i) {
+                rect.moveInner(step(i), step(i + 1));
+                rect.setToInner(inner);
+                inner.right += step(i);
+                inner.bottom += step(i + 3);
+                if (inner.width() > 50 && inner.height() > 50) {
+                    rect.resizeInner(inner);
+                }
+            }
+        });
+        assertEquals("allocations in " + DRAGS + " drags", 0, allocations);
+    }
+
+    public void testCropObjectDrags() {
+        final CropObject crop = new CropObject(IMAGE, new RectF(1000, 800, 3000, 2200), 90);
+        final int[] edges = {
+                CropObject.MOVE_BLOCK, CropObject.MOVE_LEFT, CropObject.BOTTOM_RIGHT
+        };
+        int allocations = countAllocations(new Drag() {
+            @Override
+            public void run(int i) {
+                crop.selectEdge(edges[(i / 100) % edges.length]);
+                crop.moveCurrentSelection(step(i), step(i + 1));
+            }
+        });
+        assertEquals("allocations in " + DRAGS + " drags", 0, allocations);
+    }
+
+    public void testFixedAspectCropObjectDrags() {
+        final CropObject crop = new CropObject(IMAGE, new RectF(1000, 800, 3000, 2200), 90);
+        assertTrue(crop.setInnerAspectRatio(4, 3));
+        int allocations = countAllocations(new Drag() {
+            @Override
+            public void run(int i) {
+                crop.selectEdge((i / 100) % 2 == 0 ? CropObject.TOP_LEFT
+                        : CropObject.BOTTOM_RIGHT);
+                crop.moveCurrentSelection(step(i), step(i));
+            }
+        });
+        assertEquals("allocations in " + DRAGS + " fixed aspect drags", 0, allocations);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.exif.ExifInterface;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+@SmallTest
+public class ExifChannelReaderTest extends TestCase {
+    // A little endian TIFF with the make and the orientation in IFD0, and
+    // the ISO in the EXIF IFD.
+    private static byte[] buildTiff() {
+        ByteBuffer b = ByteBuffer.allocate(74).order(ByteOrder.LITTLE_ENDIAN);
+        b.put((byte) 'I').put((byte) 'I').putShort((short) 0x2a).putInt(8);
+        // IFD0 at 8.
+        b.putShort((short) 3);
+        b.putShort((short) 0x010f).putShort((short) 2).putInt(6).putInt(50);
+        b.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) 6)
+                .putShort((short) 0);
+        b.putShort((short) 0x8769).putShort((short) 4).putInt(1).putInt(56);
+        b.putInt(0);
+        // The make at 50.
+        b.put(new byte[] { 'C', 'a', 'n', 'o', 'n', 0 });
+        // The EXIF IFD at 56.
+        b.putShort((short) 1);
+        b.putShort((short) 0x8827).putShort((short) 3).putInt(1).putShort((short) 200)
+                .putShort((short) 0);
+        b.putInt(0);
+        return b.array();
+    }
+
+    private static File writeJpeg(byte[] tiff) throws Exception {
+        ByteBuffer b = ByteBuffer.allocate(4 + (tiff == null ? 0 : 10 + tiff.length) + 21);
+        b.putShort((short) 0xffd8);
+        if (tiff != null) {
+            b.putShort((short) 0xffe1).putShort((short) (8 + tiff.length));
+            b.put(new byte[] { 'E', 'x', 'i', 'f', 0, 0 }).put(tiff);
+        }
+        // SOF0 of 640x480, then EOI.
+        b.put(new byte[] {
+                (byte) 0xff, (byte) 0xc0, 0, 11, 8, 0x01, (byte) 0xe0, 0x02, (byte) 0x80,
+                1, 1, 0x11, 0,
+                (byte) 0xff, (byte) 0xda, 0, 2,
+                (byte) 0xff, (byte) 0xd9 });
+        File f = File.createTempFile("exif", ".jpg");
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(b.array(), 0, b.position());
+        } finally {
+            out.close();
+        }
+        return f;
+    }
+
+    public void testReadsOnlyRequestedTags() throws Exception {
+        File f = writeJpeg(buildTiff());
+        try {
+            ExifInterface exif = new ExifInterface();
+            exif.readExif(f.getPath(), new int[] {
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.TAG_ISO_SPEED_RATINGS });
+            assertEquals(6, (int) exif.getTagIntValue(ExifInterface.TAG_ORIENTATION));
+            assertEquals(200, (int) exif.getTagIntValue(ExifInterface.TAG_ISO_SPEED_RATINGS));
+            assertNull(exif.getTag(ExifInterface.TAG_MAKE));
+
+            exif.readExif(f.getPath(), new int[] { ExifInterface.TAG_MAKE });
+            assertTrue(exif.getTagStringValue(ExifInterface.TAG_MAKE).startsWith("Canon"));
+            assertNull(exif.getTag(ExifInterface.TAG_ORIENTATION));
+            assertNull(exif.getTag(ExifInterface.TAG_ISO_SPEED_RATINGS));
+        } finally {
+            f.delete();
+        }
+    }
+
+    public void testMatchesStreamReader() throws Exception {
+        File f = writeJpeg(buildTiff());
+        try {
+            ExifInterface full = new ExifInterface();
+            full.readExif(f.getPath());
+            ExifInterface selective = new ExifInterface();
+            int[] tags = {
+                    ExifInterface.TAG_MAKE, ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.TAG_ISO_SPEED_RATINGS };
+            selective.readExif(f.getPath(), tags);
+            for (int tag : tags) {
+                assertEquals(full.getTag(tag), selective.getTag(tag));
+            }
+        } finally {
+            f.delete();
+        }
+    }
+
+    public void testNoExif() throws Exception {
+        File f = writeJpeg(null);
+        try {
+            ExifInterface exif = new ExifInterface();
+            exif.readExif(f.getPath(), new int[] { ExifInterface.TAG_ORIENTATION });
+            assertNull(exif.getTag(ExifInterface.TAG_ORIENTATION));
+        } finally {
+            f.delete();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.adobe.xmp.XMPMeta;
+import com.android.camera.exif.ExifInterface;
+import com.android.camera.util.JpegMetadataWriter;
+import com.android.camera.util.XmpUtil;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+@SmallTest
+public class JpegMetadataWriterTest extends TestCase {
+    private static final String PANO_NAMESPACE = "http://ns.google.com/photos/1.0/panorama/";
+    private static final String PROPERTY = "ProjectionType";
+
+    private File mFile;
+
+    // SOI, an EXIF APP1 with the orientation, a DQT, SOF0 of 640x480, then
+    // SOS and entropy-coded data, with stuffed and restart markers, and EOI.
+    private static byte[] buildJpeg(int orientation) {
+        ByteBuffer tiff = ByteBuffer.allocate(26).order(ByteOrder.LITTLE_ENDIAN);
+        tiff.put((byte) 'I').put((byte) 'I').putShort((short) 0x2a).putInt(8);
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1)
+                .putShort((short) orientation).putShort((short) 0);
+        tiff.putInt(0);
+
+        ByteBuffer b = ByteBuffer.allocate(1024);
+        b.putShort((short) 0xffd8);
+        b.putShort((short) 0xffe1).putShort((short) (8 + tiff.capacity()));
+        b.put(new byte[] { 'E', 'x', 'i', 'f', 0, 0 }).put(tiff.array());
+        b.put(new byte[] {
+                (byte) 0xff, (byte) 0xdb, 0, 4, 0, 1,
+                (byte) 0xff, (byte) 0xc0, 0, 11, 8, 0x01, (byte) 0xe0, 0x02, (byte) 0x80,
+                1, 1, 0x11, 0,
+                (byte) 0xff, (byte) 0xda, 0, 8, 1, 1, 0, 0, 0x3f, 0 });
+        for (int i = 0; i < 600; i++) {
+            b.put((byte) (i * 31 + 7));
+            if (i % 97 == 0) {
+                b.put((byte) 0xff).put((byte) 0);
+            }
+            if (i % 211 == 0) {
+                b.put((byte) 0xff).put((byte) (0xd0 + i % 8));
+            }
+        }
+        b.putShort((short) 0xffd9);
+        return Arrays.copyOf(b.array(), b.position());
+    }
+
+    private static XMPMeta buildXmp(String value) throws Exception {
+        XMPMeta xmp = XmpUtil.createXMPMeta();
+        xmp.setProperty(PANO_NAMESPACE, PROPERTY, value);
+        return xmp;
+    }
+
+    // The original jpeg, with its XMP inserted by the stream writer.
+    private static byte[] buildJpegWithXmp(int orientation, String value) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(XmpUtil.writeXMPMeta(new ByteArrayInputStream(buildJpeg(orientation)),
+                out, buildXmp(value)));
+        return out.toByteArray();
+    }
+
+    // Returns the bytes from the SOS marker on.
+    private static byte[] getImageData(byte[] jpeg) {
+        int offset = 2;
+        while ((jpeg[offset + 1] & 0xff) != 0xda) {
+            offset += 2 + (((jpeg[offset + 2] & 0xff) << 8) | (jpeg[offset + 3] & 0xff));
+        }
+        return Arrays.copyOfRange(jpeg, offset, jpeg.length);
+    }
+
+    private void writeFile(byte[] data) throws Exception {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private byte[] readFile() throws Exception {
+        RandomAccessFile in = new RandomAccessFile(mFile, "r");
+        try {
+            byte[] data = new byte[(int) in.length()];
+            in.readFully(data);
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    private int readOrientation() throws Exception {
+        ExifInterface exif = new ExifInterface();
+        exif.readExif(mFile.getPath());
+        return exif.getTagIntValue(ExifInterface.TAG_ORIENTATION);
+    }
+
+    private String readXmpValue() throws Exception {
+        XMPMeta xmp = XmpUtil.extractXMPMeta(mFile.getPath());
+        assertNotNull(xmp);
+        return xmp.getPropertyString(PANO_NAMESPACE, PROPERTY);
+    }
+
+    private static ExifInterface buildExif(int rotation) {
+        ExifInterface exif = new ExifInterface();
+        exif.setTag(exif.buildTag(ExifInterface.TAG_ORIENTATION,
+                ExifInterface.getOrientationValueForRotation(rotation)));
+        return exif;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        mFile = File.createTempFile("metadata", ".jpg");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        new File(mFile.getPath() + ".tmp").delete();
+    }
+
+    public void testReplacesTheXmpOnly() throws Exception {
+        byte[] original = buildJpegWithXmp(6, "old");
+        writeFile(original);
+        assertTrue(JpegMetadataWriter.write(mFile.getPath(), null, buildXmp("new")));
+        assertEquals("new", readXmpValue());
+        assertEquals(6, readOrientation());
+        assertTrue(Arrays.equals(getImageData(original), getImageData(readFile())));
+    }
+
+    public void testReplacesTheExifOnly() throws Exception {
+        byte[] original = buildJpegWithXmp(6, "old");
+        writeFile(original);
+        assertTrue(JpegMetadataWriter.write(mFile.getPath(), buildExif(180), null));
+        assertEquals(3, readOrientation());
+        assertEquals("old", readXmpValue());
+        assertTrue(Arrays.equals(getImageData(original), getImageData(readFile())));
+    }
+
+    public void testReplacesBoth() throws Exception {
+        byte[] original = buildJpegWithXmp(6, "old");
+        writeFile(original);
+        assertTrue(JpegMetadataWriter.write(mFile.getPath(), buildExif(270), buildXmp("new")));
+        assertEquals(8, readOrientation());
+        assertEquals("new", readXmpValue());
+        assertTrue(Arrays.equals(getImageData(original), getImageData(readFile())));
+    }
+
+    public void testAddsTheXmpToAJpegWithout() throws Exception {
+        byte[] original = buildJpeg(6);
+        writeFile(original);
+        assertTrue(JpegMetadataWriter.write(mFile.getPath(), null, buildXmp("new")));
+        assertEquals("new", readXmpValue());
+        assertEquals(6, readOrientation());
+        assertTrue(Arrays.equals(getImageData(original), getImageData(readFile())));
+    }
+
+    public void testLeavesTheFileUntouchedOnFailure() throws Exception {
+        byte[] original = buildJpegWithXmp(6, "old");
+        // The DQT claims more than the rest of the file.
+        int offset = 2;
+        while ((original[offset + 1] & 0xff) != 0xdb) {
+            offset += 2 + (((original[offset + 2] & 0xff) << 8) | (original[offset + 3] & 0xff));
+        }
+        original[offset + 2] = (byte) 0x7f;
+        writeFile(original);
+        assertFalse(JpegMetadataWriter.write(mFile.getPath(), buildExif(180), buildXmp("new")));
+        assertTrue(Arrays.equals(original, readFile()));
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+
+        // Not a jpeg at all.
+        byte[] text = "not a jpeg".getBytes("US-ASCII");
+        writeFile(text);
+        assertFalse(JpegMetadataWriter.write(mFile.getPath(), null, buildXmp("new")));
+        assertTrue(Arrays.equals(text, readFile()));
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+}
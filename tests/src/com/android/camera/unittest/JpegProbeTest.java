@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.exif.JpegProbe;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+@SmallTest
+public class JpegProbeTest extends TestCase {
+    // SOI, an EXIF APP1 with the orientation in IFD0, a DQT, SOF0 of 640x480,
+    // SOS and EOI.
+    private static byte[] buildJpeg(boolean littleEndian, int orientation) {
+        byte[] tiff = littleEndian
+                ? new byte[] {
+                    'I', 'I', 0x2a, 0, 8, 0, 0, 0,
+                    1, 0,
+                    0x12, 0x01, 3, 0, 1, 0, 0, 0, (byte) orientation, 0, 0, 0,
+                    0, 0, 0, 0 }
+                : new byte[] {
+                    'M', 'M', 0, 0x2a, 0, 0, 0, 8,
+                    0, 1,
+                    0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+                    0, 0, 0, 0 };
+        int app1Length = 2 + 6 + tiff.length;
+        byte[] head = {
+                (byte) 0xff, (byte) 0xd8,
+                (byte) 0xff, (byte) 0xe1, (byte) (app1Length >> 8), (byte) app1Length,
+                'E', 'x', 'i', 'f', 0, 0 };
+        byte[] tail = {
+                (byte) 0xff, (byte) 0xdb, 0, 4, 0, 0,
+                (byte) 0xff, (byte) 0xc0, 0, 11, 8, 0x01, (byte) 0xe0, 0x02, (byte) 0x80,
+                1, 1, 0x11, 0,
+                (byte) 0xff, (byte) 0xda, 0, 2,
+                (byte) 0xff, (byte) 0xd9 };
+        byte[] jpeg = new byte[head.length + tiff.length + tail.length];
+        System.arraycopy(head, 0, jpeg, 0, head.length);
+        System.arraycopy(tiff, 0, jpeg, head.length, tiff.length);
+        System.arraycopy(tail, 0, jpeg, head.length + tiff.length, tail.length);
+        return jpeg;
+    }
+
+    public void testProbeBytes() {
+        JpegProbe.Result r = JpegProbe.probe(buildJpeg(true, 6));
+        assertTrue(r.isValid());
+        assertEquals(640, r.width);
+        assertEquals(480, r.height);
+        assertEquals(90, r.orientation);
+
+        r = JpegProbe.probe(buildJpeg(false, 8));
+        assertEquals(640, r.width);
+        assertEquals(480, r.height);
+        assertEquals(270, r.orientation);
+
+        r = JpegProbe.probe(buildJpeg(true, 1));
+        assertEquals(0, r.orientation);
+    }
+
+    public void testProbeInvalid() {
+        assertFalse(JpegProbe.probe(new byte[0]).isValid());
+        assertFalse(JpegProbe.probe(new byte[] { 0x12, 0x34, 0x56, 0x78 }).isValid());
+        byte[] jpeg = buildJpeg(true, 6);
+        // Truncated before the frame header.
+        assertFalse(JpegProbe.probe(jpeg, 0, 40).isValid());
+    }
+
+    public void testProbeFiles() throws Exception {
+        List<File> files = new ArrayList<File>();
+        try {
+            for (int i = 0; i < 8; i++) {
+                File f = File.createTempFile("probe", ".jpg");
+                FileOutputStream out = new FileOutputStream(f);
+                try {
+                    out.write(buildJpeg(i % 2 == 0, 3));
+                } finally {
+                    out.close();
+                }
+                files.add(f);
+            }
+            for (File f : files) {
+                JpegProbe.Result r = JpegProbe.probe(f);
+                assertEquals(640, r.width);
+                assertEquals(480, r.height);
+                assertEquals(180, r.orientation);
+            }
+        } finally {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.CapturedImage;
+import com.android.camera.MediaSaveService;
+import com.android.camera.PhotoModule;
+import com.android.camera.app.WorkScheduler;
+import com.android.camera.util.CameraUtil;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+@SmallTest
+public class MediaSaveServiceTest extends TestCase {
+    private static final String BURST_ID = "IMG_20130101_120000";
+    private static final String SINGLE_TITLE = "IMG_20130101_120001";
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final CountDownLatch mGate = new CountDownLatch(1);
+    // The uris the saves finished with, only used on the main thread.
+    private final ArrayList<Uri> mSaved = new ArrayList<Uri>();
+    private final MediaSaveService.OnMediaSavedListener mListener =
+            new MediaSaveService.OnMediaSavedListener() {
+                @Override
+                public void onMediaSaved(Uri uri) {
+                    mSaved.add(uri);
+                }
+            };
+
+    private MediaSaveService mService;
+
+    // The service and its saves are only used on the main thread. The
+    // failures are thrown again on the test thread.
+    private void runOnMain(Callable<Void> callable) throws Exception {
+        FutureTask<Void> task = new FutureTask<Void>(callable);
+        mMainHandler.post(task);
+        try {
+            task.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (Exception) cause;
+        }
+    }
+
+    // Holds the capture save worker until the test ends, so the saves stay
+    // queued.
+    private void blockWorker() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        WorkScheduler.getInstance().submit(WorkScheduler.LANE_CAPTURE_SAVE, new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    mGate.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    private MediaSaveService.SaveHandle tryAddImage(String title) {
+        CapturedImage image = new CapturedImage(new byte[16]);
+        MediaSaveService.SaveHandle handle = mService.addImage(image, title, 0, null,
+                1, 1, 0, null, mListener, null, PhotoModule.PIXEL_FORMAT_JPEG);
+        image.release();
+        return handle;
+    }
+
+    private MediaSaveService.SaveHandle addImage(String title) {
+        MediaSaveService.SaveHandle handle = tryAddImage(title);
+        assertNotNull(handle);
+        return handle;
+    }
+
+    private void assertCancelled(int count) {
+        assertEquals(count, mSaved.size());
+        for (Uri uri : mSaved) {
+            assertNull(uri);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        runOnMain(new Callable<Void>() {
+            @Override
+            public Void call() {
+                mService = new MediaSaveService();
+                mService.onCreate();
+                return null;
+            }
+        });
+        blockWorker();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mGate.countDown();
+    }
+
+    public void testCancelsASaveNotStarted() throws Exception {
+        final MediaSaveService.SaveHandle[] handle = new MediaSaveService.SaveHandle[1];
+        runOnMain(new Callable<Void>() {
+            @Override
+            public Void call() {
+                handle[0] = addImage(SINGLE_TITLE);
+                assertTrue(handle[0].setPriority(WorkScheduler.PRIORITY_HIGH));
+                assertTrue(handle[0].cancel());
+                assertFalse(handle[0].setPriority(WorkScheduler.PRIORITY_LOW));
+                return null;
+            }
+        });
+        // The listener is called after the cancel, on the main thread.
+        runOnMain(new Callable<Void>() {
+            @Override
+            public Void call() {
+                assertCancelled(1);
+                assertFalse(handle[0].cancel());
+                assertFalse(mService.isQueueFull());
+                return null;
+            }
+        });
+    }
+
+    public void testHoldsTheBurstSavesUntilResumed() throws Exception {
+        runOnMain(new Callable<Void>() {
+            @Override
+            public Void call() {
+                MediaSaveService.SaveHandle first =
+                        addImage(CameraUtil.createBurstJpegName(BURST_ID, 1));
+                MediaSaveService.SaveHandle second =
+                        addImage(CameraUtil.createBurstJpegName(BURST_ID, 2));
+                MediaSaveService.SaveHandle single = addImage(SINGLE_TITLE);
+
+                assertEquals(2, mService.holdBurstSaves(BURST_ID));
+                assertFalse(first.setPriority(WorkScheduler.PRIORITY_HIGH));
+                assertTrue(single.setPriority(WorkScheduler.PRIORITY_HIGH));
+                // Already held.
+                assertEquals(0, mService.holdBurstSaves(BURST_ID));
+
+                mService.resumeBurstSaves(BURST_ID);
+                assertTrue(first.setPriority(WorkScheduler.PRIORITY_HIGH));
+                assertTrue(second.setPriority(WorkScheduler.PRIORITY_LOW));
+                assertTrue(mSaved.isEmpty());
+
+                // Held again, then deleted.
+                assertEquals(2, mService.holdBurstSaves(BURST_ID));
+                assertEquals(2, mService.cancelBurstSaves(BURST_ID));
+                assertTrue(single.cancel());
+                return null;
+            }
+        });
+        runOnMain(new Callable<Void>() {
+            @Override
+            public Void call() {
+                assertCancelled(3);
+                return null;
+            }
+        });
+    }
+
+    public void testHoldsThenDropsTheFramesAddedLater() throws Exception {
+        runOnMain(new Callable<Void>() {
+            @Override
+            public Void call() {
+                assertEquals(0, mService.holdBurstSaves(BURST_ID));
+                // Still on its way to the service when the burst was removed.
+                MediaSaveService.SaveHandle late =
+                        addImage(CameraUtil.createBurstJpegName(BURST_ID, 1));
+                assertFalse(late.setPriority(WorkScheduler.PRIORITY_HIGH));
+
+                mService.resumeBurstSaves(BURST_ID);
+                assertTrue(late.setPriority(WorkScheduler.PRIORITY_HIGH));
+
+                assertEquals(1, mService.holdBurstSaves(BURST_ID));
+                assertEquals(1, mService.cancelBurstSaves(BURST_ID));
+                assertNull(tryAddImage(CameraUtil.createBurstJpegName(BURST_ID, 2)));
+                return null;
+            }
+        });
+        runOnMain(new Callable<Void>() {
+            @Override
+            public Void call() {
+                assertCancelled(1);
+                return null;
+            }
+        });
+    }
+}
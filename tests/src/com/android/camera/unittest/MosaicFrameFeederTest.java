@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.MosaicFrameFeeder;
+import com.android.camera.stress.FileFrameSource;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.CountDownLatch;
+
+@SmallTest
+public class MosaicFrameFeederTest extends TestCase {
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+    private static final int FRAME_SIZE = WIDTH * HEIGHT * 3 / 2;
+
+    // Records the first byte of each frame and the buffers it was given.
+    private static class RecordingAligner implements MosaicFrameFeeder.FrameAligner {
+        final ArrayList<Integer> mFrames = new ArrayList<Integer>();
+        final IdentityHashMap<byte[], Boolean> mBuffers = new IdentityHashMap<byte[], Boolean>();
+        CountDownLatch mGate;
+
+        @Override
+        public synchronized float[] align(byte[] nv21) {
+            if (mGate != null) {
+                try {
+                    mGate.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            mFrames.add((int) nv21[0]);
+            mBuffers.put(nv21, Boolean.TRUE);
+            float[] frameData = new float[11];
+            frameData[9] = mFrames.size();
+            return frameData;
+        }
+    }
+
+    public void testFramesAlignedInOrderFromPool() throws Exception {
+        RecordingAligner aligner = new RecordingAligner();
+        MosaicFrameFeeder feeder = new MosaicFrameFeeder(aligner, null, FRAME_SIZE, 2);
+        try {
+            for (int i = 0; i < 20; i++) {
+                byte[] buffer;
+                while ((buffer = feeder.obtainBuffer()) == null) {
+                    feeder.drain();
+                }
+                buffer[0] = (byte) i;
+                feeder.submit(buffer);
+            }
+            feeder.drain();
+        } finally {
+            feeder.stop();
+        }
+        assertEquals(20, feeder.getAlignedFrameCount());
+        assertEquals(20, aligner.mFrames.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, (int) aligner.mFrames.get(i));
+        }
+        // Only the pooled buffers were ever used.
+        assertTrue(aligner.mBuffers.size() <= 2);
+    }
+
+    public void testDropsWhenAlignmentFallsBehind() throws Exception {
+        RecordingAligner aligner = new RecordingAligner();
+        aligner.mGate = new CountDownLatch(1);
+        MosaicFrameFeeder feeder = new MosaicFrameFeeder(aligner, null, FRAME_SIZE, 2);
+        try {
+            feeder.submit(feeder.obtainBuffer());
+            feeder.submit(feeder.obtainBuffer());
+            assertNull(feeder.obtainBuffer());
+            assertEquals(1, feeder.getDroppedFrameCount());
+            aligner.mGate.countDown();
+            feeder.drain();
+            assertNotNull(feeder.obtainBuffer());
+        } finally {
+            feeder.stop();
+        }
+        assertEquals(2, feeder.getAlignedFrameCount());
+    }
+
+    public void testFileFrameSource() throws Exception {
+        File f = File.createTempFile("frames", ".nv21");
+        try {
+            FileOutputStream out = new FileOutputStream(f);
+            try {
+                for (int i = 0; i < 3; i++) {
+                    byte[] frame = new byte[FRAME_SIZE];
+                    frame[0] = (byte) (i + 1);
+                    out.write(frame);
+                }
+                // A truncated frame at the end.
+                out.write(new byte[FRAME_SIZE / 2]);
+            } finally {
+                out.close();
+            }
+
+            FileFrameSource source = new FileFrameSource(f, WIDTH, HEIGHT);
+            byte[] buffer = new byte[source.getFrameSize()];
+            try {
+                for (int i = 0; i < 3; i++) {
+                    assertTrue(source.read(buffer));
+                    assertEquals(i + 1, buffer[0]);
+                }
+                assertFalse(source.read(buffer));
+            } finally {
+                source.close();
+            }
+        } finally {
+            f.delete();
+        }
+    }
+}
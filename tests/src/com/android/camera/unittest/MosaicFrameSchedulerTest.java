@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.MosaicFrameScheduler;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+@SmallTest
+public class MosaicFrameSchedulerTest extends TestCase {
+    private static final long FRAME_INTERVAL_MS = 33;
+
+    // Offers the frames at 30fps, each alignment taking alignmentMs.
+    private static MosaicFrameScheduler.Stats sweep(int frames, long alignmentMs,
+            float panningRate) {
+        MosaicFrameScheduler scheduler = new MosaicFrameScheduler();
+        scheduler.reset();
+        for (int i = 0; i < frames; i++) {
+            if (scheduler.offerFrame(1000 + i * FRAME_INTERVAL_MS, panningRate)) {
+                scheduler.onFrameAligned(alignmentMs);
+            }
+        }
+        return scheduler.getStats();
+    }
+
+    public void testFastAlignmentTakesEveryFrame() {
+        MosaicFrameScheduler.Stats stats = sweep(100, 10, 0.05f);
+        assertEquals(100, stats.offered);
+        assertEquals(100, stats.processed);
+        assertEquals(0, stats.getSkipped());
+        assertEquals(10f, stats.meanAlignmentMs, 0.01f);
+        assertEquals(10, stats.maxAlignmentMs);
+    }
+
+    public void testSlowAlignmentSkipsEvenly() {
+        // Each alignment takes about two frame intervals.
+        MosaicFrameScheduler scheduler = new MosaicFrameScheduler();
+        int lastAligned = -1;
+        int maxGap = 0;
+        for (int i = 0; i < 100; i++) {
+            if (scheduler.offerFrame(1000 + i * FRAME_INTERVAL_MS, 0.1f)) {
+                scheduler.onFrameAligned(60);
+                if (lastAligned >= 0) {
+                    maxGap = Math.max(maxGap, i - lastAligned);
+                }
+                lastAligned = i;
+            }
+        }
+        MosaicFrameScheduler.Stats stats = scheduler.getStats();
+        assertTrue(stats.skippedForLoad > 50);
+        assertEquals(100, stats.processed + stats.getSkipped());
+        assertEquals(3, maxGap);
+        assertTrue(scheduler.isFallingBehind());
+        // About three frames between the aligned ones.
+        assertTrue(scheduler.getAlignedSpan() > 2.5f);
+    }
+
+    public void testStillCameraSkipsForParallax() {
+        MosaicFrameScheduler.Stats stats = sweep(100, 5, 0.001f);
+        assertTrue(stats.skippedForParallax > 50);
+        assertEquals(0, stats.skippedForLoad);
+        // Still tracks the camera every few frames.
+        assertTrue(stats.processed >= 100 / 4);
+    }
+
+    public void testAlignedSpanIsOneWithoutSkips() {
+        MosaicFrameScheduler scheduler = new MosaicFrameScheduler();
+        for (int i = 0; i < 50; i++) {
+            if (scheduler.offerFrame(1000 + i * FRAME_INTERVAL_MS, 0.05f)) {
+                scheduler.onFrameAligned(5);
+            }
+        }
+        assertEquals(1f, scheduler.getAlignedSpan(), 0.001f);
+    }
+
+    public void testHeadroomForLargerFrames() {
+        MosaicFrameScheduler scheduler = new MosaicFrameScheduler();
+        for (int i = 0; i < 100; i++) {
+            if (scheduler.offerFrame(1000 + i * FRAME_INTERVAL_MS, 0.05f)) {
+                scheduler.onFrameAligned(10);
+            }
+        }
+        // Within the budget of a frame interval at 2.25 times the alignment,
+        // over it at 3 times.
+        assertTrue(scheduler.hasHeadroom(2.25f));
+        assertFalse(scheduler.hasHeadroom(3f));
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.crop.CropView;
+import com.android.camera.ui.FaceView;
+import com.android.camera.ui.PieItem;
+import com.android.camera.ui.PieRenderer;
+import com.android.camera.ui.ZoomRenderer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.ColorDrawable;
+import android.hardware.Camera.Face;
+import android.os.Debug;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Draws the overlays frame after frame, and fails if a frame allocates more
+ * than {@link #ALLOCATION_BUDGET} objects once the overlay is set up.
+ */
+@SmallTest
+public class OverlayAllocationTest extends InstrumentationTestCase {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int FRAMES = 30;
+    // The objects a frame may allocate on average.
+    private static final int ALLOCATION_BUDGET = 0;
+
+    private Context mContext;
+    private Canvas mCanvas;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        mCanvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+    }
+
+    // Runs the frame once so the lazy set up isn't counted, then counts the
+    // allocations of the following frames.
+    private void assertWithinBudget(final String name, final Runnable frame) throws Throwable {
+        final int[] allocations = new int[1];
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                frame.run();
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                for (int i = 0; i < FRAMES; i++) {
+                    frame.run();
+                }
+                Debug.stopAllocCounting();
+                allocations[0] = Debug.getThreadAllocCount();
+            }
+        });
+        assertTrue(name + " allocated " + allocations[0] + " objects in " + FRAMES + " frames",
+                allocations[0] <= ALLOCATION_BUDGET * FRAMES);
+    }
+
+    public void testPieMenu() throws Throwable {
+        assertWithinBudget("PieRenderer", new Runnable() {
+            private PieRenderer mPie;
+
+            @Override
+            public void run() {
+                if (mPie == null) {
+                    mPie = new PieRenderer(mContext);
+                    for (int i = 0; i < 4; i++) {
+                        mPie.addItem(new PieItem(new ColorDrawable(0xffffffff), 0));
+                    }
+                    mPie.layout(0, 0, WIDTH, HEIGHT);
+                    mPie.showInCenter();
+                }
+                mPie.draw(mCanvas);
+            }
+        });
+    }
+
+    public void testFocusAndZoom() throws Throwable {
+        assertWithinBudget("ZoomRenderer", new Runnable() {
+            private ZoomRenderer mZoom;
+            private PieRenderer mFocus;
+
+            @Override
+            public void run() {
+                if (mZoom == null) {
+                    mFocus = new PieRenderer(mContext);
+                    mFocus.layout(0, 0, WIDTH, HEIGHT);
+                    mFocus.setFocus(WIDTH / 3, HEIGHT / 3);
+                    mFocus.setVisible(true);
+                    mZoom = new ZoomRenderer(mContext);
+                    mZoom.setZoomMax(10);
+                    mZoom.layout(0, 0, WIDTH, HEIGHT);
+                    mZoom.setVisible(true);
+                }
+                mZoom.setZoomValue(150);
+                mFocus.draw(mCanvas);
+                mZoom.draw(mCanvas);
+            }
+        });
+    }
+
+    public void testFaces() throws Throwable {
+        assertWithinBudget("FaceView", new Runnable() {
+            private FaceView mFaceView;
+
+            @Override
+            public void run() {
+                if (mFaceView == null) {
+                    mFaceView = new FaceView(mContext, null);
+                    mFaceView.layout(0, 0, WIDTH, HEIGHT);
+                    mFaceView.onSurfaceTextureSizeChanged(WIDTH, HEIGHT);
+                    Face face = new Face();
+                    face.rect = new Rect(-200, -200, 200, 200);
+                    face.score = 100;
+                    mFaceView.setFaces(new Face[] { face });
+                }
+                mFaceView.draw(mCanvas);
+            }
+        });
+    }
+
+    public void testCropDrag() throws Throwable {
+        assertWithinBudget("CropView", new Runnable() {
+            private CropView mCropView;
+
+            @Override
+            public void run() {
+                if (mCropView == null) {
+                    mCropView = new CropView(mContext);
+                    mCropView.layout(0, 0, WIDTH, HEIGHT);
+                    Bitmap bitmap = Bitmap.createBitmap(320, 240, Bitmap.Config.ARGB_8888);
+                    mCropView.initialize(bitmap, new RectF(40, 30, 280, 210),
+                            new RectF(0, 0, 320, 240), 0);
+                }
+                mCropView.draw(mCanvas);
+            }
+        });
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.TimeLapsePacer;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+@SmallTest
+public class TimeLapsePacerTest extends TestCase {
+    private static final long START = 5000;
+    private static final long INTERVAL = 1000;
+    // A preview frame every 33ms.
+    private static final long FRAME = 33;
+
+    private final TimeLapsePacer mPacer = new TimeLapsePacer();
+
+    // Offers the preview frames from the time until the end, and returns the
+    // number captured.
+    private int offerFrames(long from, long to) {
+        int captured = 0;
+        for (long t = from; t < to; t += FRAME) {
+            if (mPacer.offerFrame(t)) captured++;
+        }
+        return captured;
+    }
+
+    public void testCapturesOneFramePerIntervalWithoutDrift() {
+        mPacer.start(START, INTERVAL);
+        // Eight hours.
+        long end = START + 8 * 3600 * 1000;
+        int captured = offerFrames(START, end);
+        assertEquals(8 * 3600, captured);
+        TimeLapsePacer.Stats stats = mPacer.getStats();
+        assertEquals(0, stats.missed);
+        assertTrue(stats.maxLatenessMs < FRAME);
+        assertTrue(stats.driftMs < FRAME);
+        // Counted from each frame, the lateness would have added up.
+        assertTrue(stats.relativeDriftMs > INTERVAL);
+        assertEquals(8 * 3600, mPacer.getExpectedFrames(end - 1));
+    }
+
+    public void testSkipsTheDeadlinesMissedByAStall() {
+        mPacer.start(START, INTERVAL);
+        assertEquals(3, offerFrames(START, START + 2500));
+        // The camera stalls for 3.6 seconds.
+        long resume = START + 6100;
+        assertTrue(mPacer.offerFrame(resume));
+        TimeLapsePacer.Stats stats = mPacer.getStats();
+        // The deadlines at 3, 4 and 5 seconds had no frame.
+        assertEquals(3, stats.missed);
+        assertEquals(4, stats.captured);
+        assertEquals(100, stats.driftMs);
+        assertEquals(START + 7000, mPacer.getNextDeadline());
+        assertFalse(mPacer.offerFrame(resume + FRAME));
+    }
+
+    public void testCountsTheExpectedFramesWithoutPreviewFrames() {
+        mPacer.start(START, INTERVAL);
+        assertEquals(0, mPacer.getExpectedFrames(START - 1));
+        assertEquals(1, mPacer.getExpectedFrames(START));
+        assertEquals(3, mPacer.getExpectedFrames(START + 2999));
+        assertEquals(90, mPacer.getExpectedFrames(START + 89999));
+    }
+}
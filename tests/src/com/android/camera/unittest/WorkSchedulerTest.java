@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.app.WorkScheduler;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+@SmallTest
+public class WorkSchedulerTest extends TestCase {
+    private static final int LANE = WorkScheduler.LANE_CAPTURE_SAVE;
+
+    private final WorkScheduler mScheduler = WorkScheduler.getInstance();
+    private final ArrayList<String> mRun = new ArrayList<String>();
+    private final CountDownLatch mGate = new CountDownLatch(1);
+
+    // Holds the capture worker until the gate opens, so the work submitted
+    // meanwhile is queued.
+    private void blockWorker() {
+        final CountDownLatch started = new CountDownLatch(1);
+        mScheduler.submit(LANE, new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    mGate.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        await(started);
+    }
+
+    private Runnable record(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mRun) {
+                    mRun.add(name);
+                }
+            }
+        };
+    }
+
+    private WorkScheduler.Token submit(int priority, String name) {
+        return mScheduler.submit(LANE, priority, record(name));
+    }
+
+    // Opens the gate and waits for the work queued so far.
+    private void drain() {
+        mGate.countDown();
+        final CountDownLatch done = new CountDownLatch(1);
+        mScheduler.submit(LANE, WorkScheduler.PRIORITY_LOW, new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        await(done);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void testRunsByPriorityThenInOrder() {
+        blockWorker();
+        submit(WorkScheduler.PRIORITY_LOW, "low");
+        submit(WorkScheduler.PRIORITY_DEFAULT, "default1");
+        submit(WorkScheduler.PRIORITY_HIGH, "high");
+        submit(WorkScheduler.PRIORITY_DEFAULT, "default2");
+        drain();
+        assertEquals("[high, default1, default2, low]", mRun.toString());
+    }
+
+    public void testChangesThePriorityOfQueuedWork() {
+        blockWorker();
+        WorkScheduler.Token first = submit(WorkScheduler.PRIORITY_DEFAULT, "first");
+        WorkScheduler.Token second = submit(WorkScheduler.PRIORITY_DEFAULT, "second");
+        WorkScheduler.Token third = submit(WorkScheduler.PRIORITY_DEFAULT, "third");
+        assertTrue(first.setPriority(WorkScheduler.PRIORITY_LOW));
+        assertTrue(third.setPriority(WorkScheduler.PRIORITY_HIGH));
+        assertTrue(second.cancel());
+        assertFalse(second.setPriority(WorkScheduler.PRIORITY_HIGH));
+        drain();
+        assertEquals("[third, first]", mRun.toString());
+        assertFalse(first.setPriority(WorkScheduler.PRIORITY_HIGH));
+    }
+
+    public void testRemovesQueuedWorkWithoutCancellingIt() {
+        final CountDownLatch started = new CountDownLatch(1);
+        WorkScheduler.Token running = mScheduler.submit(LANE, new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    mGate.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                synchronized (mRun) {
+                    mRun.add("running");
+                }
+            }
+        });
+        await(started);
+        // Already taken by the worker, it must still run to the end.
+        assertFalse(running.remove());
+        assertFalse(running.isCancelled());
+
+        Runnable held = record("held");
+        WorkScheduler.Token token = mScheduler.submit(LANE, held);
+        submit(WorkScheduler.PRIORITY_DEFAULT, "other");
+        assertTrue(token.remove());
+        assertFalse(token.isCancelled());
+        assertFalse(token.remove());
+        // The same work, submitted again.
+        mScheduler.submit(LANE, held);
+        drain();
+        assertEquals("[running, other, held]", mRun.toString());
+    }
+
+    public void testKeepsTheWorkersAfterAnInterruptedCancel() {
+        final int lane = WorkScheduler.LANE_VISIBLE_THUMBNAIL;
+        // Enough to reach every shared worker, if each interrupt killed one.
+        int workers = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < workers; i++) {
+            final CountDownLatch started = new CountDownLatch(1);
+            FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    started.countDown();
+                    // Like a decode, returns without clearing the interrupt.
+                    while (!Thread.currentThread().isInterrupted()) {
+                        Thread.yield();
+                    }
+                    return null;
+                }
+            });
+            mScheduler.getExecutor(lane).execute(task);
+            await(started);
+            assertTrue(task.cancel(true));
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        mScheduler.submit(lane, new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        await(done);
+    }
+}